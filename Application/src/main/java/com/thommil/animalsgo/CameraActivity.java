@@ -115,7 +115,7 @@ public class CameraActivity extends FragmentActivity implements CameraRenderer.O
         //Log.d(TAG, "setReady - "+width+", "+height);
         mRenderer = new AGCameraRenderer(this, surface, width, height);
         mCameraFragment.setOnViewportSizeUpdatedListener(mRenderer);
-        mCameraFragment.setOnCaptureCompletedListener(mRenderer);
+        mCameraFragment.setCaptureDataRing(mRenderer.getCaptureDataRing());
         mRenderer.setCameraFragment(mCameraFragment);
         mRenderer.setOnRendererReadyListener(this);
         mRenderer.start();
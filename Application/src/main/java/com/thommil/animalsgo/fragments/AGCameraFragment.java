@@ -16,12 +16,12 @@ import android.hardware.camera2.CaptureResult;
 import android.hardware.camera2.TotalCaptureResult;
 import android.hardware.camera2.params.Face;
 import android.support.annotation.NonNull;
-import android.support.v4.util.Pools;
 import android.util.Log;
 import android.view.MotionEvent;
 import android.view.View;
 
 import com.androidexperiments.shadercam.fragments.CameraFragment;
+import com.thommil.animalsgo.cv.GlobalMotionEstimator;
 
 import java.util.Arrays;
 
@@ -41,7 +41,7 @@ public class AGCameraFragment extends CameraFragment{
     // Mvt detection sensibility (more = less sensible)
     private static final float MOVEMENT_THRESHOLD = 1f;
 
-    private OnCaptureCompletedListener mCaptureCompletedListener;
+    private CaptureDataRing mCaptureDataRing;
 
     private float mMaxZoom;
     private float mCurrentZoom;
@@ -50,6 +50,9 @@ public class AGCameraFragment extends CameraFragment{
 
     private Sensor mAccelerometer;
 
+    // Image based motion, fused with the accelerometer in movementState
+    private GlobalMotionEstimator mMotionEstimator;
+
     @Override
     public void onPause() {
         super.onPause();
@@ -77,7 +80,7 @@ public class AGCameraFragment extends CameraFragment{
             mCurrentZoomRect = new Rect(mActiveArraySize);
 
             if(mCaptureCallback == null){
-                this.setCaptureCallback(new CaptureCallback(mCaptureCompletedListener));
+                this.setCaptureCallback(new CaptureCallback(mCaptureDataRing, mMotionEstimator));
             }
 
             if(mAccelerometer != null) {
@@ -117,8 +120,26 @@ public class AGCameraFragment extends CameraFragment{
         this.mSurfaceView.setOnTouchListener((CaptureCallback)mCaptureCallback);
     }
 
-    public void setOnCaptureCompletedListener(OnCaptureCompletedListener onCaptureCompletedListener) {
-        this.mCaptureCompletedListener = onCaptureCompletedListener;
+    /**
+     * Sets the ring receiving the capture events, must be called before the camera is opened
+     *
+     * @param captureDataRing The ring drained by a single consumer thread
+     */
+    public void setCaptureDataRing(CaptureDataRing captureDataRing) {
+        this.mCaptureDataRing = captureDataRing;
+    }
+
+    /**
+     * Sets the estimator of the camera stream motion, the scene is moving if the accelerometer
+     * or the estimator detect a motion
+     *
+     * @param motionEstimator The estimator updated with the analysis stream, null to use the accelerometer only
+     */
+    public void setMotionEstimator(GlobalMotionEstimator motionEstimator) {
+        this.mMotionEstimator = motionEstimator;
+        if(mCaptureCallback != null) {
+            ((CaptureCallback)mCaptureCallback).mMotionEstimator = motionEstimator;
+        }
     }
 
     public void setZoom(float zoomFactor){
@@ -129,34 +150,36 @@ public class AGCameraFragment extends CameraFragment{
     /**
      * Decicated CameraCaptureSession.CaptureCallback used for QoS and event dispatch to Renderer
      *
+     * Events are published in a {@link CaptureDataRing}, nothing is allocated per frame.
      */
     private static class CaptureCallback extends CameraCaptureSession.CaptureCallback implements View.OnTouchListener, SensorEventListener{
 
-        final private OnCaptureCompletedListener mCaptureCompletedListener;
+        final private CaptureDataRing mCaptureDataRing;
 
-        private static final int POOL_SIZE = 10;
-        private static final Pools.SimplePool<CaptureData> captureDataPool = new Pools.SimplePool<>(POOL_SIZE );
+        // Event being built, camera states not reported in a result keep their previous value
+        final private CaptureData mCaptureData = new CaptureData();
 
-        static{
-            for(int i =0; i < POOL_SIZE; i++){
-                captureDataPool.release(new CaptureData());
-            }
-        }
+        // Set from another thread, the estimator itself is updated from the analysis thread
+        private volatile GlobalMotionEstimator mMotionEstimator;
 
-        private boolean isTouched = false;
+        // Set from the UI thread
+        private volatile boolean isTouched = false;
 
         private int frameCount = 0;
 
-        private boolean bIsmoving = false;
+        // Set from the sensor thread
+        private volatile boolean bIsmoving = false;
 
+        // Written from the sensor thread, copied under its lock
         final private float[] mGravity = new float[3];
         private float mAccel;
         private float mAccelCurrent;
         private float mAccelLast;
 
 
-        public CaptureCallback(final OnCaptureCompletedListener captureCompletedListener) {
-            this.mCaptureCompletedListener = captureCompletedListener;
+        public CaptureCallback(final CaptureDataRing captureDataRing, final GlobalMotionEstimator motionEstimator) {
+            this.mCaptureDataRing = captureDataRing;
+            this.mMotionEstimator = motionEstimator;
             mAccel = 0.00f;
             mAccelCurrent = SensorManager.GRAVITY_EARTH;
             mAccelLast = SensorManager.GRAVITY_EARTH;
@@ -164,10 +187,14 @@ public class AGCameraFragment extends CameraFragment{
 
         @Override
         public void onSensorChanged(SensorEvent sensorEvent) {
-            System.arraycopy(sensorEvent.values, 0, mGravity, 0, 3); ;
-            final float x = mGravity[0];
-            final float y = mGravity[1];
-            final float z = mGravity[2];
+            final float x = sensorEvent.values[0];
+            final float y = sensorEvent.values[1];
+            final float z = sensorEvent.values[2];
+            synchronized (mGravity) {
+                mGravity[0] = x;
+                mGravity[1] = y;
+                mGravity[2] = z;
+            }
             mAccelLast = mAccelCurrent;
             mAccelCurrent = (float)Math.sqrt(x*x + y*y + z*z);
             final float delta = Math.abs(mAccelCurrent - mAccelLast);
@@ -192,17 +219,23 @@ public class AGCameraFragment extends CameraFragment{
             super.onCaptureCompleted(session, request, result);
 
             if(frameCount > AGCameraFragment.CAPTURE_UPDATE_FREQUENCY) {
-                //Listener
-                CaptureData captureData = captureDataPool.acquire();
+                final CaptureData captureData = mCaptureData;
+                captureData.frameNumber = result.getFrameNumber();
 
                 //Camera state
                 final Integer afValue = result.get(CaptureResult.CONTROL_AF_STATE);
+                final Integer aeValue = result.get(CaptureResult.CONTROL_AE_STATE);
+                final Integer awbValue = result.get(CaptureResult.CONTROL_AWB_STATE);
+                final Integer lensValue = result.get(CaptureResult.LENS_STATE);
+                captureData.afState = (afValue != null) ? afValue : CaptureData.STATE_UNKNOWN;
+                captureData.aeState = (aeValue != null) ? aeValue : CaptureData.STATE_UNKNOWN;
+                captureData.awbState = (awbValue != null) ? awbValue : CaptureData.STATE_UNKNOWN;
+                captureData.lensState = (lensValue != null) ? lensValue : CaptureData.STATE_UNKNOWN;
                 if (afValue != null) {
                     switch (afValue) {
                         case CaptureResult.CONTROL_AF_STATE_INACTIVE:
                         case CaptureResult.CONTROL_AF_STATE_PASSIVE_FOCUSED:
                         case CaptureResult.CONTROL_AF_STATE_FOCUSED_LOCKED:
-                            final Integer aeValue = result.get(CaptureResult.CONTROL_AE_STATE);
                             if (aeValue != null) {
                                 switch (aeValue) {
                                     case CaptureResult.CONTROL_AE_STATE_INACTIVE:
@@ -225,7 +258,6 @@ public class AGCameraFragment extends CameraFragment{
                             }
 
                             if (captureData.cameraState) {
-                                final Integer awbValue = result.get(CaptureResult.CONTROL_AWB_STATE);
                                 if (awbValue != null) {
                                     switch (awbValue) {
                                         case CaptureResult.CONTROL_AWB_STATE_INACTIVE:
@@ -242,7 +274,6 @@ public class AGCameraFragment extends CameraFragment{
                             }
 
                             if (captureData.cameraState) {
-                                final Integer lensValue = result.get(CaptureResult.LENS_STATE);
                                 if (lensValue != null) {
                                     switch (lensValue) {
                                         case CaptureResult.LENS_STATE_STATIONARY:
@@ -264,17 +295,24 @@ public class AGCameraFragment extends CameraFragment{
                     captureData.cameraState = true;
                 }
 
-                //Movement
-                captureData.movementState = bIsmoving ? false : true;
+                //Movement (device from accelerometer, slow pans and subject from images)
+                final GlobalMotionEstimator motionEstimator = mMotionEstimator;
+                captureData.movementState = (bIsmoving || (motionEstimator != null && motionEstimator.isMoving())) ? false : true;
 
                 //Touch
                 captureData.touchState = isTouched ? false : true;
 
                 //Gravity
-                System.arraycopy(mGravity, 0, captureData.gravity, 0, 3); ;
+                synchronized (mGravity) {
+                    System.arraycopy(mGravity, 0, captureData.gravity, 0, 3);
+                }
 
-                mCaptureCompletedListener.onCaptureDataReceived(captureData);
-                captureDataPool.release(captureData);
+                //Dropped if the consumer is late
+                final CaptureData slot = mCaptureDataRing.claim();
+                if(slot != null) {
+                    slot.set(captureData);
+                    mCaptureDataRing.publish();
+                }
                 frameCount=0;
             }
             else {
@@ -283,28 +321,47 @@ public class AGCameraFragment extends CameraFragment{
         }
     }
 
-    /**
-     * Listener receiving capture events
-     */
-    public interface OnCaptureCompletedListener {
-
-        // Called each time a frame has been processed and received current captureData
-        void onCaptureDataReceived(final CaptureData captureData);
-    }
-
     /**
      * Encapsulate needed/simplified infos from a CaptureResult
      */
     public static class CaptureData {
 
+        // Raw state not reported by the camera
+        public static final int STATE_UNKNOWN = -1;
+
         public boolean cameraState = false;
         public boolean movementState = false;
         public boolean lightState = false;
         public boolean touchState = false;
         public float[] gravity = new float[3];
 
+        // Raw CaptureResult states
+        public int afState = STATE_UNKNOWN;
+        public int aeState = STATE_UNKNOWN;
+        public int awbState = STATE_UNKNOWN;
+        public int lensState = STATE_UNKNOWN;
+
+        public long frameNumber;
+
+        /**
+         * Copies all the fields of another instance
+         */
+        public void set(final CaptureData other){
+            cameraState = other.cameraState;
+            movementState = other.movementState;
+            lightState = other.lightState;
+            touchState = other.touchState;
+            System.arraycopy(other.gravity, 0, gravity, 0, 3);
+            afState = other.afState;
+            aeState = other.aeState;
+            awbState = other.awbState;
+            lensState = other.lensState;
+            frameNumber = other.frameNumber;
+        }
+
         public String toString(){
-            return "[CAM:" +cameraState+", MVT:"+movementState+", LGT:"+lightState+", TCH:"+touchState+", GRV :"+ Arrays.toString(gravity)+"]";
+            return "[#"+frameNumber+", CAM:" +cameraState+", MVT:"+movementState+", LGT:"+lightState+", TCH:"+touchState
+                    +", AF:"+afState+", AE:"+aeState+", AWB:"+awbState+", LENS:"+lensState+", GRV :"+ Arrays.toString(gravity)+"]";
         }
     }
 }
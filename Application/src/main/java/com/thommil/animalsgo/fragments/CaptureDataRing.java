@@ -0,0 +1,123 @@
+package com.thommil.animalsgo.fragments;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Lock-free single producer / single consumer ring of {@link AGCameraFragment.CaptureData} events.
+ *
+ * Slots are allocated once, the producer (camera callback thread) fills a claimed slot then
+ * publishes it, the consumer (GL thread) copies published events into its own instance. Events
+ * are dropped and counted when the ring is full.
+ */
+public class CaptureDataRing {
+
+    private final AGCameraFragment.CaptureData[] mSlots;
+    private final int mMask;
+
+    // Next slot to read, only written by consumer
+    private final AtomicLong mHead = new AtomicLong();
+    // Next slot to write, only written by producer
+    private final AtomicLong mTail = new AtomicLong();
+
+    // Last known positions of the other side, avoid reading the shared counters on each call
+    private long mProducerHead;
+    private long mConsumerTail;
+
+    // Statistics, only written by producer
+    private final AtomicLong mDropped = new AtomicLong();
+    private volatile int mPeakSize;
+
+    /**
+     * Constructor
+     *
+     * @param capacity The number of slots, power of 2
+     */
+    public CaptureDataRing(final int capacity) {
+        if(capacity < 1 || Integer.bitCount(capacity) != 1){
+            throw new IllegalArgumentException("capacity must be a power of 2");
+        }
+        mSlots = new AGCameraFragment.CaptureData[capacity];
+        for(int i = 0; i < capacity; i++){
+            mSlots[i] = new AGCameraFragment.CaptureData();
+        }
+        mMask = capacity - 1;
+    }
+
+    /**
+     * Gets the next slot to fill, producer only. The slot content is the one of an old event.
+     *
+     * @return The slot to fill then {@link #publish()}, null if the ring is full
+     */
+    public AGCameraFragment.CaptureData claim() {
+        final long tail = mTail.get();
+        if(tail - mProducerHead >= mSlots.length){
+            mProducerHead = mHead.get();
+            if(tail - mProducerHead >= mSlots.length){
+                mDropped.incrementAndGet();
+                return null;
+            }
+        }
+        return mSlots[(int) tail & mMask];
+    }
+
+    /**
+     * Makes the last claimed slot visible to the consumer, producer only
+     */
+    public void publish() {
+        final long tail = mTail.get() + 1;
+        mTail.lazySet(tail);
+        final int size = (int) (tail - mHead.get());
+        if(size > mPeakSize){
+            mPeakSize = size;
+        }
+    }
+
+    /**
+     * Copies the oldest published event, consumer only
+     *
+     * @param target The instance receiving the event
+     * @return false if the ring is empty
+     */
+    public boolean poll(final AGCameraFragment.CaptureData target) {
+        final long head = mHead.get();
+        if(head >= mConsumerTail){
+            mConsumerTail = mTail.get();
+            if(head >= mConsumerTail){
+                return false;
+            }
+        }
+        target.set(mSlots[(int) head & mMask]);
+        mHead.lazySet(head + 1);
+        return true;
+    }
+
+    /**
+     * @return The number of published events not consumed yet, can be called from any thread
+     */
+    public int size() {
+        // Head first so the difference is never negative
+        final long head = mHead.get();
+        return (int) (mTail.get() - head);
+    }
+
+    /**
+     * @return The number of slots
+     */
+    public int getCapacity() {
+        return mSlots.length;
+    }
+
+    /**
+     * @return The highest queue depth seen by the producer
+     */
+    public int getPeakSize() {
+        return mPeakSize;
+    }
+
+    /**
+     * @return The number of events dropped because the ring was full
+     */
+    public long getDropped() {
+        return mDropped.get();
+    }
+}
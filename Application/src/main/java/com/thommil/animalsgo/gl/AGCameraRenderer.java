@@ -1,10 +1,10 @@
 package com.thommil.animalsgo.gl;
 
 import android.content.Context;
-import android.opengl.GLES20;
 import android.os.Handler;
 import android.os.Looper;
 import android.os.Message;
+import android.support.v4.util.Pools;
 import android.util.Log;
 import android.util.Size;
 import android.view.MotionEvent;
@@ -13,30 +13,125 @@ import android.view.View;
 
 import com.androidexperiments.shadercam.gl.CameraRenderer;
 import com.androidexperiments.shadercam.gl.GlUtil;
+import com.androidexperiments.shadercam.gl.LumaPass;
+import com.androidexperiments.shadercam.gl.PixelReader;
+import com.thommil.animalsgo.cv.FrameFormat;
+import com.thommil.animalsgo.cv.ImageFrame;
+import com.thommil.animalsgo.cv.ImageFramePool;
+import com.thommil.animalsgo.cv.SceneChangeDetector;
 import com.thommil.animalsgo.fragments.AGCameraFragment;
+import com.thommil.animalsgo.fragments.CaptureDataRing;
 import com.thommil.animalsgo.opencv.SnapshotValidator;
 
-import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * Dedicated CameraRenderer with additional features :
  *  - HUD
+ *  - Snapshots analysis, skipped while the captured region does not change
  *
  */
-public class AGCameraRenderer extends CameraRenderer implements AGCameraFragment.OnCaptureCompletedListener, View.OnTouchListener {
+public class AGCameraRenderer extends CameraRenderer implements View.OnTouchListener {
 
     private static final String TAG = "A_GO/AGCameraRenderer";
 
+    // Sharpness score (0-100) a snapshot must be above to be accepted
     private static final int SNAPSHOT_SCORE_THRESHOLD = 70;
 
+    // Number of snapshots which can be in flight at the same time
+    private static final int SNAPSHOT_POOL_SIZE = 3;
+
+    // Side of the HUD capture square relative to the smallest surface side
+    private static final float HUD_SQUARE_RATIO = 0.8f;
+
+    // Capture modes
+    public final static int CAPTURE_MODE_FULL = 0x00;
+    public final static int CAPTURE_MODE_ROI = 0x01;
+
+    // Capture sources
+    public final static int CAPTURE_SOURCE_RENDER = 0x00;
+    public final static int CAPTURE_SOURCE_STREAM = 0x01;
+
+    // Capture events waiting for the next frame, events are sent every few camera frames
+    private static final int CAPTURE_RING_SIZE = 8;
+
+    // Region downscale factor of the luma pre-pass
+    private static final int LUMA_DOWNSCALE = 4;
+
+    // Interval in ns between 2 thumbnails read in preview for the noise floor
+    private static final long THUMBNAIL_SAMPLE_INTERVAL = 200000000L;
+
     private final Handler mainHandler;
 
     private final SnapshotValidator snapshotValidator;
 
-    private final SnapshotValidator.Snapshot snapshotInstance;
+    // Only accessed from GL thread, snapshots come back with the validator verdict
+    private Pools.SimplePool<SnapshotValidator.Snapshot> mSnapshotPool;
+
+    // Snapshots of the current pool, older ones are dropped on release
+    private final SnapshotValidator.Snapshot[] mSnapshots = new SnapshotValidator.Snapshot[SNAPSHOT_POOL_SIZE];
+
+    // Frames of dropped snapshots, reused when the capture setup changes back
+    private final ImageFramePool mFramePool = new ImageFramePool(SNAPSHOT_POOL_SIZE);
+
+    // Capture setup, written from the UI thread then applied on the GL thread by setupSnapshots()
+    private volatile int mCaptureSource = CAPTURE_SOURCE_RENDER;
+
+    private volatile int mCaptureMode = CAPTURE_MODE_ROI;
+
+    private volatile int mCaptureFormat = FrameFormat.RGBA8;
+
+    private volatile int mViewportWidth;
+    private volatile int mViewportHeight;
 
+    // Rebuilds the snapshots pool on the GL thread
+    private final Runnable mSetupSnapshotsTask = new Runnable() {
+        @Override
+        public void run() {
+            setupSnapshots();
+        }
+    };
+
+    // Back to preview on the GL thread, snapshots in flight are cancelled
+    private final Runnable mResumePreviewTask = new Runnable() {
+        @Override
+        public void run() {
+            mState = STATE_PREVIEW;
+            cancelSnapshots();
+            requestRender();
+        }
+    };
+
+    // Captured region in surface pixels (GL bottom-left origin)
+    private int mSnapshotX;
+    private int mSnapshotY;
+    // Snapshots data size in pixels
+    private int mSnapshotWidth;
+    private int mSnapshotHeight;
+
+    // Texture coordinates of the captured region for the luma pre-pass
+    private final FloatBuffer mRegionTexCoords = GlUtil.createFloatBuffer(new float[8]);
+
+    // Filled by the camera callbacks, drained once per frame
+    private final CaptureDataRing mCaptureDataRing = new CaptureDataRing(CAPTURE_RING_SIZE);
+
+    // Last capture event, only accessed from GL thread
     private final AGCameraFragment.CaptureData mCurrentCaptureData;
 
+    // Luma thumbnail of the captured region compared to the last analyzed one, only accessed from GL thread
+    private final SceneChangeDetector mSceneChangeDetector = new SceneChangeDetector();
+    private final ImageFrame mThumbnail = ImageFrame.allocate(SceneChangeDetector.THUMBNAIL_SIZE,
+            SceneChangeDetector.THUMBNAIL_SIZE, FrameFormat.Y8);
+    private PixelReader mThumbnailReader;
+    private boolean mThumbnailPending;
+    private long mThumbnailTimestamp;
+    private boolean mSceneChanged;
+    private volatile float mLastSceneDifference = Float.NaN;
+
+    // Analyses not started because the scene has not changed since the last one
+    private final AtomicLong mSkippedAnalyses = new AtomicLong();
+
     public final static int STATE_PREVIEW = 0x00;
     public final static int STATE_START_ANALYZE = 0x01;
     public final static int STATE_ANALYZING = 0X02;
@@ -46,13 +141,16 @@ public class AGCameraRenderer extends CameraRenderer implements AGCameraFragment
 
     private int mState;
 
+    // Timestamp of the frame which started the current analysis, older verdicts are stale
+    private long mAnalysisTimestamp;
+
     public AGCameraRenderer(Context context, Surface surface, int width, int height) {
         super(context, surface, width, height);
         //Log.d(TAG, "AGCameraRenderer");
         mState = STATE_PREVIEW;
         mainHandler = new Handler(Looper.getMainLooper());
-        snapshotValidator = new SnapshotValidator();
-        snapshotInstance = new SnapshotValidator.Snapshot();
+        //Stages reject scores under their threshold
+        snapshotValidator = new SnapshotValidator(SNAPSHOT_SCORE_THRESHOLD + 1);
         mCurrentCaptureData = new AGCameraFragment.CaptureData();
         snapshotValidator.start();
     }
@@ -63,14 +161,31 @@ public class AGCameraRenderer extends CameraRenderer implements AGCameraFragment
 
         switch(message.what){
             case SnapshotValidator.ANALYZE :
+                final SnapshotValidator.Snapshot snapshot = (SnapshotValidator.Snapshot) message.obj;
+                final boolean stale = snapshot.timestamp < mAnalysisTimestamp;
+                releaseSnapshot(snapshot);
+                if(stale){
+                    //Log.d(TAG, "Stale verdict ignored");
+                    break;
+                }
+                //Only accepted scenes are skipped, a new analysis is allowed on the same scene otherwise
+                if(message.arg2 != SnapshotValidator.OUTCOME_OK){
+                    mSceneChangeDetector.clearReference();
+                    if(message.arg2 == SnapshotValidator.OUTCOME_CANCELLED) {
+                        //Log.d(TAG, "Cancelled verdict ignored");
+                        break;
+                    }
+                }
                 switch(mState){
                     case STATE_ANALYZING :
-                        if (message.arg1 > SNAPSHOT_SCORE_THRESHOLD) {
+                        if (message.arg2 == SnapshotValidator.OUTCOME_OK) {
                             mState = STATE_CONFIRM_SNAPSHOT;
                         }
                         else{
                             mState = STATE_PREVIEW;
                         }
+                        //Verdict shown without waiting for a new camera frame
+                        requestRender();
                         break;
                 }
                 break;
@@ -78,18 +193,29 @@ public class AGCameraRenderer extends CameraRenderer implements AGCameraFragment
         return true;
     }
 
-    @Override
-    public void onCaptureDataReceived(final AGCameraFragment.CaptureData captureData) {
-        //Log.d(TAG, "onCaptureDataReceived - "+captureData);
+    /**
+     * @return The ring to give to the camera fragment, drained on each frame
+     */
+    public CaptureDataRing getCaptureDataRing() {
+        return mCaptureDataRing;
+    }
+
+    // Applies the capture events received since the previous frame, only the latest one matters
+    private void drainCaptureData(){
+        boolean received = false;
+        while(mCaptureDataRing.poll(mCurrentCaptureData)){
+            received = true;
+        }
+        if(!received){
+            return;
+        }
+        //Log.d(TAG, "drainCaptureData - "+mCurrentCaptureData);
+        final AGCameraFragment.CaptureData captureData = mCurrentCaptureData;
+        snapshotValidator.setSensorData(captureData.gravity);
         //TODO add HUD state and drawing
         switch(mState){
             //Only in PREVIEW
             case STATE_PREVIEW :
-                mCurrentCaptureData.lightState = captureData.lightState;
-                mCurrentCaptureData.movementState = captureData.movementState;
-                mCurrentCaptureData.touchState = captureData.touchState;
-                mCurrentCaptureData.cameraState = captureData.cameraState;
-                System.arraycopy(captureData.gravity, 0, mCurrentCaptureData.gravity, 0, 3);
                 if(captureData.lightState & captureData.movementState & captureData.touchState & captureData.cameraState){
                     mState = STATE_START_ANALYZE;
                 }
@@ -100,7 +226,7 @@ public class AGCameraRenderer extends CameraRenderer implements AGCameraFragment
     @Override
     public boolean onTouch(View view, MotionEvent motionEvent) {
         // TODO Remove mock for UI events
-        mState = STATE_PREVIEW;
+        mHandler.post(mResumePreviewTask);
         mainHandler.post(new Runnable() {
             @Override
             public void run() {
@@ -113,32 +239,208 @@ public class AGCameraRenderer extends CameraRenderer implements AGCameraFragment
     @Override
     public void onViewportSizeUpdated(Size surfaceSize, Size previewSize) {
         super.onViewportSizeUpdated(surfaceSize, previewSize);
-        snapshotInstance.width = surfaceSize.getWidth();
-        snapshotInstance.height = surfaceSize.getHeight();
-        snapshotInstance.data = ByteBuffer.allocateDirect(snapshotInstance.width * snapshotInstance.height * 4);
+        mViewportWidth = surfaceSize.getWidth();
+        mViewportHeight = surfaceSize.getHeight();
+        postSetupSnapshots();
+    }
+
+    /**
+     * Sets the region read back for analysis
+     *
+     * @param captureMode CAPTURE_MODE_FULL for the whole surface, CAPTURE_MODE_ROI for the HUD square only
+     */
+    public void setCaptureMode(final int captureMode){
+        mCaptureMode = captureMode;
+        postSetupSnapshots();
+    }
+
+    /**
+     * Sets where snapshots pixels come from, must be called before the camera is opened
+     *
+     * @param captureSource CAPTURE_SOURCE_RENDER to read back the rendered surface, CAPTURE_SOURCE_STREAM
+     *                      to use the Y plane of the camera analysis stream (no GL readback)
+     */
+    public void setCaptureSource(final int captureSource){
+        mCaptureSource = captureSource;
+        final AGCameraFragment cameraFragment = (AGCameraFragment) mCameraFragment;
+        if(mCaptureSource == CAPTURE_SOURCE_STREAM) {
+            cameraFragment.setOnAnalysisFrameListener(snapshotValidator, new Handler(snapshotValidator.getLooper()));
+            //Stream frames also detect slow pans and moving subjects
+            cameraFragment.setMotionEstimator(snapshotValidator.getMotionEstimator());
+        }
+        else{
+            cameraFragment.setOnAnalysisFrameListener(null, null);
+            cameraFragment.setMotionEstimator(null);
+        }
+        postSetupSnapshots();
+    }
+
+    /**
+     * Sets the pixel format of the snapshots
+     *
+     * @param captureFormat FrameFormat.RGBA8 to read back the rendered pixels, FrameFormat.Y8 to
+     *                      read back a downscaled luma image rendered by the GPU pre-pass
+     */
+    public void setCaptureFormat(final int captureFormat){
+        mCaptureFormat = captureFormat;
+        postSetupSnapshots();
+    }
+
+    // Schedules the snapshots setup on the GL thread once the viewport is known, pending ones are merged
+    private void postSetupSnapshots(){
+        if(mViewportWidth > 0 && mViewportHeight > 0) {
+            mHandler.removeCallbacks(mSetupSnapshotsTask);
+            mHandler.post(mSetupSnapshotsTask);
+        }
+    }
+
+    // Computes the captured region and allocates the snapshots pool accordingly, GL thread only
+    private void setupSnapshots(){
+        //Same setup for the whole pool even if changed meanwhile, a new setup is then pending
+        final int viewportWidth = mViewportWidth;
+        final int viewportHeight = mViewportHeight;
+        final int captureFormat = mCaptureFormat;
+        final int captureSource = mCaptureSource;
+        final int regionWidth;
+        final int regionHeight;
+        if(mCaptureMode == CAPTURE_MODE_ROI){
+            final int side = (int)(Math.min(viewportWidth, viewportHeight) * HUD_SQUARE_RATIO);
+            mSnapshotX = (viewportWidth - side) / 2;
+            mSnapshotY = (viewportHeight - side) / 2;
+            regionWidth = side;
+            regionHeight = side;
+        }
+        else{
+            mSnapshotX = 0;
+            mSnapshotY = 0;
+            regionWidth = viewportWidth;
+            regionHeight = viewportHeight;
+        }
+
+        //Also used for the scene change thumbnail
+        setupRegionTexCoords(viewportWidth, viewportHeight, regionWidth, regionHeight);
+        //New region, next analysis cannot be skipped
+        mSceneChangeDetector.clearReference();
+
+        if(captureFormat == FrameFormat.Y8){
+            //Luma samples are packed 4 by 4 in RGBA texels
+            mSnapshotWidth = (regionWidth / LUMA_DOWNSCALE) & ~(LumaPass.SAMPLES_PER_TEXEL - 1);
+            mSnapshotHeight = regionHeight / LUMA_DOWNSCALE;
+        }
+        else{
+            mSnapshotWidth = regionWidth;
+            mSnapshotHeight = regionHeight;
+        }
+        //Log.d(TAG, "Capture region : " + mSnapshotX + ", " + mSnapshotY + ", " + regionWidth + "x" + regionHeight);
+
+        //Idle snapshots of the previous setup, the ones in flight are recycled on release
+        if(mSnapshotPool != null){
+            SnapshotValidator.Snapshot snapshot;
+            while((snapshot = mSnapshotPool.acquire()) != null){
+                if(snapshot.frame != null) {
+                    mFramePool.release(snapshot.frame);
+                }
+            }
+        }
+
+        final Pools.SimplePool<SnapshotValidator.Snapshot> snapshotPool = new Pools.SimplePool<>(SNAPSHOT_POOL_SIZE);
+        for(int i = 0; i < SNAPSHOT_POOL_SIZE; i++){
+            final SnapshotValidator.Snapshot snapshot = new SnapshotValidator.Snapshot();
+            snapshot.x = mSnapshotX;
+            snapshot.y = mSnapshotY;
+            snapshot.scale = (captureFormat == FrameFormat.Y8) ? LUMA_DOWNSCALE : 1;
+            //Stream snapshots are filled by the validator with frames of the stream size
+            if(captureSource != CAPTURE_SOURCE_STREAM) {
+                snapshot.frame = mFramePool.acquire(mSnapshotWidth, mSnapshotHeight, captureFormat);
+            }
+            snapshotPool.release(snapshot);
+            mSnapshots[i] = snapshot;
+        }
+        mSnapshotPool = snapshotPool;
+    }
+
+    // Maps the captured region on the visible camera texture coordinates (TL, TR, BL, BR)
+    private void setupRegionTexCoords(final int viewportWidth, final int viewportHeight, final int regionWidth, final int regionHeight){
+        final float u0 = textureCoords[0];
+        final float u1 = textureCoords[2];
+        final float v0 = textureCoords[5];
+        final float v1 = textureCoords[1];
+        final float left = u0 + (u1 - u0) * mSnapshotX / viewportWidth;
+        final float right = u0 + (u1 - u0) * (mSnapshotX + regionWidth) / viewportWidth;
+        final float bottom = v0 + (v1 - v0) * mSnapshotY / viewportHeight;
+        final float top = v0 + (v1 - v0) * (mSnapshotY + regionHeight) / viewportHeight;
+        mRegionTexCoords.put(0, left).put(1, top)
+                .put(2, right).put(3, top)
+                .put(4, left).put(5, bottom)
+                .put(6, right).put(7, bottom);
+    }
+
+    // Stops the analysis of all snapshots in flight, tokens are reset when acquired again
+    private void cancelSnapshots(){
+        for(final SnapshotValidator.Snapshot snapshot : mSnapshots) {
+            if(snapshot != null) {
+                snapshot.token.cancel();
+            }
+        }
+    }
+
+    // Gives back a snapshot to the pool, snapshots from a previous capture setup are dropped
+    private void releaseSnapshot(final SnapshotValidator.Snapshot snapshot){
+        for(final SnapshotValidator.Snapshot current : mSnapshots) {
+            if(current == snapshot) {
+                mSnapshotPool.release(snapshot);
+                return;
+            }
+        }
+        if(snapshot.frame != null) {
+            mFramePool.release(snapshot.frame);
+        }
     }
 
     @Override
     public void draw() {
-        logFPS();
+        drainCaptureData();
+        collectSnapshots();
         switch(mState){
             case STATE_PREVIEW :
                 super.draw();
+                //Noise floor history at a few Hz, never when the readback would stall the pipeline
+                if(mSnapshotPool != null && mThumbnailReader.getMode() == PixelReader.MODE_PBO
+                        && (mThumbnailPending || mPreviewTexture.getTimestamp() - mThumbnailTimestamp >= THUMBNAIL_SAMPLE_INTERVAL)) {
+                    sampleThumbnail();
+                }
                 drawHUD();
                 break;
             case STATE_START_ANALYZE :
                 super.draw();
-                final Handler handler = snapshotValidator.getHandler();
-                snapshotInstance.callBackHandler = mHandler;
-                snapshotInstance.data.rewind();
-                //TODO only capture square inside HUD
-                GLES20.glReadPixels(0, 0, snapshotInstance.width, snapshotInstance.height, GLES20.GL_RGBA, GLES20.GL_UNSIGNED_BYTE, snapshotInstance.data);
-                GlUtil.checkGlError("glReadPixels");
-                snapshotInstance.data.rewind();
-                System.arraycopy(mCurrentCaptureData.gravity, 0, snapshotInstance.gravity, 0, 3);
-                handler.sendMessage(handler.obtainMessage(SnapshotValidator.ANALYZE, snapshotInstance));
+                //Pool not set up yet
+                final SnapshotValidator.Snapshot snapshot = (mSnapshotPool != null && isSceneChanged()) ? mSnapshotPool.acquire() : null;
+                //All snapshots in flight, retry on next frame
+                if(snapshot != null) {
+                    mSceneChangeDetector.setReference();
+                    System.arraycopy(mCurrentCaptureData.gravity, 0, snapshot.gravity, 0, 3);
+                    snapshot.token.reset();
+                    mAnalysisTimestamp = mPreviewTexture.getTimestamp();
+                    if(mCaptureSource == CAPTURE_SOURCE_STREAM){
+                        //Filled by the validator with the next stream frame
+                        final Handler handler = snapshotValidator.getHandler();
+                        snapshot.callBackHandler = mHandler;
+                        snapshot.timestamp = mAnalysisTimestamp;
+                        handler.sendMessage(handler.obtainMessage(SnapshotValidator.ARM, snapshot));
+                        mState = STATE_ANALYZING;
+                    }
+                    else if(readSnapshot(snapshot)) {
+                        snapshot.timestamp = mAnalysisTimestamp;
+                        snapshot.frameTimestamp = mAnalysisTimestamp;
+                        mState = STATE_ANALYZING;
+                        //Sync readback is already complete
+                        collectSnapshots();
+                    }
+                    else{
+                        releaseSnapshot(snapshot);
+                    }
+                }
                 drawHUD();
-                mState = STATE_ANALYZING;
                 break;
             case STATE_CONFIRM_SNAPSHOT :
                 drawConfirmSnapshot();
@@ -146,6 +448,82 @@ public class AGCameraRenderer extends CameraRenderer implements AGCameraFragment
         }
     }
 
+    // Reads back the captured region thumbnail and compares it to the last analyzed one once available.
+    // Returns true when a new comparison result is in mSceneChanged.
+    private boolean sampleThumbnail(){
+        if(!mThumbnailPending){
+            drawLumaPass(mRegionTexCoords, SceneChangeDetector.THUMBNAIL_SIZE, SceneChangeDetector.THUMBNAIL_SIZE);
+            mThumbnailPending = mThumbnailReader.readPixels(0, 0, SceneChangeDetector.THUMBNAIL_SIZE / LumaPass.SAMPLES_PER_TEXEL,
+                    SceneChangeDetector.THUMBNAIL_SIZE, mThumbnail.getData(), mThumbnail);
+            mThumbnailTimestamp = mPreviewTexture.getTimestamp();
+            endLumaPass();
+        }
+        if(mThumbnailReader.poll() == null){
+            //Thumbnail lost, read again on next frame
+            if(mThumbnailReader.pollFailed() != null){
+                mThumbnailPending = false;
+            }
+            return false;
+        }
+        mThumbnailPending = false;
+        mSceneChanged = mSceneChangeDetector.hasChanged(mThumbnail, mThumbnailTimestamp);
+        mLastSceneDifference = mSceneChangeDetector.getLastDifference();
+        return true;
+    }
+
+    // Compares the captured region thumbnail to the last analyzed one, back to preview if unchanged.
+    // Returns true once a change is detected, false while the thumbnail is read back.
+    private boolean isSceneChanged(){
+        if(!sampleThumbnail()){
+            return false;
+        }
+        if(mSceneChanged){
+            return true;
+        }
+        mSkippedAnalyses.incrementAndGet();
+        mState = STATE_PREVIEW;
+        return false;
+    }
+
+    // Starts the readback of a snapshot, false if the reader is busy
+    private boolean readSnapshot(final SnapshotValidator.Snapshot snapshot){
+        final ImageFrame frame = snapshot.frame;
+        if(frame.getFormat() == FrameFormat.Y8){
+            drawLumaPass(mRegionTexCoords, frame.getWidth(), frame.getHeight());
+            final boolean started = mPixelReader.readPixels(0, 0, frame.getWidth() / LumaPass.SAMPLES_PER_TEXEL,
+                    frame.getHeight(), frame.getData(), snapshot);
+            endLumaPass();
+            return started;
+        }
+        return mPixelReader.readPixels(snapshot.x, snapshot.y, frame.getWidth(), frame.getHeight(), frame.getData(), snapshot);
+    }
+
+    // Sends snapshots whose readback has completed to the validator
+    private void collectSnapshots(){
+        SnapshotValidator.Snapshot snapshot;
+        while((snapshot = (SnapshotValidator.Snapshot) mPixelReader.poll()) != null){
+            if(mState == STATE_ANALYZING) {
+                snapshot.callBackHandler = mHandler;
+                final SnapshotValidator.Snapshot overwritten = snapshotValidator.submit(snapshot);
+                if(overwritten != null){
+                    releaseSnapshot(overwritten);
+                }
+            }
+            //Analysis cancelled while reading back
+            else{
+                releaseSnapshot(snapshot);
+            }
+        }
+        //Readbacks lost by the GPU, the analysis starts again from the next frame
+        while((snapshot = (SnapshotValidator.Snapshot) mPixelReader.pollFailed()) != null){
+            releaseSnapshot(snapshot);
+            if(mState == STATE_ANALYZING){
+                mSceneChangeDetector.clearReference();
+                mState = STATE_START_ANALYZE;
+            }
+        }
+    }
+
     private void drawHUD(){
 
         //TODO HUD
@@ -161,6 +539,33 @@ public class AGCameraRenderer extends CameraRenderer implements AGCameraFragment
         });
     }
 
+    /**
+     * @return The number of analyses not started because the scene had not changed since the last one
+     */
+    public long getSkippedAnalyses(){
+        return mSkippedAnalyses.get();
+    }
+
+    /**
+     * @return The difference in luma levels between the last thumbnail and the last analyzed one, NaN if none
+     */
+    public float getLastSceneDifference(){
+        return mLastSceneDifference;
+    }
+
+    @Override
+    protected void setupPixelReader() {
+        super.setupPixelReader();
+        mThumbnailReader = new PixelReader(mGl, mEglCore.getGlVersion());
+    }
+
+    @Override
+    protected void deinitGLComponents() {
+        mThumbnailReader.release();
+        mThumbnailPending = false;
+        super.deinitGLComponents();
+    }
+
     @Override
     public void shutdown() {
         //Log.d(TAG, "shutdown");
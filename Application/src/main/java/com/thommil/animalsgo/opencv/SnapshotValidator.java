@@ -7,28 +7,146 @@ import android.os.Message;
 import android.support.v4.util.Pools;
 import android.util.Log;
 
+import com.androidexperiments.shadercam.fragments.CameraFragment;
+import com.thommil.animalsgo.cv.AnalysisEngine;
+import com.thommil.animalsgo.cv.BlankFrameStage;
+import com.thommil.animalsgo.cv.BurstSelector;
+import com.thommil.animalsgo.cv.CancellationToken;
+import com.thommil.animalsgo.cv.DHash;
+import com.thommil.animalsgo.cv.ExposureStage;
+import com.thommil.animalsgo.cv.FrameFormat;
+import com.thommil.animalsgo.cv.FrameRing;
+import com.thommil.animalsgo.cv.GlobalMotionEstimator;
+import com.thommil.animalsgo.cv.ImageFrame;
+import com.thommil.animalsgo.cv.ImageFramePool;
+import com.thommil.animalsgo.cv.LumaHistogram;
+import com.thommil.animalsgo.cv.LumaPlane;
+import com.thommil.animalsgo.cv.SharpnessScorer;
+import com.thommil.animalsgo.cv.SharpnessStage;
+import com.thommil.animalsgo.cv.ValidationCascade;
+import com.thommil.animalsgo.cv.ValidationFrame;
+import com.thommil.animalsgo.cv.VerdictCache;
 import com.thommil.animalsgo.fragments.AGCameraFragment;
 
 import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
 
 /**
  * OpenCV analyzer to validate a camera snaphot
+ *
+ * Snapshots are either read back by the renderer and submitted or armed (ARM) and filled from the
+ * camera analysis stream. Both paths keep only the latest request, an unprocessed one is overwritten
+ * and counted as dropped.
+ *
+ * Stream frames are kept downscaled in a ring with their timestamp and gravity, an armed snapshot
+ * gets the sharpest and best exposed frame of the ring once a few frames following the request
+ * have been received. Consecutive stream frames also give the camera and subject motion.
+ *
+ * Snapshots go through a cascade of stages (exposure, blank frame, sharpness), the first failing stage
+ * rejects the snapshot. Verdicts are ANALYZE messages with the lowest stage score in arg1 and the outcome in arg2.
+ *
+ * Snapshots whose difference hash is close to a recently accepted one, with the same exposure and at least as
+ * sharp at the hash level, skip the sharpness stage : only the exposure and blank frame stages are run again.
+ * The hash and the stages share the downscaled levels of the snapshot frame.
+ *
+ * Each snapshot holds a cancellation token checked between stages and stripes, stages can be given a time budget.
  */
-public class SnapshotValidator extends HandlerThread implements Handler.Callback {
+public class SnapshotValidator extends HandlerThread implements Handler.Callback, CameraFragment.OnAnalysisFrameListener {
 
     private static final String TAG = "A_GO/SnapshotValidator";
     private static final String THREAD_NAME = "SnapshotValidator";
 
     public static final int ANALYZE = 1;
+    public static final int ARM = 2;
+
+    // Verdict outcomes
+    public static final int OUTCOME_OK = ValidationCascade.OUTCOME_ACCEPTED;
+    public static final int OUTCOME_REJECTED = ValidationCascade.OUTCOME_REJECTED;
+    public static final int OUTCOME_CANCELLED = ValidationCascade.OUTCOME_CANCELLED;
+    public static final int OUTCOME_TIMED_OUT = ValidationCascade.OUTCOME_TIMED_OUT;
 
     private Handler mHandler;
 
+    // Latest submitted snapshot not yet analyzed (single slot mailbox)
+    private final AtomicReference<Snapshot> mLatestSnapshot = new AtomicReference<>();
+
+    // Snapshot waiting for the next analysis stream frames, only accessed from validator thread
+    private Snapshot mArmedSnapshot;
+    private int mArmedFramesLeft;
+
+    // Number of stream frames kept for burst selection
+    private static final int BURST_RING_SIZE = 8;
+
+    // Number of stream frames following a request included in the burst
+    private static final int BURST_FRAMES_AFTER = 2;
+
+    // Ring frames size limit in pixels (1 byte each in Y8), stream frames are downscaled until they fit
+    private static final int BURST_FRAME_MAX_BYTES = 320 * 240;
+
+    // Last stream frames, only accessed from validator thread
+    private final FrameRing mFrameRing = new FrameRing(BURST_RING_SIZE, BURST_FRAME_MAX_BYTES);
+    private final BurstSelector mBurstSelector = new BurstSelector(BURST_RING_SIZE);
+
+    // Camera and subject motion between consecutive stream frames, only updated from validator thread
+    private final GlobalMotionEstimator mMotionEstimator = new GlobalMotionEstimator();
+
+    // Gap between 2 stream frames in ns after which motion estimation restarts
+    private static final long MOTION_MAX_FRAME_GAP = 200000000L;
+    private long mLastFrameTimestamp;
+
+    // Frames of stream snapshots, resized when the stream size changes
+    private final ImageFramePool mFramePool = new ImageFramePool();
+
+    // Last gravity received from sensors
+    private final float[] mGravity = new float[3];
+
+    // Statistics
+    private final AtomicLong mDroppedFrames = new AtomicLong();
+    private final AtomicLong mProcessedFrames = new AtomicLong();
+
+    // Analysis workers, one per core
+    private final AnalysisEngine mAnalysisEngine = new AnalysisEngine(Runtime.getRuntime().availableProcessors());
+
+    // Cheapest stages first, only accessed from validator thread
+    private final ValidationCascade mCascade;
+    private final ValidationFrame mValidationFrame = new ValidationFrame(mAnalysisEngine);
+    private final ValidationCascade.Result mValidationResult = new ValidationCascade.Result();
+
+    // Stages run again on frames matching a cached verdict, shared with mCascade
+    private final ValidationCascade mRecheckCascade;
+
+    // Verdicts of recently accepted frames by perceptual hash
+    private final DHash mDHash = new DHash();
+    private final VerdictCache mVerdictCache = new VerdictCache();
+
+    // Sharpness of the hashed level, compared to the cached one as the hash does not see blur
+    private final SharpnessScorer mHashSharpnessScorer = new SharpnessScorer(1, SharpnessScorer.DEFAULT_HALF_SCORE_VARIANCE);
+
     /**
      * Constructor
      */
     public SnapshotValidator() {
+        this(SharpnessStage.DEFAULT_REJECT_THRESHOLD);
+    }
+
+    /**
+     * Constructor
+     *
+     * @param sharpnessThreshold The sharpness score (0-100) under which a snapshot is rejected
+     */
+    public SnapshotValidator(final int sharpnessThreshold) {
         super(THREAD_NAME);
         //Log.d(TAG, "SnapshotValidator");
+        final ExposureStage exposureStage = new ExposureStage();
+        final BlankFrameStage blankFrameStage = new BlankFrameStage();
+        mCascade = new ValidationCascade()
+                .add(exposureStage)
+                .add(blankFrameStage)
+                .add(new SharpnessStage(sharpnessThreshold));
+        mRecheckCascade = new ValidationCascade()
+                .add(exposureStage)
+                .add(blankFrameStage);
     }
 
     @Override
@@ -39,37 +157,270 @@ public class SnapshotValidator extends HandlerThread implements Handler.Callback
         mHandler = new Handler(getLooper(), this);
     }
 
+    @Override
+    public void run() {
+        super.run();
+        //Looper has quit, no analysis can be running anymore
+        mAnalysisEngine.shutdown();
+    }
+
     @Override
     public boolean handleMessage(Message message) {
         //Log.d(TAG, "handleMessage - " + message);
-        final Snapshot snapshot = (Snapshot) message.obj;
-        validateSnaphot(snapshot);
+        switch(message.what){
+            case ANALYZE :
+                final Snapshot snapshot = mLatestSnapshot.getAndSet(null);
+                //Already taken by a previous message
+                if(snapshot != null) {
+                    validateSnaphot(snapshot);
+                }
+                break;
+            case ARM :
+                //Previous request not served, give it back unscored
+                if(mArmedSnapshot != null){
+                    mDroppedFrames.incrementAndGet();
+                    sendVerdict(mArmedSnapshot, 0, OUTCOME_CANCELLED);
+                }
+                mArmedSnapshot = (Snapshot) message.obj;
+                mArmedFramesLeft = BURST_FRAMES_AFTER;
+                break;
+        }
         return true;
     }
 
-    //TODO Implementation
+    /**
+     * Submits a snapshot for analysis, overwriting the previous one if not analyzed yet.
+     *
+     * The verdict is sent to snapshot.callBackHandler as an ANALYZE message with the score in arg1,
+     * the outcome in arg2 and the snapshot in obj.
+     *
+     * @param snapshot The snapshot to analyze
+     * @return The overwritten snapshot, given back to the caller without verdict, or null
+     */
+    public Snapshot submit(final Snapshot snapshot){
+        final Snapshot previous = mLatestSnapshot.getAndSet(snapshot);
+        if(previous == null){
+            mHandler.sendEmptyMessage(ANALYZE);
+        }
+        else{
+            mDroppedFrames.incrementAndGet();
+        }
+        return previous;
+    }
+
+    /**
+     * Updates the sensors data stored with the next stream frames, can be called from any thread
+     *
+     * @param gravity The gravity vector
+     */
+    public void setSensorData(final float[] gravity){
+        synchronized (mGravity) {
+            System.arraycopy(gravity, 0, mGravity, 0, 3);
+        }
+    }
+
+    @Override
+    public void onAnalysisFrame(final ByteBuffer plane, final int width, final int height, final int rowStride, final long timestamp) {
+        //Copy first so the image is closed before the analysis
+        final int scale = pushFrame(plane, width, height, rowStride, timestamp);
+        updateMotion(mFrameRing.get(0));
+
+        final Snapshot snapshot = mArmedSnapshot;
+        if(snapshot == null){
+            return;
+        }
+        if(snapshot.token.isCancelled()){
+            mArmedSnapshot = null;
+            sendVerdict(snapshot, 0, OUTCOME_CANCELLED);
+            return;
+        }
+        if(--mArmedFramesLeft > 0){
+            return;
+        }
+        mArmedSnapshot = null;
+
+        final FrameRing.Frame frame = mFrameRing.get(mBurstSelector.select(mAnalysisEngine, mFrameRing));
+        //Log.d(TAG, "Burst frame : " + frame.timestamp + " for request " + snapshot.timestamp);
+        final ImageFrame image = frame.image;
+        if(snapshot.frame == null || snapshot.frame.getCapacity() < FrameFormat.byteSize(image.getFormat(), image.getWidth(), image.getHeight())){
+            if(snapshot.frame != null) {
+                mFramePool.release(snapshot.frame);
+            }
+            snapshot.frame = mFramePool.acquire(image.getWidth(), image.getHeight(), image.getFormat());
+        }
+        else{
+            snapshot.frame.wrap(snapshot.frame.getData(), image.getWidth(), image.getHeight(), image.getFormat());
+        }
+        image.copyTo(snapshot.frame);
+        snapshot.x = 0;
+        snapshot.y = 0;
+        snapshot.scale = scale;
+        snapshot.frameTimestamp = frame.timestamp;
+        System.arraycopy(frame.gravity, 0, snapshot.gravity, 0, 3);
+        validateSnaphot(snapshot);
+    }
+
+    // Stores a downscaled stream frame in the ring, returns the downscale factor
+    private int pushFrame(final ByteBuffer plane, final int width, final int height, final int rowStride, final long timestamp){
+        int scale = 2;
+        while((width / scale) * (height / scale) > BURST_FRAME_MAX_BYTES){
+            scale++;
+        }
+        final FrameRing.Frame frame = mFrameRing.push();
+        LumaPlane.downscale(plane, width, height, rowStride, scale, frame.data);
+        frame.image.wrap(frame.data, width / scale, height / scale, FrameFormat.Y8);
+        frame.timestamp = timestamp;
+        synchronized (mGravity) {
+            System.arraycopy(mGravity, 0, frame.gravity, 0, 3);
+        }
+        return scale;
+    }
+
+    // Estimates the motion since the previous stream frame
+    private void updateMotion(final FrameRing.Frame frame){
+        if(frame.timestamp - mLastFrameTimestamp > MOTION_MAX_FRAME_GAP){
+            mMotionEstimator.reset();
+        }
+        mLastFrameTimestamp = frame.timestamp;
+        if(frame.image.getWidth() >= GlobalMotionEstimator.WORK_WIDTH && frame.image.getHeight() >= GlobalMotionEstimator.WORK_HEIGHT){
+            mMotionEstimator.update(frame.image);
+            //Log.d(TAG, "Motion : " + mMotionEstimator.getDx() + ", " + mMotionEstimator.getDy() + " (" + mMotionEstimator.getConfidence() + ")");
+        }
+    }
+
     protected void validateSnaphot(final Snapshot snapshot){
         //Log.d(TAG, "validateSnaphot");
-        snapshot.callBackHandler.sendMessage(snapshot.callBackHandler.obtainMessage(ANALYZE, 100, 100));
+        mValidationFrame.set(snapshot.frame, snapshot.token);
+
+        //Hash the smallest pyramid level covering the hash samples, null if already stopped
+        final ImageFrame hashLevel = mValidationFrame.getLevel(DHash.SAMPLES_WIDTH, DHash.SAMPLES_HEIGHT);
+        final LumaHistogram.Histogram histogram = (hashLevel != null) ? mValidationFrame.getHistogram() : null;
+        long hash = 0;
+        long variance = 0;
+        final long now = System.nanoTime();
+        if(histogram != null){
+            hash = mDHash.compute(hashLevel);
+            variance = mHashSharpnessScorer.variance(hashLevel);
+            if(mVerdictCache.lookup(hash, histogram.mean(), variance, now)){
+                //Log.d(TAG, "Cached verdict : " + mVerdictCache.getOutcome());
+                mRecheckCascade.run(mValidationFrame, mValidationResult);
+                if(mValidationResult.outcome == OUTCOME_OK){
+                    mValidationResult.score = Math.min(mValidationResult.score, mVerdictCache.getScore());
+                }
+                if(mValidationResult.outcome == OUTCOME_OK || mValidationResult.outcome == OUTCOME_REJECTED) {
+                    mProcessedFrames.incrementAndGet();
+                }
+                sendVerdict(snapshot, mValidationResult.score, mValidationResult.outcome);
+                return;
+            }
+        }
+
+        mCascade.run(mValidationFrame, mValidationResult);
+        //Log.d(TAG, "Verdict : " + mValidationResult.outcome + " (" + mValidationResult.stage + ")");
+        if(mValidationResult.outcome == OUTCOME_OK || mValidationResult.outcome == OUTCOME_REJECTED) {
+            mProcessedFrames.incrementAndGet();
+            // Only accepted verdicts are cached, a rejected scene must be validated again once the camera has converged
+            if(histogram != null && mValidationResult.outcome == OUTCOME_OK) {
+                mVerdictCache.put(hash, mValidationResult.outcome, mValidationResult.score, histogram.mean(), variance, now);
+            }
+        }
+        sendVerdict(snapshot, mValidationResult.score, mValidationResult.outcome);
+    }
+
+    private static void sendVerdict(final Snapshot snapshot, final int score, final int outcome){
+        snapshot.callBackHandler.sendMessage(snapshot.callBackHandler.obtainMessage(ANALYZE, score, outcome, snapshot));
+    }
+
+    /**
+     * Gives access to the motion estimated on the analysis stream, only updated when the stream is enabled.
+     * Only {@link GlobalMotionEstimator#isMoving()} can be read outside of the validator thread.
+     *
+     * @return The motion estimator
+     */
+    public GlobalMotionEstimator getMotionEstimator(){
+        return mMotionEstimator;
+    }
+
+    /**
+     * @return The number of snapshots matching a cached verdict, validated without the sharpness stage
+     */
+    public long getCacheHits(){
+        return mVerdictCache.getHits();
+    }
+
+    /**
+     * @return The number of snapshots not found in the verdict cache
+     */
+    public long getCacheMisses(){
+        return mVerdictCache.getMisses();
+    }
+
+    /**
+     * @return The number of pyramid levels requested by the analysis and already built for the frame
+     */
+    public long getPyramidHits(){
+        return mValidationFrame.getPyramid().getHits();
+    }
+
+    /**
+     * @return The number of pyramid levels requested by the analysis which had to be built
+     */
+    public long getPyramidMisses(){
+        return mValidationFrame.getPyramid().getMisses();
+    }
+
+    /**
+     * Gives access to the validation stages to tune thresholds and budgets or read their statistics
+     * (rejection rates and timings), stages must only be modified from the validator thread.
+     *
+     * @return The validation cascade
+     */
+    public ValidationCascade getCascade(){
+        return mCascade;
     }
 
     public Handler getHandler(){
         return mHandler;
     }
 
+    /**
+     * @return The number of snapshots overwritten or replaced before being analyzed
+     */
+    public long getDroppedFrames(){
+        return mDroppedFrames.get();
+    }
+
+    /**
+     * @return The number of snapshots analyzed
+     */
+    public long getProcessedFrames(){
+        return mProcessedFrames.get();
+    }
+
     public void shutdown(){
         //Log.d(TAG, "shutdown");
         mHandler.getLooper().quit();
     }
 
     /**
-     * Message payload for Snapshot request analysis
+     * Message payload for Snapshot request analysis, sent back with the verdict so the
+     * requester can recycle it
      */
     public static class Snapshot {
          public Handler callBackHandler;
-         public int width;
-         public int height;
+         // Timestamp in ns of the preview frame which triggered the request, sent back with the verdict
+         public long timestamp;
+         // Timestamp in ns of the analyzed frame, may differ from timestamp for stream snapshots
+         public long frameTimestamp;
+         // Cancels the analysis of this snapshot, reset by the requester before each use
+         public final CancellationToken token = new CancellationToken();
+         // Captured region origin in surface pixels (GL bottom-left origin), 0 for stream frames
+         public int x;
+         public int y;
+         // Surface pixels per frame pixel (region size is width * scale x height * scale)
+         public int scale = 1;
          public final float[] gravity = new float[3];
-         public ByteBuffer data;
+         // Pixels, packed
+         public ImageFrame frame;
     }
 }
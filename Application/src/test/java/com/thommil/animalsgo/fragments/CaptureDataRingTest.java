@@ -0,0 +1,152 @@
+package com.thommil.animalsgo.fragments;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class CaptureDataRingTest {
+
+    private final AGCameraFragment.CaptureData mTarget = new AGCameraFragment.CaptureData();
+
+    @Test
+    public void eventsAreReadInOrder() {
+        final CaptureDataRing ring = new CaptureDataRing(4);
+        assertFalse(ring.poll(mTarget));
+        for(int i = 0; i < 3; i++){
+            offer(ring, i);
+        }
+        assertEquals(3, ring.size());
+        for(int i = 0; i < 3; i++){
+            assertTrue(ring.poll(mTarget));
+            assertEvent(i, mTarget);
+        }
+        assertFalse(ring.poll(mTarget));
+        assertEquals(0, ring.size());
+        assertEquals(3, ring.getPeakSize());
+    }
+
+    @Test
+    public void fullRingDropsEvents() {
+        final CaptureDataRing ring = new CaptureDataRing(2);
+        offer(ring, 0);
+        offer(ring, 1);
+        assertNull(ring.claim());
+        assertNull(ring.claim());
+        assertEquals(2, ring.getDropped());
+        assertEquals(2, ring.size());
+
+        // Oldest events are kept, room is made by the consumer
+        assertTrue(ring.poll(mTarget));
+        assertEvent(0, mTarget);
+        offer(ring, 2);
+        assertTrue(ring.poll(mTarget));
+        assertEvent(1, mTarget);
+        assertTrue(ring.poll(mTarget));
+        assertEvent(2, mTarget);
+        assertEquals(2, ring.getDropped());
+        assertEquals(2, ring.getPeakSize());
+    }
+
+    @Test
+    public void slotsAreReusedAcrossWrapAround() {
+        final CaptureDataRing ring = new CaptureDataRing(4);
+        final AGCameraFragment.CaptureData first = ring.claim();
+        for(int i = 0; i < 4 * 10 + 1; i++){
+            offer(ring, i);
+            if(i % 3 == 2){
+                // Read in batches so head and tail wrap at different times
+                while(ring.poll(mTarget)){
+                    assertTrue(mTarget.frameNumber <= i);
+                }
+                assertEvent(i, mTarget);
+            }
+        }
+        assertTrue(ring.poll(mTarget));
+        assertEvent(39, mTarget);
+        assertTrue(ring.poll(mTarget));
+        assertEvent(40, mTarget);
+        // 41 events through 4 slots, slot 0 holds the last event written in it
+        assertEquals(40, first.frameNumber);
+        assertEquals(0, ring.getDropped());
+        assertEquals(3, ring.getPeakSize());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsCapacityNotPowerOfTwo() {
+        new CaptureDataRing(6);
+    }
+
+    @Test
+    public void concurrentEventsAreNotLostNorTorn() throws InterruptedException {
+        final int count = 100000;
+        final CaptureDataRing ring = new CaptureDataRing(8);
+        final Thread producer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                for(int i = 0; i < count; i++){
+                    AGCameraFragment.CaptureData slot;
+                    while((slot = ring.claim()) == null){
+                        Thread.yield();
+                    }
+                    fill(slot, i);
+                    ring.publish();
+                }
+            }
+        });
+        producer.setDaemon(true);
+        producer.start();
+
+        final long deadline = System.currentTimeMillis() + 30000;
+        int expected = 0;
+        while(expected < count && System.currentTimeMillis() < deadline){
+            if(ring.poll(mTarget)){
+                assertEvent(expected++, mTarget);
+            }
+            else{
+                Thread.yield();
+            }
+        }
+        producer.join(1000);
+        assertEquals(count, expected);
+        assertFalse(ring.poll(mTarget));
+        assertTrue(ring.getPeakSize() <= 8);
+    }
+
+    private static void offer(final CaptureDataRing ring, final int index) {
+        final AGCameraFragment.CaptureData slot = ring.claim();
+        assertNotNull(slot);
+        fill(slot, index);
+        ring.publish();
+    }
+
+    // All the fields derive from the index so a torn copy is detected
+    private static void fill(final AGCameraFragment.CaptureData data, final int index) {
+        data.frameNumber = index;
+        data.cameraState = (index & 1) != 0;
+        data.movementState = (index & 2) != 0;
+        data.afState = index;
+        data.aeState = index + 1;
+        data.awbState = index + 2;
+        data.lensState = index + 3;
+        data.gravity[0] = index;
+        data.gravity[1] = -index;
+        data.gravity[2] = 2 * index;
+    }
+
+    private static void assertEvent(final int index, final AGCameraFragment.CaptureData data) {
+        assertEquals(index, data.frameNumber);
+        assertEquals((index & 1) != 0, data.cameraState);
+        assertEquals((index & 2) != 0, data.movementState);
+        assertEquals(index, data.afState);
+        assertEquals(index + 1, data.aeState);
+        assertEquals(index + 2, data.awbState);
+        assertEquals(index + 3, data.lensState);
+        assertEquals(index, data.gravity[0], 0f);
+        assertEquals(-index, data.gravity[1], 0f);
+        assertEquals(2 * index, data.gravity[2], 0f);
+    }
+}
@@ -0,0 +1,114 @@
+package com.androidexperiments.shadercam.gl;
+
+import android.opengl.GLES20;
+import android.support.test.runner.AndroidJUnit4;
+
+import org.junit.After;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * Reads a known clear color back from an offscreen surface through both readback paths, runs on
+ * devices and on emulators with a software GL driver.
+ */
+@RunWith(AndroidJUnit4.class)
+public class PixelReaderReadbackTest {
+
+    private static final int SIZE = 16;
+
+    // Polls before giving up on a fence, each one after glFinish()
+    private static final int MAX_POLLS = 10;
+
+    private EglCore mEglCore;
+    private EglSurfaceBase mSurface;
+    private PixelReader mReader;
+
+    private void setUp(int flags) {
+        mEglCore = new EglCore(null, flags);
+        mSurface = new EglSurfaceBase(mEglCore);
+        mSurface.createOffscreenSurface(SIZE, SIZE);
+        mSurface.makeCurrent();
+        mReader = new PixelReader(new AndroidGl(), mEglCore.getGlVersion());
+    }
+
+    @After
+    public void tearDown() {
+        if (mReader != null) {
+            mReader.release();
+        }
+        if (mSurface != null) {
+            mSurface.releaseEglSurface();
+        }
+        if (mEglCore != null) {
+            mEglCore.release();
+        }
+    }
+
+    @Test
+    public void syncReadsClearColor() {
+        setUp(0);
+        assertEquals(PixelReader.MODE_SYNC, mReader.getMode());
+        final ByteBuffer target = allocate();
+        clear(1f, 0f, 1f, 1f);
+        assertTrue(mReader.readPixels(0, 0, SIZE, SIZE, target, target));
+        assertSame(target, mReader.poll());
+        assertColor(target, 0xFF, 0x00, 0xFF, 0xFF);
+    }
+
+    @Test
+    public void pboReadsClearColors() {
+        setUp(EglCore.FLAG_TRY_GLES3);
+        assumeTrue(mEglCore.getGlVersion() >= 3);
+        assertEquals(PixelReader.MODE_PBO, mReader.getMode());
+
+        // Both buffers in flight with different content
+        final ByteBuffer first = allocate();
+        final ByteBuffer second = allocate();
+        clear(1f, 0f, 0f, 1f);
+        assertTrue(mReader.readPixels(0, 0, SIZE, SIZE, first, first));
+        clear(0f, 1f, 0f, 1f);
+        assertTrue(mReader.readPixels(0, 0, SIZE, SIZE, second, second));
+
+        assertSame(first, await());
+        assertColor(first, 0xFF, 0x00, 0x00, 0xFF);
+        assertSame(second, await());
+        assertColor(second, 0x00, 0xFF, 0x00, 0xFF);
+    }
+
+    private static ByteBuffer allocate() {
+        return ByteBuffer.allocateDirect(SIZE * SIZE * 4).order(ByteOrder.nativeOrder());
+    }
+
+    private static void clear(float red, float green, float blue, float alpha) {
+        GLES20.glClearColor(red, green, blue, alpha);
+        GLES20.glClear(GLES20.GL_COLOR_BUFFER_BIT);
+    }
+
+    private Object await() {
+        Object tag = null;
+        for (int i = 0; i < MAX_POLLS && tag == null; i++) {
+            GLES20.glFinish();
+            tag = mReader.poll();
+        }
+        assertNotNull("Readback never completed", tag);
+        return tag;
+    }
+
+    private static void assertColor(ByteBuffer pixels, int red, int green, int blue, int alpha) {
+        for (int i = 0; i < SIZE * SIZE * 4; i += 4) {
+            assertEquals(red, pixels.get(i) & 0xFF);
+            assertEquals(green, pixels.get(i + 1) & 0xFF);
+            assertEquals(blue, pixels.get(i + 2) & 0xFF);
+            assertEquals(alpha, pixels.get(i + 3) & 0xFF);
+        }
+    }
+}
@@ -0,0 +1,29 @@
+#extension GL_OES_EGL_image_external : require
+
+#ifdef GL_FRAGMENT_PRECISION_HIGH
+precision highp float;
+#else
+precision mediump float;
+#endif
+
+uniform samplerExternalOES camTexture;
+uniform mat4 camTextureTransform;
+
+//distance between 2 luma samples along X in texcoords
+uniform float sampleStep;
+
+varying vec2 v_TexCoordinate;
+
+const vec3 LUMA_WEIGHTS = vec3(0.299, 0.587, 0.114);
+
+float luma(float offset)
+{
+    vec4 coord = vec4(v_TexCoordinate.x + offset * sampleStep, v_TexCoordinate.y, 0.0, 1.0);
+    return dot(texture2D(camTexture, (camTextureTransform * coord).xy).rgb, LUMA_WEIGHTS);
+}
+
+//4 horizontal luma samples packed in one RGBA texel
+void main ()
+{
+    gl_FragColor = vec4(luma(-1.5), luma(-0.5), luma(0.5), luma(1.5));
+}
\ No newline at end of file
@@ -0,0 +1,13 @@
+//position
+attribute vec4 position;
+
+//raw texcoords, camera transform is applied per luma sample
+attribute vec4 camTexCoordinate;
+
+varying vec2 v_TexCoordinate;
+
+void main()
+{
+    v_TexCoordinate = camTexCoordinate.xy;
+    gl_Position = position;
+}
\ No newline at end of file
@@ -5,6 +5,7 @@ import android.app.AlertDialog;
 import android.app.Dialog;
 import android.content.Context;
 import android.content.DialogInterface;
+import android.graphics.ImageFormat;
 import android.graphics.Matrix;
 import android.graphics.RectF;
 import android.graphics.SurfaceTexture;
@@ -17,6 +18,8 @@ import android.hardware.camera2.CameraMetadata;
 import android.hardware.camera2.CaptureRequest;
 import android.hardware.camera2.TotalCaptureResult;
 import android.hardware.camera2.params.StreamConfigurationMap;
+import android.media.Image;
+import android.media.ImageReader;
 import android.media.MediaRecorder;
 import android.os.Bundle;
 import android.os.Handler;
@@ -33,6 +36,7 @@ import android.view.SurfaceView;
 import android.view.TextureView;
 import android.widget.Toast;
 
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
@@ -116,6 +120,30 @@ public class CameraFragment extends Fragment {
 
     private boolean bIsPaused = false;
 
+    /**
+     * Maximum number of pixels of the analysis stream
+     */
+    protected static final int ANALYSIS_MAX_PIXELS = 640 * 480;
+
+    /**
+     * Optional YUV_420_888 analysis stream, second target of the repeating request
+     */
+    protected ImageReader mAnalysisReader;
+
+    /**
+     * The {@link Size} of the analysis stream, null if disabled
+     */
+    protected Size mAnalysisSize;
+
+    private OnAnalysisFrameListener mOnAnalysisFrameListener;
+
+    private Handler mAnalysisHandler;
+
+    /**
+     * Thread of the listener of {@link #mAnalysisReader}, the reader is closed there
+     */
+    private Handler mAnalysisReaderHandler;
+
     /**
      * Switch between the back(primary) camera and the front(selfie) camera
      */
@@ -168,6 +196,14 @@ public class CameraFragment extends Fragment {
             //typically these are identical
             mPreviewSize = chooseVideoSize(streamConfigurationMap.getOutputSizes(SurfaceHolder.class));
 
+            //optional analysis stream matching the preview ratio
+            if(mOnAnalysisFrameListener != null) {
+                mAnalysisSize = chooseAnalysisSize(streamConfigurationMap.getOutputSizes(ImageFormat.YUV_420_888));
+            }
+            else{
+                mAnalysisSize = null;
+            }
+
             //send back for updates to renderer if needed
             if(mOnViewportSizeUpdatedListener != null) {
                 mOnViewportSizeUpdatedListener.onViewportSizeUpdated(new Size(mSurfaceView.getWidth(), mSurfaceView.getHeight()),mPreviewSize);
@@ -317,6 +353,38 @@ public class CameraFragment extends Fragment {
         return sizeToReturn;
     }
 
+    /**
+     * Picks the largest size with the preview ratio under {@link #ANALYSIS_MAX_PIXELS}, the smallest
+     * size if none matches.
+     *
+     * @param choices The list of available YUV_420_888 sizes
+     * @return The analysis stream size
+     */
+    private Size chooseAnalysisSize(Size[] choices)
+    {
+        //Log.d(TAG, "chooseAnalysisSize");
+        Size sizeToReturn = null;
+        Size smallest = null;
+        final long previewRatio = (long) mPreviewSize.getWidth() * 1000 / mPreviewSize.getHeight();
+        for (Size size : choices) {
+            final int pixels = size.getWidth() * size.getHeight();
+            if(smallest == null || pixels < smallest.getWidth() * smallest.getHeight()) {
+                smallest = size;
+            }
+            if((long) size.getWidth() * 1000 / size.getHeight() == previewRatio && pixels <= ANALYSIS_MAX_PIXELS
+                    && (sizeToReturn == null || pixels > sizeToReturn.getWidth() * sizeToReturn.getHeight())) {
+                sizeToReturn = size;
+            }
+        }
+
+        if(sizeToReturn == null)
+            sizeToReturn = smallest;
+
+        Log.i(TAG, "Analysis size : " + sizeToReturn);
+
+        return sizeToReturn;
+    }
+
     /**
      * close camera when not in use/pausing/leaving
      */
@@ -329,6 +397,7 @@ public class CameraFragment extends Fragment {
                 mCameraDevice = null;
                 mCameraIsOpen = false;
             }
+            closeAnalysisReader();
         } catch (InterruptedException e) {
             throw new RuntimeException("Interrupted while trying to lock camera closing.");
         } finally {
@@ -359,6 +428,16 @@ public class CameraFragment extends Fragment {
             surfaces.add(previewSurface);
             mPreviewBuilder.addTarget(previewSurface);
 
+            closeAnalysisReader();
+            if(mOnAnalysisFrameListener != null && mAnalysisSize != null) {
+                mAnalysisReader = ImageReader.newInstance(mAnalysisSize.getWidth(), mAnalysisSize.getHeight(), ImageFormat.YUV_420_888, 2);
+                mAnalysisReader.setOnImageAvailableListener(mOnAnalysisImageAvailableListener, mAnalysisHandler);
+                mAnalysisReaderHandler = mAnalysisHandler;
+                Surface analysisSurface = mAnalysisReader.getSurface();
+                surfaces.add(analysisSurface);
+                mPreviewBuilder.addTarget(analysisSurface);
+            }
+
             mCameraDevice.createCaptureSession(surfaces, new CameraCaptureSession.StateCallback() {
 
                 @Override
@@ -382,6 +461,52 @@ public class CameraFragment extends Fragment {
         }
     }
 
+    /**
+     * Forwards the Y plane of the latest analysis image and closes it right away
+     */
+    private ImageReader.OnImageAvailableListener mOnAnalysisImageAvailableListener = new ImageReader.OnImageAvailableListener() {
+        @Override
+        public void onImageAvailable(ImageReader imageReader) {
+            final Image image = imageReader.acquireLatestImage();
+            if(image == null) {
+                return;
+            }
+            try {
+                final OnAnalysisFrameListener listener = mOnAnalysisFrameListener;
+                if(listener != null) {
+                    final Image.Plane plane = image.getPlanes()[0];
+                    listener.onAnalysisFrame(plane.getBuffer(), image.getWidth(), image.getHeight(), plane.getRowStride(), image.getTimestamp());
+                }
+            }
+            finally {
+                image.close();
+            }
+        }
+    };
+
+    /**
+     * Closes the analysis reader on its listener thread, closing it here would free the image
+     * still being analyzed
+     */
+    private void closeAnalysisReader() {
+        if(mAnalysisReader != null) {
+            final ImageReader reader = mAnalysisReader;
+            mAnalysisReader = null;
+            reader.setOnImageAvailableListener(null, null);
+            final boolean posted = mAnalysisReaderHandler != null && mAnalysisReaderHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    reader.close();
+                }
+            });
+            //listener thread gone, nothing can use the images anymore
+            if(!posted) {
+                reader.close();
+            }
+            mAnalysisReaderHandler = null;
+        }
+    }
+
     /**
      * Overrides this method to implement custom capture request settings
      *
@@ -497,6 +622,17 @@ public class CameraFragment extends Fragment {
         this.mOnViewportSizeUpdatedListener = listener;
     }
 
+    /**
+     * Enables the YUV_420_888 analysis stream, must be set before the camera is opened
+     * @param listener receiving the Y planes, null to disable the stream
+     * @param handler on which thread the listener is called
+     */
+    public void setOnAnalysisFrameListener(OnAnalysisFrameListener listener, Handler handler) {
+        //Log.d(TAG, "setOnAnalysisFrameListener");
+        this.mOnAnalysisFrameListener = listener;
+        this.mAnalysisHandler = handler;
+    }
+
     /**
      * Listener interface that will send back the newly created {@link Size} of our camera output
      */
@@ -504,6 +640,21 @@ public class CameraFragment extends Fragment {
         void onViewportSizeUpdated(Size surfaceSize, Size previewSize);
     }
 
+    /**
+     * Listener interface receiving the luminance plane of the analysis stream frames, no Android
+     * types involved so it can be fed with synthetic planes
+     */
+    public interface OnAnalysisFrameListener {
+        /**
+         * @param plane the Y plane, only valid during the call as the image is closed afterwards
+         * @param width the frame width in pixels
+         * @param height the frame height in pixels
+         * @param rowStride the number of bytes between 2 rows of plane
+         * @param timestamp the sensor timestamp of the frame in nanoseconds
+         */
+        void onAnalysisFrame(ByteBuffer plane, int width, int height, int rowStride, long timestamp);
+    }
+
     /**
      * Simple ErrorDialog for display
      */
@@ -0,0 +1,654 @@
+package com.androidexperiments.shadercam.gl;
+
+import android.opengl.GLES11Ext;
+import android.opengl.GLES20;
+import android.opengl.GLES30;
+
+import java.nio.Buffer;
+
+/**
+ * {@link Gl} decorator skipping redundant state changes and counting calls per frame by type.
+ * <p>
+ * Tracks the current program, active unit, 2D and external textures of the first
+ * {@link #MAX_TEXTURE_UNITS} units, array and pixel pack buffers, vertex array, framebuffer, viewport
+ * and the enabled attribute arrays of the default vertex array. State is unknown until first set, call
+ * {@link #invalidate()} or {@link #invalidateTextures()} after GL calls made outside of this
+ * instance (for instance SurfaceTexture.updateTexImage() binds the external texture).
+ * <p>
+ * Must be used from the GL thread.
+ */
+public class CachingGl implements Gl {
+    /** Call types */
+    public static final int CALL_PROGRAM = 0;
+    public static final int CALL_TEXTURE = 1;
+    public static final int CALL_BUFFER = 2;
+    public static final int CALL_VERTEX_ARRAY = 3;
+    public static final int CALL_FRAMEBUFFER = 4;
+    public static final int CALL_ATTRIB_ARRAY = 5;
+    public static final int CALL_VIEWPORT = 6;
+    public static final int CALL_UNIFORM = 7;
+    public static final int CALL_ATTRIB_POINTER = 8;
+    public static final int CALL_DRAW = 9;
+    public static final int CALL_UPLOAD = 10;
+    public static final int CALL_READBACK = 11;
+    public static final int CALL_OTHER = 12;
+    public static final int CALL_TYPES = 13;
+
+    private static final String[] CALL_NAMES = {"program", "texture", "buffer", "vertexArray", "framebuffer",
+            "attribArray", "viewport", "uniform", "attribPointer", "draw", "upload", "readback", "other"};
+
+    /** Number of texture units whose bindings are tracked */
+    public static final int MAX_TEXTURE_UNITS = 8;
+
+    // Attribute arrays whose enabled state is tracked
+    private static final int MAX_ATTRIBS = 32;
+
+    private static final int UNKNOWN = -1;
+
+    private final Gl mGl;
+
+    // Without vertex arrays the default one is always bound
+    private final boolean mHasVertexArrays;
+
+    // Cached state, UNKNOWN until set
+    private int mProgram;
+    private int mActiveUnit;
+    private final int[] mTextures2D = new int[MAX_TEXTURE_UNITS];
+    private final int[] mTexturesExternal = new int[MAX_TEXTURE_UNITS];
+    private int mArrayBuffer;
+    private int mPixelPackBuffer;
+    private int mVertexArray;
+    private int mFramebuffer;
+    private int mViewportX;
+    private int mViewportY;
+    private int mViewportWidth;
+    private int mViewportHeight;
+
+    // Element buffer and attribute arrays of the default vertex array, untracked in other ones
+    private int mElementBuffer;
+    private int mAttribsKnown;
+    private int mAttribsEnabled;
+
+    // Calls of the current frame and of the last ended one
+    private final int[] mCalls = new int[CALL_TYPES];
+    private final int[] mSkipped = new int[CALL_TYPES];
+    private final int[] mFrameCalls = new int[CALL_TYPES];
+    private final int[] mFrameSkipped = new int[CALL_TYPES];
+
+    /**
+     * @param gl The instance receiving the filtered calls
+     * @param glVersion The GLES version of the context, see {@link EglCore#getGlVersion()}
+     */
+    public CachingGl(Gl gl, int glVersion) {
+        mGl = gl;
+        mHasVertexArrays = glVersion >= 3;
+        invalidate();
+    }
+
+    /**
+     * Forgets all the cached state, the next calls are all forwarded
+     */
+    public void invalidate() {
+        mProgram = UNKNOWN;
+        mActiveUnit = UNKNOWN;
+        invalidateTextures();
+        mArrayBuffer = UNKNOWN;
+        mPixelPackBuffer = UNKNOWN;
+        mVertexArray = mHasVertexArrays ? UNKNOWN : 0;
+        mFramebuffer = UNKNOWN;
+        mViewportX = UNKNOWN;
+        mElementBuffer = UNKNOWN;
+        mAttribsKnown = 0;
+    }
+
+    /**
+     * Forgets the cached texture bindings
+     */
+    public void invalidateTextures() {
+        for (int i = 0; i < MAX_TEXTURE_UNITS; i++) {
+            mTextures2D[i] = UNKNOWN;
+            mTexturesExternal[i] = UNKNOWN;
+        }
+    }
+
+    /**
+     * Ends the current frame, its counters become the ones returned by the getters
+     */
+    public void endFrame() {
+        System.arraycopy(mCalls, 0, mFrameCalls, 0, CALL_TYPES);
+        System.arraycopy(mSkipped, 0, mFrameSkipped, 0, CALL_TYPES);
+        for (int i = 0; i < CALL_TYPES; i++) {
+            mCalls[i] = 0;
+            mSkipped[i] = 0;
+        }
+    }
+
+    /**
+     * @param type One of the CALL_* types
+     * @return The number of calls forwarded during the last frame
+     */
+    public int getFrameCalls(int type) {
+        return mFrameCalls[type];
+    }
+
+    /**
+     * @param type One of the CALL_* types
+     * @return The number of redundant calls skipped during the last frame
+     */
+    public int getFrameSkipped(int type) {
+        return mFrameSkipped[type];
+    }
+
+    /**
+     * @return The number of calls of all types forwarded during the last frame
+     */
+    public int getFrameCalls() {
+        int total = 0;
+        for (int i = 0; i < CALL_TYPES; i++) {
+            total += mFrameCalls[i];
+        }
+        return total;
+    }
+
+    /**
+     * Appends the calls of the last frame by type (forwarded/skipped) to a builder
+     *
+     * @param builder The builder receiving the counters
+     * @return The builder
+     */
+    public StringBuilder dump(StringBuilder builder) {
+        builder.append("GL calls : ").append(getFrameCalls());
+        for (int i = 0; i < CALL_TYPES; i++) {
+            if (mFrameCalls[i] != 0 || mFrameSkipped[i] != 0) {
+                builder.append(' ').append(CALL_NAMES[i]).append('=').append(mFrameCalls[i])
+                        .append('/').append(mFrameSkipped[i]);
+            }
+        }
+        return builder;
+    }
+
+    // Counts a call, returns true if it must be forwarded
+    private boolean count(int type, boolean redundant) {
+        if (redundant) {
+            mSkipped[type]++;
+            return false;
+        }
+        mCalls[type]++;
+        return true;
+    }
+
+    // ------------------------------------------------------------
+    // State
+    // ------------------------------------------------------------
+
+    @Override
+    public void glUseProgram(int program) {
+        if (count(CALL_PROGRAM, program == mProgram)) {
+            mGl.glUseProgram(program);
+            mProgram = program;
+        }
+    }
+
+    @Override
+    public void glActiveTexture(int texture) {
+        if (count(CALL_TEXTURE, texture == mActiveUnit)) {
+            mGl.glActiveTexture(texture);
+            mActiveUnit = texture;
+        }
+    }
+
+    @Override
+    public void glBindTexture(int target, int texture) {
+        final int[] bindings = textureBindings(target);
+        final int unit = mActiveUnit - GLES20.GL_TEXTURE0;
+        final boolean tracked = bindings != null && mActiveUnit != UNKNOWN && unit >= 0 && unit < MAX_TEXTURE_UNITS;
+        if (count(CALL_TEXTURE, tracked && bindings[unit] == texture)) {
+            mGl.glBindTexture(target, texture);
+            if (tracked) {
+                bindings[unit] = texture;
+            }
+        }
+    }
+
+    @Override
+    public void glBindBuffer(int target, int buffer) {
+        final boolean redundant;
+        if (target == GLES20.GL_ARRAY_BUFFER) {
+            redundant = buffer == mArrayBuffer;
+        }
+        else if (target == GLES30.GL_PIXEL_PACK_BUFFER) {
+            redundant = buffer == mPixelPackBuffer;
+        }
+        else if (target == GLES20.GL_ELEMENT_ARRAY_BUFFER) {
+            redundant = mVertexArray == 0 && buffer == mElementBuffer;
+        }
+        else {
+            redundant = false;
+        }
+        if (count(CALL_BUFFER, redundant)) {
+            mGl.glBindBuffer(target, buffer);
+            if (target == GLES20.GL_ARRAY_BUFFER) {
+                mArrayBuffer = buffer;
+            }
+            else if (target == GLES30.GL_PIXEL_PACK_BUFFER) {
+                mPixelPackBuffer = buffer;
+            }
+            else if (target == GLES20.GL_ELEMENT_ARRAY_BUFFER && mVertexArray == 0) {
+                mElementBuffer = buffer;
+            }
+        }
+    }
+
+    @Override
+    public void glBindVertexArray(int array) {
+        if (count(CALL_VERTEX_ARRAY, array == mVertexArray)) {
+            mGl.glBindVertexArray(array);
+            // Default vertex array state is kept while another one is bound, unknown if never tracked
+            if (mVertexArray == UNKNOWN && array == 0) {
+                mElementBuffer = UNKNOWN;
+                mAttribsKnown = 0;
+            }
+            mVertexArray = array;
+        }
+    }
+
+    @Override
+    public void glBindFramebuffer(int target, int framebuffer) {
+        if (count(CALL_FRAMEBUFFER, target == GLES20.GL_FRAMEBUFFER && framebuffer == mFramebuffer)) {
+            mGl.glBindFramebuffer(target, framebuffer);
+            mFramebuffer = (target == GLES20.GL_FRAMEBUFFER) ? framebuffer : UNKNOWN;
+        }
+    }
+
+    @Override
+    public void glEnableVertexAttribArray(int index) {
+        setAttribArray(index, true);
+    }
+
+    @Override
+    public void glDisableVertexAttribArray(int index) {
+        setAttribArray(index, false);
+    }
+
+    private void setAttribArray(int index, boolean enabled) {
+        final boolean tracked = mVertexArray == 0 && index < MAX_ATTRIBS;
+        final int bit = 1 << index;
+        final boolean redundant = tracked && (mAttribsKnown & bit) != 0 && ((mAttribsEnabled & bit) != 0) == enabled;
+        if (count(CALL_ATTRIB_ARRAY, redundant)) {
+            if (enabled) {
+                mGl.glEnableVertexAttribArray(index);
+            }
+            else {
+                mGl.glDisableVertexAttribArray(index);
+            }
+            if (tracked) {
+                mAttribsKnown |= bit;
+                mAttribsEnabled = enabled ? (mAttribsEnabled | bit) : (mAttribsEnabled & ~bit);
+            }
+        }
+    }
+
+    @Override
+    public void glViewport(int x, int y, int width, int height) {
+        if (count(CALL_VIEWPORT, x == mViewportX && y == mViewportY && width == mViewportWidth && height == mViewportHeight)) {
+            mGl.glViewport(x, y, width, height);
+            mViewportX = x;
+            mViewportY = y;
+            mViewportWidth = width;
+            mViewportHeight = height;
+        }
+    }
+
+    private int[] textureBindings(int target) {
+        if (target == GLES20.GL_TEXTURE_2D) {
+            return mTextures2D;
+        }
+        if (target == GLES11Ext.GL_TEXTURE_EXTERNAL_OES) {
+            return mTexturesExternal;
+        }
+        return null;
+    }
+
+    // ------------------------------------------------------------
+    // Drawing
+    // ------------------------------------------------------------
+
+    @Override
+    public void glUniform1i(int location, int x) {
+        count(CALL_UNIFORM, false);
+        mGl.glUniform1i(location, x);
+    }
+
+    @Override
+    public void glUniform1f(int location, float x) {
+        count(CALL_UNIFORM, false);
+        mGl.glUniform1f(location, x);
+    }
+
+    @Override
+    public void glUniformMatrix4fv(int location, int count, boolean transpose, float[] value, int offset) {
+        count(CALL_UNIFORM, false);
+        mGl.glUniformMatrix4fv(location, count, transpose, value, offset);
+    }
+
+    @Override
+    public void glVertexAttribPointer(int index, int size, int type, boolean normalized, int stride, int offset) {
+        count(CALL_ATTRIB_POINTER, false);
+        mGl.glVertexAttribPointer(index, size, type, normalized, stride, offset);
+    }
+
+    @Override
+    public void glDrawElements(int mode, int count, int type, int offset) {
+        count(CALL_DRAW, false);
+        mGl.glDrawElements(mode, count, type, offset);
+    }
+
+    @Override
+    public void glClearColor(float red, float green, float blue, float alpha) {
+        count(CALL_OTHER, false);
+        mGl.glClearColor(red, green, blue, alpha);
+    }
+
+    @Override
+    public void glClear(int mask) {
+        count(CALL_DRAW, false);
+        mGl.glClear(mask);
+    }
+
+    // ------------------------------------------------------------
+    // Buffers
+    // ------------------------------------------------------------
+
+    @Override
+    public void glGenBuffers(int n, int[] buffers, int offset) {
+        count(CALL_OTHER, false);
+        mGl.glGenBuffers(n, buffers, offset);
+    }
+
+    @Override
+    public void glBufferData(int target, int size, Buffer data, int usage) {
+        count(CALL_UPLOAD, false);
+        mGl.glBufferData(target, size, data, usage);
+    }
+
+    @Override
+    public void glBufferSubData(int target, int offset, int size, Buffer data) {
+        count(CALL_UPLOAD, false);
+        mGl.glBufferSubData(target, offset, size, data);
+    }
+
+    @Override
+    public void glDeleteBuffers(int n, int[] buffers, int offset) {
+        count(CALL_OTHER, false);
+        mGl.glDeleteBuffers(n, buffers, offset);
+        // Deleted objects are unbound
+        for (int i = offset; i < offset + n; i++) {
+            if (buffers[i] == mArrayBuffer) {
+                mArrayBuffer = 0;
+            }
+            if (buffers[i] == mPixelPackBuffer) {
+                mPixelPackBuffer = 0;
+            }
+            if (buffers[i] == mElementBuffer) {
+                mElementBuffer = 0;
+            }
+        }
+    }
+
+    @Override
+    public void glGenVertexArrays(int n, int[] arrays, int offset) {
+        count(CALL_OTHER, false);
+        mGl.glGenVertexArrays(n, arrays, offset);
+    }
+
+    @Override
+    public void glDeleteVertexArrays(int n, int[] arrays, int offset) {
+        count(CALL_OTHER, false);
+        mGl.glDeleteVertexArrays(n, arrays, offset);
+        for (int i = offset; i < offset + n; i++) {
+            if (arrays[i] == mVertexArray) {
+                mVertexArray = 0;
+            }
+        }
+    }
+
+    // ------------------------------------------------------------
+    // Textures and framebuffers
+    // ------------------------------------------------------------
+
+    @Override
+    public void glGenTextures(int n, int[] textures, int offset) {
+        count(CALL_OTHER, false);
+        mGl.glGenTextures(n, textures, offset);
+    }
+
+    @Override
+    public void glTexParameteri(int target, int pname, int param) {
+        count(CALL_OTHER, false);
+        mGl.glTexParameteri(target, pname, param);
+    }
+
+    @Override
+    public void glTexImage2D(int target, int level, int internalformat, int width, int height, int border,
+                             int format, int type, Buffer pixels) {
+        count(CALL_UPLOAD, false);
+        mGl.glTexImage2D(target, level, internalformat, width, height, border, format, type, pixels);
+    }
+
+    @Override
+    public void glDeleteTextures(int n, int[] textures, int offset) {
+        count(CALL_OTHER, false);
+        mGl.glDeleteTextures(n, textures, offset);
+        for (int i = offset; i < offset + n; i++) {
+            for (int unit = 0; unit < MAX_TEXTURE_UNITS; unit++) {
+                if (textures[i] == mTextures2D[unit]) {
+                    mTextures2D[unit] = 0;
+                }
+                if (textures[i] == mTexturesExternal[unit]) {
+                    mTexturesExternal[unit] = 0;
+                }
+            }
+        }
+    }
+
+    @Override
+    public void glGenFramebuffers(int n, int[] framebuffers, int offset) {
+        count(CALL_OTHER, false);
+        mGl.glGenFramebuffers(n, framebuffers, offset);
+    }
+
+    @Override
+    public void glFramebufferTexture2D(int target, int attachment, int textarget, int texture, int level) {
+        count(CALL_OTHER, false);
+        mGl.glFramebufferTexture2D(target, attachment, textarget, texture, level);
+    }
+
+    @Override
+    public int glCheckFramebufferStatus(int target) {
+        count(CALL_OTHER, false);
+        return mGl.glCheckFramebufferStatus(target);
+    }
+
+    @Override
+    public void glDeleteFramebuffers(int n, int[] framebuffers, int offset) {
+        count(CALL_OTHER, false);
+        mGl.glDeleteFramebuffers(n, framebuffers, offset);
+        for (int i = offset; i < offset + n; i++) {
+            if (framebuffers[i] == mFramebuffer) {
+                mFramebuffer = 0;
+            }
+        }
+    }
+
+    // ------------------------------------------------------------
+    // Shaders and programs
+    // ------------------------------------------------------------
+
+    @Override
+    public int glCreateShader(int type) {
+        count(CALL_OTHER, false);
+        return mGl.glCreateShader(type);
+    }
+
+    @Override
+    public void glShaderSource(int shader, String string) {
+        count(CALL_OTHER, false);
+        mGl.glShaderSource(shader, string);
+    }
+
+    @Override
+    public void glCompileShader(int shader) {
+        count(CALL_OTHER, false);
+        mGl.glCompileShader(shader);
+    }
+
+    @Override
+    public void glGetShaderiv(int shader, int pname, int[] params, int offset) {
+        count(CALL_OTHER, false);
+        mGl.glGetShaderiv(shader, pname, params, offset);
+    }
+
+    @Override
+    public String glGetShaderInfoLog(int shader) {
+        count(CALL_OTHER, false);
+        return mGl.glGetShaderInfoLog(shader);
+    }
+
+    @Override
+    public void glDeleteShader(int shader) {
+        count(CALL_OTHER, false);
+        mGl.glDeleteShader(shader);
+    }
+
+    @Override
+    public int glCreateProgram() {
+        count(CALL_OTHER, false);
+        return mGl.glCreateProgram();
+    }
+
+    @Override
+    public void glAttachShader(int program, int shader) {
+        count(CALL_OTHER, false);
+        mGl.glAttachShader(program, shader);
+    }
+
+    @Override
+    public void glBindAttribLocation(int program, int index, String name) {
+        count(CALL_OTHER, false);
+        mGl.glBindAttribLocation(program, index, name);
+    }
+
+    @Override
+    public void glLinkProgram(int program) {
+        count(CALL_OTHER, false);
+        mGl.glLinkProgram(program);
+    }
+
+    @Override
+    public void glGetProgramiv(int program, int pname, int[] params, int offset) {
+        count(CALL_OTHER, false);
+        mGl.glGetProgramiv(program, pname, params, offset);
+    }
+
+    @Override
+    public String glGetProgramInfoLog(int program) {
+        count(CALL_OTHER, false);
+        return mGl.glGetProgramInfoLog(program);
+    }
+
+    @Override
+    public String glGetActiveAttrib(int program, int index, int[] size, int sizeOffset, int[] type, int typeOffset) {
+        count(CALL_OTHER, false);
+        return mGl.glGetActiveAttrib(program, index, size, sizeOffset, type, typeOffset);
+    }
+
+    @Override
+    public String glGetActiveUniform(int program, int index, int[] size, int sizeOffset, int[] type, int typeOffset) {
+        count(CALL_OTHER, false);
+        return mGl.glGetActiveUniform(program, index, size, sizeOffset, type, typeOffset);
+    }
+
+    @Override
+    public int glGetAttribLocation(int program, String name) {
+        count(CALL_OTHER, false);
+        return mGl.glGetAttribLocation(program, name);
+    }
+
+    @Override
+    public int glGetUniformLocation(int program, String name) {
+        count(CALL_OTHER, false);
+        return mGl.glGetUniformLocation(program, name);
+    }
+
+    @Override
+    public void glDeleteProgram(int program) {
+        count(CALL_OTHER, false);
+        mGl.glDeleteProgram(program);
+        // Stays in use until replaced, but may be reused as a new name
+        if (program == mProgram) {
+            mProgram = UNKNOWN;
+        }
+    }
+
+    // ------------------------------------------------------------
+    // Readback
+    // ------------------------------------------------------------
+
+    @Override
+    public void glReadPixels(int x, int y, int width, int height, int format, int type, Buffer pixels) {
+        count(CALL_READBACK, false);
+        mGl.glReadPixels(x, y, width, height, format, type, pixels);
+    }
+
+    @Override
+    public void glReadPixels(int x, int y, int width, int height, int format, int type, int offset) {
+        count(CALL_READBACK, false);
+        mGl.glReadPixels(x, y, width, height, format, type, offset);
+    }
+
+    @Override
+    public Buffer glMapBufferRange(int target, int offset, int length, int access) {
+        count(CALL_READBACK, false);
+        return mGl.glMapBufferRange(target, offset, length, access);
+    }
+
+    @Override
+    public boolean glUnmapBuffer(int target) {
+        count(CALL_READBACK, false);
+        return mGl.glUnmapBuffer(target);
+    }
+
+    @Override
+    public long glFenceSync(int condition, int flags) {
+        count(CALL_OTHER, false);
+        return mGl.glFenceSync(condition, flags);
+    }
+
+    @Override
+    public int glClientWaitSync(long sync, int flags, long timeout) {
+        count(CALL_OTHER, false);
+        return mGl.glClientWaitSync(sync, flags, timeout);
+    }
+
+    @Override
+    public void glDeleteSync(long sync) {
+        count(CALL_OTHER, false);
+        mGl.glDeleteSync(sync);
+    }
+
+    @Override
+    public void glFlush() {
+        count(CALL_OTHER, false);
+        mGl.glFlush();
+    }
+
+    // ------------------------------------------------------------
+    // Errors
+    // ------------------------------------------------------------
+
+    @Override
+    public int glGetError() {
+        count(CALL_OTHER, false);
+        return mGl.glGetError();
+    }
+}
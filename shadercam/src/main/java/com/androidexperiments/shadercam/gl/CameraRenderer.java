@@ -1,41 +1,23 @@
 package com.androidexperiments.shadercam.gl;
 
-import android.app.Activity;
 import android.content.Context;
-import android.graphics.Bitmap;
-import android.graphics.BitmapFactory;
 import android.graphics.SurfaceTexture;
-import android.media.MediaRecorder;
 import android.opengl.GLES11Ext;
 import android.opengl.GLES20;
-import android.opengl.GLES30;
 import android.opengl.GLUtils;
-import android.opengl.Matrix;
 import android.os.Handler;
 import android.os.HandlerThread;
 import android.os.Looper;
 import android.os.Message;
 import android.util.Log;
 import android.util.Size;
-import android.util.SparseIntArray;
 import android.view.Surface;
-import android.widget.Toast;
 
 import com.androidexperiments.shadercam.fragments.CameraFragment;
 import com.androidexperiments.shadercam.utils.ShaderUtils;
 
-import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileOutputStream;
 import java.io.IOException;
-import java.lang.ref.WeakReference;
-import java.nio.ByteBuffer;
-import java.nio.ByteOrder;
 import java.nio.FloatBuffer;
-import java.nio.ShortBuffer;
-import java.nio.channels.FileChannel;
-import java.util.ArrayList;
-import java.util.Arrays;
 
 /** *
  * Base camera rendering class. Responsible for rendering to proper window contexts, as well as
@@ -47,7 +29,7 @@ import java.util.Arrays;
  *
  */
 
-public class CameraRenderer extends HandlerThread implements SurfaceTexture.OnFrameAvailableListener, CameraFragment.OnViewportSizeUpdatedListener, Handler.Callback
+public class CameraRenderer extends HandlerThread implements SurfaceTexture.OnFrameAvailableListener, CameraFragment.OnViewportSizeUpdatedListener, Handler.Callback, RenderLoop.FrameRenderer
 {
     private static final String TAG = "A_GO/CameraRenderer";
     private static final String THREAD_NAME = "CameraRendererThread";
@@ -80,11 +62,28 @@ public class CameraRenderer extends HandlerThread implements SurfaceTexture.OnFr
      */
     protected EglCore mEglCore;
 
+    /**
+     * GL calls of the renderer, redundant state changes are skipped and calls counted per frame
+     */
+    protected Gl mGl;
+
+    private CachingGl mGlState;
+
     /**
      * Primary {@link WindowSurface} for rendering to screen
      */
     protected WindowSurface mWindowSurface;
 
+    /**
+     * Readback helper, asynchronous on GLES3 contexts
+     */
+    protected PixelReader mPixelReader;
+
+    /**
+     * Optional downscale and luma pre-pass, created on first use
+     */
+    protected LumaPass mLumaPass;
+
     /**
      * Texture created for GLES rendering of camera data
      */
@@ -111,8 +110,6 @@ public class CameraRenderer extends HandlerThread implements SurfaceTexture.OnFr
 
     protected static short drawOrder[] = {0, 1, 2, 1, 3, 2};
 
-    protected FloatBuffer textureBuffer;
-
     protected float textureCoords[] = {
             0.0f, 1.0f,
             1.0f, 1.0f,
@@ -120,19 +117,48 @@ public class CameraRenderer extends HandlerThread implements SurfaceTexture.OnFr
             1.0f, 0.0f,
     };
 
+    /**
+     * Camera program, locations are resolved once at link time
+     */
+    protected GlProgram mCameraProgram;
+
+    /**
+     * @deprecated Use {@link #mCameraProgram}, still set for existing subclasses
+     */
+    @Deprecated
     protected int mCameraShaderProgram;
 
-    protected FloatBuffer vertexBuffer;
+    /**
+     * Full screen quad, texture coordinates follow {@link #textureCoords}
+     */
+    protected GlMesh mCameraMesh;
 
-    protected ShortBuffer drawListBuffer;
+    /**
+     * Quad of the luma pass, texture coordinates follow the region rendered
+     */
+    private GlMesh mLumaMesh;
 
-    protected int textureCoordinateHandle;
+    private int mTextureTransformHandle;
 
-    protected int positionHandle;
+    /**
+     * Interval between 2 logs of the frame stats in ns
+     */
+    protected static final long STATS_LOG_INTERVAL = 1000000000L;
 
-    protected long lastTime = 0;
-    protected long lastLog = 0;
-    protected int fps = 0;
+    /**
+     * Camera frame timestamps further than this from the swap time are not comparable (other time base)
+     */
+    private static final long MAX_CAMERA_TO_SWAP = 1000000000L;
+
+    /**
+     * Frame timings, recorded on the GL thread, logged and reset every {@link #STATS_LOG_INTERVAL}
+     */
+    protected final FrameStats mFrameStats = new FrameStats();
+
+    private final StringBuilder mStatsBuilder = new StringBuilder();
+
+    private long mLastSwapTime;
+    private long mLastStatsLog;
 
     /**
      * Cam texture ID
@@ -150,6 +176,16 @@ public class CameraRenderer extends HandlerThread implements SurfaceTexture.OnFr
      */
     protected Handler mHandler;
 
+    /**
+     * Source of the frame ticks, vsync by default, can be replaced before {@link #start()}
+     */
+    private TickSource mTickSource;
+
+    /**
+     * Paces rendering on the ticks, created on the GL thread
+     */
+    protected RenderLoop mRenderLoop;
+
     /**
      * Interface listener for some callbacks to the UI thread when rendering is setup and finished.
      */
@@ -243,6 +279,9 @@ public class CameraRenderer extends HandlerThread implements SurfaceTexture.OnFr
         mWindowSurface = new WindowSurface(mEglCore, mSurface, true);
         mWindowSurface.makeCurrent();
 
+        mGlState = new CachingGl(new AndroidGl(), mEglCore.getGlVersion());
+        mGl = mGlState;
+
         initGLComponents();
     }
 
@@ -254,6 +293,7 @@ public class CameraRenderer extends HandlerThread implements SurfaceTexture.OnFr
         setupCameraTextureCoords();
         setupCameraTexture();
         setupShaders();
+        setupPixelReader();
 
         onSetupComplete();
     }
@@ -275,8 +315,18 @@ public class CameraRenderer extends HandlerThread implements SurfaceTexture.OnFr
 
     protected void deinitGLComponents() {
         //Log.d(TAG, "deinitGLComponents");
-        GLES20.glDeleteTextures(1, new int[]{mCamTextureId}, 0);
-        GLES20.glDeleteProgram(mCameraShaderProgram);
+        mGl.glDeleteTextures(1, new int[]{mCamTextureId}, 0);
+        mCameraProgram.release();
+        mCameraMesh.release();
+        if(mLumaMesh != null) {
+            mLumaMesh.release();
+            mLumaMesh = null;
+        }
+        mPixelReader.release();
+        if(mLumaPass != null) {
+            mLumaPass.release();
+            mLumaPass = null;
+        }
 
         mPreviewTexture.release();
         mPreviewTexture.setOnFrameAvailableListener(null);
@@ -295,30 +345,34 @@ public class CameraRenderer extends HandlerThread implements SurfaceTexture.OnFr
 
         //Log.d(TAG, "Ratios - S : " +surfaceRatio+", P : "+previewRatio);
 
+        //updated in place, uploaded by the GL thread before the next draw
         //We must crop preview vertically
         if(previewRatio > surfaceRatio){
             float delta = (previewRatio - surfaceRatio) / 2f;
-            textureCoords = new float[]{
-                    delta, 1.0f,
-                    1.0f-delta, 1.0f,
-                    delta, 0.0f,
-                    1.0f-delta, 0.0f
-            };
+            setTextureCoords(delta, 1.0f-delta, 0.0f, 1.0f);
         }
         //We must crop preview horizontally
         else{
             float delta = (surfaceRatio - previewRatio ) / 2f;
-            textureCoords = new float[]{
-                    0.0f, 1.0f-delta,
-                    1.0f, 1.0f-delta,
-                    0.0f, delta,
-                    1.0f, delta
-            };
+            setTextureCoords(0.0f, 1.0f, delta, 1.0f-delta);
         }
 
         //Log.d(TAG, "TextureCoords : " + Arrays.toString(textureCoords));
 
         setupCameraTextureCoords();
+        requestRender();
+    }
+
+    // Fills textureCoords (TL, TR, BL, BR) with the given bounds
+    private void setTextureCoords(float left, float right, float bottom, float top) {
+        textureCoords[0] = left;
+        textureCoords[1] = top;
+        textureCoords[2] = right;
+        textureCoords[3] = top;
+        textureCoords[4] = left;
+        textureCoords[5] = bottom;
+        textureCoords[6] = right;
+        textureCoords[7] = bottom;
     }
 
     /**
@@ -327,36 +381,21 @@ public class CameraRenderer extends HandlerThread implements SurfaceTexture.OnFr
      */
     protected void onPreSetupGLComponents() {
         //Log.d(TAG, "onPreSetupGLComponents");
-        GLES20.glViewport(0, 0, mSurfaceWidth, mSurfaceHeight);
-        GLES20.glClearColor(1.0f, 0.0f, 0.0f, 0.0f);
-        GLES20.glClear(GLES20.GL_COLOR_BUFFER_BIT);
+        mGl.glViewport(0, 0, mSurfaceWidth, mSurfaceHeight);
+        mGl.glClearColor(1.0f, 0.0f, 0.0f, 0.0f);
+        mGl.glClear(GLES20.GL_COLOR_BUFFER_BIT);
     }
 
     protected void setupVertexBuffer() {
         //Log.d(TAG, "setupVertexBuffer");
-        // Draw list buffer
-        ByteBuffer dlb = ByteBuffer.allocateDirect(drawOrder.length * 2);
-        dlb.order(ByteOrder.nativeOrder());
-        drawListBuffer = dlb.asShortBuffer();
-        drawListBuffer.put(drawOrder);
-        drawListBuffer.position(0);
-
-        // Initialize the texture holder
-        ByteBuffer bb = ByteBuffer.allocateDirect(squareCoords.length * 4);
-        bb.order(ByteOrder.nativeOrder());
-        vertexBuffer = bb.asFloatBuffer();
-        vertexBuffer.put(squareCoords);
-        vertexBuffer.position(0);
+        mCameraMesh = new GlMesh(mGl, squareCoords, textureCoords, drawOrder, mEglCore.getGlVersion());
     }
 
     protected void setupCameraTextureCoords(){
         //Log.d(TAG, "setupCameraTextureCoord");
-        ByteBuffer texturebb = ByteBuffer.allocateDirect(textureCoords.length * 4);
-        texturebb.order(ByteOrder.nativeOrder());
-
-        textureBuffer = texturebb.asFloatBuffer();
-        textureBuffer.put(textureCoords);
-        textureBuffer.position(0);
+        if(mCameraMesh != null) {
+            mCameraMesh.setTexCoords(textureCoords);
+        }
     }
 
     /**
@@ -367,13 +406,13 @@ public class CameraRenderer extends HandlerThread implements SurfaceTexture.OnFr
         //Log.d(TAG, "setupCameraTexture");
 
         int[] texturesId = new int[1];
-        GLES20.glGenTextures(1, texturesId , 0);
+        mGl.glGenTextures(1, texturesId , 0);
         checkGlError("Texture generate");
         mCamTextureId = texturesId[0];
 
         //set texture[0] to camera texture
-        GLES20.glActiveTexture(GLES20.GL_TEXTURE0);
-        GLES20.glBindTexture(GLES11Ext.GL_TEXTURE_EXTERNAL_OES, mCamTextureId);
+        mGl.glActiveTexture(GLES20.GL_TEXTURE0);
+        mGl.glBindTexture(GLES11Ext.GL_TEXTURE_EXTERNAL_OES, mCamTextureId);
         checkGlError("Texture bind");
 
         mPreviewTexture = new SurfaceTexture(mCamTextureId);
@@ -381,36 +420,26 @@ public class CameraRenderer extends HandlerThread implements SurfaceTexture.OnFr
     }
 
     /**
-     * Handling this manually here but check out another impl at {@link GlUtil#createProgram(String, String)}
+     * Links the camera program, attributes are bound to the {@link GlMesh} slots
      */
     protected void setupShaders() {
         //Log.d(TAG, "setupShaders");
-        int vertexShaderHandle = GLES20.glCreateShader(GLES20.GL_VERTEX_SHADER);
-        GLES20.glShaderSource(vertexShaderHandle, vertexShaderCode);
-        GLES20.glCompileShader(vertexShaderHandle);
-        checkGlError("Vertex shader compile");
-
-        //Log.d(TAG, "vertexShader info log:\n " + GLES20.glGetShaderInfoLog(vertexShaderHandle));
-
-        int fragmentShaderHandle = GLES20.glCreateShader(GLES20.GL_FRAGMENT_SHADER);
-        GLES20.glShaderSource(fragmentShaderHandle, fragmentShaderCode);
-        GLES20.glCompileShader(fragmentShaderHandle);
-        checkGlError("Pixel shader compile");
-
-        //Log.d(TAG, "fragmentShader info log:\n " + GLES20.glGetShaderInfoLog(fragmentShaderHandle));
-
-        mCameraShaderProgram = GLES20.glCreateProgram();
-        GLES20.glAttachShader(mCameraShaderProgram, vertexShaderHandle);
-        GLES20.glAttachShader(mCameraShaderProgram, fragmentShaderHandle);
-        GLES20.glLinkProgram(mCameraShaderProgram);
-        checkGlError("Shader program compile");
-
-        int[] status = new int[1];
-        GLES20.glGetProgramiv(mCameraShaderProgram, GLES20.GL_LINK_STATUS, status, 0);
-        if (status[0] != GLES20.GL_TRUE) {
-            String error = GLES20.glGetProgramInfoLog(mCameraShaderProgram);
-            Log.e("SurfaceTest", "Error while linking program:\n" + error);
-        }
+        mCameraProgram = new GlProgram(mGl, vertexShaderCode, fragmentShaderCode, GlMesh.ATTRIBUTES);
+        mTextureTransformHandle = mCameraProgram.requireUniformLocation("camTextureTransform");
+        mCameraShaderProgram = mCameraProgram.getHandle();
+
+        //camera texture always on unit 0
+        mCameraProgram.use();
+        mGl.glUniform1i(mCameraProgram.requireUniformLocation("camTexture"), 0);
+        checkGlError("Shader program setup");
+    }
+
+    /**
+     * Creates the readback helper matching the context version
+     */
+    protected void setupPixelReader() {
+        //Log.d(TAG, "setupPixelReader");
+        mPixelReader = new PixelReader(mGl, mEglCore.getGlVersion());
     }
 
     /**
@@ -451,15 +480,25 @@ public class CameraRenderer extends HandlerThread implements SurfaceTexture.OnFr
         //Associated GL Thread to capture completion
         mCameraFragment.setBackgroundHandler(mHandler);
 
+        //frames are rendered on vsync ticks, the Choreographer needs the Looper
+        if(mTickSource == null) {
+            mTickSource = new ChoreographerTickSource();
+        }
+        mRenderLoop = new RenderLoop(mTickSource, this);
+
         //initialize all GL on this context
         initGL();
 
-        lastTime = System.currentTimeMillis();
-        lastLog = lastTime;
+        mLastSwapTime = 0;
+        mLastStatsLog = System.nanoTime();
+
+        mRenderLoop.start();
 
         //LOOOOOOOOOOOOOOOOP
         Looper.loop();
 
+        mRenderLoop.stop();
+
         //we're done here
         deinitGL();
 
@@ -485,39 +524,105 @@ public class CameraRenderer extends HandlerThread implements SurfaceTexture.OnFr
         mHandler.getLooper().quit();
     }
 
+    /**
+     * Sets the source of the frame ticks, must be called before {@link #start()}. Ticks must be
+     * delivered on the GL thread, defaults to the display vsync.
+     */
+    public void setTickSource(TickSource tickSource) {
+        mTickSource = tickSource;
+    }
+
+    /**
+     * @return The state caching GL of the renderer, counters are the ones of the last frame, GL thread only
+     */
+    public CachingGl getCachingGl() {
+        return mGlState;
+    }
+
+    /**
+     * @return The render loop, null until the GL thread is running
+     */
+    public RenderLoop getRenderLoop() {
+        return mRenderLoop;
+    }
+
+    /**
+     * Requests a redraw at the next tick without new camera frame, call it when the overlay changes
+     */
+    protected void requestRender() {
+        if(mRenderLoop != null) {
+            mRenderLoop.invalidate();
+        }
+    }
+
     @Override
     public void onFrameAvailable(SurfaceTexture surfaceTexture)
     {
-        boolean swapResult;
+        //only signals the frame, the newest one is latched at the next tick
+        mRenderLoop.onFrameAvailable();
+    }
 
-        synchronized (this)
-        {
+    @Override
+    public boolean renderFrame(boolean latchFrame, long frameTimeNanos)
+    {
+        if(latchFrame) {
             mPreviewTexture.updateTexImage();
             mPreviewTexture.getTransformMatrix(mCameraTransformMatrix);
+            //binds the camera texture behind our back
+            mGlState.invalidateTextures();
+        }
 
-            draw();
-            mWindowSurface.makeCurrent();
-            swapResult = mWindowSurface.swapBuffers();
-
-            if (!swapResult) {
-                // This can happen if the Activity stops without waiting for us to halt.
-                Log.e(TAG, "swapBuffers failed, killing renderer thread");
-                shutdown();
-            }
+        final long drawStart = System.nanoTime();
+        draw();
+        mWindowSurface.makeCurrent();
+        final long swapStart = System.nanoTime();
+        boolean swapResult = mWindowSurface.swapBuffers();
+        final long swapEnd = System.nanoTime();
+
+        if (!swapResult) {
+            // This can happen if the Activity stops without waiting for us to halt.
+            Log.e(TAG, "swapBuffers failed, killing renderer thread");
+            shutdown();
+            return false;
         }
+
+        recordFrameStats(latchFrame, drawStart, swapStart, swapEnd);
+        return true;
     }
 
-    protected void logFPS(){
-        fps++;
-        long currentTime = System.currentTimeMillis();
+    /**
+     * Takes a snapshot of the frame stats since the last log, can be called from any thread
+     *
+     * @param target The instance receiving the snapshot
+     */
+    public void getFrameStats(FrameStats target) {
+        mFrameStats.copyTo(target);
+    }
 
-        if(currentTime - lastLog > 1000){
-            Log.i(TAG, "FPS : "+fps);
-            fps=0;
-            lastLog = currentTime;
+    private void recordFrameStats(boolean latchFrame, long drawStart, long swapStart, long swapEnd) {
+        mGlState.endFrame();
+        mFrameStats.draw.record(swapStart - drawStart);
+        mFrameStats.swap.record(swapEnd - swapStart);
+        if(mLastSwapTime != 0) {
+            mFrameStats.frameInterval.record(swapEnd - mLastSwapTime);
         }
+        mLastSwapTime = swapEnd;
 
-        lastTime = currentTime;
+        //the camera timestamp base is only known to be monotonic, ignore frames from another base
+        if(latchFrame) {
+            final long cameraToSwap = swapEnd - mPreviewTexture.getTimestamp();
+            if(cameraToSwap >= 0 && cameraToSwap < MAX_CAMERA_TO_SWAP) {
+                mFrameStats.cameraToSwap.record(cameraToSwap);
+            }
+        }
+
+        if(swapEnd - mLastStatsLog > STATS_LOG_INTERVAL) {
+            mStatsBuilder.setLength(0);
+            mFrameStats.dump(mStatsBuilder).append('\n');
+            Log.i(TAG, mGlState.dump(mStatsBuilder).toString());
+            mFrameStats.reset();
+            mLastStatsLog = swapEnd;
+        }
     }
 
     /**
@@ -526,32 +631,52 @@ public class CameraRenderer extends HandlerThread implements SurfaceTexture.OnFr
     public void draw()
     {
         //set shader
-        GLES20.glUseProgram(mCameraShaderProgram);
-        int textureParamHandle = GLES20.glGetUniformLocation(mCameraShaderProgram, "camTexture");
-        int textureTranformHandle = GLES20.glGetUniformLocation(mCameraShaderProgram, "camTextureTransform");
-        textureCoordinateHandle = GLES20.glGetAttribLocation(mCameraShaderProgram, "camTexCoordinate");
-        positionHandle = GLES20.glGetAttribLocation(mCameraShaderProgram, "position");
-
-
-        GLES20.glEnableVertexAttribArray(positionHandle);
-        GLES20.glVertexAttribPointer(positionHandle, 2, GLES20.GL_FLOAT, false, 8, vertexBuffer);
+        mCameraProgram.use();
 
         //camera texture
-        GLES20.glActiveTexture(GLES20.GL_TEXTURE0);
-        GLES20.glBindTexture(GLES11Ext.GL_TEXTURE_EXTERNAL_OES, mCamTextureId);
-        GLES20.glUniform1i(textureParamHandle, 0);
+        mGl.glActiveTexture(GLES20.GL_TEXTURE0);
+        mGl.glBindTexture(GLES11Ext.GL_TEXTURE_EXTERNAL_OES, mCamTextureId);
 
-        GLES20.glEnableVertexAttribArray(textureCoordinateHandle);
-        GLES20.glVertexAttribPointer(textureCoordinateHandle, 2, GLES20.GL_FLOAT, false, 8, textureBuffer);
+        mGl.glUniformMatrix4fv(mTextureTransformHandle, 1, false, mCameraTransformMatrix, 0);
 
-        GLES20.glUniformMatrix4fv(textureTranformHandle, 1, false, mCameraTransformMatrix, 0);
+        mCameraMesh.draw();
+    }
 
-        GLES20.glDrawElements(GLES20.GL_TRIANGLES, 6, GLES20.GL_UNSIGNED_SHORT, drawListBuffer);
 
-        GLES20.glDisableVertexAttribArray(positionHandle);
-        GLES20.glDisableVertexAttribArray(textureCoordinateHandle);
+    /**
+     * Renders the camera texture downscaled to 8 bits luma in the pre-pass FBO, which is left bound
+     * so it can be read back as lumaWidth / 4 x lumaHeight RGBA texels. Call {@link #endLumaPass()}
+     * once the readback is issued.
+     *
+     * @param texCoordBuffer The raw texture coordinates of the region to render (TL, TR, BL, BR)
+     * @param lumaWidth The output width in luma samples, multiple of {@link LumaPass#SAMPLES_PER_TEXEL}
+     * @param lumaHeight The output height in luma samples
+     */
+    protected void drawLumaPass(FloatBuffer texCoordBuffer, int lumaWidth, int lumaHeight) {
+        if(mLumaPass == null) {
+            try {
+                mLumaPass = new LumaPass(mGl, ShaderUtils.getStringFromFileInAssets(mContext, LumaPass.VERTEX_SHADER),
+                        ShaderUtils.getStringFromFileInAssets(mContext, LumaPass.FRAGMENT_SHADER));
+            }
+            catch (IOException e) {
+                throw new RuntimeException("Unable to load luma pass shaders", e);
+            }
+        }
+        if(mLumaMesh == null) {
+            mLumaMesh = new GlMesh(mGl, squareCoords, textureCoords, drawOrder, mEglCore.getGlVersion());
+        }
+        //only uploaded when the region changes
+        mLumaMesh.setTexCoords(texCoordBuffer);
+        mLumaPass.render(mCamTextureId, mCameraTransformMatrix, mLumaMesh, lumaWidth, lumaHeight);
     }
 
+    /**
+     * Restores the window framebuffer and viewport after {@link #drawLumaPass(FloatBuffer, int, int)}
+     */
+    protected void endLumaPass() {
+        mGl.glBindFramebuffer(GLES20.GL_FRAMEBUFFER, 0);
+        mGl.glViewport(0, 0, mSurfaceWidth, mSurfaceHeight);
+    }
 
     /**
      * utility for checking GL errors
@@ -559,12 +684,16 @@ public class CameraRenderer extends HandlerThread implements SurfaceTexture.OnFr
      */
     public void checkGlError(String op) {
         int error;
-        while ((error = GLES20.glGetError()) != GLES20.GL_NO_ERROR) {
+        while ((error = mGl.glGetError()) != GLES20.GL_NO_ERROR) {
             Log.e("SurfaceTest", op + ": glError " + GLUtils.getEGLErrorString(error));
         }
     }
 
     //getters and setters
+    public PixelReader getPixelReader() {
+        return mPixelReader;
+    }
+
     public SurfaceTexture getPreviewTexture() {
         //Log.d(TAG, "getPreviewTexture");
         return mPreviewTexture;
@@ -0,0 +1,49 @@
+package com.androidexperiments.shadercam.gl;
+
+import android.view.Choreographer;
+
+/**
+ * {@link TickSource} delivering ticks on the display vsync through the {@link Choreographer} of the
+ * creating thread, which must have a Looper. Ticks are delivered on that thread.
+ */
+public class ChoreographerTickSource implements TickSource, Choreographer.FrameCallback {
+
+    private final Choreographer mChoreographer;
+
+    private OnTickListener mListener;
+
+    /**
+     * Must be called from a Looper thread
+     */
+    public ChoreographerTickSource() {
+        mChoreographer = Choreographer.getInstance();
+    }
+
+    @Override
+    public void setOnTickListener(OnTickListener listener) {
+        mListener = listener;
+    }
+
+    @Override
+    public void requestTick() {
+        mChoreographer.postFrameCallback(this);
+    }
+
+    @Override
+    public void cancelTick() {
+        mChoreographer.removeFrameCallback(this);
+    }
+
+    @Override
+    public long now() {
+        // Choreographer frame times use the System.nanoTime() time base
+        return System.nanoTime();
+    }
+
+    @Override
+    public void doFrame(long frameTimeNanos) {
+        if (mListener != null) {
+            mListener.onTick(frameTimeNanos);
+        }
+    }
+}
@@ -0,0 +1,70 @@
+package com.androidexperiments.shadercam.gl;
+
+/**
+ * Frame timing histograms of a {@link CameraRenderer}, recorded on the GL thread.
+ * <p>
+ * Use {@link #copyTo(FrameStats)} to take a snapshot from another thread without allocating.
+ */
+public class FrameStats {
+
+    /**
+     * Time between 2 consecutive presents
+     */
+    public final FrameTimeHistogram frameInterval = new FrameTimeHistogram();
+
+    /**
+     * Time from the camera frame timestamp to the end of its swap
+     */
+    public final FrameTimeHistogram cameraToSwap = new FrameTimeHistogram();
+
+    /**
+     * Time spent in draw()
+     */
+    public final FrameTimeHistogram draw = new FrameTimeHistogram();
+
+    /**
+     * Time spent in swapBuffers()
+     */
+    public final FrameTimeHistogram swap = new FrameTimeHistogram();
+
+    /**
+     * Copies all histograms in another instance
+     *
+     * @param target The instance receiving the snapshot
+     */
+    public void copyTo(FrameStats target) {
+        frameInterval.copyTo(target.frameInterval);
+        cameraToSwap.copyTo(target.cameraToSwap);
+        draw.copyTo(target.draw);
+        swap.copyTo(target.swap);
+    }
+
+    /**
+     * Clears all histograms
+     */
+    public void reset() {
+        frameInterval.reset();
+        cameraToSwap.reset();
+        draw.reset();
+        swap.reset();
+    }
+
+    /**
+     * Appends a one line summary per histogram to a builder
+     *
+     * @param builder The builder receiving the summary
+     * @return The builder
+     */
+    public StringBuilder dump(StringBuilder builder) {
+        frameInterval.dump(builder.append("interval : ")).append('\n');
+        cameraToSwap.dump(builder.append("camera to swap : ")).append('\n');
+        draw.dump(builder.append("draw : ")).append('\n');
+        swap.dump(builder.append("swap : "));
+        return builder;
+    }
+
+    @Override
+    public String toString() {
+        return dump(new StringBuilder()).toString();
+    }
+}
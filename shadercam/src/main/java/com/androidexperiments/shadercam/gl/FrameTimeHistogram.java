@@ -0,0 +1,215 @@
+package com.androidexperiments.shadercam.gl;
+
+/**
+ * Fixed size log-linear histogram of durations in ns, recording does not allocate.
+ * <p>
+ * Each power of 2 range is split in {@link #SUB_BUCKETS} linear buckets, values are kept with a
+ * relative precision of 1 / {@link #SUB_BUCKETS} up to {@link #MAX_TRACKABLE} (about 68 s), larger
+ * values are counted in the last bucket. The exact min, max and sum are kept aside.
+ * <p>
+ * Methods are synchronized so snapshots can be taken from any thread while recording.
+ */
+public class FrameTimeHistogram {
+
+    // Linear buckets per power of 2, as a power of 2
+    private static final int SUB_BUCKET_BITS = 4;
+    public static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+    // Highest exponent tracked
+    private static final int MAX_EXPONENT = 36;
+    public static final long MAX_TRACKABLE = (1L << (MAX_EXPONENT + 1)) - 1;
+
+    private static final int BUCKETS = (MAX_EXPONENT - SUB_BUCKET_BITS + 2) * SUB_BUCKETS;
+
+    // Orders copies between histograms with the same identity hash
+    private static final Object TIE_LOCK = new Object();
+
+    private final long[] mCounts = new long[BUCKETS];
+    private long mCount;
+    private long mSum;
+    private long mMin = Long.MAX_VALUE;
+    private long mMax;
+
+    /**
+     * Records a duration
+     *
+     * @param nanos The duration in ns, negative values are ignored
+     */
+    public synchronized void record(long nanos) {
+        if (nanos < 0) {
+            return;
+        }
+        mCounts[bucketOf(nanos)]++;
+        mCount++;
+        mSum += nanos;
+        if (nanos < mMin) {
+            mMin = nanos;
+        }
+        if (nanos > mMax) {
+            mMax = nanos;
+        }
+    }
+
+    /**
+     * Clears all recorded values
+     */
+    public synchronized void reset() {
+        for (int i = 0; i < BUCKETS; i++) {
+            mCounts[i] = 0;
+        }
+        mCount = 0;
+        mSum = 0;
+        mMin = Long.MAX_VALUE;
+        mMax = 0;
+    }
+
+    /**
+     * Copies the recorded values in another histogram without allocating
+     *
+     * @param target The histogram receiving the copy
+     */
+    public void copyTo(FrameTimeHistogram target) {
+        if (target == this) {
+            return;
+        }
+        // Both monitors taken in a global order so opposite copies cannot deadlock
+        final int hash = System.identityHashCode(this);
+        final int targetHash = System.identityHashCode(target);
+        if (hash < targetHash) {
+            synchronized (this) {
+                synchronized (target) {
+                    copyLocked(target);
+                }
+            }
+        } else if (hash > targetHash) {
+            synchronized (target) {
+                synchronized (this) {
+                    copyLocked(target);
+                }
+            }
+        } else {
+            synchronized (TIE_LOCK) {
+                synchronized (this) {
+                    synchronized (target) {
+                        copyLocked(target);
+                    }
+                }
+            }
+        }
+    }
+
+    private void copyLocked(FrameTimeHistogram target) {
+        System.arraycopy(mCounts, 0, target.mCounts, 0, BUCKETS);
+        target.mCount = mCount;
+        target.mSum = mSum;
+        target.mMin = mMin;
+        target.mMax = mMax;
+    }
+
+    /**
+     * @return The number of recorded values
+     */
+    public synchronized long getCount() {
+        return mCount;
+    }
+
+    /**
+     * @return The smallest recorded value in ns, 0 if empty
+     */
+    public synchronized long getMin() {
+        return mCount == 0 ? 0 : mMin;
+    }
+
+    /**
+     * @return The largest recorded value in ns, 0 if empty
+     */
+    public synchronized long getMax() {
+        return mMax;
+    }
+
+    /**
+     * @return The mean of the recorded values in ns, 0 if empty
+     */
+    public synchronized long getMean() {
+        return mCount == 0 ? 0 : mSum / mCount;
+    }
+
+    /**
+     * Gets the value under which a percentage of the recorded values fall, as the upper bound of
+     * the bucket holding it (bounded by the max).
+     *
+     * @param percentile The percentage in [0, 100]
+     * @return The value in ns, 0 if empty
+     */
+    public synchronized long getValueAtPercentile(double percentile) {
+        if (mCount == 0) {
+            return 0;
+        }
+        final double ratio = Math.max(0, Math.min(100, percentile)) / 100;
+        final long rank = Math.max(1, (long) Math.ceil(ratio * mCount));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += mCounts[i];
+            if (seen >= rank) {
+                return Math.max(mMin, Math.min(mMax, highestValueOf(i)));
+            }
+        }
+        return mMax;
+    }
+
+    /**
+     * Appends a summary in ms (count, mean, p50, p90, p99, max) to a builder
+     *
+     * @param builder The builder receiving the summary
+     * @return The builder
+     */
+    public synchronized StringBuilder dump(StringBuilder builder) {
+        builder.append("n=").append(mCount);
+        appendMillis(builder.append(" mean="), getMean());
+        appendMillis(builder.append(" p50="), getValueAtPercentile(50));
+        appendMillis(builder.append(" p90="), getValueAtPercentile(90));
+        appendMillis(builder.append(" p99="), getValueAtPercentile(99));
+        appendMillis(builder.append(" max="), mMax);
+        return builder;
+    }
+
+    @Override
+    public String toString() {
+        return dump(new StringBuilder()).toString();
+    }
+
+    // Values under SUB_BUCKETS have their own bucket, others are indexed by exponent then by the
+    // SUB_BUCKET_BITS bits following the leading one
+    static int bucketOf(long nanos) {
+        if (nanos > MAX_TRACKABLE) {
+            return BUCKETS - 1;
+        }
+        if (nanos < SUB_BUCKETS) {
+            return (int) nanos;
+        }
+        final int exponent = 63 - Long.numberOfLeadingZeros(nanos);
+        final int subBucket = (int) (nanos >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+        return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + subBucket;
+    }
+
+    // Largest value counted in a bucket
+    static long highestValueOf(int bucket) {
+        if (bucket < SUB_BUCKETS) {
+            return bucket;
+        }
+        final int shift = bucket / SUB_BUCKETS - 1;
+        final long lowest = (long) (SUB_BUCKETS + bucket % SUB_BUCKETS) << shift;
+        return lowest + (1L << shift) - 1;
+    }
+
+    // Fixed point ms with 2 decimals, avoids String.format
+    private static void appendMillis(StringBuilder builder, long nanos) {
+        final long hundredths = (nanos + 5000) / 10000;
+        builder.append(hundredths / 100).append('.');
+        final long decimals = hundredths % 100;
+        if (decimals < 10) {
+            builder.append('0');
+        }
+        builder.append(decimals).append("ms");
+    }
+}
@@ -0,0 +1,151 @@
+package com.androidexperiments.shadercam.gl;
+
+import java.nio.Buffer;
+
+/**
+ * Subset of the GLES API used by the renderer, each method mirrors the GLES20 / GLES30 method
+ * of the same name.
+ * <p>
+ * Rendering code goes through this interface so calls can be filtered and counted
+ * ({@link CachingGl}) or run without GPU in unit tests. {@link AndroidGl} forwards to the current
+ * context.
+ */
+public interface Gl {
+
+    // State, filtered by CachingGl
+
+    void glUseProgram(int program);
+
+    void glActiveTexture(int texture);
+
+    void glBindTexture(int target, int texture);
+
+    void glBindBuffer(int target, int buffer);
+
+    /** GLES3 only */
+    void glBindVertexArray(int array);
+
+    void glBindFramebuffer(int target, int framebuffer);
+
+    void glEnableVertexAttribArray(int index);
+
+    void glDisableVertexAttribArray(int index);
+
+    void glViewport(int x, int y, int width, int height);
+
+    // Drawing
+
+    void glUniform1i(int location, int x);
+
+    void glUniform1f(int location, float x);
+
+    void glUniformMatrix4fv(int location, int count, boolean transpose, float[] value, int offset);
+
+    void glVertexAttribPointer(int index, int size, int type, boolean normalized, int stride, int offset);
+
+    void glDrawElements(int mode, int count, int type, int offset);
+
+    void glClearColor(float red, float green, float blue, float alpha);
+
+    void glClear(int mask);
+
+    // Buffers
+
+    void glGenBuffers(int n, int[] buffers, int offset);
+
+    void glBufferData(int target, int size, Buffer data, int usage);
+
+    void glBufferSubData(int target, int offset, int size, Buffer data);
+
+    void glDeleteBuffers(int n, int[] buffers, int offset);
+
+    /** GLES3 only */
+    void glGenVertexArrays(int n, int[] arrays, int offset);
+
+    /** GLES3 only */
+    void glDeleteVertexArrays(int n, int[] arrays, int offset);
+
+    // Textures and framebuffers
+
+    void glGenTextures(int n, int[] textures, int offset);
+
+    void glTexParameteri(int target, int pname, int param);
+
+    void glTexImage2D(int target, int level, int internalformat, int width, int height, int border,
+                      int format, int type, Buffer pixels);
+
+    void glDeleteTextures(int n, int[] textures, int offset);
+
+    void glGenFramebuffers(int n, int[] framebuffers, int offset);
+
+    void glFramebufferTexture2D(int target, int attachment, int textarget, int texture, int level);
+
+    int glCheckFramebufferStatus(int target);
+
+    void glDeleteFramebuffers(int n, int[] framebuffers, int offset);
+
+    // Shaders and programs
+
+    int glCreateShader(int type);
+
+    void glShaderSource(int shader, String string);
+
+    void glCompileShader(int shader);
+
+    void glGetShaderiv(int shader, int pname, int[] params, int offset);
+
+    String glGetShaderInfoLog(int shader);
+
+    void glDeleteShader(int shader);
+
+    int glCreateProgram();
+
+    void glAttachShader(int program, int shader);
+
+    void glBindAttribLocation(int program, int index, String name);
+
+    void glLinkProgram(int program);
+
+    void glGetProgramiv(int program, int pname, int[] params, int offset);
+
+    String glGetProgramInfoLog(int program);
+
+    String glGetActiveAttrib(int program, int index, int[] size, int sizeOffset, int[] type, int typeOffset);
+
+    String glGetActiveUniform(int program, int index, int[] size, int sizeOffset, int[] type, int typeOffset);
+
+    int glGetAttribLocation(int program, String name);
+
+    int glGetUniformLocation(int program, String name);
+
+    void glDeleteProgram(int program);
+
+    // Readback
+
+    /** Reads into client memory, no pixel pack buffer must be bound */
+    void glReadPixels(int x, int y, int width, int height, int format, int type, Buffer pixels);
+
+    /** GLES3 only, reads into the bound pixel pack buffer at the given byte offset */
+    void glReadPixels(int x, int y, int width, int height, int format, int type, int offset);
+
+    /** GLES3 only */
+    Buffer glMapBufferRange(int target, int offset, int length, int access);
+
+    /** GLES3 only */
+    boolean glUnmapBuffer(int target);
+
+    /** GLES3 only */
+    long glFenceSync(int condition, int flags);
+
+    /** GLES3 only */
+    int glClientWaitSync(long sync, int flags, long timeout);
+
+    /** GLES3 only */
+    void glDeleteSync(long sync);
+
+    void glFlush();
+
+    // Errors
+
+    int glGetError();
+}
@@ -0,0 +1,198 @@
+package com.androidexperiments.shadercam.gl;
+
+import android.opengl.GLES20;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.ShortBuffer;
+
+/**
+ * Indexed 2D mesh with texture coordinates, stored in vertex buffer objects.
+ * <p>
+ * Positions and indices are uploaded once, texture coordinates can be changed from any thread and
+ * are uploaded in place before the next draw. On GLES3 contexts the attribute setup is recorded
+ * once in a vertex array object. Positions use {@link #POSITION_SLOT} and texture coordinates
+ * {@link #TEX_COORD_SLOT}, programs must bind their attributes to these slots, see
+ * {@link GlProgram#GlProgram(Gl, String, String, String...)}.
+ * <p>
+ * GL calls must be made from the GL thread.
+ */
+public class GlMesh {
+    /** Attribute slot of the positions */
+    public static final int POSITION_SLOT = 0;
+
+    /** Attribute slot of the texture coordinates */
+    public static final int TEX_COORD_SLOT = 1;
+
+    /** Attribute names of the shadercam shaders, indexed by slot */
+    public static final String[] ATTRIBUTES = {"position", "camTexCoordinate"};
+
+    private static final int COMPONENTS = 2;
+    private static final int SIZEOF_FLOAT = 4;
+    private static final int SIZEOF_SHORT = 2;
+
+    private final Gl mGl;
+    private final boolean mUseVertexArray;
+    private final int mIndexCount;
+
+    private final int mPositionBuffer;
+    private final int mTexCoordBuffer;
+    private final int mIndexBuffer;
+    private final int mVertexArray;
+
+    // Latest texture coordinates, written from any thread under lock
+    private final float[] mTexCoords;
+    private volatile boolean mTexCoordsDirty;
+
+    // Upload buffer, GL thread only
+    private final FloatBuffer mTexCoordUpload;
+
+    /**
+     * Creates the buffers, must be called with the context current
+     *
+     * @param gl The GL used by this mesh
+     * @param positions The vertex positions (2 floats per vertex)
+     * @param texCoords The vertex texture coordinates (2 floats per vertex)
+     * @param indices The triangles indices
+     * @param glVersion The GLES version of the current context, see {@link EglCore#getGlVersion()}
+     */
+    public GlMesh(Gl gl, float[] positions, float[] texCoords, short[] indices, int glVersion) {
+        mGl = gl;
+        if (positions.length != texCoords.length) {
+            throw new IllegalArgumentException("positions and texCoords must have the same length");
+        }
+        mUseVertexArray = glVersion >= 3;
+        mIndexCount = indices.length;
+        mTexCoords = texCoords.clone();
+        mTexCoordUpload = ByteBuffer.allocateDirect(texCoords.length * SIZEOF_FLOAT)
+                .order(ByteOrder.nativeOrder()).asFloatBuffer();
+        mTexCoordUpload.put(texCoords).position(0);
+
+        final int[] values = new int[3];
+        mGl.glGenBuffers(3, values, 0);
+        mPositionBuffer = values[0];
+        mTexCoordBuffer = values[1];
+        mIndexBuffer = values[2];
+
+        final FloatBuffer positionData = GlUtil.createFloatBuffer(positions);
+        mGl.glBindBuffer(GLES20.GL_ARRAY_BUFFER, mPositionBuffer);
+        mGl.glBufferData(GLES20.GL_ARRAY_BUFFER, positions.length * SIZEOF_FLOAT, positionData, GLES20.GL_STATIC_DRAW);
+        mGl.glBindBuffer(GLES20.GL_ARRAY_BUFFER, mTexCoordBuffer);
+        mGl.glBufferData(GLES20.GL_ARRAY_BUFFER, texCoords.length * SIZEOF_FLOAT, mTexCoordUpload, GLES20.GL_DYNAMIC_DRAW);
+        mGl.glBindBuffer(GLES20.GL_ARRAY_BUFFER, 0);
+
+        final ShortBuffer indexData = ByteBuffer.allocateDirect(indices.length * SIZEOF_SHORT)
+                .order(ByteOrder.nativeOrder()).asShortBuffer();
+        indexData.put(indices).position(0);
+
+        if (mUseVertexArray) {
+            mGl.glGenVertexArrays(1, values, 0);
+            mVertexArray = values[0];
+            mGl.glBindVertexArray(mVertexArray);
+            // Element buffer binding and attribute pointers are recorded in the VAO
+            mGl.glBindBuffer(GLES20.GL_ELEMENT_ARRAY_BUFFER, mIndexBuffer);
+            mGl.glBufferData(GLES20.GL_ELEMENT_ARRAY_BUFFER, indices.length * SIZEOF_SHORT, indexData, GLES20.GL_STATIC_DRAW);
+            setupAttributes();
+            mGl.glBindVertexArray(0);
+            mGl.glBindBuffer(GLES20.GL_ARRAY_BUFFER, 0);
+        }
+        else {
+            mVertexArray = 0;
+            mGl.glBindBuffer(GLES20.GL_ELEMENT_ARRAY_BUFFER, mIndexBuffer);
+            mGl.glBufferData(GLES20.GL_ELEMENT_ARRAY_BUFFER, indices.length * SIZEOF_SHORT, indexData, GLES20.GL_STATIC_DRAW);
+            mGl.glBindBuffer(GLES20.GL_ELEMENT_ARRAY_BUFFER, 0);
+        }
+        GlUtil.checkGlError(mGl, "GlMesh setup");
+    }
+
+    /**
+     * Replaces the texture coordinates, can be called from any thread. Only uploaded before the next
+     * draw if they have changed.
+     *
+     * @param texCoords The texture coordinates (2 floats per vertex)
+     */
+    public void setTexCoords(float[] texCoords) {
+        synchronized (mTexCoords) {
+            for (int i = 0; i < mTexCoords.length; i++) {
+                if (mTexCoords[i] != texCoords[i]) {
+                    mTexCoords[i] = texCoords[i];
+                    mTexCoordsDirty = true;
+                }
+            }
+        }
+    }
+
+    /**
+     * Replaces the texture coordinates, can be called from any thread. Only uploaded before the next
+     * draw if they have changed.
+     *
+     * @param texCoords The texture coordinates (2 floats per vertex), read from index 0
+     */
+    public void setTexCoords(FloatBuffer texCoords) {
+        synchronized (mTexCoords) {
+            for (int i = 0; i < mTexCoords.length; i++) {
+                final float value = texCoords.get(i);
+                if (mTexCoords[i] != value) {
+                    mTexCoords[i] = value;
+                    mTexCoordsDirty = true;
+                }
+            }
+        }
+    }
+
+    /**
+     * @return A texture coordinate of the last {@link #setTexCoords(float[])}
+     */
+    public float getTexCoord(int index) {
+        synchronized (mTexCoords) {
+            return mTexCoords[index];
+        }
+    }
+
+    /**
+     * Draws the mesh as triangles with the current program. Buffers, vertex array and attribute
+     * arrays are left bound, so a {@link CachingGl} skips them on the next draw of the same mesh.
+     */
+    public void draw() {
+        if (mTexCoordsDirty) {
+            uploadTexCoords();
+        }
+        if (mUseVertexArray) {
+            mGl.glBindVertexArray(mVertexArray);
+        }
+        else {
+            mGl.glBindBuffer(GLES20.GL_ELEMENT_ARRAY_BUFFER, mIndexBuffer);
+            setupAttributes();
+        }
+        mGl.glDrawElements(GLES20.GL_TRIANGLES, mIndexCount, GLES20.GL_UNSIGNED_SHORT, 0);
+    }
+
+    /**
+     * Frees the buffers, must be called with the context current
+     */
+    public void release() {
+        mGl.glDeleteBuffers(3, new int[]{mPositionBuffer, mTexCoordBuffer, mIndexBuffer}, 0);
+        if (mUseVertexArray) {
+            mGl.glDeleteVertexArrays(1, new int[]{mVertexArray}, 0);
+        }
+    }
+
+    private void setupAttributes() {
+        mGl.glBindBuffer(GLES20.GL_ARRAY_BUFFER, mPositionBuffer);
+        mGl.glEnableVertexAttribArray(POSITION_SLOT);
+        mGl.glVertexAttribPointer(POSITION_SLOT, COMPONENTS, GLES20.GL_FLOAT, false, COMPONENTS * SIZEOF_FLOAT, 0);
+        mGl.glBindBuffer(GLES20.GL_ARRAY_BUFFER, mTexCoordBuffer);
+        mGl.glEnableVertexAttribArray(TEX_COORD_SLOT);
+        mGl.glVertexAttribPointer(TEX_COORD_SLOT, COMPONENTS, GLES20.GL_FLOAT, false, COMPONENTS * SIZEOF_FLOAT, 0);
+    }
+
+    private void uploadTexCoords() {
+        synchronized (mTexCoords) {
+            mTexCoordsDirty = false;
+            mTexCoordUpload.put(mTexCoords).position(0);
+        }
+        mGl.glBindBuffer(GLES20.GL_ARRAY_BUFFER, mTexCoordBuffer);
+        mGl.glBufferSubData(GLES20.GL_ARRAY_BUFFER, 0, mTexCoords.length * SIZEOF_FLOAT, mTexCoordUpload);
+    }
+}
@@ -0,0 +1,160 @@
+package com.androidexperiments.shadercam.gl;
+
+import android.opengl.GLES20;
+import android.util.Log;
+
+/**
+ * Linked shader program whose uniform and attribute locations are resolved once at link time.
+ * <p>
+ * Attributes listed at creation are bound to their index before linking, so meshes using the
+ * {@link GlMesh} slots work with any program. Must be used from the GL thread.
+ */
+public class GlProgram {
+    private static final String TAG = "A_GO/GlProgram";
+
+    private final Gl mGl;
+    private final int mHandle;
+
+    private final String[] mUniformNames;
+    private final int[] mUniformLocations;
+    private final String[] mAttribNames;
+    private final int[] mAttribLocations;
+
+    /**
+     * Compiles and links a program, must be called with the context current
+     *
+     * @param gl The GL used by this program
+     * @param vertexShaderCode The vertex shader source
+     * @param fragmentShaderCode The fragment shader source
+     * @param attributes The attribute names bound to their index in this array, see {@link GlMesh#ATTRIBUTES}
+     */
+    public GlProgram(Gl gl, String vertexShaderCode, String fragmentShaderCode, String... attributes) {
+        mGl = gl;
+        final int vertexShader = GlUtil.loadShader(gl, GLES20.GL_VERTEX_SHADER, vertexShaderCode);
+        final int fragmentShader = GlUtil.loadShader(gl, GLES20.GL_FRAGMENT_SHADER, fragmentShaderCode);
+        if (vertexShader == 0 || fragmentShader == 0) {
+            mGl.glDeleteShader(vertexShader);
+            mGl.glDeleteShader(fragmentShader);
+            throw new RuntimeException("Unable to compile program shaders");
+        }
+
+        mHandle = mGl.glCreateProgram();
+        mGl.glAttachShader(mHandle, vertexShader);
+        mGl.glAttachShader(mHandle, fragmentShader);
+        for (int i = 0; i < attributes.length; i++) {
+            mGl.glBindAttribLocation(mHandle, i, attributes[i]);
+        }
+        mGl.glLinkProgram(mHandle);
+        // Flagged for deletion, freed with the program
+        mGl.glDeleteShader(vertexShader);
+        mGl.glDeleteShader(fragmentShader);
+
+        final int[] values = new int[1];
+        mGl.glGetProgramiv(mHandle, GLES20.GL_LINK_STATUS, values, 0);
+        if (values[0] != GLES20.GL_TRUE) {
+            final String error = mGl.glGetProgramInfoLog(mHandle);
+            mGl.glDeleteProgram(mHandle);
+            throw new RuntimeException("Unable to link program : " + error);
+        }
+
+        final int[] size = new int[1];
+        final int[] type = new int[1];
+        mGl.glGetProgramiv(mHandle, GLES20.GL_ACTIVE_UNIFORMS, values, 0);
+        mUniformNames = new String[values[0]];
+        mUniformLocations = new int[values[0]];
+        for (int i = 0; i < mUniformNames.length; i++) {
+            mUniformNames[i] = baseName(mGl.glGetActiveUniform(mHandle, i, size, 0, type, 0));
+            mUniformLocations[i] = mGl.glGetUniformLocation(mHandle, mUniformNames[i]);
+        }
+        mGl.glGetProgramiv(mHandle, GLES20.GL_ACTIVE_ATTRIBUTES, values, 0);
+        mAttribNames = new String[values[0]];
+        mAttribLocations = new int[values[0]];
+        for (int i = 0; i < mAttribNames.length; i++) {
+            mAttribNames[i] = baseName(mGl.glGetActiveAttrib(mHandle, i, size, 0, type, 0));
+            mAttribLocations[i] = mGl.glGetAttribLocation(mHandle, mAttribNames[i]);
+        }
+        GlUtil.checkGlError(mGl, "GlProgram link");
+        //Log.d(TAG, "Program " + mHandle + " : " + mUniformNames.length + " uniforms, " + mAttribNames.length + " attributes");
+    }
+
+    /**
+     * @return The GL program handle
+     */
+    public int getHandle() {
+        return mHandle;
+    }
+
+    /**
+     * Makes this program current
+     */
+    public void use() {
+        mGl.glUseProgram(mHandle);
+    }
+
+    /**
+     * Gets a location resolved at link time, no GL call is made
+     *
+     * @param name The uniform name, without [0] for arrays
+     * @return The location, -1 if the uniform is not active
+     */
+    public int getUniformLocation(String name) {
+        return find(mUniformNames, mUniformLocations, name);
+    }
+
+    /**
+     * Gets a location resolved at link time, no GL call is made
+     *
+     * @param name The attribute name
+     * @return The location, -1 if the attribute is not active
+     */
+    public int getAttribLocation(String name) {
+        return find(mAttribNames, mAttribLocations, name);
+    }
+
+    /**
+     * Gets a uniform location which must exist
+     *
+     * @param name The uniform name, without [0] for arrays
+     * @return The location
+     * @throws RuntimeException if the uniform is not active
+     */
+    public int requireUniformLocation(String name) {
+        final int location = getUniformLocation(name);
+        GlUtil.checkLocation(location, name);
+        return location;
+    }
+
+    /**
+     * Gets an attribute location which must exist
+     *
+     * @param name The attribute name
+     * @return The location
+     * @throws RuntimeException if the attribute is not active
+     */
+    public int requireAttribLocation(String name) {
+        final int location = getAttribLocation(name);
+        GlUtil.checkLocation(location, name);
+        return location;
+    }
+
+    /**
+     * Frees the program, must be called with the context current
+     */
+    public void release() {
+        mGl.glDeleteProgram(mHandle);
+    }
+
+    private static int find(String[] names, int[] locations, String name) {
+        for (int i = 0; i < names.length; i++) {
+            if (names[i].equals(name)) {
+                return locations[i];
+            }
+        }
+        return -1;
+    }
+
+    // Active uniform arrays are reported as name[0]
+    private static String baseName(String name) {
+        return name.endsWith("[0]") ? name.substring(0, name.length() - 3) : name;
+    }
+}
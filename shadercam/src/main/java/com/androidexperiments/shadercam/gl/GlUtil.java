@@ -18,7 +18,6 @@ package com.androidexperiments.shadercam.gl;
 
 import android.opengl.GLES20;
 import android.opengl.GLES30;
-import android.opengl.Matrix;
 import android.util.Log;
 
 import java.nio.ByteBuffer;
@@ -35,11 +34,17 @@ public class GlUtil {
     public static final float[] IDENTITY_MATRIX;
     static {
         IDENTITY_MATRIX = new float[16];
-        Matrix.setIdentityM(IDENTITY_MATRIX, 0);
+        // Filled by hand so the helpers run without the Android runtime in unit tests
+        for (int i = 0; i < 16; i += 5) {
+            IDENTITY_MATRIX[i] = 1f;
+        }
     }
 
     private static final int SIZEOF_FLOAT = 4;
 
+    /** Calls of the helpers without {@link Gl} parameter go to the current context */
+    private static final Gl ANDROID_GL = new AndroidGl();
+
 
     private GlUtil() {}     // do not instantiate
 
@@ -49,31 +54,40 @@ public class GlUtil {
      * @return A handle to the program, or 0 on failure.
      */
     public static int createProgram(String vertexSource, String fragmentSource) {
-        int vertexShader = loadShader(GLES20.GL_VERTEX_SHADER, vertexSource);
+        return createProgram(ANDROID_GL, vertexSource, fragmentSource);
+    }
+
+    /**
+     * Creates a new program from the supplied vertex and fragment shaders.
+     *
+     * @return A handle to the program, or 0 on failure.
+     */
+    public static int createProgram(Gl gl, String vertexSource, String fragmentSource) {
+        int vertexShader = loadShader(gl, GLES20.GL_VERTEX_SHADER, vertexSource);
         if (vertexShader == 0) {
             return 0;
         }
-        int pixelShader = loadShader(GLES20.GL_FRAGMENT_SHADER, fragmentSource);
+        int pixelShader = loadShader(gl, GLES20.GL_FRAGMENT_SHADER, fragmentSource);
         if (pixelShader == 0) {
             return 0;
         }
 
-        int program = GLES20.glCreateProgram();
-        checkGlError("glCreateProgram");
+        int program = gl.glCreateProgram();
+        checkGlError(gl, "glCreateProgram");
         if (program == 0) {
             Log.e(TAG, "Could not create program");
         }
-        GLES20.glAttachShader(program, vertexShader);
-        checkGlError("glAttachShader");
-        GLES20.glAttachShader(program, pixelShader);
-        checkGlError("glAttachShader");
-        GLES20.glLinkProgram(program);
+        gl.glAttachShader(program, vertexShader);
+        checkGlError(gl, "glAttachShader");
+        gl.glAttachShader(program, pixelShader);
+        checkGlError(gl, "glAttachShader");
+        gl.glLinkProgram(program);
         int[] linkStatus = new int[1];
-        GLES20.glGetProgramiv(program, GLES20.GL_LINK_STATUS, linkStatus, 0);
+        gl.glGetProgramiv(program, GLES20.GL_LINK_STATUS, linkStatus, 0);
         if (linkStatus[0] != GLES20.GL_TRUE) {
             Log.e(TAG, "Could not link program: ");
-            Log.e(TAG, GLES20.glGetProgramInfoLog(program));
-            GLES20.glDeleteProgram(program);
+            Log.e(TAG, gl.glGetProgramInfoLog(program));
+            gl.glDeleteProgram(program);
             program = 0;
         }
         return program;
@@ -85,16 +99,25 @@ public class GlUtil {
      * @return A handle to the shader, or 0 on failure.
      */
     public static int loadShader(int shaderType, String source) {
-        int shader = GLES20.glCreateShader(shaderType);
-        checkGlError("glCreateShader type=" + shaderType);
-        GLES20.glShaderSource(shader, source);
-        GLES20.glCompileShader(shader);
+        return loadShader(ANDROID_GL, shaderType, source);
+    }
+
+    /**
+     * Compiles the provided shader source.
+     *
+     * @return A handle to the shader, or 0 on failure.
+     */
+    public static int loadShader(Gl gl, int shaderType, String source) {
+        int shader = gl.glCreateShader(shaderType);
+        checkGlError(gl, "glCreateShader type=" + shaderType);
+        gl.glShaderSource(shader, source);
+        gl.glCompileShader(shader);
         int[] compiled = new int[1];
-        GLES20.glGetShaderiv(shader, GLES20.GL_COMPILE_STATUS, compiled, 0);
+        gl.glGetShaderiv(shader, GLES20.GL_COMPILE_STATUS, compiled, 0);
         if (compiled[0] == 0) {
             Log.e(TAG, "Could not compile shader " + shaderType + ":");
-            Log.e(TAG, " " + GLES20.glGetShaderInfoLog(shader));
-            GLES20.glDeleteShader(shader);
+            Log.e(TAG, " " + gl.glGetShaderInfoLog(shader));
+            gl.glDeleteShader(shader);
             shader = 0;
         }
         return shader;
@@ -104,7 +127,14 @@ public class GlUtil {
      * Checks to see if a GLES error has been raised.
      */
     public static void checkGlError(String op) {
-        int error = GLES20.glGetError();
+        checkGlError(ANDROID_GL, op);
+    }
+
+    /**
+     * Checks to see if a GLES error has been raised.
+     */
+    public static void checkGlError(Gl gl, String op) {
+        int error = gl.glGetError();
         if (error != GLES20.GL_NO_ERROR) {
             String msg = op + ": glError 0x" + Integer.toHexString(error);
             Log.e(TAG, msg);
@@ -134,28 +164,41 @@ public class GlUtil {
      * @return Handle to texture.
      */
     public static int createImageTexture(ByteBuffer data, int width, int height, int format) {
+        return createImageTexture(ANDROID_GL, data, width, height, format);
+    }
+
+    /**
+     * Creates a texture from raw data.
+     *
+     * @param data Image data, in a "direct" ByteBuffer.
+     * @param width Texture width, in pixels (not bytes).
+     * @param height Texture height, in pixels.
+     * @param format Image data format (use constant appropriate for glTexImage2D(), e.g. GL_RGBA).
+     * @return Handle to texture.
+     */
+    public static int createImageTexture(Gl gl, ByteBuffer data, int width, int height, int format) {
         int[] textureHandles = new int[1];
         int textureHandle;
 
-        GLES20.glGenTextures(1, textureHandles, 0);
+        gl.glGenTextures(1, textureHandles, 0);
         textureHandle = textureHandles[0];
-        GlUtil.checkGlError("glGenTextures");
+        GlUtil.checkGlError(gl, "glGenTextures");
 
         // Bind the texture handle to the 2D texture target.
-        GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, textureHandle);
+        gl.glBindTexture(GLES20.GL_TEXTURE_2D, textureHandle);
 
         // Configure min/mag filtering, i.e. what scaling method do we use if what we're rendering
         // is smaller or larger than the source image.
-        GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_MIN_FILTER,
+        gl.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_MIN_FILTER,
                 GLES20.GL_LINEAR);
-        GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_MAG_FILTER,
+        gl.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_MAG_FILTER,
                 GLES20.GL_LINEAR);
-        GlUtil.checkGlError("loadImageTexture");
+        GlUtil.checkGlError(gl, "loadImageTexture");
 
         // Load the data from the buffer into the texture handle.
-        GLES20.glTexImage2D(GLES20.GL_TEXTURE_2D, /*level*/ 0, format,
+        gl.glTexImage2D(GLES20.GL_TEXTURE_2D, /*level*/ 0, format,
                 width, height, /*border*/ 0, format, GLES20.GL_UNSIGNED_BYTE, data);
-        GlUtil.checkGlError("loadImageTexture");
+        GlUtil.checkGlError(gl, "loadImageTexture");
 
         return textureHandle;
     }
@@ -0,0 +1,133 @@
+package com.androidexperiments.shadercam.gl;
+
+import android.opengl.GLES11Ext;
+import android.opengl.GLES20;
+
+/**
+ * Downscale and luma pre-pass rendering the external camera texture into a small FBO.
+ * <p>
+ * Each RGBA texel of the target packs 4 horizontal luma samples, so reading back the FBO as
+ * RGBA gives a tightly packed 8 bits grayscale image of lumaWidth x lumaHeight bytes.
+ * Must be used from the GL thread.
+ */
+public class LumaPass {
+    public static final String FRAGMENT_SHADER = "luma.frag.glsl";
+    public static final String VERTEX_SHADER = "luma.vert.glsl";
+
+    /** Number of luma samples packed in a texel */
+    public static final int SAMPLES_PER_TEXEL = 4;
+
+    private final Gl mGl;
+    private final GlProgram mProgram;
+    private final int mTransformHandle;
+    private final int mSampleStepHandle;
+
+    private int mFramebuffer;
+    private int mTexture;
+    private int mLumaWidth;
+    private int mLumaHeight;
+
+    /**
+     * Compiles the pass program, must be called with the context current
+     *
+     * @param gl The GL used by the pass
+     * @param vertexShaderCode The source of {@link #VERTEX_SHADER}
+     * @param fragmentShaderCode The source of {@link #FRAGMENT_SHADER}
+     */
+    public LumaPass(Gl gl, String vertexShaderCode, String fragmentShaderCode) {
+        mGl = gl;
+        mProgram = new GlProgram(gl, vertexShaderCode, fragmentShaderCode, GlMesh.ATTRIBUTES);
+        mProgram.requireAttribLocation("position");
+        mProgram.requireAttribLocation("camTexCoordinate");
+        final int textureHandle = mProgram.requireUniformLocation("camTexture");
+        mTransformHandle = mProgram.requireUniformLocation("camTextureTransform");
+        mSampleStepHandle = mProgram.requireUniformLocation("sampleStep");
+
+        // Camera texture always on unit 0
+        mProgram.use();
+        mGl.glUniform1i(textureHandle, 0);
+    }
+
+    /**
+     * Renders the camera texture in the pass FBO which is left bound for readback, the caller
+     * is responsible for restoring the default framebuffer and viewport.
+     *
+     * @param cameraTextureId The external OES camera texture
+     * @param transformMatrix The SurfaceTexture transform matrix
+     * @param mesh The quad with raw texture coordinates (TL, TR, BL, BR)
+     * @param lumaWidth The output width in luma samples, multiple of {@link #SAMPLES_PER_TEXEL}
+     * @param lumaHeight The output height in luma samples
+     */
+    public void render(int cameraTextureId, float[] transformMatrix, GlMesh mesh, int lumaWidth, int lumaHeight) {
+        if (lumaWidth % SAMPLES_PER_TEXEL != 0) {
+            throw new IllegalArgumentException("lumaWidth must be a multiple of " + SAMPLES_PER_TEXEL);
+        }
+        if (lumaWidth != mLumaWidth || lumaHeight != mLumaHeight) {
+            setupFramebuffer(lumaWidth, lumaHeight);
+        }
+
+        mGl.glBindFramebuffer(GLES20.GL_FRAMEBUFFER, mFramebuffer);
+        mGl.glViewport(0, 0, lumaWidth / SAMPLES_PER_TEXEL, lumaHeight);
+
+        mProgram.use();
+
+        mGl.glActiveTexture(GLES20.GL_TEXTURE0);
+        mGl.glBindTexture(GLES11Ext.GL_TEXTURE_EXTERNAL_OES, cameraTextureId);
+
+        mGl.glUniformMatrix4fv(mTransformHandle, 1, false, transformMatrix, 0);
+        // Horizontal span of the quad divided by the number of samples
+        mGl.glUniform1f(mSampleStepHandle, (mesh.getTexCoord(2) - mesh.getTexCoord(0)) / lumaWidth);
+
+        mesh.draw();
+        GlUtil.checkGlError(mGl, "LumaPass render");
+    }
+
+    /**
+     * Frees GL objects, must be called with the context current
+     */
+    public void release() {
+        releaseFramebuffer();
+        mProgram.release();
+    }
+
+    private void setupFramebuffer(int lumaWidth, int lumaHeight) {
+        releaseFramebuffer();
+
+        final int[] values = new int[1];
+        mGl.glGenTextures(1, values, 0);
+        mTexture = values[0];
+        mGl.glBindTexture(GLES20.GL_TEXTURE_2D, mTexture);
+        mGl.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_MIN_FILTER, GLES20.GL_NEAREST);
+        mGl.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_MAG_FILTER, GLES20.GL_NEAREST);
+        mGl.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_WRAP_S, GLES20.GL_CLAMP_TO_EDGE);
+        mGl.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_WRAP_T, GLES20.GL_CLAMP_TO_EDGE);
+        mGl.glTexImage2D(GLES20.GL_TEXTURE_2D, 0, GLES20.GL_RGBA, lumaWidth / SAMPLES_PER_TEXEL, lumaHeight,
+                0, GLES20.GL_RGBA, GLES20.GL_UNSIGNED_BYTE, null);
+
+        mGl.glGenFramebuffers(1, values, 0);
+        mFramebuffer = values[0];
+        mGl.glBindFramebuffer(GLES20.GL_FRAMEBUFFER, mFramebuffer);
+        mGl.glFramebufferTexture2D(GLES20.GL_FRAMEBUFFER, GLES20.GL_COLOR_ATTACHMENT0,
+                GLES20.GL_TEXTURE_2D, mTexture, 0);
+        final int status = mGl.glCheckFramebufferStatus(GLES20.GL_FRAMEBUFFER);
+        if (status != GLES20.GL_FRAMEBUFFER_COMPLETE) {
+            throw new RuntimeException("Luma pass framebuffer not complete, status=" + status);
+        }
+        mGl.glBindFramebuffer(GLES20.GL_FRAMEBUFFER, 0);
+        GlUtil.checkGlError(mGl, "LumaPass setup");
+
+        mLumaWidth = lumaWidth;
+        mLumaHeight = lumaHeight;
+    }
+
+    private void releaseFramebuffer() {
+        if (mFramebuffer != 0) {
+            mGl.glDeleteFramebuffers(1, new int[]{mFramebuffer}, 0);
+            mGl.glDeleteTextures(1, new int[]{mTexture}, 0);
+            mFramebuffer = 0;
+            mTexture = 0;
+            mLumaWidth = 0;
+            mLumaHeight = 0;
+        }
+    }
+}
@@ -0,0 +1,69 @@
+package com.androidexperiments.shadercam.gl;
+
+/**
+ * {@link TickSource} driven by a fake clock, ticks are delivered on the thread calling
+ * {@link #advance(long)}. Allows running a {@link RenderLoop} without display nor real time.
+ */
+public class ManualTickSource implements TickSource {
+
+    private OnTickListener mListener;
+
+    private long mTime;
+    private boolean mRequested;
+
+    /**
+     * @param startTime The initial clock time in ns
+     */
+    public ManualTickSource(long startTime) {
+        mTime = startTime;
+    }
+
+    @Override
+    public void setOnTickListener(OnTickListener listener) {
+        mListener = listener;
+    }
+
+    @Override
+    public synchronized void requestTick() {
+        mRequested = true;
+    }
+
+    @Override
+    public synchronized void cancelTick() {
+        mRequested = false;
+    }
+
+    @Override
+    public synchronized long now() {
+        return mTime;
+    }
+
+    /**
+     * @return true if a tick has been requested since the last one
+     */
+    public synchronized boolean isTickRequested() {
+        return mRequested;
+    }
+
+    /**
+     * Moves the clock forward and delivers the requested tick if any
+     *
+     * @param nanos The time to add in ns, typically a vsync period
+     * @return true if a tick has been delivered
+     */
+    public boolean advance(long nanos) {
+        final long frameTime;
+        synchronized (this) {
+            mTime += nanos;
+            if (!mRequested) {
+                return false;
+            }
+            mRequested = false;
+            frameTime = mTime;
+        }
+        if (mListener != null) {
+            mListener.onTick(frameTime);
+        }
+        return true;
+    }
+}
@@ -0,0 +1,275 @@
+package com.androidexperiments.shadercam.gl;
+
+import android.opengl.GLES20;
+import android.opengl.GLES30;
+import android.util.Log;
+
+import com.thommil.animalsgo.cv.FrameFormat;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Reads back RGBA pixels from the current read framebuffer.
+ * <p>
+ * On GLES3 contexts pixels are packed into one of two pixel buffer objects and mapped once the
+ * GPU has signaled a fence, so glReadPixels does not stall the pipeline. On GLES2 contexts the
+ * synchronous glReadPixels into client memory is used and reads complete immediately.
+ * <p>
+ * If creating or waiting on a fence or mapping a buffer fails the read is dropped, its tag is
+ * returned by {@link #pollFailed()}, and the reader falls back to synchronous reads.
+ * <p>
+ * Only needs a current context, so it works on window surfaces as well as on surfaces created
+ * with {@link EglSurfaceBase#createOffscreenSurface(int, int)}. GL calls go through the given
+ * {@link Gl} so pixel pack buffer binds are tracked with the renderer state. Must be used from the
+ * GL thread.
+ */
+public class PixelReader {
+    private static final String TAG = "A_GO/PixelReader";
+
+    /** Synchronous glReadPixels into client memory */
+    public static final int MODE_SYNC = 0;
+
+    /** Asynchronous readback through double-buffered pixel pack buffers */
+    public static final int MODE_PBO = 1;
+
+    private static final int SLOTS = 2;
+
+    private static final int BYTES_PER_PIXEL = FrameFormat.bytesPerPixel(FrameFormat.RGBA8);
+
+    private final Gl mGl;
+
+    private int mMode;
+
+    // PBO names and their allocated size in bytes
+    private final int[] mBuffers = new int[SLOTS];
+    private final int[] mBufferSizes = new int[SLOTS];
+
+    // Pending reads
+    private final long[] mFences = new long[SLOTS];
+    private final boolean[] mPending = new boolean[SLOTS];
+    private final boolean[] mFailed = new boolean[SLOTS];
+    private final long[] mSequences = new long[SLOTS];
+    private final int[] mSizes = new int[SLOTS];
+    private final ByteBuffer[] mTargets = new ByteBuffer[SLOTS];
+    private final Object[] mTags = new Object[SLOTS];
+
+    private long mSequence = 0;
+
+    /**
+     * Creates a reader for the current context
+     *
+     * @param gl The GL used by this reader
+     * @param glVersion The GLES version of the current context, see {@link EglCore#getGlVersion()}
+     */
+    public PixelReader(Gl gl, int glVersion) {
+        mGl = gl;
+        int mode = MODE_SYNC;
+        if (glVersion >= 3) {
+            mGl.glGenBuffers(SLOTS, mBuffers, 0);
+            if (mGl.glGetError() == GLES30.GL_NO_ERROR) {
+                mode = MODE_PBO;
+            } else {
+                Log.w(TAG, "Failed to create pixel pack buffers, falling back to sync readback");
+            }
+        }
+        mMode = mode;
+        Log.i(TAG, "Readback mode : " + (mMode == MODE_PBO ? "PBO" : "SYNC"));
+    }
+
+    /**
+     * @return {@link #MODE_PBO} or {@link #MODE_SYNC}
+     */
+    public int getMode() {
+        return mMode;
+    }
+
+    /**
+     * Starts reading a region of the current read framebuffer.
+     *
+     * @param x The region left in pixels
+     * @param y The region bottom in pixels
+     * @param width The region width in pixels
+     * @param height The region height in pixels
+     * @param target The direct buffer receiving the RGBA pixels, filled when returned by {@link #poll()}
+     * @param tag The object returned by {@link #poll()} when the read completes
+     * @return false if the two reads are already pending
+     */
+    public boolean readPixels(int x, int y, int width, int height, ByteBuffer target, Object tag) {
+        final int slot = freeSlot();
+        if (slot < 0) {
+            return false;
+        }
+
+        final int size = width * height * BYTES_PER_PIXEL;
+        if (mMode == MODE_PBO) {
+            mGl.glBindBuffer(GLES30.GL_PIXEL_PACK_BUFFER, mBuffers[slot]);
+            if (mBufferSizes[slot] < size) {
+                mGl.glBufferData(GLES30.GL_PIXEL_PACK_BUFFER, size, null, GLES30.GL_STREAM_READ);
+                mBufferSizes[slot] = size;
+            }
+            mGl.glReadPixels(x, y, width, height, GLES30.GL_RGBA, GLES30.GL_UNSIGNED_BYTE, 0);
+            mGl.glBindBuffer(GLES30.GL_PIXEL_PACK_BUFFER, 0);
+            GlUtil.checkGlError(mGl, "glReadPixels PBO");
+            mFences[slot] = mGl.glFenceSync(GLES30.GL_SYNC_GPU_COMMANDS_COMPLETE, 0);
+            if (mFences[slot] == 0) {
+                //Completion cannot be known, the read is dropped as if waiting had failed
+                Log.e(TAG, "glFenceSync failed, glError 0x" + Integer.toHexString(drainGlErrors())
+                        + ", falling back to sync readback");
+                mFailed[slot] = true;
+                mTags[slot] = tag;
+                mMode = MODE_SYNC;
+                return true;
+            }
+            mGl.glFlush();
+        } else {
+            target.rewind();
+            mGl.glReadPixels(x, y, width, height, GLES20.GL_RGBA, GLES20.GL_UNSIGNED_BYTE, target);
+            GlUtil.checkGlError(mGl, "glReadPixels");
+            target.rewind();
+        }
+
+        mPending[slot] = true;
+        mSequences[slot] = mSequence++;
+        mSizes[slot] = size;
+        mTargets[slot] = target;
+        mTags[slot] = tag;
+        return true;
+    }
+
+    /**
+     * Returns the oldest completed read, never blocks waiting for the GPU.
+     *
+     * @return The tag of the read whose target is now filled, or null if none has completed
+     */
+    public Object poll() {
+        final int slot = oldestPendingSlot();
+        if (slot < 0) {
+            return null;
+        }
+
+        if (mFences[slot] != 0) {
+            final int status = mGl.glClientWaitSync(mFences[slot], 0, 0);
+            if (status == GLES30.GL_TIMEOUT_EXPIRED) {
+                return null;
+            }
+            mGl.glDeleteSync(mFences[slot]);
+            mFences[slot] = 0;
+
+            if (status == GLES30.GL_WAIT_FAILED) {
+                //Not thrown as checkGlError would, the read is dropped instead
+                Log.e(TAG, "glClientWaitSync failed, glError 0x" + Integer.toHexString(mGl.glGetError())
+                        + ", falling back to sync readback");
+                mPending[slot] = false;
+                mFailed[slot] = true;
+                mTargets[slot] = null;
+                mMode = MODE_SYNC;
+                //The other slot may have completed
+                return poll();
+            }
+
+            final ByteBuffer target = mTargets[slot];
+            mGl.glBindBuffer(GLES30.GL_PIXEL_PACK_BUFFER, mBuffers[slot]);
+            final ByteBuffer mapped = (ByteBuffer) mGl.glMapBufferRange(GLES30.GL_PIXEL_PACK_BUFFER,
+                    0, mSizes[slot], GLES30.GL_MAP_READ_BIT);
+            if (mapped == null) {
+                //Nothing to unmap, the target was not filled so the read is dropped
+                mGl.glBindBuffer(GLES30.GL_PIXEL_PACK_BUFFER, 0);
+                Log.e(TAG, "glMapBufferRange failed, glError 0x" + Integer.toHexString(drainGlErrors())
+                        + ", falling back to sync readback");
+                mPending[slot] = false;
+                mFailed[slot] = true;
+                mTargets[slot] = null;
+                mMode = MODE_SYNC;
+                return poll();
+            }
+            target.rewind();
+            target.put(mapped);
+            target.rewind();
+            mGl.glUnmapBuffer(GLES30.GL_PIXEL_PACK_BUFFER);
+            mGl.glBindBuffer(GLES30.GL_PIXEL_PACK_BUFFER, 0);
+            GlUtil.checkGlError(mGl, "glMapBufferRange");
+        }
+
+        final Object tag = mTags[slot];
+        mPending[slot] = false;
+        mTargets[slot] = null;
+        mTags[slot] = null;
+        return tag;
+    }
+
+    /**
+     * Returns a read dropped because its fence could not be created or waited on or its buffer
+     * could not be mapped, its target was not filled.
+     *
+     * @return The tag of the dropped read, or null if none
+     */
+    public Object pollFailed() {
+        for (int slot = 0; slot < SLOTS; slot++) {
+            if (mFailed[slot]) {
+                final Object tag = mTags[slot];
+                mFailed[slot] = false;
+                mTags[slot] = null;
+                return tag;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return true if a read is pending
+     */
+    public boolean isPending() {
+        return oldestPendingSlot() >= 0;
+    }
+
+    /**
+     * Drops pending reads and frees GL objects, must be called with the context current
+     */
+    public void release() {
+        for (int slot = 0; slot < SLOTS; slot++) {
+            if (mFences[slot] != 0) {
+                mGl.glDeleteSync(mFences[slot]);
+                mFences[slot] = 0;
+            }
+            mPending[slot] = false;
+            mFailed[slot] = false;
+            mTargets[slot] = null;
+            mTags[slot] = null;
+        }
+        //Also allocated when the reader has fallen back to sync reads
+        if (mBuffers[0] != 0) {
+            mGl.glDeleteBuffers(SLOTS, mBuffers, 0);
+            mBuffers[0] = 0;
+            mBuffers[1] = 0;
+        }
+    }
+
+    // Clears the GL error flags, returns the first one
+    private int drainGlErrors() {
+        final int first = mGl.glGetError();
+        int error = first;
+        while (error != GLES30.GL_NO_ERROR) {
+            error = mGl.glGetError();
+        }
+        return first;
+    }
+
+    private int freeSlot() {
+        for (int slot = 0; slot < SLOTS; slot++) {
+            if (!mPending[slot] && !mFailed[slot]) {
+                return slot;
+            }
+        }
+        return -1;
+    }
+
+    private int oldestPendingSlot() {
+        int oldest = -1;
+        for (int slot = 0; slot < SLOTS; slot++) {
+            if (mPending[slot] && (oldest < 0 || mSequences[slot] < mSequences[oldest])) {
+                oldest = slot;
+            }
+        }
+        return oldest;
+    }
+}
@@ -0,0 +1,191 @@
+package com.androidexperiments.shadercam.gl;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Paces rendering on the ticks of a {@link TickSource} instead of the camera frames arrival.
+ * <p>
+ * Camera frames and redraw requests only schedule a tick, the frame is rendered once per tick with
+ * the newest camera frame latched, older frames received since the previous tick are counted as
+ * dropped. Ticks with neither a new camera frame nor a redraw request are skipped.
+ * <p>
+ * The latency between the arrival of the latched camera frame and its presentation is measured
+ * with the tick source clock. {@link #onFrameAvailable()} and {@link #invalidate()} can be called
+ * from any thread, ticks must be delivered on the rendering thread.
+ */
+public class RenderLoop implements TickSource.OnTickListener {
+    /**
+     * Renders and presents frames on the rendering thread
+     */
+    public interface FrameRenderer {
+        /**
+         * @param latchFrame true if a new camera frame must be latched before drawing
+         * @param frameTimeNanos The tick time in ns
+         * @return false if the frame could not be presented, the loop is then stopped
+         */
+        boolean renderFrame(boolean latchFrame, long frameTimeNanos);
+    }
+
+    private final TickSource mTickSource;
+    private final FrameRenderer mFrameRenderer;
+
+    // Camera frames received since the last tick and arrival time of the newest one
+    private final AtomicInteger mAvailableFrames = new AtomicInteger();
+    private volatile long mLastFrameTime;
+
+    private final AtomicBoolean mInvalidated = new AtomicBoolean();
+    private final AtomicBoolean mTickRequested = new AtomicBoolean();
+    private volatile boolean mRunning;
+
+    // Statistics, only written from the rendering thread
+    private volatile long mRenderedFrames;
+    private volatile long mDroppedFrames;
+    private volatile long mSkippedTicks;
+    private volatile long mLastLatency;
+    private volatile long mMaxLatency;
+    private long mLatencySum;
+    private long mLatencyCount;
+
+    /**
+     * @param tickSource The source of ticks, owned by the loop once started
+     * @param frameRenderer The renderer called on each useful tick
+     */
+    public RenderLoop(TickSource tickSource, FrameRenderer frameRenderer) {
+        mTickSource = tickSource;
+        mFrameRenderer = frameRenderer;
+    }
+
+    /**
+     * Starts pacing, a tick is requested if frames are already pending
+     */
+    public void start() {
+        mTickSource.setOnTickListener(this);
+        mRunning = true;
+        if (mAvailableFrames.get() > 0 || mInvalidated.get()) {
+            scheduleTick();
+        }
+    }
+
+    /**
+     * Stops pacing, pending ticks are cancelled
+     */
+    public void stop() {
+        mRunning = false;
+        mTickSource.cancelTick();
+        mTickRequested.set(false);
+        mTickSource.setOnTickListener(null);
+    }
+
+    /**
+     * Signals a new camera frame, rendered at the next tick
+     */
+    public void onFrameAvailable() {
+        mLastFrameTime = mTickSource.now();
+        mAvailableFrames.incrementAndGet();
+        scheduleTick();
+    }
+
+    /**
+     * Requests a redraw at the next tick without new camera frame (HUD changes)
+     */
+    public void invalidate() {
+        mInvalidated.set(true);
+        scheduleTick();
+    }
+
+    private void scheduleTick() {
+        if (mRunning && mTickRequested.compareAndSet(false, true)) {
+            mTickSource.requestTick();
+        }
+    }
+
+    @Override
+    public void onTick(long frameTimeNanos) {
+        mTickRequested.set(false);
+        if (!mRunning) {
+            return;
+        }
+        final long frameTime = mLastFrameTime;
+        final int frames = mAvailableFrames.getAndSet(0);
+        final boolean invalidated = mInvalidated.getAndSet(false);
+        if (frames == 0 && !invalidated) {
+            mSkippedTicks++;
+            return;
+        }
+        if (frames > 1) {
+            mDroppedFrames += frames - 1;
+        }
+
+        if (!mFrameRenderer.renderFrame(frames > 0, frameTimeNanos)) {
+            stop();
+            return;
+        }
+        mRenderedFrames++;
+
+        if (frames > 0) {
+            final long latency = mTickSource.now() - frameTime;
+            mLastLatency = latency;
+            if (latency > mMaxLatency) {
+                mMaxLatency = latency;
+            }
+            mLatencySum += latency;
+            mLatencyCount++;
+        }
+    }
+
+    /**
+     * @return The number of frames presented
+     */
+    public long getRenderedFrames() {
+        return mRenderedFrames;
+    }
+
+    /**
+     * @return The number of camera frames replaced by a newer one before being presented
+     */
+    public long getDroppedFrames() {
+        return mDroppedFrames;
+    }
+
+    /**
+     * @return The number of ticks with nothing to render
+     */
+    public long getSkippedTicks() {
+        return mSkippedTicks;
+    }
+
+    /**
+     * @return The latency in ns between the arrival of the last presented camera frame and its presentation
+     */
+    public long getLastLatency() {
+        return mLastLatency;
+    }
+
+    /**
+     * @return The highest latency in ns since the last reset
+     */
+    public long getMaxLatency() {
+        return mMaxLatency;
+    }
+
+    /**
+     * @return The average latency in ns since the last reset, only consistent on the rendering thread
+     */
+    public long getAverageLatency() {
+        return mLatencyCount == 0 ? 0 : mLatencySum / mLatencyCount;
+    }
+
+    /**
+     * Clears the statistics, must be called on the rendering thread
+     */
+    public void resetStatistics() {
+        mRenderedFrames = 0;
+        mDroppedFrames = 0;
+        mSkippedTicks = 0;
+        mLastLatency = 0;
+        mMaxLatency = 0;
+        mLatencySum = 0;
+        mLatencyCount = 0;
+    }
+}
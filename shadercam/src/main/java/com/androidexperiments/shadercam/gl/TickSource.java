@@ -0,0 +1,40 @@
+package com.androidexperiments.shadercam.gl;
+
+/**
+ * Source of frame ticks driving a {@link RenderLoop}, typically synchronized on the display vsync.
+ * <p>
+ * Ticks are one-shot : a single tick is delivered after each request, so no tick is produced while
+ * there is nothing to render.
+ */
+public interface TickSource {
+
+    /**
+     * Sets the listener receiving the ticks, on the thread owning the source
+     */
+    void setOnTickListener(OnTickListener listener);
+
+    /**
+     * Requests a tick at the next frame, requests made before the tick is delivered are merged
+     */
+    void requestTick();
+
+    /**
+     * Cancels the pending request if any
+     */
+    void cancelTick();
+
+    /**
+     * @return The current time in ns, in the time base of the ticks
+     */
+    long now();
+
+    /**
+     * Listener receiving the ticks
+     */
+    interface OnTickListener {
+        /**
+         * @param frameTimeNanos The time in ns at which the frame started
+         */
+        void onTick(long frameTimeNanos);
+    }
+}
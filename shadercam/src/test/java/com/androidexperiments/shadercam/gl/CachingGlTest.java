@@ -0,0 +1,215 @@
+package com.androidexperiments.shadercam.gl;
+
+import android.opengl.GLES11Ext;
+import android.opengl.GLES20;
+import android.opengl.GLES30;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class CachingGlTest {
+
+    private RecordingGl mRecordingGl;
+    private CachingGl mGl;
+
+    @Before
+    public void setUp() {
+        mRecordingGl = new RecordingGl();
+        mGl = new CachingGl(mRecordingGl, 3);
+    }
+
+    @Test
+    public void skipsRedundantProgram() {
+        mGl.glUseProgram(1);
+        mGl.glUseProgram(1);
+        mGl.glUseProgram(2);
+        mGl.glUseProgram(2);
+        assertEquals(2, mRecordingGl.getCount("glUseProgram"));
+    }
+
+    @Test
+    public void skipsRedundantTexturesPerUnit() {
+        mGl.glActiveTexture(GLES20.GL_TEXTURE0);
+        mGl.glBindTexture(GLES20.GL_TEXTURE_2D, 1);
+        mGl.glBindTexture(GLES20.GL_TEXTURE_2D, 1);
+        mGl.glBindTexture(GLES11Ext.GL_TEXTURE_EXTERNAL_OES, 1);
+        mGl.glActiveTexture(GLES20.GL_TEXTURE0);
+        mGl.glActiveTexture(GLES20.GL_TEXTURE1);
+        mGl.glBindTexture(GLES20.GL_TEXTURE_2D, 1);
+        mGl.glActiveTexture(GLES20.GL_TEXTURE0);
+        mGl.glBindTexture(GLES20.GL_TEXTURE_2D, 1);
+        assertEquals(3, mRecordingGl.getCount("glActiveTexture"));
+        assertEquals(3, mRecordingGl.getCount("glBindTexture"));
+    }
+
+    @Test
+    public void forwardsTexturesOfUnknownUnit() {
+        mGl.glBindTexture(GLES20.GL_TEXTURE_2D, 1);
+        mGl.glBindTexture(GLES20.GL_TEXTURE_2D, 1);
+        assertEquals(2, mRecordingGl.getCount("glBindTexture"));
+    }
+
+    @Test
+    public void skipsRedundantBuffers() {
+        mGl.glBindBuffer(GLES20.GL_ARRAY_BUFFER, 1);
+        mGl.glBindBuffer(GLES20.GL_ARRAY_BUFFER, 1);
+        mGl.glBindBuffer(GLES30.GL_PIXEL_PACK_BUFFER, 1);
+        mGl.glBindBuffer(GLES30.GL_PIXEL_PACK_BUFFER, 1);
+        mGl.glBindBuffer(GLES30.GL_PIXEL_PACK_BUFFER, 0);
+        mGl.glBindBuffer(GLES20.GL_ARRAY_BUFFER, 1);
+        assertEquals(3, mRecordingGl.getCount("glBindBuffer"));
+    }
+
+    @Test
+    public void elementBufferTrackedInDefaultVertexArrayOnly() {
+        mGl.glBindVertexArray(0);
+        mGl.glBindBuffer(GLES20.GL_ELEMENT_ARRAY_BUFFER, 1);
+        mGl.glBindBuffer(GLES20.GL_ELEMENT_ARRAY_BUFFER, 1);
+        mGl.glBindVertexArray(2);
+        mGl.glBindBuffer(GLES20.GL_ELEMENT_ARRAY_BUFFER, 1);
+        mGl.glBindVertexArray(0);
+        mGl.glBindBuffer(GLES20.GL_ELEMENT_ARRAY_BUFFER, 1);
+        assertEquals(2, mRecordingGl.getCount("glBindBuffer"));
+        assertEquals(3, mRecordingGl.getCount("glBindVertexArray"));
+    }
+
+    @Test
+    public void skipsRedundantAttribArrays() {
+        mGl.glBindVertexArray(0);
+        mGl.glEnableVertexAttribArray(0);
+        mGl.glEnableVertexAttribArray(0);
+        mGl.glDisableVertexAttribArray(0);
+        mGl.glDisableVertexAttribArray(0);
+        assertEquals(1, mRecordingGl.getCount("glEnableVertexAttribArray"));
+        assertEquals(1, mRecordingGl.getCount("glDisableVertexAttribArray"));
+    }
+
+    @Test
+    public void skipsRedundantViewport() {
+        mGl.glViewport(0, 0, 640, 480);
+        mGl.glViewport(0, 0, 640, 480);
+        mGl.glViewport(0, 0, 32, 32);
+        mGl.glViewport(0, 0, 640, 480);
+        assertEquals(3, mRecordingGl.getCount("glViewport"));
+    }
+
+    @Test
+    public void skipsRedundantFramebuffer() {
+        mGl.glBindFramebuffer(GLES20.GL_FRAMEBUFFER, 1);
+        mGl.glBindFramebuffer(GLES20.GL_FRAMEBUFFER, 1);
+        mGl.glBindFramebuffer(GLES20.GL_FRAMEBUFFER, 0);
+        mGl.glBindFramebuffer(GLES20.GL_FRAMEBUFFER, 0);
+        assertEquals(2, mRecordingGl.getCount("glBindFramebuffer"));
+    }
+
+    @Test
+    public void invalidateTexturesAfterUpdateTexImage() {
+        mGl.glUseProgram(1);
+        mGl.glActiveTexture(GLES20.GL_TEXTURE0);
+        mGl.glBindTexture(GLES11Ext.GL_TEXTURE_EXTERNAL_OES, 1);
+        // SurfaceTexture.updateTexImage() binds the external texture behind the cache
+        mRecordingGl.glBindTexture(GLES11Ext.GL_TEXTURE_EXTERNAL_OES, 5);
+        mGl.invalidateTextures();
+        mRecordingGl.clear();
+
+        mGl.glUseProgram(1);
+        mGl.glActiveTexture(GLES20.GL_TEXTURE0);
+        mGl.glBindTexture(GLES11Ext.GL_TEXTURE_EXTERNAL_OES, 1);
+        assertEquals(0, mRecordingGl.getCount("glUseProgram"));
+        assertEquals(0, mRecordingGl.getCount("glActiveTexture"));
+        assertEquals(1, mRecordingGl.getCount("glBindTexture"));
+    }
+
+    @Test
+    public void invalidateForwardsEverything() {
+        mGl.glUseProgram(1);
+        mGl.glViewport(0, 0, 640, 480);
+        mGl.invalidate();
+        mGl.glUseProgram(1);
+        mGl.glViewport(0, 0, 640, 480);
+        assertEquals(2, mRecordingGl.getCount("glUseProgram"));
+        assertEquals(2, mRecordingGl.getCount("glViewport"));
+    }
+
+    @Test
+    public void deletedObjectsAreUnbound() {
+        mGl.glActiveTexture(GLES20.GL_TEXTURE0);
+        mGl.glBindTexture(GLES20.GL_TEXTURE_2D, 1);
+        mGl.glBindBuffer(GLES20.GL_ARRAY_BUFFER, 2);
+        mGl.glBindBuffer(GLES30.GL_PIXEL_PACK_BUFFER, 3);
+        mGl.glBindFramebuffer(GLES20.GL_FRAMEBUFFER, 4);
+        mGl.glDeleteTextures(1, new int[]{1}, 0);
+        mGl.glDeleteBuffers(2, new int[]{2, 3}, 0);
+        mGl.glDeleteFramebuffers(1, new int[]{4}, 0);
+        mRecordingGl.clear();
+
+        // Names reused by new objects
+        mGl.glBindTexture(GLES20.GL_TEXTURE_2D, 1);
+        mGl.glBindBuffer(GLES20.GL_ARRAY_BUFFER, 2);
+        mGl.glBindBuffer(GLES30.GL_PIXEL_PACK_BUFFER, 3);
+        mGl.glBindFramebuffer(GLES20.GL_FRAMEBUFFER, 4);
+        assertEquals(1, mRecordingGl.getCount("glBindTexture"));
+        assertEquals(2, mRecordingGl.getCount("glBindBuffer"));
+        assertEquals(1, mRecordingGl.getCount("glBindFramebuffer"));
+
+        // Deletion binds 0
+        mGl.glDeleteBuffers(1, new int[]{2}, 0);
+        mGl.glBindBuffer(GLES20.GL_ARRAY_BUFFER, 0);
+        assertEquals(2, mRecordingGl.getCount("glBindBuffer"));
+    }
+
+    @Test
+    public void deletedProgramIsUsedAgain() {
+        mGl.glUseProgram(1);
+        mGl.glDeleteProgram(1);
+        mGl.glUseProgram(1);
+        assertEquals(2, mRecordingGl.getCount("glUseProgram"));
+    }
+
+    @Test
+    public void deletedVertexArrayIsUnbound() {
+        mGl.glBindVertexArray(1);
+        mGl.glDeleteVertexArrays(1, new int[]{1}, 0);
+        mGl.glBindVertexArray(0);
+        mGl.glBindVertexArray(1);
+        assertEquals(2, mRecordingGl.getCount("glBindVertexArray"));
+    }
+
+    @Test
+    public void countersPerFrame() {
+        mGl.glUseProgram(1);
+        mGl.glUseProgram(1);
+        mGl.glUniform1i(0, 0);
+        mGl.glDrawElements(GLES20.GL_TRIANGLES, 6, GLES20.GL_UNSIGNED_SHORT, 0);
+        mGl.glReadPixels(0, 0, 8, 8, GLES20.GL_RGBA, GLES20.GL_UNSIGNED_BYTE, 0);
+        // Nothing reported before the end of the frame
+        assertEquals(0, mGl.getFrameCalls());
+        mGl.endFrame();
+        assertEquals(1, mGl.getFrameCalls(CachingGl.CALL_PROGRAM));
+        assertEquals(1, mGl.getFrameSkipped(CachingGl.CALL_PROGRAM));
+        assertEquals(1, mGl.getFrameCalls(CachingGl.CALL_UNIFORM));
+        assertEquals(1, mGl.getFrameCalls(CachingGl.CALL_DRAW));
+        assertEquals(1, mGl.getFrameCalls(CachingGl.CALL_READBACK));
+        assertEquals(4, mGl.getFrameCalls());
+
+        // Kept until the next frame ends, then replaced
+        mGl.glUseProgram(1);
+        assertEquals(4, mGl.getFrameCalls());
+        mGl.endFrame();
+        assertEquals(0, mGl.getFrameCalls());
+        assertEquals(1, mGl.getFrameSkipped(CachingGl.CALL_PROGRAM));
+        mGl.endFrame();
+        assertEquals(0, mGl.getFrameSkipped(CachingGl.CALL_PROGRAM));
+    }
+
+    @Test
+    public void dumpsLastFrame() {
+        mGl.glUseProgram(1);
+        mGl.glUseProgram(1);
+        mGl.glDrawElements(GLES20.GL_TRIANGLES, 6, GLES20.GL_UNSIGNED_SHORT, 0);
+        mGl.endFrame();
+        assertEquals("GL calls : 2 program=1/1 draw=1/0", mGl.dump(new StringBuilder()).toString());
+    }
+}
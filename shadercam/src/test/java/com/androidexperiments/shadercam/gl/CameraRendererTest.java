@@ -0,0 +1,68 @@
+package com.androidexperiments.shadercam.gl;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class CameraRendererTest {
+
+    // Declarations of the camera.vert.glsl and camera.frag.glsl assets
+    private static final String VERTEX_SHADER =
+            "attribute vec4 position;\n" +
+            "uniform mat4 camTextureTransform;\n" +
+            "attribute vec4 camTexCoordinate;\n" +
+            "varying vec2 v_CamTexCoordinate;\n";
+
+    private static final String FRAGMENT_SHADER =
+            "precision mediump float;\n" +
+            "uniform samplerExternalOES camTexture;\n" +
+            "varying vec2 v_CamTexCoordinate;\n";
+
+    private RecordingGl mRecordingGl;
+    private CameraRenderer mRenderer;
+
+    @Before
+    public void setUp() {
+        mRecordingGl = new RecordingGl();
+        mRenderer = new CameraRenderer(null, null, 640, 480);
+        mRenderer.mGl = mRecordingGl;
+        mRenderer.vertexShaderCode = VERTEX_SHADER;
+        mRenderer.fragmentShaderCode = FRAGMENT_SHADER;
+        mRenderer.mCameraMesh = new GlMesh(mRecordingGl, CameraRenderer.squareCoords, mRenderer.textureCoords,
+                CameraRenderer.drawOrder, 3);
+        mRenderer.setupShaders();
+    }
+
+    @Test
+    public void locationsResolvedAtSetupOnly() {
+        assertTrue(mRecordingGl.getCount("glGetUniformLocation") > 0);
+        mRecordingGl.clear();
+        for (int frame = 0; frame < 3; frame++) {
+            mRenderer.draw();
+        }
+        assertEquals(0, mRecordingGl.getCount("glGetUniformLocation"));
+        assertEquals(0, mRecordingGl.getCount("glGetAttribLocation"));
+        assertEquals(3, mRecordingGl.getCount("glDrawElements"));
+    }
+
+    @Test
+    public void drawUploadsCameraTransform() {
+        mRecordingGl.clear();
+        mRenderer.draw();
+        // camTextureTransform is the first uniform declared
+        assertTrue(mRecordingGl.getCalls().contains("glUniformMatrix4fv(0, 1, false)"));
+        assertEquals(1, mRecordingGl.getCount("glUseProgram"));
+    }
+
+    @Test
+    public void texCoordsUpdateWithoutLookups() {
+        mRecordingGl.clear();
+        mRenderer.textureCoords[1] = 0.5f;
+        mRenderer.setupCameraTextureCoords();
+        mRenderer.draw();
+        assertEquals(0, mRecordingGl.getCount("glGetUniformLocation"));
+        assertEquals(0, mRecordingGl.getCount("glGetAttribLocation"));
+    }
+}
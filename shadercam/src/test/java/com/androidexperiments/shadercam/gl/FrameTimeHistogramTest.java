@@ -0,0 +1,157 @@
+package com.androidexperiments.shadercam.gl;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class FrameTimeHistogramTest {
+
+    private FrameTimeHistogram mHistogram;
+
+    @Before
+    public void setUp() {
+        mHistogram = new FrameTimeHistogram();
+    }
+
+    @Test
+    public void smallValuesHaveTheirOwnBucket() {
+        for (int value = 0; value < FrameTimeHistogram.SUB_BUCKETS; value++) {
+            assertEquals(value, FrameTimeHistogram.bucketOf(value));
+            assertEquals(value, FrameTimeHistogram.highestValueOf(value));
+            mHistogram.record(value);
+        }
+        assertEquals(7, mHistogram.getValueAtPercentile(50));
+        assertEquals(15, mHistogram.getValueAtPercentile(100));
+        assertEquals(0, mHistogram.getValueAtPercentile(0));
+    }
+
+    @Test
+    public void powersOfTwoStartABucket() {
+        for (int exponent = 4; exponent <= 36; exponent++) {
+            final long power = 1L << exponent;
+            final int bucket = FrameTimeHistogram.bucketOf(power);
+            assertEquals(bucket - 1, FrameTimeHistogram.bucketOf(power - 1));
+            assertEquals(power - 1, FrameTimeHistogram.highestValueOf(bucket - 1));
+            assertEquals(power + (power >> 4) - 1, FrameTimeHistogram.highestValueOf(bucket));
+        }
+        mHistogram.record(1023);
+        mHistogram.record(1024);
+        assertEquals(1023, mHistogram.getValueAtPercentile(50));
+        assertEquals(1024, mHistogram.getValueAtPercentile(100));
+    }
+
+    @Test
+    public void bucketsKeepRelativePrecision() {
+        int previous = -1;
+        for (long value = 1; value < FrameTimeHistogram.MAX_TRACKABLE; value += 1 + value / 7) {
+            final int bucket = FrameTimeHistogram.bucketOf(value);
+            final long highest = FrameTimeHistogram.highestValueOf(bucket);
+            assertTrue(value + " -> " + highest, highest >= value);
+            assertTrue(value + " -> " + highest, highest - value < Math.max(1, value / FrameTimeHistogram.SUB_BUCKETS + 1));
+            assertTrue(bucket >= previous);
+            previous = bucket;
+        }
+    }
+
+    @Test
+    public void largeValuesGoToLastBucket() {
+        final int last = FrameTimeHistogram.bucketOf(FrameTimeHistogram.MAX_TRACKABLE);
+        assertEquals(FrameTimeHistogram.MAX_TRACKABLE, FrameTimeHistogram.highestValueOf(last));
+        assertEquals(last, FrameTimeHistogram.bucketOf(FrameTimeHistogram.MAX_TRACKABLE + 1));
+        assertEquals(last, FrameTimeHistogram.bucketOf(Long.MAX_VALUE));
+
+        mHistogram.record(1000);
+        mHistogram.record(1L << 40);
+        assertEquals(1L << 40, mHistogram.getMax());
+        assertEquals(FrameTimeHistogram.MAX_TRACKABLE, mHistogram.getValueAtPercentile(100));
+        mHistogram.record(-1);
+        assertEquals(2, mHistogram.getCount());
+    }
+
+    @Test
+    public void percentilesOfKnownDistribution() {
+        // 1 to 1000 us
+        for (int i = 1; i <= 1000; i++) {
+            mHistogram.record(i * 1000L);
+        }
+        assertEquals(1000, mHistogram.getCount());
+        assertEquals(1000, mHistogram.getMin());
+        assertEquals(1000000, mHistogram.getMax());
+        assertEquals(500500, mHistogram.getMean());
+        assertWithinBucket(500000, mHistogram.getValueAtPercentile(50));
+        assertWithinBucket(900000, mHistogram.getValueAtPercentile(90));
+        assertWithinBucket(990000, mHistogram.getValueAtPercentile(99));
+        assertEquals(1000000, mHistogram.getValueAtPercentile(100));
+        assertEquals("n=1000 mean=0.50ms p50=", mHistogram.toString().substring(0, 23));
+    }
+
+    @Test
+    public void resetClearsValues() {
+        mHistogram.record(5000);
+        mHistogram.reset();
+        assertEquals(0, mHistogram.getCount());
+        assertEquals(0, mHistogram.getMin());
+        assertEquals(0, mHistogram.getMax());
+        assertEquals(0, mHistogram.getMean());
+        assertEquals(0, mHistogram.getValueAtPercentile(50));
+        mHistogram.record(3000);
+        assertEquals(3000, mHistogram.getMin());
+    }
+
+    @Test
+    public void copyReplacesTargetValues() {
+        final FrameTimeHistogram target = new FrameTimeHistogram();
+        target.record(1L << 30);
+        mHistogram.record(2000);
+        mHistogram.record(4000);
+        mHistogram.copyTo(target);
+        assertEquals(2, target.getCount());
+        assertEquals(2000, target.getMin());
+        assertEquals(4000, target.getMax());
+        assertEquals(3000, target.getMean());
+        assertEquals(mHistogram.getValueAtPercentile(50), target.getValueAtPercentile(50));
+
+        // Copies are independent
+        mHistogram.reset();
+        assertEquals(2, target.getCount());
+        mHistogram.copyTo(mHistogram);
+        mHistogram.copyTo(target);
+        assertEquals(0, target.getCount());
+    }
+
+    @Test
+    public void oppositeCopiesDoNotDeadlock() throws InterruptedException {
+        final FrameTimeHistogram other = new FrameTimeHistogram();
+        mHistogram.record(1000);
+        other.record(2000);
+        final Thread first = copier(mHistogram, other);
+        final Thread second = copier(other, mHistogram);
+        first.start();
+        second.start();
+        first.join(10000);
+        second.join(10000);
+        assertFalse(first.isAlive() || second.isAlive());
+    }
+
+    private static Thread copier(final FrameTimeHistogram source, final FrameTimeHistogram target) {
+        final Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                for (int i = 0; i < 100000; i++) {
+                    source.copyTo(target);
+                }
+            }
+        });
+        thread.setDaemon(true);
+        return thread;
+    }
+
+    // Percentiles are the upper bound of their bucket, 1/16 above the value at most
+    private static void assertWithinBucket(long expected, long actual) {
+        assertTrue(expected + " > " + actual, actual >= expected);
+        assertTrue(expected + " << " + actual, actual - expected <= expected / FrameTimeHistogram.SUB_BUCKETS);
+    }
+}
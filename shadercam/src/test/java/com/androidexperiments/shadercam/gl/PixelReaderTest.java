@@ -0,0 +1,137 @@
+package com.androidexperiments.shadercam.gl;
+
+import android.opengl.GLES30;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class PixelReaderTest {
+
+    private static final int SIZE = 8;
+
+    private RecordingGl mRecordingGl;
+    private final ByteBuffer mTarget = ByteBuffer.allocateDirect(SIZE * SIZE * 4);
+    private final Object mTag = new Object();
+
+    @Before
+    public void setUp() {
+        mRecordingGl = new RecordingGl();
+    }
+
+    @Test
+    public void syncReadOnGles2() {
+        final PixelReader reader = new PixelReader(mRecordingGl, 2);
+        assertEquals(PixelReader.MODE_SYNC, reader.getMode());
+        assertTrue(reader.readPixels(0, 0, SIZE, SIZE, mTarget, mTag));
+        assertEquals(0, mRecordingGl.getCount("glFenceSync"));
+        assertSame(mTag, reader.poll());
+        assertFalse(reader.isPending());
+    }
+
+    @Test
+    public void pboReadMappedOnceSignaled() {
+        final PixelReader reader = new PixelReader(mRecordingGl, 3);
+        assertEquals(PixelReader.MODE_PBO, reader.getMode());
+        assertTrue(reader.readPixels(0, 0, SIZE, SIZE, mTarget, mTag));
+        assertEquals(1, mRecordingGl.getCount("glFenceSync"));
+        assertEquals(1, mRecordingGl.getCount("glFlush"));
+        assertEquals(0, mRecordingGl.getCount("glMapBufferRange"));
+
+        assertSame(mTag, reader.poll());
+        assertEquals(1, mRecordingGl.getCount("glDeleteSync"));
+        assertEquals(1, mRecordingGl.getCount("glMapBufferRange"));
+        assertEquals(1, mRecordingGl.getCount("glUnmapBuffer"));
+        assertNull(reader.poll());
+    }
+
+    @Test
+    public void twoReadsInFlight() {
+        final PixelReader reader = new PixelReader(mRecordingGl, 3);
+        final Object second = new Object();
+        mRecordingGl.setSyncStatus(GLES30.GL_TIMEOUT_EXPIRED);
+        assertTrue(reader.readPixels(0, 0, SIZE, SIZE, mTarget, mTag));
+        assertTrue(reader.readPixels(0, 0, SIZE, SIZE, ByteBuffer.allocateDirect(mTarget.capacity()), second));
+        assertFalse(reader.readPixels(0, 0, SIZE, SIZE, mTarget, mTag));
+        assertNull(reader.poll());
+        assertTrue(reader.isPending());
+
+        mRecordingGl.setSyncStatus(GLES30.GL_CONDITION_SATISFIED);
+        assertSame(mTag, reader.poll());
+        assertSame(second, reader.poll());
+    }
+
+    @Test
+    public void waitFailedFallsBackToSync() {
+        final PixelReader reader = new PixelReader(mRecordingGl, 3);
+        mRecordingGl.setSyncStatus(GLES30.GL_WAIT_FAILED);
+        assertTrue(reader.readPixels(0, 0, SIZE, SIZE, mTarget, mTag));
+        assertNull(reader.poll());
+        assertEquals(1, mRecordingGl.getCount("glDeleteSync"));
+        assertEquals(0, mRecordingGl.getCount("glMapBufferRange"));
+        assertEquals(PixelReader.MODE_SYNC, reader.getMode());
+        assertSame(mTag, reader.pollFailed());
+        assertNull(reader.pollFailed());
+
+        final Object next = new Object();
+        assertTrue(reader.readPixels(0, 0, SIZE, SIZE, mTarget, next));
+        assertSame(next, reader.poll());
+    }
+
+    @Test
+    public void mapFailureDropsRead() {
+        final PixelReader reader = new PixelReader(mRecordingGl, 3);
+        mRecordingGl.setMapFails(true);
+        assertTrue(reader.readPixels(0, 0, SIZE, SIZE, mTarget, mTag));
+        assertNull(reader.poll());
+        assertEquals(1, mRecordingGl.getCount("glMapBufferRange"));
+        assertEquals(0, mRecordingGl.getCount("glUnmapBuffer"));
+        assertEquals(PixelReader.MODE_SYNC, reader.getMode());
+        assertFalse(reader.isPending());
+        assertSame(mTag, reader.pollFailed());
+        assertNull(reader.pollFailed());
+
+        final Object next = new Object();
+        assertTrue(reader.readPixels(0, 0, SIZE, SIZE, mTarget, next));
+        assertSame(next, reader.poll());
+    }
+
+    @Test
+    public void fenceFailureDropsRead() {
+        final PixelReader reader = new PixelReader(mRecordingGl, 3);
+        mRecordingGl.setFenceFails(true);
+        assertTrue(reader.readPixels(0, 0, SIZE, SIZE, mTarget, mTag));
+        assertNull(reader.poll());
+        assertFalse(reader.isPending());
+        assertEquals(0, mRecordingGl.getCount("glMapBufferRange"));
+        assertEquals(0, mRecordingGl.getCount("glDeleteSync"));
+        assertEquals(PixelReader.MODE_SYNC, reader.getMode());
+        assertSame(mTag, reader.pollFailed());
+        assertNull(reader.pollFailed());
+
+        final Object next = new Object();
+        assertTrue(reader.readPixels(0, 0, SIZE, SIZE, mTarget, next));
+        assertEquals(1, mRecordingGl.getCount("glFenceSync"));
+        assertSame(next, reader.poll());
+    }
+
+    @Test
+    public void releaseDeletesObjects() {
+        final PixelReader reader = new PixelReader(mRecordingGl, 3);
+        mRecordingGl.setSyncStatus(GLES30.GL_TIMEOUT_EXPIRED);
+        reader.readPixels(0, 0, SIZE, SIZE, mTarget, mTag);
+        reader.release();
+        assertEquals(1, mRecordingGl.getCount("glDeleteSync"));
+        assertEquals(1, mRecordingGl.getCount("glDeleteBuffers"));
+        assertFalse(reader.isPending());
+        reader.release();
+        assertEquals(1, mRecordingGl.getCount("glDeleteBuffers"));
+    }
+}
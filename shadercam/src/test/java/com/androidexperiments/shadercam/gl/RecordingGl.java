@@ -0,0 +1,517 @@
+package com.androidexperiments.shadercam.gl;
+
+import android.opengl.GLES20;
+import android.opengl.GLES30;
+
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * {@link Gl} recording calls without GPU, for unit tests.
+ * <p>
+ * Object names are allocated from a counter, shaders always compile and programs always link.
+ * Active attributes and uniforms of a program are the ones declared in its shaders sources,
+ * attributes get their bound location or the next free one, uniforms their declaration index.
+ * Mapped buffer ranges are zero filled unless {@link #setMapFails(boolean)}, fences are created
+ * unless {@link #setFenceFails(boolean)} and report {@link #setSyncStatus(int)}.
+ * Calls are logged as "glName(arg, ...)" and counted by name.
+ */
+public class RecordingGl implements Gl {
+
+    private final List<String> mCalls = new ArrayList<>();
+    private final Map<String, Integer> mCounts = new HashMap<>();
+
+    private int mNextName = 1;
+
+    private final Map<Integer, String> mShaderSources = new HashMap<>();
+    private final Map<Integer, Program> mPrograms = new HashMap<>();
+
+    private int mSyncStatus = GLES30.GL_ALREADY_SIGNALED;
+    private boolean mMapFails = false;
+    private boolean mFenceFails = false;
+
+    /**
+     * @return The calls since the last {@link #clear()}, in order
+     */
+    public List<String> getCalls() {
+        return mCalls;
+    }
+
+    /**
+     * @param name The GL method name, ie "glBindTexture"
+     * @return The number of calls of this method since the last {@link #clear()}
+     */
+    public int getCount(String name) {
+        final Integer count = mCounts.get(name);
+        return count == null ? 0 : count;
+    }
+
+    /**
+     * @return The number of calls since the last {@link #clear()}
+     */
+    public int getCount() {
+        return mCalls.size();
+    }
+
+    /**
+     * @param status The status returned by glClientWaitSync, GL_ALREADY_SIGNALED by default
+     */
+    public void setSyncStatus(int status) {
+        mSyncStatus = status;
+    }
+
+    /**
+     * @param fails true to return null from glMapBufferRange, false by default
+     */
+    public void setMapFails(boolean fails) {
+        mMapFails = fails;
+    }
+
+    /**
+     * @param fails true to return 0 from glFenceSync, false by default
+     */
+    public void setFenceFails(boolean fails) {
+        mFenceFails = fails;
+    }
+
+    /**
+     * Forgets the recorded calls, objects are kept
+     */
+    public void clear() {
+        mCalls.clear();
+        mCounts.clear();
+    }
+
+    private void record(String name, Object... args) {
+        final StringBuilder builder = new StringBuilder(name).append('(');
+        for (int i = 0; i < args.length; i++) {
+            if (i > 0) {
+                builder.append(", ");
+            }
+            builder.append(args[i]);
+        }
+        mCalls.add(builder.append(')').toString());
+        final Integer count = mCounts.get(name);
+        mCounts.put(name, count == null ? 1 : count + 1);
+    }
+
+    private void genNames(int n, int[] names, int offset) {
+        for (int i = 0; i < n; i++) {
+            names[offset + i] = mNextName++;
+        }
+    }
+
+    // ------------------------------------------------------------
+    // State
+    // ------------------------------------------------------------
+
+    @Override
+    public void glUseProgram(int program) {
+        record("glUseProgram", program);
+    }
+
+    @Override
+    public void glActiveTexture(int texture) {
+        record("glActiveTexture", texture);
+    }
+
+    @Override
+    public void glBindTexture(int target, int texture) {
+        record("glBindTexture", target, texture);
+    }
+
+    @Override
+    public void glBindBuffer(int target, int buffer) {
+        record("glBindBuffer", target, buffer);
+    }
+
+    @Override
+    public void glBindVertexArray(int array) {
+        record("glBindVertexArray", array);
+    }
+
+    @Override
+    public void glBindFramebuffer(int target, int framebuffer) {
+        record("glBindFramebuffer", target, framebuffer);
+    }
+
+    @Override
+    public void glEnableVertexAttribArray(int index) {
+        record("glEnableVertexAttribArray", index);
+    }
+
+    @Override
+    public void glDisableVertexAttribArray(int index) {
+        record("glDisableVertexAttribArray", index);
+    }
+
+    @Override
+    public void glViewport(int x, int y, int width, int height) {
+        record("glViewport", x, y, width, height);
+    }
+
+    // ------------------------------------------------------------
+    // Drawing
+    // ------------------------------------------------------------
+
+    @Override
+    public void glUniform1i(int location, int x) {
+        record("glUniform1i", location, x);
+    }
+
+    @Override
+    public void glUniform1f(int location, float x) {
+        record("glUniform1f", location, x);
+    }
+
+    @Override
+    public void glUniformMatrix4fv(int location, int count, boolean transpose, float[] value, int offset) {
+        record("glUniformMatrix4fv", location, count, transpose);
+    }
+
+    @Override
+    public void glVertexAttribPointer(int index, int size, int type, boolean normalized, int stride, int offset) {
+        record("glVertexAttribPointer", index, size, type, normalized, stride, offset);
+    }
+
+    @Override
+    public void glDrawElements(int mode, int count, int type, int offset) {
+        record("glDrawElements", mode, count, type, offset);
+    }
+
+    @Override
+    public void glClearColor(float red, float green, float blue, float alpha) {
+        record("glClearColor", red, green, blue, alpha);
+    }
+
+    @Override
+    public void glClear(int mask) {
+        record("glClear", mask);
+    }
+
+    // ------------------------------------------------------------
+    // Buffers
+    // ------------------------------------------------------------
+
+    @Override
+    public void glGenBuffers(int n, int[] buffers, int offset) {
+        genNames(n, buffers, offset);
+        record("glGenBuffers", n);
+    }
+
+    @Override
+    public void glBufferData(int target, int size, Buffer data, int usage) {
+        record("glBufferData", target, size, usage);
+    }
+
+    @Override
+    public void glBufferSubData(int target, int offset, int size, Buffer data) {
+        record("glBufferSubData", target, offset, size);
+    }
+
+    @Override
+    public void glDeleteBuffers(int n, int[] buffers, int offset) {
+        record("glDeleteBuffers", n);
+    }
+
+    @Override
+    public void glGenVertexArrays(int n, int[] arrays, int offset) {
+        genNames(n, arrays, offset);
+        record("glGenVertexArrays", n);
+    }
+
+    @Override
+    public void glDeleteVertexArrays(int n, int[] arrays, int offset) {
+        record("glDeleteVertexArrays", n);
+    }
+
+    // ------------------------------------------------------------
+    // Textures and framebuffers
+    // ------------------------------------------------------------
+
+    @Override
+    public void glGenTextures(int n, int[] textures, int offset) {
+        genNames(n, textures, offset);
+        record("glGenTextures", n);
+    }
+
+    @Override
+    public void glTexParameteri(int target, int pname, int param) {
+        record("glTexParameteri", target, pname, param);
+    }
+
+    @Override
+    public void glTexImage2D(int target, int level, int internalformat, int width, int height, int border,
+                             int format, int type, Buffer pixels) {
+        record("glTexImage2D", target, level, internalformat, width, height);
+    }
+
+    @Override
+    public void glDeleteTextures(int n, int[] textures, int offset) {
+        record("glDeleteTextures", n);
+    }
+
+    @Override
+    public void glGenFramebuffers(int n, int[] framebuffers, int offset) {
+        genNames(n, framebuffers, offset);
+        record("glGenFramebuffers", n);
+    }
+
+    @Override
+    public void glFramebufferTexture2D(int target, int attachment, int textarget, int texture, int level) {
+        record("glFramebufferTexture2D", target, attachment, textarget, texture, level);
+    }
+
+    @Override
+    public int glCheckFramebufferStatus(int target) {
+        record("glCheckFramebufferStatus", target);
+        return GLES20.GL_FRAMEBUFFER_COMPLETE;
+    }
+
+    @Override
+    public void glDeleteFramebuffers(int n, int[] framebuffers, int offset) {
+        record("glDeleteFramebuffers", n);
+    }
+
+    // ------------------------------------------------------------
+    // Shaders and programs
+    // ------------------------------------------------------------
+
+    @Override
+    public int glCreateShader(int type) {
+        record("glCreateShader", type);
+        final int shader = mNextName++;
+        mShaderSources.put(shader, "");
+        return shader;
+    }
+
+    @Override
+    public void glShaderSource(int shader, String string) {
+        record("glShaderSource", shader);
+        mShaderSources.put(shader, string);
+    }
+
+    @Override
+    public void glCompileShader(int shader) {
+        record("glCompileShader", shader);
+    }
+
+    @Override
+    public void glGetShaderiv(int shader, int pname, int[] params, int offset) {
+        record("glGetShaderiv", shader, pname);
+        params[offset] = (pname == GLES20.GL_COMPILE_STATUS) ? GLES20.GL_TRUE : 0;
+    }
+
+    @Override
+    public String glGetShaderInfoLog(int shader) {
+        record("glGetShaderInfoLog", shader);
+        return "";
+    }
+
+    @Override
+    public void glDeleteShader(int shader) {
+        record("glDeleteShader", shader);
+    }
+
+    @Override
+    public int glCreateProgram() {
+        record("glCreateProgram");
+        final int program = mNextName++;
+        mPrograms.put(program, new Program());
+        return program;
+    }
+
+    @Override
+    public void glAttachShader(int program, int shader) {
+        record("glAttachShader", program, shader);
+        mPrograms.get(program).sources.add(mShaderSources.get(shader));
+    }
+
+    @Override
+    public void glBindAttribLocation(int program, int index, String name) {
+        record("glBindAttribLocation", program, index, name);
+        mPrograms.get(program).boundAttribs.put(name, index);
+    }
+
+    @Override
+    public void glLinkProgram(int program) {
+        record("glLinkProgram", program);
+        mPrograms.get(program).link();
+    }
+
+    @Override
+    public void glGetProgramiv(int program, int pname, int[] params, int offset) {
+        record("glGetProgramiv", program, pname);
+        final Program state = mPrograms.get(program);
+        if (pname == GLES20.GL_LINK_STATUS) {
+            params[offset] = GLES20.GL_TRUE;
+        }
+        else if (pname == GLES20.GL_ACTIVE_ATTRIBUTES) {
+            params[offset] = state.attribs.size();
+        }
+        else if (pname == GLES20.GL_ACTIVE_UNIFORMS) {
+            params[offset] = state.uniforms.size();
+        }
+        else {
+            params[offset] = 0;
+        }
+    }
+
+    @Override
+    public String glGetProgramInfoLog(int program) {
+        record("glGetProgramInfoLog", program);
+        return "";
+    }
+
+    @Override
+    public String glGetActiveAttrib(int program, int index, int[] size, int sizeOffset, int[] type, int typeOffset) {
+        record("glGetActiveAttrib", program, index);
+        size[sizeOffset] = 1;
+        return mPrograms.get(program).attribs.get(index);
+    }
+
+    @Override
+    public String glGetActiveUniform(int program, int index, int[] size, int sizeOffset, int[] type, int typeOffset) {
+        record("glGetActiveUniform", program, index);
+        size[sizeOffset] = 1;
+        return mPrograms.get(program).uniforms.get(index);
+    }
+
+    @Override
+    public int glGetAttribLocation(int program, String name) {
+        record("glGetAttribLocation", program, name);
+        final Integer location = mPrograms.get(program).attribLocations.get(name);
+        return location == null ? -1 : location;
+    }
+
+    @Override
+    public int glGetUniformLocation(int program, String name) {
+        record("glGetUniformLocation", program, name);
+        return mPrograms.get(program).uniforms.indexOf(name);
+    }
+
+    @Override
+    public void glDeleteProgram(int program) {
+        record("glDeleteProgram", program);
+    }
+
+    // ------------------------------------------------------------
+    // Readback
+    // ------------------------------------------------------------
+
+    @Override
+    public void glReadPixels(int x, int y, int width, int height, int format, int type, Buffer pixels) {
+        record("glReadPixels", x, y, width, height, format, type);
+    }
+
+    @Override
+    public void glReadPixels(int x, int y, int width, int height, int format, int type, int offset) {
+        record("glReadPixels", x, y, width, height, format, type, offset);
+    }
+
+    @Override
+    public Buffer glMapBufferRange(int target, int offset, int length, int access) {
+        record("glMapBufferRange", target, offset, length, access);
+        return mMapFails ? null : ByteBuffer.allocateDirect(length);
+    }
+
+    @Override
+    public boolean glUnmapBuffer(int target) {
+        record("glUnmapBuffer", target);
+        return true;
+    }
+
+    @Override
+    public long glFenceSync(int condition, int flags) {
+        record("glFenceSync", condition, flags);
+        return mFenceFails ? 0 : mNextName++;
+    }
+
+    @Override
+    public int glClientWaitSync(long sync, int flags, long timeout) {
+        record("glClientWaitSync", sync, flags, timeout);
+        return mSyncStatus;
+    }
+
+    @Override
+    public void glDeleteSync(long sync) {
+        record("glDeleteSync", sync);
+    }
+
+    @Override
+    public void glFlush() {
+        record("glFlush");
+    }
+
+    // ------------------------------------------------------------
+    // Errors
+    // ------------------------------------------------------------
+
+    @Override
+    public int glGetError() {
+        record("glGetError");
+        return GLES20.GL_NO_ERROR;
+    }
+
+    /**
+     * Fake program built from the declarations of its shaders
+     */
+    private static class Program {
+        final List<String> sources = new ArrayList<>();
+        final Map<String, Integer> boundAttribs = new HashMap<>();
+        final List<String> attribs = new ArrayList<>();
+        final List<String> uniforms = new ArrayList<>();
+        final Map<String, Integer> attribLocations = new HashMap<>();
+
+        void link() {
+            attribs.clear();
+            uniforms.clear();
+            attribLocations.clear();
+            for (String source : sources) {
+                parse(source);
+            }
+            int next = 0;
+            for (String attrib : attribs) {
+                final Integer bound = boundAttribs.get(attrib);
+                if (bound != null) {
+                    attribLocations.put(attrib, bound);
+                }
+                else {
+                    while (boundAttribs.containsValue(next) || attribLocations.containsValue(next)) {
+                        next++;
+                    }
+                    attribLocations.put(attrib, next);
+                }
+            }
+        }
+
+        // Declarations as "attribute|uniform [precision] type name;" on a line
+        private void parse(String source) {
+            for (String line : source.split("\n")) {
+                final int end = line.indexOf(';');
+                if (end < 0) {
+                    continue;
+                }
+                final String[] tokens = line.substring(0, end).trim().split("\\s+");
+                if (tokens.length < 3) {
+                    continue;
+                }
+                String name = tokens[tokens.length - 1];
+                // Arrays are reported without their size
+                if (name.indexOf('[') > 0) {
+                    name = name.substring(0, name.indexOf('['));
+                }
+                if (tokens[0].equals("attribute") && !attribs.contains(name)) {
+                    attribs.add(name);
+                }
+                else if (tokens[0].equals("uniform") && !uniforms.contains(name)) {
+                    uniforms.add(name);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,136 @@
+package com.androidexperiments.shadercam.gl;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class RenderLoopTest {
+
+    // 60 Hz display
+    private static final long VSYNC = 16666667L;
+
+    private ManualTickSource mTickSource;
+    private RenderLoop mRenderLoop;
+
+    // Latch flag of each rendered frame
+    private final List<Boolean> mLatches = new ArrayList<>();
+    private boolean mPresentable = true;
+
+    @Before
+    public void setUp() {
+        mTickSource = new ManualTickSource(0);
+        mRenderLoop = new RenderLoop(mTickSource, new RenderLoop.FrameRenderer() {
+            @Override
+            public boolean renderFrame(boolean latchFrame, long frameTimeNanos) {
+                mLatches.add(latchFrame);
+                return mPresentable;
+            }
+        });
+        mRenderLoop.start();
+    }
+
+    @Test
+    public void noTickWithoutFrame() {
+        assertFalse(mTickSource.isTickRequested());
+        assertFalse(mTickSource.advance(VSYNC));
+        assertEquals(0, mRenderLoop.getRenderedFrames());
+    }
+
+    @Test
+    public void coalescesFramesOnTick() {
+        mRenderLoop.onFrameAvailable();
+        mRenderLoop.onFrameAvailable();
+        mRenderLoop.onFrameAvailable();
+        assertTrue(mTickSource.advance(VSYNC));
+        assertFalse(mTickSource.advance(VSYNC));
+        assertEquals(1, mRenderLoop.getRenderedFrames());
+        assertEquals(2, mRenderLoop.getDroppedFrames());
+        assertEquals(1, mLatches.size());
+        assertTrue(mLatches.get(0));
+    }
+
+    @Test
+    public void pacesFasterCameraOnVsync() {
+        // 90 fps camera on a 60 Hz display, 3 frames every 2 vsyncs
+        for(int vsync = 0; vsync < 60; vsync += 2){
+            mRenderLoop.onFrameAvailable();
+            mRenderLoop.onFrameAvailable();
+            mTickSource.advance(VSYNC);
+            mRenderLoop.onFrameAvailable();
+            mTickSource.advance(VSYNC);
+        }
+        assertEquals(60, mRenderLoop.getRenderedFrames());
+        assertEquals(30, mRenderLoop.getDroppedFrames());
+        assertEquals(0, mRenderLoop.getSkippedTicks());
+    }
+
+    @Test
+    public void measuresLatencyFromFrameArrival() {
+        mTickSource.advance(VSYNC / 2);
+        mRenderLoop.onFrameAvailable();
+        mTickSource.advance(VSYNC / 2);
+        assertEquals(VSYNC / 2, mRenderLoop.getLastLatency());
+        mRenderLoop.onFrameAvailable();
+        mTickSource.advance(VSYNC);
+        assertEquals(VSYNC, mRenderLoop.getLastLatency());
+        assertEquals(VSYNC, mRenderLoop.getMaxLatency());
+        assertEquals((VSYNC / 2 + VSYNC) / 2, mRenderLoop.getAverageLatency());
+    }
+
+    @Test
+    public void invalidateRendersWithoutLatch() {
+        mRenderLoop.invalidate();
+        mRenderLoop.invalidate();
+        assertTrue(mTickSource.advance(VSYNC));
+        assertFalse(mTickSource.advance(VSYNC));
+        assertEquals(1, mLatches.size());
+        assertFalse(mLatches.get(0));
+    }
+
+    @Test
+    public void invalidateDuringFrameRendersAgain() {
+        mRenderLoop = new RenderLoop(mTickSource, new RenderLoop.FrameRenderer() {
+            @Override
+            public boolean renderFrame(boolean latchFrame, long frameTimeNanos) {
+                mLatches.add(latchFrame);
+                // HUD change while drawing
+                if(mLatches.size() == 1) {
+                    mRenderLoop.invalidate();
+                }
+                return true;
+            }
+        });
+        mRenderLoop.start();
+        mRenderLoop.onFrameAvailable();
+        mTickSource.advance(VSYNC);
+        assertTrue(mTickSource.advance(VSYNC));
+        assertEquals(2, mRenderLoop.getRenderedFrames());
+        assertFalse(mLatches.get(1));
+    }
+
+    @Test
+    public void stopsWhenFrameNotPresented() {
+        mPresentable = false;
+        mRenderLoop.onFrameAvailable();
+        mTickSource.advance(VSYNC);
+        mRenderLoop.onFrameAvailable();
+        assertFalse(mTickSource.isTickRequested());
+        assertEquals(0, mRenderLoop.getRenderedFrames());
+    }
+
+    @Test
+    public void startSchedulesPendingFrames() {
+        mRenderLoop.stop();
+        mRenderLoop.onFrameAvailable();
+        assertFalse(mTickSource.isTickRequested());
+        mRenderLoop.start();
+        assertTrue(mTickSource.advance(VSYNC));
+        assertEquals(1, mRenderLoop.getRenderedFrames());
+    }
+}
@@ -0,0 +1,105 @@
+package com.thommil.animalsgo.cv;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Random;
+
+/**
+ * Synthetic frames used by the benchmarks, same content for a given size between runs.
+ */
+final class BenchmarkFrames {
+
+    // Frame sizes benchmarked
+    static final String SIZE_720P = "720p";
+    static final String SIZE_1080P = "1080p";
+    // HUD capture square of a 1080p surface (80% of the smallest side)
+    static final String SIZE_ROI = "roi";
+
+    // Row padding of the Y planes, as seen on camera streams
+    static final int ROW_PADDING = 64;
+
+    private static final long SEED = 42;
+
+    private BenchmarkFrames() {}     // do not instantiate
+
+    static int width(final String size) {
+        switch(size){
+            case SIZE_720P :
+                return 1280;
+            case SIZE_1080P :
+                return 1920;
+            case SIZE_ROI :
+                return 864;
+            default :
+                throw new IllegalArgumentException("Unknown size " + size);
+        }
+    }
+
+    static int height(final String size) {
+        switch(size){
+            case SIZE_720P :
+                return 720;
+            case SIZE_1080P :
+                return 1080;
+            case SIZE_ROI :
+                return 864;
+            default :
+                throw new IllegalArgumentException("Unknown size " + size);
+        }
+    }
+
+    /**
+     * @return A direct RGBA8 buffer in native order, as filled by glReadPixels
+     */
+    static ByteBuffer rgba(final int width, final int height) {
+        final ByteBuffer data = ByteBuffer.allocateDirect(width * height * 4).order(ByteOrder.nativeOrder());
+        final Random random = new Random(SEED);
+        for(int y = 0; y < height; y++){
+            for(int x = 0; x < width; x++){
+                final int value = texture(x, y, random);
+                data.put((byte) value).put((byte) (value * 3 / 4)).put((byte) (value / 2)).put((byte) 0xFF);
+            }
+        }
+        data.rewind();
+        return data;
+    }
+
+    /**
+     * @return A direct Y plane with {@link #ROW_PADDING} bytes of padding per row
+     */
+    static ByteBuffer lumaPlane(final int width, final int height) {
+        final int rowStride = width + ROW_PADDING;
+        final ByteBuffer data = ByteBuffer.allocateDirect(rowStride * height);
+        final Random random = new Random(SEED);
+        for(int y = 0; y < height; y++){
+            for(int x = 0; x < width; x++){
+                data.put(y * rowStride + x, (byte) texture(x, y, random));
+            }
+        }
+        return data;
+    }
+
+    /**
+     * @return A direct NV21 buffer (Y plane then interleaved V and U samples)
+     */
+    static ByteBuffer nv21(final int width, final int height) {
+        final int ySize = width * height;
+        final ByteBuffer data = ByteBuffer.allocateDirect(ySize + 2 * ((width + 1) / 2) * ((height + 1) / 2));
+        final Random random = new Random(SEED);
+        for(int y = 0; y < height; y++){
+            for(int x = 0; x < width; x++){
+                data.put(y * width + x, (byte) texture(x, y, random));
+            }
+        }
+        for(int i = ySize; i < data.capacity(); i++){
+            data.put(i, (byte) (96 + random.nextInt(64)));
+        }
+        return data;
+    }
+
+    // Smooth pattern with some noise so kernels do not work on constant data
+    private static int texture(final int x, final int y, final Random random) {
+        final int pattern = ((x >> 4) + (y >> 4)) % 2 == 0 ? 160 : 80;
+        return Math.max(0, Math.min(255, pattern + random.nextInt(32) - 16));
+    }
+}
@@ -0,0 +1,92 @@
+package com.thommil.animalsgo.cv;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Kernels working on a whole frame on the caller thread.
+ *
+ * The concurrent variants run one frame per core at the same time, like the burst selection,
+ * to measure how the kernels scale when they share the memory bandwidth.
+ */
+@State(Scope.Thread)
+public class FrameKernelsBenchmark {
+
+    @Param({BenchmarkFrames.SIZE_720P, BenchmarkFrames.SIZE_1080P, BenchmarkFrames.SIZE_ROI})
+    public String size;
+
+    private int mWidth;
+    private int mHeight;
+    private ByteBuffer mRgba;
+    private ByteBuffer mLumaPlane;
+    private ByteBuffer mLuma;
+    private ByteBuffer mDownscaled;
+    private int mRedShift;
+    private int mGreenShift;
+    private int mBlueShift;
+    private final DHash mDHash = new DHash();
+
+    @Setup
+    public void setup() {
+        mWidth = BenchmarkFrames.width(size);
+        mHeight = BenchmarkFrames.height(size);
+        mRgba = BenchmarkFrames.rgba(mWidth, mHeight);
+        mLumaPlane = BenchmarkFrames.lumaPlane(mWidth, mHeight);
+        mLuma = ByteBuffer.allocateDirect(mWidth * mHeight);
+        mDownscaled = ByteBuffer.allocateDirect((mWidth / 2) * (mHeight / 2));
+        mRedShift = Luma.redShift(mRgba.order());
+        mGreenShift = Luma.greenShift(mRgba.order());
+        mBlueShift = Luma.blueShift(mRgba.order());
+    }
+
+    @Benchmark
+    public ByteBuffer luma() {
+        return toLuma();
+    }
+
+    @Benchmark
+    @Threads(Threads.MAX)
+    public ByteBuffer lumaConcurrent() {
+        return toLuma();
+    }
+
+    @Benchmark
+    public long dHash() {
+        return mDHash.compute(mRgba, mWidth, mHeight, FrameFormat.RGBA8);
+    }
+
+    @Benchmark
+    @Threads(Threads.MAX)
+    public long dHashConcurrent() {
+        return mDHash.compute(mRgba, mWidth, mHeight, FrameFormat.RGBA8);
+    }
+
+    @Benchmark
+    public ByteBuffer downscale() {
+        LumaPlane.downscale(mLumaPlane, mWidth, mHeight, mWidth + BenchmarkFrames.ROW_PADDING, 2, mDownscaled);
+        return mDownscaled;
+    }
+
+    @Benchmark
+    @Threads(Threads.MAX)
+    public ByteBuffer downscaleConcurrent() {
+        return downscale();
+    }
+
+    // RGBA readback to Y8, same conversion as the kernels rows loading
+    private ByteBuffer toLuma() {
+        final ByteBuffer rgba = mRgba;
+        final ByteBuffer luma = mLuma;
+        final int pixels = mWidth * mHeight;
+        for(int i = 0; i < pixels; i++){
+            luma.put(i, (byte) Luma.fromPixel(rgba.getInt(i << 2), mRedShift, mGreenShift, mBlueShift));
+        }
+        return luma;
+    }
+}
@@ -0,0 +1,89 @@
+package com.thommil.animalsgo.cv;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Kernels run by the {@link AnalysisEngine}, parallelism 1 runs the stripes on the caller thread.
+ */
+@State(Scope.Thread)
+public class StripeKernelsBenchmark {
+
+    @Param({BenchmarkFrames.SIZE_720P, BenchmarkFrames.SIZE_1080P, BenchmarkFrames.SIZE_ROI})
+    public String size;
+
+    @Param({"1", "2", "4"})
+    public int parallelism;
+
+    private int mWidth;
+    private int mHeight;
+    private ByteBuffer mRgba;
+    private AnalysisEngine mEngine;
+
+    // Sampled blur metric as used on RGBA readbacks, full resolution Laplacian as used on luma frames
+    private final SharpnessScorer mBlurScorer = new SharpnessScorer();
+    private final SharpnessScorer mLaplacianScorer = new SharpnessScorer(1, SharpnessScorer.DEFAULT_HALF_SCORE_VARIANCE);
+    private final LumaHistogram mHistogram = new LumaHistogram();
+
+    // NV21 camera frame converted to reused RGBA and Y8 frames
+    private final YuvConverter mYuvConverter = new YuvConverter();
+    private ImageFrame mRgbaOut;
+    private ImageFrame mLumaOut;
+
+    // Region statistics tables of the luma frame
+    private final IntegralImage mIntegralImage = new IntegralImage();
+
+    @Setup
+    public void setup() {
+        mWidth = BenchmarkFrames.width(size);
+        mHeight = BenchmarkFrames.height(size);
+        mRgba = BenchmarkFrames.rgba(mWidth, mHeight);
+        mEngine = new AnalysisEngine(parallelism);
+        mYuvConverter.setNv21(BenchmarkFrames.nv21(mWidth, mHeight), mWidth, mHeight);
+        mRgbaOut = ImageFrame.allocate(mWidth, mHeight, FrameFormat.RGBA8);
+        mLumaOut = ImageFrame.allocate(mWidth, mHeight, FrameFormat.Y8);
+    }
+
+    @TearDown
+    public void tearDown() {
+        mEngine.shutdown();
+    }
+
+    @Benchmark
+    public int blur() {
+        return mBlurScorer.score(mEngine, mRgba, mWidth, mHeight, FrameFormat.RGBA8);
+    }
+
+    @Benchmark
+    public int laplacian() {
+        return mLaplacianScorer.score(mEngine, mRgba, mWidth, mHeight, FrameFormat.RGBA8);
+    }
+
+    @Benchmark
+    public LumaHistogram.Histogram histogram() {
+        return mHistogram.compute(mEngine, mRgba, mWidth, mHeight, FrameFormat.RGBA8);
+    }
+
+    @Benchmark
+    public ImageFrame yuvToRgba() {
+        mYuvConverter.toRgba(mEngine, mRgbaOut);
+        return mRgbaOut;
+    }
+
+    @Benchmark
+    public ImageFrame yuvToLuma() {
+        mYuvConverter.toLuma(mEngine, mLumaOut);
+        return mLumaOut;
+    }
+
+    @Benchmark
+    public IntegralImage integralImage() {
+        return mIntegralImage.build(mEngine, mLumaOut);
+    }
+}
@@ -0,0 +1,203 @@
+package com.thommil.animalsgo.cv;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Runs {@link StripeKernel} on a frame split in stripes of rows using a sized ForkJoinPool.
+ *
+ * The stripes layout only depends on the frame size, and partials are merged in stripe order on
+ * the caller thread, so results are identical whatever the parallelism.
+ *
+ * Runs can be stopped with a {@link CancellationToken} checked before each stripe.
+ */
+public class AnalysisEngine {
+
+    // Maximum number of stripes per frame
+    public static final int MAX_STRIPES = 16;
+
+    // Minimum number of rows in a stripe
+    public static final int MIN_STRIPE_ROWS = 16;
+
+    private final int mParallelism;
+
+    // Null when single threaded, stripes then run on caller thread
+    private final ForkJoinPool mPool;
+
+    /**
+     * Constructor
+     *
+     * @param parallelism The number of workers, 1 to run on caller thread
+     */
+    public AnalysisEngine(final int parallelism) {
+        if(parallelism < 1){
+            throw new IllegalArgumentException("parallelism must be positive");
+        }
+        mParallelism = parallelism;
+        mPool = (parallelism > 1) ? new ForkJoinPool(parallelism) : null;
+    }
+
+    /**
+     * @return The number of workers
+     */
+    public int getParallelism() {
+        return mParallelism;
+    }
+
+    /**
+     * Runs a kernel on its current frame.
+     *
+     * The returned partial is owned by the kernel and is only valid until its next run.
+     *
+     * @param kernel The kernel to run
+     * @return The merged result
+     */
+    public <P> P run(final StripeKernel<P> kernel) {
+        return run(kernel, null);
+    }
+
+    /**
+     * Runs a kernel on its current frame, remaining stripes are skipped once the token is stopped.
+     *
+     * The returned partial is owned by the kernel and is only valid until its next run.
+     *
+     * @param kernel The kernel to run
+     * @param token The token checked before each stripe, null to run all stripes
+     * @return The merged result, null if the token has stopped the run
+     */
+    public <P> P run(final StripeKernel<P> kernel, final CancellationToken token) {
+        final int rows = kernel.getRows();
+        final int stripes = Math.max(1, Math.min(MAX_STRIPES, rows / MIN_STRIPE_ROWS));
+        kernel.preparePartials(stripes);
+
+        if(mPool == null || stripes == 1){
+            for(int stripe = 0; stripe < stripes; stripe++){
+                processStripe(kernel, token, stripe, stripes, rows);
+            }
+        }
+        else{
+            mPool.invoke(new StripeTask<>(kernel, token, 0, stripes, stripes, rows));
+        }
+
+        if(token != null && (token.isCancelled() || token.isTimedOut())){
+            return null;
+        }
+
+        final P result = kernel.getPartial(0);
+        for(int stripe = 1; stripe < stripes; stripe++){
+            kernel.merge(result, kernel.getPartial(stripe));
+        }
+        return result;
+    }
+
+    /**
+     * Runs independent tasks on the workers, for instance to analyze several frames at once.
+     *
+     * Tasks must not share mutable state, the call returns once all of them are done.
+     *
+     * @param count The number of tasks
+     * @param task The task run for each index in [0, count[
+     */
+    public void runAll(final int count, final IndexedTask task) {
+        if(mPool == null || count < 2){
+            for(int index = 0; index < count; index++){
+                task.run(index);
+            }
+        }
+        else{
+            mPool.invoke(new IndexedAction(task, 0, count));
+        }
+    }
+
+    /**
+     * Stops the workers, the engine cannot be used afterwards
+     */
+    public void shutdown() {
+        if(mPool != null){
+            mPool.shutdown();
+        }
+    }
+
+    private static <P> void processStripe(final StripeKernel<P> kernel, final CancellationToken token,
+                                          final int stripe, final int stripes, final int rows) {
+        if(token != null && token.isStopped()){
+            return;
+        }
+        final int rowStart = (int) ((long) rows * stripe / stripes);
+        final int rowEnd = (int) ((long) rows * (stripe + 1) / stripes);
+        kernel.process(rowStart, rowEnd, kernel.getPartial(stripe));
+    }
+
+    /**
+     * Splits the stripes range in halves until a single stripe remains
+     */
+    private static class StripeTask<P> extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private final StripeKernel<P> mKernel;
+        private final CancellationToken mToken;
+        private final int mFrom;
+        private final int mTo;
+        private final int mStripes;
+        private final int mRows;
+
+        StripeTask(final StripeKernel<P> kernel, final CancellationToken token, final int from, final int to,
+                   final int stripes, final int rows) {
+            mKernel = kernel;
+            mToken = token;
+            mFrom = from;
+            mTo = to;
+            mStripes = stripes;
+            mRows = rows;
+        }
+
+        @Override
+        protected void compute() {
+            if(mTo - mFrom == 1){
+                processStripe(mKernel, mToken, mFrom, mStripes, mRows);
+            }
+            else{
+                final int middle = (mFrom + mTo) >>> 1;
+                invokeAll(new StripeTask<>(mKernel, mToken, mFrom, middle, mStripes, mRows),
+                        new StripeTask<>(mKernel, mToken, middle, mTo, mStripes, mRows));
+            }
+        }
+    }
+
+    /**
+     * Task run by {@link #runAll(int, IndexedTask)}
+     */
+    public interface IndexedTask {
+        void run(final int index);
+    }
+
+    /**
+     * Splits the indices range in halves until a single index remains
+     */
+    private static class IndexedAction extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private final IndexedTask mTask;
+        private final int mFrom;
+        private final int mTo;
+
+        IndexedAction(final IndexedTask task, final int from, final int to) {
+            mTask = task;
+            mFrom = from;
+            mTo = to;
+        }
+
+        @Override
+        protected void compute() {
+            if(mTo - mFrom == 1){
+                mTask.run(mFrom);
+            }
+            else{
+                final int middle = (mFrom + mTo) >>> 1;
+                invokeAll(new IndexedAction(mTask, mFrom, middle), new IndexedAction(mTask, middle, mTo));
+            }
+        }
+    }
+}
@@ -0,0 +1,72 @@
+package com.thommil.animalsgo.cv;
+
+/**
+ * Rejects uniform frames (covered lens, wall, sky...) using the luma standard deviation of a grid of
+ * regions, read from the integral image in constant time per region. Local deviations ignore smooth
+ * gradients which would pass a global deviation check.
+ */
+public class BlankFrameStage extends ValidationStage {
+
+    public static final String NAME = "blank";
+
+    public static final int DEFAULT_REJECT_THRESHOLD = 25;
+
+    // Luma standard deviation giving a score of 50
+    private static final int HALF_SCORE_DEVIATION = 8;
+
+    // Number of regions per side
+    private static final int GRID_SIZE = 8;
+
+    /**
+     * Default constructor
+     */
+    public BlankFrameStage() {
+        this(DEFAULT_REJECT_THRESHOLD);
+    }
+
+    /**
+     * Constructor
+     *
+     * @param rejectThreshold The partial score under which a frame is rejected
+     */
+    public BlankFrameStage(final int rejectThreshold) {
+        super(NAME, 1, rejectThreshold);
+    }
+
+    @Override
+    protected int evaluate(final ValidationFrame frame) {
+        final IntegralImage integralImage = frame.getIntegralImage();
+        if(integralImage == null){
+            return NO_SCORE;
+        }
+        return score(integralImage);
+    }
+
+    /**
+     * Computes the blank frame score of an integral image
+     *
+     * @param integralImage The integral image of the frame
+     * @return The score between 0 (uniform) and 100 (textured)
+     */
+    public static int score(final IntegralImage integralImage) {
+        final int width = integralImage.getWidth();
+        final int height = integralImage.getHeight();
+        final int cols = Math.min(GRID_SIZE, width);
+        final int rows = Math.min(GRID_SIZE, height);
+        if(cols == 0 || rows == 0){
+            return 0;
+        }
+        long deviationSum = 0;
+        for(int row = 0; row < rows; row++){
+            final int top = height * row / rows;
+            final int bottom = height * (row + 1) / rows;
+            for(int col = 0; col < cols; col++){
+                final int left = width * col / cols;
+                final int right = width * (col + 1) / cols;
+                deviationSum += integralImage.deviation(left, top, right - left, bottom - top);
+            }
+        }
+        final int deviation = (int) (deviationSum / (cols * rows));
+        return 100 * deviation / (deviation + HALF_SCORE_DEVIATION);
+    }
+}
@@ -0,0 +1,87 @@
+package com.thommil.animalsgo.cv;
+
+/**
+ * Picks the best frame of a {@link FrameRing}.
+ *
+ * Frames are scored in parallel, one frame per worker, on sharpness and exposure. The selected
+ * frame has the best product of both scores. Scorers are preallocated for each slot of the ring.
+ * Not thread safe, use one instance per analysis thread.
+ */
+public class BurstSelector implements AnalysisEngine.IndexedTask {
+
+    private final SharpnessScorer[] mSharpnessScorers;
+    private final LumaHistogram[] mHistograms;
+
+    private final int[] mSharpnessScores;
+    private final int[] mExposureScores;
+
+    private FrameRing mRing;
+
+    /**
+     * Constructor
+     *
+     * @param capacity The capacity of the rings to select from
+     */
+    public BurstSelector(final int capacity) {
+        mSharpnessScorers = new SharpnessScorer[capacity];
+        mHistograms = new LumaHistogram[capacity];
+        for(int i = 0; i < capacity; i++){
+            // Ring frames are already downscaled
+            mSharpnessScorers[i] = new SharpnessScorer(1, SharpnessScorer.DEFAULT_HALF_SCORE_VARIANCE);
+            mHistograms[i] = new LumaHistogram(LumaHistogram.DEFAULT_STEP);
+        }
+        mSharpnessScores = new int[capacity];
+        mExposureScores = new int[capacity];
+    }
+
+    /**
+     * Scores all the frames of a ring and selects the best one
+     *
+     * @param engine The engine running the frames in parallel
+     * @param ring The ring, its capacity must not exceed the selector one
+     * @return The age of the best frame in the ring, -1 if the ring is empty
+     */
+    public int select(final AnalysisEngine engine, final FrameRing ring) {
+        if(ring.getCapacity() > mSharpnessScorers.length){
+            throw new IllegalArgumentException("Ring capacity exceeds selector capacity");
+        }
+        mRing = ring;
+        engine.runAll(ring.size(), this);
+        mRing = null;
+
+        int best = -1;
+        int bestScore = -1;
+        for(int age = 0; age < ring.size(); age++){
+            final int score = mSharpnessScores[age] * mExposureScores[age];
+            // Newest frame wins on equality
+            if(score > bestScore){
+                best = age;
+                bestScore = score;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * @param age The frame age in the last selection
+     * @return The sharpness score of the frame
+     */
+    public int getSharpnessScore(final int age) {
+        return mSharpnessScores[age];
+    }
+
+    /**
+     * @param age The frame age in the last selection
+     * @return The exposure score of the frame
+     */
+    public int getExposureScore(final int age) {
+        return mExposureScores[age];
+    }
+
+    @Override
+    public void run(final int age) {
+        final ImageFrame image = mRing.get(age).image;
+        mSharpnessScores[age] = mSharpnessScorers[age].score(image);
+        mExposureScores[age] = ExposureStage.score(mHistograms[age].compute(image));
+    }
+}
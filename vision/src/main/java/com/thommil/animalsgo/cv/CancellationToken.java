@@ -0,0 +1,78 @@
+package com.thommil.animalsgo.cv;
+
+/**
+ * Cooperative stop signal of an analysis, polled by kernels between stripes and by callers between stages.
+ *
+ * A token is stopped either when cancelled from any thread or when its current time budget has
+ * expired. Tokens are reused between analyses, see {@link #reset()}.
+ */
+public class CancellationToken {
+
+    private volatile boolean mCancelled;
+    private volatile boolean mTimedOut;
+
+    // Deadline in System.nanoTime() time base, only valid if mHasDeadline
+    private volatile boolean mHasDeadline;
+    private volatile long mDeadline;
+
+    /**
+     * Requests the analysis to stop, can be called from any thread
+     */
+    public void cancel() {
+        mCancelled = true;
+    }
+
+    /**
+     * Clears the token state and budget before a new analysis
+     */
+    public void reset() {
+        mHasDeadline = false;
+        mTimedOut = false;
+        mCancelled = false;
+    }
+
+    /**
+     * Sets the time budget of the next stage, starting now
+     *
+     * @param budgetNanos The budget in nanoseconds, 0 or negative for no deadline
+     */
+    public void setBudget(final long budgetNanos) {
+        if(budgetNanos > 0){
+            mDeadline = System.nanoTime() + budgetNanos;
+            mHasDeadline = true;
+        }
+        else{
+            mHasDeadline = false;
+        }
+    }
+
+    /**
+     * Checks if the analysis must stop, flags the token as timed out if the budget has expired
+     *
+     * @return true if cancelled or timed out
+     */
+    public boolean isStopped() {
+        if(mCancelled || mTimedOut){
+            return true;
+        }
+        if(mHasDeadline && System.nanoTime() - mDeadline > 0){
+            mTimedOut = true;
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * @return true if {@link #cancel()} has been called
+     */
+    public boolean isCancelled() {
+        return mCancelled;
+    }
+
+    /**
+     * @return true if a budget expiration has been detected by {@link #isStopped()}
+     */
+    public boolean isTimedOut() {
+        return mTimedOut;
+    }
+}
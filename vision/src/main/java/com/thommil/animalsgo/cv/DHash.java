@@ -0,0 +1,102 @@
+package com.thommil.animalsgo.cv;
+
+import java.nio.ByteBuffer;
+
+/**
+ * 64 bits difference hash (dHash) of a frame.
+ *
+ * The frame luma is reduced to a 9x8 grid of cell averages, each bit tells if a cell is brighter
+ * than its right neighbour. Near identical frames give hashes with a small Hamming distance.
+ *
+ * Cells are averaged over a fixed grid of samples so the cost does not depend on the frame size,
+ * the grid is reused and no allocation is done per frame. Not thread safe.
+ */
+public class DHash {
+
+    private static final int GRID_WIDTH = 9;
+    private static final int GRID_HEIGHT = 8;
+
+    // Samples per cell side
+    private static final int CELL_SAMPLES = 4;
+
+    /** Number of luma samples read per row, frames this size or smaller are fully read */
+    public static final int SAMPLES_WIDTH = GRID_WIDTH * CELL_SAMPLES;
+
+    /** Number of luma samples read per column */
+    public static final int SAMPLES_HEIGHT = GRID_HEIGHT * CELL_SAMPLES;
+
+    private final int[] mGrid = new int[GRID_WIDTH * GRID_HEIGHT];
+
+    // Wraps packed buffers given without frame
+    private final ImageFrame mPackedFrame = new ImageFrame();
+
+    /**
+     * Computes the hash of a frame
+     *
+     * @param data The pixels, rows packed without padding
+     * @param width The frame width in pixels
+     * @param height The frame height in pixels
+     * @param format The pixels format, {@link FrameFormat#RGBA8} or {@link FrameFormat#Y8}
+     * @return The 64 bits hash
+     */
+    public long compute(final ByteBuffer data, final int width, final int height, final int format) {
+        return compute(mPackedFrame.wrap(data, width, height, format));
+    }
+
+    /**
+     * Computes the hash of a frame
+     *
+     * @param frame The frame (RGBA8, Y8 or YUV420 luma)
+     * @return The 64 bits hash
+     */
+    public long compute(final ImageFrame frame) {
+        final ByteBuffer data = frame.getData();
+        final int width = frame.getWidth();
+        final int height = frame.getHeight();
+        final boolean lumaSamples = frame.getFormat() != FrameFormat.RGBA8;
+        final int pixelStride = frame.getPixelStride();
+        final int rShift = Luma.redShift(data.order());
+        final int gShift = Luma.greenShift(data.order());
+        final int bShift = Luma.blueShift(data.order());
+        final int samplesX = SAMPLES_WIDTH;
+        final int samplesY = SAMPLES_HEIGHT;
+
+        final int[] grid = mGrid;
+        for(int i = 0; i < grid.length; i++){
+            grid[i] = 0;
+        }
+
+        for(int sy = 0; sy < samplesY; sy++){
+            // Sample at the center of its sub-cell
+            final int y = (int) (((2L * sy + 1) * height) / (2 * samplesY));
+            final int rowOffset = frame.getOffset() + y * frame.getRowStride();
+            final int cellRow = (sy / CELL_SAMPLES) * GRID_WIDTH;
+            for(int sx = 0; sx < samplesX; sx++){
+                final int x = (int) (((2L * sx + 1) * width) / (2 * samplesX));
+                final int offset = rowOffset + x * pixelStride;
+                final int luma = lumaSamples ? (data.get(offset) & 0xFF)
+                        : Luma.fromPixel(data.getInt(offset), rShift, gShift, bShift);
+                grid[cellRow + sx / CELL_SAMPLES] += luma;
+            }
+        }
+
+        long hash = 0;
+        for(int row = 0; row < GRID_HEIGHT; row++){
+            final int cellRow = row * GRID_WIDTH;
+            for(int col = 0; col < GRID_WIDTH - 1; col++){
+                hash <<= 1;
+                if(grid[cellRow + col] > grid[cellRow + col + 1]){
+                    hash |= 1;
+                }
+            }
+        }
+        return hash;
+    }
+
+    /**
+     * @return The number of different bits between two hashes
+     */
+    public static int distance(final long first, final long second) {
+        return Long.bitCount(first ^ second);
+    }
+}
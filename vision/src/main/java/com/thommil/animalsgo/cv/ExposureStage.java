@@ -0,0 +1,58 @@
+package com.thommil.animalsgo.cv;
+
+/**
+ * Rejects under/over exposed frames using the mean luma and the ratio of clipped samples.
+ */
+public class ExposureStage extends ValidationStage {
+
+    public static final String NAME = "exposure";
+
+    public static final int DEFAULT_REJECT_THRESHOLD = 25;
+
+    // Luma values considered as clipped
+    private static final int DARK_LIMIT = 16;
+    private static final int BRIGHT_LIMIT = 240;
+
+    private static final int MID_LUMA = 128;
+
+    /**
+     * Default constructor
+     */
+    public ExposureStage() {
+        this(DEFAULT_REJECT_THRESHOLD);
+    }
+
+    /**
+     * Constructor
+     *
+     * @param rejectThreshold The partial score under which a frame is rejected
+     */
+    public ExposureStage(final int rejectThreshold) {
+        super(NAME, 1, rejectThreshold);
+    }
+
+    @Override
+    protected int evaluate(final ValidationFrame frame) {
+        final LumaHistogram.Histogram histogram = frame.getHistogram();
+        if(histogram == null){
+            return NO_SCORE;
+        }
+        return score(histogram);
+    }
+
+    /**
+     * Computes the exposure score of a luma histogram
+     *
+     * @param histogram The frame histogram
+     * @return The score between 0 (dark or burnt) and 100 (well exposed)
+     */
+    public static int score(final LumaHistogram.Histogram histogram) {
+        if(histogram.count == 0){
+            return 0;
+        }
+        final int meanScore = 100 - 100 * Math.abs(histogram.mean() - MID_LUMA) / MID_LUMA;
+        final long clipped = histogram.countBetween(0, DARK_LIMIT) + histogram.countBetween(BRIGHT_LIMIT, LumaHistogram.BINS);
+        final int clippedScore = (int) (100 - 100 * clipped / histogram.count);
+        return Math.max(0, Math.min(meanScore, clippedScore));
+    }
+}
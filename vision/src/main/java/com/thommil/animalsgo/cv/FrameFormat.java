@@ -0,0 +1,47 @@
+package com.thommil.animalsgo.cv;
+
+/**
+ * Pixel formats of the analyzed frames
+ */
+public final class FrameFormat {
+
+    // 4 bytes per pixel, R G B A order (glReadPixels GL_RGBA)
+    public static final int RGBA8 = 0x01;
+
+    // 1 byte per pixel, luminance only
+    public static final int Y8 = 0x02;
+
+    // Y plane followed by U and V planes subsampled by 2 in both directions (1 byte per sample)
+    public static final int YUV420 = 0x04;
+
+    private FrameFormat() {}     // do not instantiate
+
+    /**
+     * @param format The frame format
+     * @return The number of bytes of a pixel, of the Y plane for YUV420
+     */
+    public static int bytesPerPixel(final int format) {
+        switch(format){
+            case RGBA8 :
+                return 4;
+            case Y8 :
+            case YUV420 :
+                return 1;
+            default :
+                throw new IllegalArgumentException("Unknown format " + format);
+        }
+    }
+
+    /**
+     * @param format The frame format
+     * @param width The frame width in pixels
+     * @param height The frame height in pixels
+     * @return The number of bytes of a packed frame, all planes included
+     */
+    public static int byteSize(final int format, final int width, final int height) {
+        if(format == YUV420){
+            return width * height + 2 * (((width + 1) / 2) * ((height + 1) / 2));
+        }
+        return width * height * bytesPerPixel(format);
+    }
+}
@@ -0,0 +1,102 @@
+package com.thommil.animalsgo.cv;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Fixed size ring of the last frames with their capture data.
+ *
+ * All buffers are allocated at construction, pushing a frame reuses the oldest slot so the
+ * memory used is bounded and nothing is allocated per frame. Not thread safe.
+ */
+public class FrameRing {
+
+    private final Frame[] mFrames;
+    private final int mFrameBytes;
+
+    // Index of the newest frame
+    private int mHead = -1;
+    private int mSize = 0;
+
+    /**
+     * Constructor
+     *
+     * @param capacity The number of frames kept
+     * @param frameBytes The maximum size of a frame in bytes
+     */
+    public FrameRing(final int capacity, final int frameBytes) {
+        if(capacity < 1 || frameBytes < 1){
+            throw new IllegalArgumentException("capacity and frameBytes must be positive");
+        }
+        mFrameBytes = frameBytes;
+        mFrames = new Frame[capacity];
+        for(int i = 0; i < capacity; i++){
+            mFrames[i] = new Frame(ByteBuffer.allocateDirect(frameBytes));
+        }
+    }
+
+    /**
+     * Gives the slot of a new frame which becomes the newest one, the caller fills its content
+     *
+     * @return The slot to fill, previous content of the oldest frame
+     */
+    public Frame push() {
+        mHead = (mHead + 1) % mFrames.length;
+        if(mSize < mFrames.length){
+            mSize++;
+        }
+        return mFrames[mHead];
+    }
+
+    /**
+     * @param age 0 for the newest frame, size() - 1 for the oldest
+     * @return The frame
+     */
+    public Frame get(final int age) {
+        if(age < 0 || age >= mSize){
+            throw new IndexOutOfBoundsException("age " + age + " out of [0, " + mSize + "[");
+        }
+        return mFrames[(mHead - age + mFrames.length) % mFrames.length];
+    }
+
+    /**
+     * @return The number of frames available
+     */
+    public int size() {
+        return mSize;
+    }
+
+    public int getCapacity() {
+        return mFrames.length;
+    }
+
+    /**
+     * @return The maximum size of a frame in bytes
+     */
+    public int getFrameBytes() {
+        return mFrameBytes;
+    }
+
+    /**
+     * Forgets all frames, buffers are kept
+     */
+    public void clear() {
+        mHead = -1;
+        mSize = 0;
+    }
+
+    /**
+     * Frame slot, data is the preallocated buffer to fill and wrap in image
+     */
+    public static class Frame {
+        public final ByteBuffer data;
+        public final ImageFrame image = new ImageFrame();
+        // Camera timestamp in ns
+        public long timestamp;
+        public final float[] gravity = new float[3];
+
+        Frame(final ByteBuffer data) {
+            this.data = data;
+            image.wrap(data, 0, 0, FrameFormat.Y8);
+        }
+    }
+}
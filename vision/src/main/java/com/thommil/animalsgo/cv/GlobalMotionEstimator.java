@@ -0,0 +1,295 @@
+package com.thommil.animalsgo.cv;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Estimates the global translation between consecutive luma frames by block matching.
+ *
+ * Frames are box averaged into a fixed {@link #WORK_WIDTH} x {@link #WORK_HEIGHT} grid, the grid
+ * is then matched against the previous one for every shift in the search window and the shift with
+ * the lowest sum of absolute differences is refined to sub-pixel precision. The cost per frame only
+ * depends on the input size for the averaging, buffers are allocated once.
+ *
+ * Besides the translation, each estimate has a confidence (how much the best shift stands out in the
+ * search window, low on flat scenes) and a residual (mean difference left in the worst block once the
+ * translation is compensated, high when the subject moves). The scene is moving when the smoothed
+ * speed or the residual exceed their thresholds.
+ *
+ * Must be updated from a single thread, {@link #isMoving()} can be read from any thread.
+ */
+public class GlobalMotionEstimator {
+
+    // Working grid size
+    public static final int WORK_WIDTH = 64;
+    public static final int WORK_HEIGHT = 48;
+
+    // Maximum shift searched in grid pixels
+    public static final int SEARCH_RADIUS = 4;
+
+    // Smoothed speed in grid pixels per frame above which the camera is moving
+    public static final float DEFAULT_SPEED_THRESHOLD = 0.2f;
+
+    // Confidence under which the translation is ignored
+    public static final float DEFAULT_MIN_CONFIDENCE = 0.2f;
+
+    // Residual in luma levels under which subject motion is never reported
+    private static final float MIN_RESIDUAL_THRESHOLD = 3f;
+
+    // Residual threshold relative to the steady residual average
+    private static final float RESIDUAL_FACTOR = 3f;
+
+    // Weight of the last estimate in the smoothed speed and residual
+    private static final float SMOOTHING = 0.3f;
+
+    private static final int SEARCH_SIDE = 2 * SEARCH_RADIUS + 1;
+
+    // Matched area of the grid, without the search margins
+    private static final int MATCH_WIDTH = WORK_WIDTH - 2 * SEARCH_RADIUS;
+    private static final int MATCH_HEIGHT = WORK_HEIGHT - 2 * SEARCH_RADIUS;
+
+    // Side of the blocks whose residual is checked for subject motion
+    private static final int RESIDUAL_BLOCK = 8;
+
+    private final float mSpeedThreshold;
+    private final float mMinConfidence;
+
+    // Current and previous grids, swapped on each frame
+    private int[] mGrid = new int[WORK_WIDTH * WORK_HEIGHT];
+    private int[] mPreviousGrid = new int[WORK_WIDTH * WORK_HEIGHT];
+    private boolean mHasPrevious;
+
+    // Costs of the search window shifts
+    private final long[] mCosts = new long[SEARCH_SIDE * SEARCH_SIDE];
+
+    // Last estimate, in input frame pixels
+    private float mDx;
+    private float mDy;
+    private float mConfidence;
+    private float mResidual;
+
+    // Smoothed state
+    private float mSpeed;
+    private float mSteadyResidual;
+    private boolean mHasSteadyResidual;
+    private volatile boolean mMoving;
+
+    /**
+     * Default constructor
+     */
+    public GlobalMotionEstimator() {
+        this(DEFAULT_SPEED_THRESHOLD, DEFAULT_MIN_CONFIDENCE);
+    }
+
+    /**
+     * Constructor
+     *
+     * @param speedThreshold The smoothed speed in grid pixels per frame above which the camera is moving
+     * @param minConfidence The confidence in [0, 1] under which the translation is ignored
+     */
+    public GlobalMotionEstimator(final float speedThreshold, final float minConfidence) {
+        mSpeedThreshold = speedThreshold;
+        mMinConfidence = minConfidence;
+    }
+
+    /**
+     * Estimates the motion between the previous frame and this one
+     *
+     * @param frame The frame (Y8 or YUV420 luma), at least {@link #WORK_WIDTH} x {@link #WORK_HEIGHT}
+     * @return true if an estimate was made, false for the first frame of a sequence
+     */
+    public boolean update(final ImageFrame frame) {
+        if(frame.getFormat() == FrameFormat.RGBA8){
+            throw new IllegalArgumentException("Luma frames only");
+        }
+        final int blockWidth = frame.getWidth() / WORK_WIDTH;
+        final int blockHeight = frame.getHeight() / WORK_HEIGHT;
+        if(blockWidth == 0 || blockHeight == 0){
+            throw new IllegalArgumentException("Frame smaller than " + WORK_WIDTH + "x" + WORK_HEIGHT);
+        }
+
+        final int[] grid = mPreviousGrid;
+        mPreviousGrid = mGrid;
+        mGrid = grid;
+        downscale(frame, blockWidth, blockHeight, grid);
+
+        if(!mHasPrevious){
+            mHasPrevious = true;
+            return false;
+        }
+
+        search(grid, mPreviousGrid);
+
+        // Translation ignored on flat scenes, subject motion is still detected by the residual
+        final float dx = (mConfidence >= mMinConfidence) ? mDx : 0;
+        final float dy = (mConfidence >= mMinConfidence) ? mDy : 0;
+        mSpeed += ((float) Math.sqrt(dx * dx + dy * dy) - mSpeed) * SMOOTHING;
+        final boolean panning = mSpeed > mSpeedThreshold;
+
+        final float residualThreshold = Math.max(MIN_RESIDUAL_THRESHOLD, mSteadyResidual * RESIDUAL_FACTOR);
+        final boolean subjectMoving = mHasSteadyResidual && mResidual > residualThreshold;
+        if(!panning && !subjectMoving){
+            mSteadyResidual = mHasSteadyResidual ? mSteadyResidual + (mResidual - mSteadyResidual) * SMOOTHING : mResidual;
+            mHasSteadyResidual = true;
+        }
+        mMoving = panning || subjectMoving;
+
+        // Back to frame pixels
+        mDx *= blockWidth;
+        mDy *= blockHeight;
+        return true;
+    }
+
+    /**
+     * Forgets the previous frame and the smoothed state, for instance when the stream restarts
+     */
+    public void reset() {
+        mHasPrevious = false;
+        mHasSteadyResidual = false;
+        mSpeed = 0;
+        mSteadyResidual = 0;
+        mDx = 0;
+        mDy = 0;
+        mConfidence = 0;
+        mResidual = 0;
+        mMoving = false;
+    }
+
+    /**
+     * @return true if the camera or the subject is moving, can be called from any thread
+     */
+    public boolean isMoving() {
+        return mMoving;
+    }
+
+    /**
+     * @return The horizontal content shift of the last estimate in frame pixels
+     */
+    public float getDx() {
+        return mDx;
+    }
+
+    /**
+     * @return The vertical content shift of the last estimate in frame pixels
+     */
+    public float getDy() {
+        return mDy;
+    }
+
+    /**
+     * @return The confidence of the last estimate in [0, 1]
+     */
+    public float getConfidence() {
+        return mConfidence;
+    }
+
+    /**
+     * @return The mean absolute difference in luma levels left in the worst block once the last translation is compensated
+     */
+    public float getResidual() {
+        return mResidual;
+    }
+
+    /**
+     * @return The smoothed speed in grid pixels per frame
+     */
+    public float getSpeed() {
+        return mSpeed;
+    }
+
+    // Box averages the centered WORK_WIDTH x WORK_HEIGHT blocks of the frame into the grid
+    private static void downscale(final ImageFrame frame, final int blockWidth, final int blockHeight, final int[] grid) {
+        final ByteBuffer data = frame.getData();
+        final int rowStride = frame.getRowStride();
+        final int pixelStride = frame.getPixelStride();
+        final int left = (frame.getWidth() - blockWidth * WORK_WIDTH) / 2;
+        final int top = (frame.getHeight() - blockHeight * WORK_HEIGHT) / 2;
+        final int area = blockWidth * blockHeight;
+        int index = 0;
+        for(int row = 0; row < WORK_HEIGHT; row++){
+            final int blockOffset = frame.getOffset() + (top + row * blockHeight) * rowStride + left * pixelStride;
+            for(int col = 0; col < WORK_WIDTH; col++){
+                int sum = 0;
+                int offset = blockOffset + col * blockWidth * pixelStride;
+                for(int y = 0; y < blockHeight; y++){
+                    for(int x = 0; x < blockWidth; x++){
+                        sum += data.get(offset + x * pixelStride) & 0xFF;
+                    }
+                    offset += rowStride;
+                }
+                grid[index++] = sum / area;
+            }
+        }
+    }
+
+    // Exhaustive search of the shift (dx, dy) such as grid(x, y) ~ previous(x - dx, y - dy)
+    private void search(final int[] grid, final int[] previous) {
+        final long[] costs = mCosts;
+        long totalCost = 0;
+        // No shift wins ties, so flat scenes report no translation
+        int best = SEARCH_RADIUS * SEARCH_SIDE + SEARCH_RADIUS;
+        long bestCost = Long.MAX_VALUE;
+        for(int dy = -SEARCH_RADIUS; dy <= SEARCH_RADIUS; dy++){
+            for(int dx = -SEARCH_RADIUS; dx <= SEARCH_RADIUS; dx++){
+                long cost = 0;
+                for(int y = 0; y < MATCH_HEIGHT; y++){
+                    int index = (SEARCH_RADIUS + y) * WORK_WIDTH + SEARCH_RADIUS;
+                    int previousIndex = index - dy * WORK_WIDTH - dx;
+                    for(int x = 0; x < MATCH_WIDTH; x++){
+                        cost += Math.abs(grid[index++] - previous[previousIndex++]);
+                    }
+                }
+                final int shift = (dy + SEARCH_RADIUS) * SEARCH_SIDE + dx + SEARCH_RADIUS;
+                costs[shift] = cost;
+                totalCost += cost;
+                if(cost < bestCost || (cost == bestCost && dx == 0 && dy == 0)){
+                    best = shift;
+                    bestCost = cost;
+                }
+            }
+        }
+
+        final int bestX = best % SEARCH_SIDE;
+        final int bestY = best / SEARCH_SIDE;
+        mDx = bestX - SEARCH_RADIUS + subPixel(costs, best, bestX, 1);
+        mDy = bestY - SEARCH_RADIUS + subPixel(costs, best, bestY, SEARCH_SIDE);
+
+        final float meanCost = (float) totalCost / costs.length;
+        mConfidence = (meanCost == 0) ? 0 : 1f - bestCost / meanCost;
+        mResidual = blockResidual(grid, previous, bestX - SEARCH_RADIUS, bestY - SEARCH_RADIUS);
+    }
+
+    // Largest mean absolute difference of the matched area blocks at the given shift
+    private static float blockResidual(final int[] grid, final int[] previous, final int dx, final int dy) {
+        long worst = 0;
+        for(int blockY = 0; blockY + RESIDUAL_BLOCK <= MATCH_HEIGHT; blockY += RESIDUAL_BLOCK){
+            for(int blockX = 0; blockX + RESIDUAL_BLOCK <= MATCH_WIDTH; blockX += RESIDUAL_BLOCK){
+                long cost = 0;
+                for(int y = 0; y < RESIDUAL_BLOCK; y++){
+                    int index = (SEARCH_RADIUS + blockY + y) * WORK_WIDTH + SEARCH_RADIUS + blockX;
+                    int previousIndex = index - dy * WORK_WIDTH - dx;
+                    for(int x = 0; x < RESIDUAL_BLOCK; x++){
+                        cost += Math.abs(grid[index++] - previous[previousIndex++]);
+                    }
+                }
+                worst = Math.max(worst, cost);
+            }
+        }
+        return (float) worst / (RESIDUAL_BLOCK * RESIDUAL_BLOCK);
+    }
+
+    // Offset in [-0.5, 0.5] of the best shift along one axis, fitting 2 lines of opposite slopes
+    // as absolute differences grow linearly around the minimum
+    private static float subPixel(final long[] costs, final int best, final int position, final int step) {
+        if(position == 0 || position == SEARCH_SIDE - 1){
+            return 0;
+        }
+        final long before = costs[best - step];
+        final long center = costs[best];
+        final long after = costs[best + step];
+        final long slope = Math.max(before, after) - center;
+        if(slope <= 0){
+            return 0;
+        }
+        return Math.max(-0.5f, Math.min(0.5f, 0.5f * (before - after) / slope));
+    }
+}
@@ -0,0 +1,259 @@
+package com.thommil.animalsgo.cv;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Image backed by a direct ByteBuffer with its geometry.
+ *
+ * Pixel (x, y) of the main plane starts at offset + y * rowStride + x * pixelStride. For
+ * {@link FrameFormat#YUV420} frames the main plane is the Y plane and the chroma planes have their
+ * own offsets and strides, so camera YUV_420_888 layouts (planar or semi-planar) can be wrapped
+ * without copy.
+ *
+ * ROI and channel views share the data of their source, they are written into a frame given by the
+ * caller so no allocation is done per frame. Views stay valid while the source data is unchanged.
+ */
+public class ImageFrame {
+
+    // RGBA8 channels, in memory order
+    public static final int CHANNEL_R = 0;
+    public static final int CHANNEL_G = 1;
+    public static final int CHANNEL_B = 2;
+    public static final int CHANNEL_A = 3;
+
+    // YUV420 planes
+    public static final int PLANE_Y = 0;
+    public static final int PLANE_U = 1;
+    public static final int PLANE_V = 2;
+
+    private ByteBuffer mData;
+    private int mFormat;
+    private int mWidth;
+    private int mHeight;
+
+    // Main plane layout in bytes
+    private int mOffset;
+    private int mRowStride;
+    private int mPixelStride;
+
+    // Chroma planes layout in bytes (YUV420 only), U then V
+    private final int[] mChromaOffsets = new int[2];
+    private final int[] mChromaRowStrides = new int[2];
+    private final int[] mChromaPixelStrides = new int[2];
+
+    /**
+     * Allocates a packed frame in a new direct buffer
+     *
+     * @param width The frame width in pixels
+     * @param height The frame height in pixels
+     * @param format The pixels format
+     * @return The new frame
+     */
+    public static ImageFrame allocate(final int width, final int height, final int format) {
+        return new ImageFrame().wrap(ByteBuffer.allocateDirect(FrameFormat.byteSize(format, width, height)), width, height, format);
+    }
+
+    /**
+     * Uses a buffer holding a packed frame (planar I420 layout for YUV420)
+     *
+     * @param data The pixels
+     * @param width The frame width in pixels
+     * @param height The frame height in pixels
+     * @param format The pixels format
+     * @return This frame
+     */
+    public ImageFrame wrap(final ByteBuffer data, final int width, final int height, final int format) {
+        final int pixelStride = FrameFormat.bytesPerPixel(format);
+        wrap(data, width, height, format, 0, width * pixelStride, pixelStride);
+        if(format == FrameFormat.YUV420){
+            final int chromaWidth = (width + 1) / 2;
+            final int chromaSize = chromaWidth * ((height + 1) / 2);
+            setChromaPlanes(width * height, chromaWidth, 1, width * height + chromaSize, chromaWidth, 1);
+        }
+        return this;
+    }
+
+    /**
+     * Uses a buffer holding a frame with a custom layout
+     *
+     * @param data The pixels
+     * @param width The frame width in pixels
+     * @param height The frame height in pixels
+     * @param format The pixels format
+     * @param offset The offset of the first pixel in bytes
+     * @param rowStride The number of bytes between 2 rows
+     * @param pixelStride The number of bytes between 2 pixels of a row
+     * @return This frame
+     */
+    public ImageFrame wrap(final ByteBuffer data, final int width, final int height, final int format,
+                           final int offset, final int rowStride, final int pixelStride) {
+        if(width < 0 || height < 0 || pixelStride < 1 || rowStride < width * pixelStride){
+            throw new IllegalArgumentException("Invalid layout " + width + "x" + height + ", rowStride=" + rowStride + ", pixelStride=" + pixelStride);
+        }
+        mData = data;
+        mFormat = format;
+        mWidth = width;
+        mHeight = height;
+        mOffset = offset;
+        mRowStride = rowStride;
+        mPixelStride = pixelStride;
+        return this;
+    }
+
+    /**
+     * Sets the chroma planes layout of a YUV420 frame, U and V may be interleaved (pixel stride of 2)
+     *
+     * @return This frame
+     */
+    public ImageFrame setChromaPlanes(final int uOffset, final int uRowStride, final int uPixelStride,
+                                      final int vOffset, final int vRowStride, final int vPixelStride) {
+        mChromaOffsets[0] = uOffset;
+        mChromaRowStrides[0] = uRowStride;
+        mChromaPixelStrides[0] = uPixelStride;
+        mChromaOffsets[1] = vOffset;
+        mChromaRowStrides[1] = vRowStride;
+        mChromaPixelStrides[1] = vPixelStride;
+        return this;
+    }
+
+    /**
+     * Makes a zero copy view of a region, YUV420 regions must start on even coordinates
+     *
+     * @param x The region left in pixels
+     * @param y The region top in pixels
+     * @param width The region width in pixels
+     * @param height The region height in pixels
+     * @param dst The frame receiving the view
+     * @return dst
+     */
+    public ImageFrame roi(final int x, final int y, final int width, final int height, final ImageFrame dst) {
+        if(x < 0 || y < 0 || width < 0 || height < 0 || x + width > mWidth || y + height > mHeight){
+            throw new IllegalArgumentException("Region " + x + "," + y + " " + width + "x" + height + " out of " + mWidth + "x" + mHeight);
+        }
+        if(mFormat == FrameFormat.YUV420 && ((x | y) & 1) != 0){
+            throw new IllegalArgumentException("YUV420 region must start on even coordinates");
+        }
+        dst.wrap(mData, width, height, mFormat, mOffset + y * mRowStride + x * mPixelStride, mRowStride, mPixelStride);
+        if(mFormat == FrameFormat.YUV420){
+            for(int i = 0; i < 2; i++){
+                dst.mChromaOffsets[i] = mChromaOffsets[i] + (y / 2) * mChromaRowStrides[i] + (x / 2) * mChromaPixelStrides[i];
+                dst.mChromaRowStrides[i] = mChromaRowStrides[i];
+                dst.mChromaPixelStrides[i] = mChromaPixelStrides[i];
+            }
+        }
+        return dst;
+    }
+
+    /**
+     * Makes a zero copy Y8 view of a channel (RGBA8) or of a plane (YUV420)
+     *
+     * @param channel CHANNEL_* for RGBA8 frames, PLANE_* for YUV420 frames, 0 for Y8 frames
+     * @param dst The frame receiving the view
+     * @return dst
+     */
+    public ImageFrame channel(final int channel, final ImageFrame dst) {
+        switch(mFormat){
+            case FrameFormat.RGBA8 :
+                if(channel < CHANNEL_R || channel > CHANNEL_A){
+                    throw new IllegalArgumentException("Unknown channel " + channel);
+                }
+                return dst.wrap(mData, mWidth, mHeight, FrameFormat.Y8, mOffset + channel, mRowStride, mPixelStride);
+            case FrameFormat.YUV420 :
+                if(channel == PLANE_Y){
+                    return dst.wrap(mData, mWidth, mHeight, FrameFormat.Y8, mOffset, mRowStride, mPixelStride);
+                }
+                if(channel != PLANE_U && channel != PLANE_V){
+                    throw new IllegalArgumentException("Unknown plane " + channel);
+                }
+                return dst.wrap(mData, (mWidth + 1) / 2, (mHeight + 1) / 2, FrameFormat.Y8,
+                        mChromaOffsets[channel - 1], mChromaRowStrides[channel - 1], mChromaPixelStrides[channel - 1]);
+            default :
+                if(channel != 0){
+                    throw new IllegalArgumentException("Unknown channel " + channel);
+                }
+                return dst.wrap(mData, mWidth, mHeight, mFormat, mOffset, mRowStride, mPixelStride);
+        }
+    }
+
+    /**
+     * Copies the pixels into a packed frame of the same format and size, RGBA8 and Y8 only.
+     *
+     * The position and limit of this frame buffer are modified, dst buffer is rewound.
+     *
+     * @param dst The destination frame, packed
+     */
+    public void copyTo(final ImageFrame dst) {
+        if(mFormat == FrameFormat.YUV420 || mPixelStride != FrameFormat.bytesPerPixel(mFormat)){
+            throw new IllegalArgumentException("Only RGBA8 and Y8 frames with contiguous pixels can be copied");
+        }
+        if(dst.mFormat != mFormat || dst.mWidth != mWidth || dst.mHeight != mHeight || !dst.isPacked()){
+            throw new IllegalArgumentException("Destination must be a packed frame of the same format and size");
+        }
+        final int rowSize = mWidth * mPixelStride;
+        final ByteBuffer dstData = dst.mData;
+        dstData.clear();
+        if(mRowStride == rowSize){
+            mData.limit(mOffset + rowSize * mHeight);
+            mData.position(mOffset);
+            dstData.put(mData);
+        }
+        else{
+            for(int row = 0; row < mHeight; row++){
+                final int offset = mOffset + row * mRowStride;
+                mData.limit(offset + rowSize);
+                mData.position(offset);
+                dstData.put(mData);
+            }
+        }
+        mData.clear();
+        dstData.rewind();
+    }
+
+    /**
+     * @return true if rows are contiguous and the frame starts at the beginning of its buffer
+     */
+    public boolean isPacked() {
+        return mOffset == 0 && mPixelStride == FrameFormat.bytesPerPixel(mFormat) && mRowStride == mWidth * mPixelStride;
+    }
+
+    /**
+     * @return The number of bytes available in the backing buffer
+     */
+    public int getCapacity() {
+        return mData == null ? 0 : mData.capacity();
+    }
+
+    public ByteBuffer getData() {
+        return mData;
+    }
+
+    public int getFormat() {
+        return mFormat;
+    }
+
+    public int getWidth() {
+        return mWidth;
+    }
+
+    public int getHeight() {
+        return mHeight;
+    }
+
+    public int getOffset() {
+        return mOffset;
+    }
+
+    public int getRowStride() {
+        return mRowStride;
+    }
+
+    public int getPixelStride() {
+        return mPixelStride;
+    }
+
+    @Override
+    public String toString() {
+        return "ImageFrame[" + mWidth + "x" + mHeight + ", format=" + mFormat + ", offset=" + mOffset
+                + ", rowStride=" + mRowStride + ", pixelStride=" + mPixelStride + "]";
+    }
+}
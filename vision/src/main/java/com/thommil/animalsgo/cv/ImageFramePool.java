@@ -0,0 +1,139 @@
+package com.thommil.animalsgo.cv;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+
+/**
+ * Recycles {@link ImageFrame} by buffer size.
+ *
+ * Buffers are allocated with a size class capacity and kept in one bucket per class, so a frame
+ * released after a small size change can be reused. Classes are powers of 2 split in 4 steps, so
+ * at most 25% of a buffer is unused. Each bucket is bounded. Buffers over {@link #MAX_POOLED_SIZE}
+ * are allocated at their exact size and never pooled. Thread safe.
+ */
+public class ImageFramePool {
+
+    public static final int DEFAULT_MAX_PER_BUCKET = 4;
+
+    // Largest pooled buffer, 1GB
+    public static final int MAX_POOLED_SIZE = 1 << 30;
+
+    // Smallest buffer capacity, 16 bytes
+    private static final int MIN_SIZE_LOG2 = 4;
+
+    // Steps per power of 2
+    private static final int STEPS_LOG2 = 2;
+
+    // Buckets from 16 bytes to 1GB
+    private static final int BUCKETS = bucketOfCapacity(MAX_POOLED_SIZE) + 1;
+
+    private final int mMaxPerBucket;
+
+    private final ArrayDeque<ImageFrame>[] mBuckets;
+
+    /**
+     * Default constructor
+     */
+    public ImageFramePool() {
+        this(DEFAULT_MAX_PER_BUCKET);
+    }
+
+    /**
+     * Constructor
+     *
+     * @param maxPerBucket The maximum number of frames kept per buffer size
+     */
+    public ImageFramePool(final int maxPerBucket) {
+        if(maxPerBucket < 1){
+            throw new IllegalArgumentException("maxPerBucket must be positive");
+        }
+        mMaxPerBucket = maxPerBucket;
+        @SuppressWarnings("unchecked")
+        final ArrayDeque<ImageFrame>[] buckets = (ArrayDeque<ImageFrame>[]) new ArrayDeque<?>[BUCKETS];
+        for(int i = 0; i < BUCKETS; i++){
+            buckets[i] = new ArrayDeque<>(maxPerBucket);
+        }
+        mBuckets = buckets;
+    }
+
+    /**
+     * Gets a packed frame, reused if one of the right bucket is available
+     *
+     * @param width The frame width in pixels
+     * @param height The frame height in pixels
+     * @param format The pixels format
+     * @return The frame, its content is undefined
+     */
+    public ImageFrame acquire(final int width, final int height, final int format) {
+        final int size = FrameFormat.byteSize(format, width, height);
+        if(size > MAX_POOLED_SIZE){
+            return ImageFrame.allocate(width, height, format);
+        }
+        final int capacity = classCapacity(size);
+        final int bucket = bucketOfCapacity(capacity);
+        ImageFrame frame;
+        synchronized (this) {
+            frame = mBuckets[bucket].pollFirst();
+        }
+        if(frame == null){
+            frame = new ImageFrame().wrap(ByteBuffer.allocateDirect(capacity), width, height, format);
+        }
+        else{
+            frame.wrap(frame.getData(), width, height, format);
+        }
+        frame.getData().clear();
+        return frame;
+    }
+
+    /**
+     * Gives back a frame, dropped if its bucket is full. Views of the frame must not be used afterwards.
+     *
+     * @param frame The frame to recycle, may come from outside the pool
+     */
+    public void release(final ImageFrame frame) {
+        final int capacity = frame.getCapacity();
+        if(capacity < (1 << MIN_SIZE_LOG2) || capacity > MAX_POOLED_SIZE || !frame.getData().isDirect()){
+            return;
+        }
+        // Floor so any frame of the bucket fits
+        final int bucket = bucketOfCapacity(capacity);
+        synchronized (this) {
+            final ArrayDeque<ImageFrame> frames = mBuckets[bucket];
+            if(frames.size() < mMaxPerBucket){
+                frames.addFirst(frame);
+            }
+        }
+    }
+
+    /**
+     * Drops all the pooled frames
+     */
+    public synchronized void clear() {
+        for(int i = 0; i < BUCKETS; i++){
+            mBuckets[i].clear();
+        }
+    }
+
+    /**
+     * Gets the capacity of the buffers allocated for a size
+     *
+     * @param size The size in bytes, up to {@link #MAX_POOLED_SIZE}
+     * @return The smallest size class holding size bytes
+     */
+    static int classCapacity(final int size) {
+        if(size <= (1 << MIN_SIZE_LOG2)){
+            return 1 << MIN_SIZE_LOG2;
+        }
+        // 2^log2 < size <= 2^(log2 + 1)
+        final int log2 = 31 - Integer.numberOfLeadingZeros(size - 1);
+        final int step = 1 << (log2 - STEPS_LOG2);
+        return ((size + step - 1) / step) * step;
+    }
+
+    // Index of the largest size class not above the capacity
+    private static int bucketOfCapacity(final int capacity) {
+        final int log2 = 31 - Integer.numberOfLeadingZeros(capacity);
+        final int steps = (capacity - (1 << log2)) >> (log2 - STEPS_LOG2);
+        return ((log2 - MIN_SIZE_LOG2) << STEPS_LOG2) + steps;
+    }
+}
@@ -0,0 +1,232 @@
+package com.thommil.animalsgo.cv;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Box filtered luma pyramid of a frame, shared by the analysis steps working at a lower resolution.
+ *
+ * Level 0 is the source frame, level n is a Y8 frame of (width >> n) x (height >> n) pixels where
+ * each pixel is the average of a 2x2 block of level n - 1 (level 1 averages the source luma).
+ * Levels are only built on first request, from the nearest level already built, in frames taken
+ * from an {@link ImageFramePool} and given back when the source changes.
+ *
+ * Not thread safe, use one instance per analysis thread.
+ */
+public class ImagePyramid extends StripeKernel<ImagePyramid.Progress> {
+
+    // Maximum number of levels, source included
+    public static final int MAX_LEVELS = 8;
+
+    private final ImageFramePool mPool;
+
+    // Levels, null until built, level 0 is the source
+    private final ImageFrame[] mLevels = new ImageFrame[MAX_LEVELS];
+
+    // Statistics, written from the analysis thread only, read from any thread
+    private volatile long mHits;
+    private volatile long mMisses;
+
+    // Level being built
+    private ImageFrame mSrc;
+    private ImageFrame mDst;
+    private boolean mLumaSamples;
+    private int mRedShift;
+    private int mGreenShift;
+    private int mBlueShift;
+
+    /**
+     * Constructor
+     *
+     * @param pool The pool providing the levels frames
+     */
+    public ImagePyramid(final ImageFramePool pool) {
+        mPool = pool;
+    }
+
+    /**
+     * Sets the source frame, levels of the previous source are given back to the pool
+     *
+     * @param frame The source (RGBA8, Y8 or YUV420 luma), must not change while levels are used
+     */
+    public void set(final ImageFrame frame) {
+        release();
+        mLevels[0] = frame;
+    }
+
+    /**
+     * Gives back the built levels to the pool and forgets the source
+     */
+    public void release() {
+        for(int level = 1; level < MAX_LEVELS; level++){
+            if(mLevels[level] != null){
+                mPool.release(mLevels[level]);
+                mLevels[level] = null;
+            }
+        }
+        mLevels[0] = null;
+    }
+
+    /**
+     * Gets the deepest level at least as large as the requested size.
+     *
+     * @param minWidth The minimum width in pixels
+     * @param minHeight The minimum height in pixels
+     * @return The level index, 0 if the source is smaller than the requested size
+     */
+    public int levelFor(final int minWidth, final int minHeight) {
+        final ImageFrame source = mLevels[0];
+        int level = 0;
+        while(level + 1 < MAX_LEVELS
+                && (source.getWidth() >> (level + 1)) >= Math.max(1, minWidth)
+                && (source.getHeight() >> (level + 1)) >= Math.max(1, minHeight)){
+            level++;
+        }
+        return level;
+    }
+
+    /**
+     * Gets a level, built on first request
+     *
+     * @param engine The engine running the stripes
+     * @param token The token checked before each stripe, null to build the whole level
+     * @param level The level index in [0, {@link #MAX_LEVELS}[
+     * @return The level frame owned by the pyramid, null if stopped by the token
+     */
+    public ImageFrame getLevel(final AnalysisEngine engine, final CancellationToken token, final int level) {
+        if(level < 0 || level >= MAX_LEVELS){
+            throw new IllegalArgumentException("level must be in [0, " + MAX_LEVELS + "[");
+        }
+        if(mLevels[0] == null){
+            throw new IllegalStateException("No source set");
+        }
+        if(level == 0){
+            return mLevels[0];
+        }
+        if(mLevels[level] != null){
+            mHits++;
+            return mLevels[level];
+        }
+        mMisses++;
+
+        // Builds from the nearest level available
+        int built = level - 1;
+        while(mLevels[built] == null){
+            built--;
+        }
+        for(int next = built + 1; next <= level; next++){
+            final ImageFrame src = mLevels[next - 1];
+            final ImageFrame dst = mPool.acquire(Math.max(1, src.getWidth() / 2), Math.max(1, src.getHeight() / 2), FrameFormat.Y8);
+            if(!downscale(engine, token, src, dst)){
+                mPool.release(dst);
+                return null;
+            }
+            mLevels[next] = dst;
+        }
+        return mLevels[level];
+    }
+
+    /**
+     * Gets the deepest level at least as large as the requested size, built on first request
+     *
+     * @param engine The engine running the stripes
+     * @param token The token checked before each stripe, null to build the whole level
+     * @param minWidth The minimum width in pixels
+     * @param minHeight The minimum height in pixels
+     * @return The level frame owned by the pyramid, null if stopped by the token
+     */
+    public ImageFrame getLevel(final AnalysisEngine engine, final CancellationToken token, final int minWidth, final int minHeight) {
+        return getLevel(engine, token, levelFor(minWidth, minHeight));
+    }
+
+    /**
+     * @return The number of level requests served without building
+     */
+    public long getHits() {
+        return mHits;
+    }
+
+    /**
+     * @return The number of level requests which have built at least one level
+     */
+    public long getMisses() {
+        return mMisses;
+    }
+
+    private boolean downscale(final AnalysisEngine engine, final CancellationToken token, final ImageFrame src, final ImageFrame dst) {
+        final ByteBuffer data = src.getData();
+        mSrc = src;
+        mDst = dst;
+        mLumaSamples = src.getFormat() != FrameFormat.RGBA8;
+        mRedShift = Luma.redShift(data.order());
+        mGreenShift = Luma.greenShift(data.order());
+        mBlueShift = Luma.blueShift(data.order());
+        final Progress progress = engine.run(this, token);
+        mSrc = null;
+        mDst = null;
+        return progress != null;
+    }
+
+    @Override
+    protected int getRows() {
+        return mDst.getHeight();
+    }
+
+    @Override
+    protected Progress newPartial() {
+        return new Progress();
+    }
+
+    @Override
+    protected void reset(final Progress partial) {
+        partial.rows = 0;
+    }
+
+    @Override
+    protected void process(final int rowStart, final int rowEnd, final Progress partial) {
+        final ImageFrame src = mSrc;
+        final ByteBuffer data = src.getData();
+        final ByteBuffer dst = mDst.getData();
+        final int width = mDst.getWidth();
+        final int rowStride = src.getRowStride();
+        final int pixelStride = src.getPixelStride();
+        // 1 pixel sources are copied
+        final int dx = (src.getWidth() > 1) ? pixelStride : 0;
+        final int dy = (src.getHeight() > 1) ? rowStride : 0;
+        final boolean lumaSamples = mLumaSamples;
+        final int rShift = mRedShift;
+        final int gShift = mGreenShift;
+        final int bShift = mBlueShift;
+        for(int row = rowStart; row < rowEnd; row++){
+            int offset = src.getOffset() + 2 * row * rowStride;
+            int dstOffset = row * width;
+            for(int col = 0; col < width; col++){
+                final int sum;
+                if(lumaSamples){
+                    sum = (data.get(offset) & 0xFF) + (data.get(offset + dx) & 0xFF)
+                            + (data.get(offset + dy) & 0xFF) + (data.get(offset + dy + dx) & 0xFF);
+                }
+                else{
+                    sum = Luma.fromPixel(data.getInt(offset), rShift, gShift, bShift)
+                            + Luma.fromPixel(data.getInt(offset + dx), rShift, gShift, bShift)
+                            + Luma.fromPixel(data.getInt(offset + dy), rShift, gShift, bShift)
+                            + Luma.fromPixel(data.getInt(offset + dy + dx), rShift, gShift, bShift);
+                }
+                dst.put(dstOffset++, (byte) ((sum + 2) >> 2));
+                offset += 2 * pixelStride;
+            }
+        }
+        partial.rows += rowEnd - rowStart;
+    }
+
+    @Override
+    protected void merge(final Progress target, final Progress source) {
+        target.rows += source.rows;
+    }
+
+    /**
+     * Number of rows built by a stripe
+     */
+    public static class Progress {
+        public int rows;
+    }
+}
@@ -0,0 +1,254 @@
+package com.thommil.animalsgo.cv;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Integral and squared integral images of a frame luma, giving the sum, mean and variance of any
+ * rectangle in constant time.
+ *
+ * Tables have a leading row and column of zeros, entry (x, y) holds the sum of the pixels above and
+ * left of (x, y) excluded. Sums are kept in int arrays (frames up to {@link #MAX_PIXELS} pixels) and
+ * squared sums in long arrays, both are reused between frames and only grown when needed.
+ *
+ * Parallel builds run a rows pass then a columns pass, each one split in stripes on an
+ * {@link AnalysisEngine}. Not thread safe, use one instance per analysis thread.
+ */
+public class IntegralImage {
+
+    // Largest frame whose luma sum fits in an int
+    public static final int MAX_PIXELS = Integer.MAX_VALUE / 255;
+
+    // Minimum number of rows or columns in a stripe
+    private static final int MIN_STRIPE_SIZE = AnalysisEngine.MIN_STRIPE_ROWS;
+
+    private int[] mSums = new int[0];
+    private long[] mSquares = new long[0];
+
+    // Tables geometry, (width + 1) x (height + 1)
+    private int mWidth;
+    private int mHeight;
+    private int mStride;
+
+    // Frame being built
+    private ByteBuffer mData;
+    private boolean mLumaSamples;
+    private int mOffset;
+    private int mRowStride;
+    private int mPixelStride;
+    private int mRedShift;
+    private int mGreenShift;
+    private int mBlueShift;
+    private CancellationToken mToken;
+    private int mStripes;
+
+    private final RowsPass mRowsPass = new RowsPass();
+    private final ColumnsPass mColumnsPass = new ColumnsPass();
+
+    /**
+     * Builds the tables of a frame on the caller thread
+     *
+     * @param frame The frame (RGBA8, Y8 or YUV420 luma)
+     * @return This instance
+     */
+    public IntegralImage build(final ImageFrame frame) {
+        setFrame(frame, null);
+        rows(0, mHeight);
+        columns(0, mWidth);
+        mData = null;
+        return this;
+    }
+
+    /**
+     * Builds the tables of a frame using an engine
+     *
+     * @param engine The engine running the stripes
+     * @param frame The frame (RGBA8, Y8 or YUV420 luma)
+     * @return This instance
+     */
+    public IntegralImage build(final AnalysisEngine engine, final ImageFrame frame) {
+        build(engine, null, frame);
+        return this;
+    }
+
+    /**
+     * Builds the tables of a frame using an engine, stops between stripes if the token is stopped.
+     *
+     * @param engine The engine running the stripes
+     * @param token The token checked before each stripe, null to build the whole frame
+     * @param frame The frame (RGBA8, Y8 or YUV420 luma)
+     * @return false if stopped, tables are then incomplete
+     */
+    public boolean build(final AnalysisEngine engine, final CancellationToken token, final ImageFrame frame) {
+        setFrame(frame, token);
+        mStripes = Math.max(1, Math.min(AnalysisEngine.MAX_STRIPES, mHeight / MIN_STRIPE_SIZE));
+        engine.runAll(mStripes, mRowsPass);
+        if(!isStopped()){
+            mStripes = Math.max(1, Math.min(AnalysisEngine.MAX_STRIPES, mWidth / MIN_STRIPE_SIZE));
+            engine.runAll(mStripes, mColumnsPass);
+        }
+        mData = null;
+        mToken = null;
+        return token == null || !(token.isCancelled() || token.isTimedOut());
+    }
+
+    /**
+     * @return The width of the last built frame
+     */
+    public int getWidth() {
+        return mWidth;
+    }
+
+    /**
+     * @return The height of the last built frame
+     */
+    public int getHeight() {
+        return mHeight;
+    }
+
+    /**
+     * @return The luma sum of the rectangle [x, x + width[ x [y, y + height[
+     */
+    public long sum(final int x, final int y, final int width, final int height) {
+        final int top = y * mStride + x;
+        final int bottom = top + height * mStride;
+        return (long) mSums[bottom + width] - mSums[bottom] - mSums[top + width] + mSums[top];
+    }
+
+    /**
+     * @return The squared luma sum of the rectangle [x, x + width[ x [y, y + height[
+     */
+    public long sumOfSquares(final int x, final int y, final int width, final int height) {
+        final int top = y * mStride + x;
+        final int bottom = top + height * mStride;
+        return mSquares[bottom + width] - mSquares[bottom] - mSquares[top + width] + mSquares[top];
+    }
+
+    /**
+     * @return The mean luma of the rectangle, 0 if empty
+     */
+    public int mean(final int x, final int y, final int width, final int height) {
+        final long count = (long) width * height;
+        return count == 0 ? 0 : (int) (sum(x, y, width, height) / count);
+    }
+
+    /**
+     * @return The luma variance of the rectangle, 0 if empty
+     */
+    public int variance(final int x, final int y, final int width, final int height) {
+        final long count = (long) width * height;
+        if(count == 0){
+            return 0;
+        }
+        final long sum = sum(x, y, width, height);
+        return (int) ((count * sumOfSquares(x, y, width, height) - sum * sum) / (count * count));
+    }
+
+    /**
+     * @return The luma standard deviation of the rectangle, 0 if empty
+     */
+    public int deviation(final int x, final int y, final int width, final int height) {
+        return (int) Math.sqrt(variance(x, y, width, height));
+    }
+
+    private void setFrame(final ImageFrame frame, final CancellationToken token) {
+        final int width = frame.getWidth();
+        final int height = frame.getHeight();
+        if((long) width * height > MAX_PIXELS){
+            throw new IllegalArgumentException("Frame too large : " + width + "x" + height);
+        }
+        final int size = (width + 1) * (height + 1);
+        if(mSums.length < size){
+            mSums = new int[size];
+            mSquares = new long[size];
+        }
+        mWidth = width;
+        mHeight = height;
+        mStride = width + 1;
+        // Leading row, the leading column is written by the rows pass
+        for(int x = 0; x <= width; x++){
+            mSums[x] = 0;
+            mSquares[x] = 0;
+        }
+
+        final ByteBuffer data = frame.getData();
+        mData = data;
+        mLumaSamples = frame.getFormat() != FrameFormat.RGBA8;
+        mOffset = frame.getOffset();
+        mRowStride = frame.getRowStride();
+        mPixelStride = frame.getPixelStride();
+        mRedShift = Luma.redShift(data.order());
+        mGreenShift = Luma.greenShift(data.order());
+        mBlueShift = Luma.blueShift(data.order());
+        mToken = token;
+    }
+
+    private boolean isStopped() {
+        return mToken != null && mToken.isStopped();
+    }
+
+    // Prefix sums along the rows [rowStart, rowEnd[
+    private void rows(final int rowStart, final int rowEnd) {
+        final ByteBuffer data = mData;
+        final int[] sums = mSums;
+        final long[] squares = mSquares;
+        final int width = mWidth;
+        final int pixelStride = mPixelStride;
+        final boolean lumaSamples = mLumaSamples;
+        final int rShift = mRedShift;
+        final int gShift = mGreenShift;
+        final int bShift = mBlueShift;
+        for(int row = rowStart; row < rowEnd; row++){
+            int offset = mOffset + row * mRowStride;
+            int index = (row + 1) * mStride;
+            int sum = 0;
+            long square = 0;
+            sums[index] = 0;
+            squares[index] = 0;
+            for(int col = 0; col < width; col++){
+                final int luma = lumaSamples ? (data.get(offset) & 0xFF)
+                        : Luma.fromPixel(data.getInt(offset), rShift, gShift, bShift);
+                sum += luma;
+                square += luma * luma;
+                sums[++index] = sum;
+                squares[index] = square;
+                offset += pixelStride;
+            }
+        }
+    }
+
+    // Accumulates the row sums down the columns [colStart, colEnd[ of the tables (leading column excluded)
+    private void columns(final int colStart, final int colEnd) {
+        final int[] sums = mSums;
+        final long[] squares = mSquares;
+        final int stride = mStride;
+        for(int row = 2; row <= mHeight; row++){
+            final int index = row * stride + 1;
+            for(int i = index + colStart; i < index + colEnd; i++){
+                sums[i] += sums[i - stride];
+                squares[i] += squares[i - stride];
+            }
+        }
+    }
+
+    private static int stripeStart(final int size, final int stripe, final int stripes) {
+        return (int) ((long) size * stripe / stripes);
+    }
+
+    private class RowsPass implements AnalysisEngine.IndexedTask {
+        @Override
+        public void run(final int index) {
+            if(!isStopped()){
+                rows(stripeStart(mHeight, index, mStripes), stripeStart(mHeight, index + 1, mStripes));
+            }
+        }
+    }
+
+    private class ColumnsPass implements AnalysisEngine.IndexedTask {
+        @Override
+        public void run(final int index) {
+            if(!isStopped()){
+                columns(stripeStart(mWidth, index, mStripes), stripeStart(mWidth, index + 1, mStripes));
+            }
+        }
+    }
+}
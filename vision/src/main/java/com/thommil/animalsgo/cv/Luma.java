@@ -0,0 +1,53 @@
+package com.thommil.animalsgo.cv;
+
+import java.nio.ByteOrder;
+
+/**
+ * Fixed-point luminance helpers shared by the analysis kernels
+ */
+public final class Luma {
+
+    // BT.601 luma weights in 8 bits fixed-point (sum = 256)
+    public static final int WEIGHT_R = 77;
+    public static final int WEIGHT_G = 150;
+    public static final int WEIGHT_B = 29;
+
+    private Luma() {}     // do not instantiate
+
+    /**
+     * RGBA pixels are read as one int, the channel shifts depend on the buffer order
+     *
+     * @param order The byte order of the buffer holding the RGBA pixels
+     * @return The right shift of the red channel
+     */
+    public static int redShift(final ByteOrder order) {
+        return order == ByteOrder.BIG_ENDIAN ? 24 : 0;
+    }
+
+    /**
+     * @param order The byte order of the buffer holding the RGBA pixels
+     * @return The right shift of the green channel
+     */
+    public static int greenShift(final ByteOrder order) {
+        return order == ByteOrder.BIG_ENDIAN ? 16 : 8;
+    }
+
+    /**
+     * @param order The byte order of the buffer holding the RGBA pixels
+     * @return The right shift of the blue channel
+     */
+    public static int blueShift(final ByteOrder order) {
+        return order == ByteOrder.BIG_ENDIAN ? 8 : 16;
+    }
+
+    /**
+     * Computes the luma of a RGBA pixel read as an int
+     *
+     * @return The luma between 0 and 255
+     */
+    public static int fromPixel(final int pixel, final int rShift, final int gShift, final int bShift) {
+        return (WEIGHT_R * ((pixel >>> rShift) & 0xFF)
+                + WEIGHT_G * ((pixel >>> gShift) & 0xFF)
+                + WEIGHT_B * ((pixel >>> bShift) & 0xFF)) >> 8;
+    }
+}
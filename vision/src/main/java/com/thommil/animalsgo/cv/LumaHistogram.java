@@ -0,0 +1,261 @@
+package com.thommil.animalsgo.cv;
+
+import java.nio.ByteBuffer;
+
+/**
+ * 256 bins luminance histogram of a frame (RGBA8, Y8 or YUV420 luma), can be split in stripes by an
+ * {@link AnalysisEngine}.
+ */
+public class LumaHistogram extends StripeKernel<LumaHistogram.Histogram> {
+
+    // Sampling step in pixels
+    public static final int DEFAULT_STEP = 2;
+
+    public static final int BINS = 256;
+
+    private final int mStep;
+
+    // Histogram used on the caller thread path
+    private final Histogram mHistogram = new Histogram();
+
+    // Wraps packed buffers given without frame
+    private final ImageFrame mPackedFrame = new ImageFrame();
+
+    // Current frame
+    private ByteBuffer mData;
+    private boolean mLumaSamples;
+    private int mOffset;
+    private int mRowStride;
+    private int mPixelStride;
+    private int mCols;
+    private int mRows;
+    private int mRedShift;
+    private int mGreenShift;
+    private int mBlueShift;
+
+    /**
+     * Default constructor
+     */
+    public LumaHistogram() {
+        this(DEFAULT_STEP);
+    }
+
+    /**
+     * Constructor
+     *
+     * @param step The sampling step in pixels (1 for full resolution)
+     */
+    public LumaHistogram(final int step) {
+        if(step < 1){
+            throw new IllegalArgumentException("step must be positive");
+        }
+        mStep = step;
+    }
+
+    /**
+     * Computes the histogram of a frame on the caller thread.
+     *
+     * The returned histogram is owned by this instance and only valid until the next call.
+     *
+     * @param data The pixels, rows packed without padding
+     * @param width The frame width in pixels
+     * @param height The frame height in pixels
+     * @param format The pixels format, {@link FrameFormat#RGBA8} or {@link FrameFormat#Y8}
+     * @return The luma histogram
+     */
+    public Histogram compute(final ByteBuffer data, final int width, final int height, final int format) {
+        return compute(mPackedFrame.wrap(data, width, height, format));
+    }
+
+    /**
+     * Computes the histogram of a frame on the caller thread.
+     *
+     * The returned histogram is owned by this instance and only valid until the next call.
+     *
+     * @param frame The frame
+     * @return The luma histogram
+     */
+    public Histogram compute(final ImageFrame frame) {
+        setFrame(frame);
+        reset(mHistogram);
+        process(0, mRows, mHistogram);
+        return mHistogram;
+    }
+
+    /**
+     * Computes the histogram of a frame using an engine.
+     *
+     * The returned histogram is owned by this instance and only valid until the next call.
+     *
+     * @param engine The engine running the stripes
+     * @param data The pixels, rows packed without padding
+     * @param width The frame width in pixels
+     * @param height The frame height in pixels
+     * @param format The pixels format, {@link FrameFormat#RGBA8} or {@link FrameFormat#Y8}
+     * @return The luma histogram
+     */
+    public Histogram compute(final AnalysisEngine engine, final ByteBuffer data, final int width, final int height, final int format) {
+        return compute(engine, null, data, width, height, format);
+    }
+
+    /**
+     * Computes the histogram of a frame using an engine, stops between stripes if the token is stopped.
+     *
+     * The returned histogram is owned by this instance and only valid until the next call.
+     *
+     * @param engine The engine running the stripes
+     * @param token The token checked between stripes, null to run the whole frame
+     * @param data The pixels, rows packed without padding
+     * @param width The frame width in pixels
+     * @param height The frame height in pixels
+     * @param format The pixels format, {@link FrameFormat#RGBA8} or {@link FrameFormat#Y8}
+     * @return The luma histogram, null if stopped
+     */
+    public Histogram compute(final AnalysisEngine engine, final CancellationToken token, final ByteBuffer data,
+                             final int width, final int height, final int format) {
+        return compute(engine, token, mPackedFrame.wrap(data, width, height, format));
+    }
+
+    /**
+     * Computes the histogram of a frame using an engine, stops between stripes if the token is stopped.
+     *
+     * The returned histogram is owned by this instance and only valid until the next call.
+     *
+     * @param engine The engine running the stripes
+     * @param token The token checked between stripes, null to run the whole frame
+     * @param frame The frame
+     * @return The luma histogram, null if stopped
+     */
+    public Histogram compute(final AnalysisEngine engine, final CancellationToken token, final ImageFrame frame) {
+        setFrame(frame);
+        return engine.run(this, token);
+    }
+
+    /**
+     * Sets the frame analyzed by the next engine run
+     *
+     * @param data The pixels, rows packed without padding
+     * @param width The frame width in pixels
+     * @param height The frame height in pixels
+     * @param format The pixels format, {@link FrameFormat#RGBA8} or {@link FrameFormat#Y8}
+     */
+    public void setFrame(final ByteBuffer data, final int width, final int height, final int format) {
+        setFrame(mPackedFrame.wrap(data, width, height, format));
+    }
+
+    /**
+     * Sets the frame analyzed by the next engine run
+     *
+     * @param frame The frame
+     */
+    public void setFrame(final ImageFrame frame) {
+        final ByteBuffer data = frame.getData();
+        mData = data;
+        mLumaSamples = frame.getFormat() != FrameFormat.RGBA8;
+        mOffset = frame.getOffset();
+        mRowStride = frame.getRowStride();
+        mPixelStride = frame.getPixelStride();
+        mCols = frame.getWidth() / mStep;
+        mRows = frame.getHeight() / mStep;
+        mRedShift = Luma.redShift(data.order());
+        mGreenShift = Luma.greenShift(data.order());
+        mBlueShift = Luma.blueShift(data.order());
+    }
+
+    @Override
+    protected int getRows() {
+        return mRows;
+    }
+
+    @Override
+    protected Histogram newPartial() {
+        return new Histogram();
+    }
+
+    @Override
+    protected void reset(final Histogram partial) {
+        for(int i = 0; i < BINS; i++){
+            partial.bins[i] = 0;
+        }
+        partial.count = 0;
+        partial.sum = 0;
+    }
+
+    @Override
+    protected void process(final int rowStart, final int rowEnd, final Histogram partial) {
+        final ByteBuffer data = mData;
+        final int[] bins = partial.bins;
+        final int cols = mCols;
+        final int stepSize = mStep * mPixelStride;
+        final boolean lumaSamples = mLumaSamples;
+        final int rShift = mRedShift;
+        final int gShift = mGreenShift;
+        final int bShift = mBlueShift;
+        long sum = 0;
+        for(int row = rowStart; row < rowEnd; row++){
+            int offset = mOffset + row * mStep * mRowStride;
+            for(int col = 0; col < cols; col++){
+                final int luma = lumaSamples ? (data.get(offset) & 0xFF)
+                        : Luma.fromPixel(data.getInt(offset), rShift, gShift, bShift);
+                bins[luma]++;
+                sum += luma;
+                offset += stepSize;
+            }
+        }
+        partial.count += (long) (rowEnd - rowStart) * cols;
+        partial.sum += sum;
+    }
+
+    @Override
+    protected void merge(final Histogram target, final Histogram source) {
+        for(int i = 0; i < BINS; i++){
+            target.bins[i] += source.bins[i];
+        }
+        target.count += source.count;
+        target.sum += source.sum;
+    }
+
+    /**
+     * Luma histogram with its samples count and sum
+     */
+    public static class Histogram {
+        public final int[] bins = new int[BINS];
+        public long count;
+        public long sum;
+
+        /**
+         * @return The mean luma, 0 if empty
+         */
+        public int mean() {
+            return count == 0 ? 0 : (int) (sum / count);
+        }
+
+        /**
+         * @return The luma standard deviation, 0 if empty
+         */
+        public int deviation() {
+            if(count == 0){
+                return 0;
+            }
+            long sumSq = 0;
+            for(int i = 0; i < BINS; i++){
+                sumSq += (long) bins[i] * i * i;
+            }
+            final long mean = sum / count;
+            return (int) Math.sqrt(Math.max(0, sumSq / count - mean * mean));
+        }
+
+        /**
+         * @param fromBin The first bin (included)
+         * @param toBin The last bin (excluded)
+         * @return The number of samples in [fromBin, toBin[
+         */
+        public long countBetween(final int fromBin, final int toBin) {
+            long total = 0;
+            for(int i = fromBin; i < toBin; i++){
+                total += bins[i];
+            }
+            return total;
+        }
+    }
+}
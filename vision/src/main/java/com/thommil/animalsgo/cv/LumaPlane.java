@@ -0,0 +1,84 @@
+package com.thommil.animalsgo.cv;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Helpers for luminance planes coming from YUV camera streams
+ */
+public final class LumaPlane {
+
+    private LumaPlane() {}     // do not instantiate
+
+    /**
+     * Copies a Y plane into a packed Y8 buffer, row padding is removed.
+     *
+     * The plane position and limit are modified, dst is rewound once filled.
+     *
+     * @param plane The Y plane (pixel stride of 1)
+     * @param width The plane width in pixels
+     * @param height The plane height in pixels
+     * @param rowStride The number of bytes between 2 rows of plane
+     * @param dst The destination buffer, at least width * height bytes
+     */
+    public static void copy(final ByteBuffer plane, final int width, final int height, final int rowStride, final ByteBuffer dst) {
+        if(dst.capacity() < width * height){
+            throw new IllegalArgumentException("Destination too small for " + width + "x" + height);
+        }
+        dst.clear();
+        if(rowStride == width){
+            plane.limit(width * height);
+            plane.position(0);
+            dst.put(plane);
+        }
+        else{
+            for(int row = 0; row < height; row++){
+                final int offset = row * rowStride;
+                plane.limit(offset + width);
+                plane.position(offset);
+                dst.put(plane);
+            }
+        }
+        dst.rewind();
+    }
+
+    /**
+     * Downscales a Y plane into a packed Y8 buffer by averaging blocks of factor x factor pixels.
+     *
+     * Uses absolute reads, the plane position and limit are left untouched. dst is rewound once filled.
+     *
+     * @param plane The Y plane (pixel stride of 1)
+     * @param width The plane width in pixels
+     * @param height The plane height in pixels
+     * @param rowStride The number of bytes between 2 rows of plane
+     * @param factor The downscale factor, the output is width / factor x height / factor
+     * @param dst The destination buffer, at least (width / factor) * (height / factor) bytes
+     */
+    public static void downscale(final ByteBuffer plane, final int width, final int height, final int rowStride,
+                                 final int factor, final ByteBuffer dst) {
+        if(factor < 1){
+            throw new IllegalArgumentException("factor must be positive");
+        }
+        final int dstWidth = width / factor;
+        final int dstHeight = height / factor;
+        if(dst.capacity() < dstWidth * dstHeight){
+            throw new IllegalArgumentException("Destination too small for " + dstWidth + "x" + dstHeight);
+        }
+        final int area = factor * factor;
+        int dstOffset = 0;
+        for(int row = 0; row < dstHeight; row++){
+            final int blockOffset = row * factor * rowStride;
+            for(int col = 0; col < dstWidth; col++){
+                int sum = 0;
+                int offset = blockOffset + col * factor;
+                for(int y = 0; y < factor; y++){
+                    for(int x = 0; x < factor; x++){
+                        sum += plane.get(offset + x) & 0xFF;
+                    }
+                    offset += rowStride;
+                }
+                dst.put(dstOffset++, (byte) (sum / area));
+            }
+        }
+        dst.rewind();
+    }
+}
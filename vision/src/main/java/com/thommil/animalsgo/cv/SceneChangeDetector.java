@@ -0,0 +1,156 @@
+package com.thommil.animalsgo.cv;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Tells if the scene has changed since a reference frame using the mean absolute difference (MAD)
+ * of small luma thumbnails.
+ *
+ * The threshold adapts to the sensor noise : the MAD between consecutive thumbnails is averaged
+ * over time and the scene is considered changed when the MAD to the reference exceeds a multiple
+ * of this noise floor, or a minimum threshold on clean sensors. Thumbnails further apart than
+ * {@link #NOISE_MAX_FRAME_GAP} are not consecutive and do not update the noise floor, so callers
+ * should give thumbnails at a few Hz at least. Not thread safe.
+ */
+public class SceneChangeDetector {
+
+    // Thumbnail side in pixels
+    public static final int THUMBNAIL_SIZE = 32;
+
+    // MAD in luma levels under which a change is never reported
+    public static final float DEFAULT_MIN_THRESHOLD = 4f;
+
+    // Threshold relative to the noise floor
+    public static final float DEFAULT_NOISE_FACTOR = 3f;
+
+    // Weight of the last consecutive MAD in the noise floor average
+    private static final float NOISE_SMOOTHING = 0.1f;
+
+    // Consecutive MAD relative to the threshold above which frames are moving
+    private static final float STEADY_FACTOR = 2f;
+
+    // Gap between 2 thumbnails in ns above which they are not consecutive
+    public static final long NOISE_MAX_FRAME_GAP = 500000000L;
+
+    private static final int PIXELS = THUMBNAIL_SIZE * THUMBNAIL_SIZE;
+
+    private final float mMinThreshold;
+    private final float mNoiseFactor;
+
+    private final byte[] mLast = new byte[PIXELS];
+    private final byte[] mReference = new byte[PIXELS];
+    private boolean mHasLast;
+    private long mLastTimestamp;
+    private boolean mHasReference;
+
+    private boolean mHasNoise;
+    private float mNoise;
+    private float mLastDifference;
+
+    /**
+     * Default constructor
+     */
+    public SceneChangeDetector() {
+        this(DEFAULT_MIN_THRESHOLD, DEFAULT_NOISE_FACTOR);
+    }
+
+    /**
+     * Constructor
+     *
+     * @param minThreshold The MAD in luma levels under which a change is never reported
+     * @param noiseFactor The threshold relative to the noise floor
+     */
+    public SceneChangeDetector(final float minThreshold, final float noiseFactor) {
+        mMinThreshold = minThreshold;
+        mNoiseFactor = noiseFactor;
+    }
+
+    /**
+     * Compares a thumbnail to the reference and updates the noise floor
+     *
+     * @param thumbnail A Y8 frame of {@link #THUMBNAIL_SIZE} x {@link #THUMBNAIL_SIZE} pixels
+     * @param timestamp The timestamp of the frame in ns
+     * @return true if the scene has changed or if there is no reference
+     */
+    public boolean hasChanged(final ImageFrame thumbnail, final long timestamp) {
+        if(thumbnail.getFormat() != FrameFormat.Y8 || thumbnail.getWidth() != THUMBNAIL_SIZE
+                || thumbnail.getHeight() != THUMBNAIL_SIZE){
+            throw new IllegalArgumentException("Thumbnail must be Y8 of " + THUMBNAIL_SIZE + "x" + THUMBNAIL_SIZE);
+        }
+        final ByteBuffer data = thumbnail.getData();
+        final int offset = thumbnail.getOffset();
+        final int rowStride = thumbnail.getRowStride();
+        final byte[] last = mLast;
+        final byte[] reference = mReference;
+
+        long noiseSum = 0;
+        long referenceSum = 0;
+        int index = 0;
+        for(int row = 0; row < THUMBNAIL_SIZE; row++){
+            final int rowOffset = offset + row * rowStride;
+            for(int col = 0; col < THUMBNAIL_SIZE; col++){
+                final byte sample = data.get(rowOffset + col);
+                final int luma = sample & 0xFF;
+                noiseSum += Math.abs(luma - (last[index] & 0xFF));
+                referenceSum += Math.abs(luma - (reference[index] & 0xFF));
+                last[index++] = sample;
+            }
+        }
+
+        if(mHasLast && timestamp - mLastTimestamp <= NOISE_MAX_FRAME_GAP){
+            final float noise = (float) noiseSum / PIXELS;
+            // Large changes between 2 frames are motion, not noise
+            if(noise <= STEADY_FACTOR * getThreshold()){
+                mNoise = mHasNoise ? mNoise + (noise - mNoise) * NOISE_SMOOTHING : noise;
+                mHasNoise = true;
+            }
+        }
+        mHasLast = true;
+        mLastTimestamp = timestamp;
+
+        if(!mHasReference){
+            mLastDifference = Float.NaN;
+            return true;
+        }
+        mLastDifference = (float) referenceSum / PIXELS;
+        return mLastDifference > getThreshold();
+    }
+
+    /**
+     * Uses the last thumbnail given to {@link #hasChanged(ImageFrame, long)} as reference
+     */
+    public void setReference() {
+        if(mHasLast){
+            System.arraycopy(mLast, 0, mReference, 0, PIXELS);
+            mHasReference = true;
+        }
+    }
+
+    /**
+     * Drops the reference, the next thumbnail is reported as changed
+     */
+    public void clearReference() {
+        mHasReference = false;
+    }
+
+    /**
+     * @return The current MAD threshold in luma levels
+     */
+    public float getThreshold() {
+        return Math.max(mMinThreshold, mNoise * mNoiseFactor);
+    }
+
+    /**
+     * @return The averaged MAD between consecutive steady thumbnails in luma levels
+     */
+    public float getNoise() {
+        return mNoise;
+    }
+
+    /**
+     * @return The MAD between the last thumbnail and the reference, NaN if there was no reference
+     */
+    public float getLastDifference() {
+        return mLastDifference;
+    }
+}
@@ -0,0 +1,319 @@
+package com.thommil.animalsgo.cv;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Pure Java focus/sharpness scorer based on the variance of the luminance Laplacian.
+ *
+ * Works directly on RGBA8 frames (as filled by glReadPixels) or Y8/YUV420 frames (luma pre-pass, camera
+ * streams, channel views) using fixed-point integer math, strides and ROI views are supported. The only
+ * allocations are the row caches which are reused while the frame width is unchanged.
+ *
+ * Can be run on the caller thread or split in stripes by an {@link AnalysisEngine}, both paths
+ * give the same result. Not thread safe otherwise, use one instance per analysis thread.
+ */
+public class SharpnessScorer extends StripeKernel<SharpnessScorer.Partial> {
+
+    // Sampling step in pixels, 2 keeps 1080p under 10ms on mid-range devices
+    public static final int DEFAULT_STEP = 2;
+
+    // Laplacian variance giving a score of 50
+    public static final int DEFAULT_HALF_SCORE_VARIANCE = 50;
+
+    // Score returned when the analysis has been stopped by its token
+    public static final int NO_SCORE = -1;
+
+    private final int mStep;
+    private final int mHalfScoreVariance;
+
+    // Partial used on the caller thread path
+    private final Partial mPartial = new Partial();
+
+    // Wraps packed buffers given without frame
+    private final ImageFrame mPackedFrame = new ImageFrame();
+
+    // Current frame
+    private ByteBuffer mData;
+    private boolean mLumaSamples;
+    private int mOffset;
+    private int mRowStride;
+    private int mPixelStride;
+    private int mCols;
+    private int mRows;
+    private int mRedShift;
+    private int mGreenShift;
+    private int mBlueShift;
+
+    /**
+     * Default constructor
+     */
+    public SharpnessScorer() {
+        this(DEFAULT_STEP, DEFAULT_HALF_SCORE_VARIANCE);
+    }
+
+    /**
+     * Constructor
+     *
+     * @param step The sampling step in pixels (1 for full resolution)
+     * @param halfScoreVariance The Laplacian variance mapped to a score of 50
+     */
+    public SharpnessScorer(final int step, final int halfScoreVariance) {
+        if(step < 1 || halfScoreVariance < 1){
+            throw new IllegalArgumentException("step and halfScoreVariance must be positive");
+        }
+        mStep = step;
+        mHalfScoreVariance = halfScoreVariance;
+    }
+
+    /**
+     * Computes the sharpness score of a frame on the caller thread
+     *
+     * @param data The pixels, rows packed without padding
+     * @param width The frame width in pixels
+     * @param height The frame height in pixels
+     * @param format The pixels format, {@link FrameFormat#RGBA8} or {@link FrameFormat#Y8}
+     * @return The score between 0 (blurry) and 100 (sharp)
+     */
+    public int score(final ByteBuffer data, final int width, final int height, final int format) {
+        return toScore(variance(data, width, height, format));
+    }
+
+    /**
+     * Computes the sharpness score of a frame on the caller thread
+     *
+     * @param frame The frame (RGBA8, Y8 or YUV420 luma)
+     * @return The score between 0 (blurry) and 100 (sharp)
+     */
+    public int score(final ImageFrame frame) {
+        return toScore(variance(frame));
+    }
+
+    /**
+     * Computes the sharpness score of a frame using an engine
+     *
+     * @param engine The engine running the stripes
+     * @param data The pixels, rows packed without padding
+     * @param width The frame width in pixels
+     * @param height The frame height in pixels
+     * @param format The pixels format, {@link FrameFormat#RGBA8} or {@link FrameFormat#Y8}
+     * @return The score between 0 (blurry) and 100 (sharp)
+     */
+    public int score(final AnalysisEngine engine, final ByteBuffer data, final int width, final int height, final int format) {
+        return score(engine, null, data, width, height, format);
+    }
+
+    /**
+     * Computes the sharpness score of a frame using an engine, stops between stripes if the token is stopped
+     *
+     * @param engine The engine running the stripes
+     * @param token The token checked between stripes, null to run the whole frame
+     * @param data The pixels, rows packed without padding
+     * @param width The frame width in pixels
+     * @param height The frame height in pixels
+     * @param format The pixels format, {@link FrameFormat#RGBA8} or {@link FrameFormat#Y8}
+     * @return The score between 0 (blurry) and 100 (sharp), {@link #NO_SCORE} if stopped
+     */
+    public int score(final AnalysisEngine engine, final CancellationToken token, final ByteBuffer data,
+                     final int width, final int height, final int format) {
+        return score(engine, token, mPackedFrame.wrap(data, width, height, format));
+    }
+
+    /**
+     * Computes the sharpness score of a frame using an engine, stops between stripes if the token is stopped
+     *
+     * @param engine The engine running the stripes
+     * @param token The token checked between stripes, null to run the whole frame
+     * @param frame The frame (RGBA8, Y8 or YUV420 luma)
+     * @return The score between 0 (blurry) and 100 (sharp), {@link #NO_SCORE} if stopped
+     */
+    public int score(final AnalysisEngine engine, final CancellationToken token, final ImageFrame frame) {
+        setFrame(frame);
+        final Partial partial = engine.run(this, token);
+        if(partial == null){
+            return NO_SCORE;
+        }
+        return toScore(variance(partial));
+    }
+
+    /**
+     * Maps a Laplacian variance on the [0, 100] score range
+     *
+     * @param variance The Laplacian variance
+     * @return The score between 0 and 100
+     */
+    public int toScore(final long variance) {
+        return (int) ((100 * variance) / (variance + mHalfScoreVariance));
+    }
+
+    /**
+     * Computes the variance of the luminance Laplacian of a frame on the caller thread.
+     *
+     * The buffer position and limit are left untouched.
+     *
+     * @param data The pixels, rows packed without padding
+     * @param width The frame width in pixels
+     * @param height The frame height in pixels
+     * @param format The pixels format, {@link FrameFormat#RGBA8} or {@link FrameFormat#Y8}
+     * @return The Laplacian variance, 0 if the frame is too small
+     */
+    public long variance(final ByteBuffer data, final int width, final int height, final int format) {
+        return variance(mPackedFrame.wrap(data, width, height, format));
+    }
+
+    /**
+     * Computes the variance of the luminance Laplacian of a frame on the caller thread.
+     *
+     * @param frame The frame (RGBA8, Y8 or YUV420 luma)
+     * @return The Laplacian variance, 0 if the frame is too small
+     */
+    public long variance(final ImageFrame frame) {
+        setFrame(frame);
+        reset(mPartial);
+        process(0, mRows, mPartial);
+        return variance(mPartial);
+    }
+
+    /**
+     * Computes the Laplacian variance from a merged partial
+     *
+     * @return The Laplacian variance, 0 if no pixel has been sampled
+     */
+    public long variance(final Partial partial) {
+        if(partial.count == 0){
+            return 0;
+        }
+        final long mean = partial.sum / partial.count;
+        return Math.max(0, partial.sumSq / partial.count - mean * mean);
+    }
+
+    /**
+     * Sets the frame analyzed by the next engine run
+     *
+     * @param data The pixels, rows packed without padding
+     * @param width The frame width in pixels
+     * @param height The frame height in pixels
+     * @param format The pixels format, {@link FrameFormat#RGBA8} or {@link FrameFormat#Y8}
+     */
+    public void setFrame(final ByteBuffer data, final int width, final int height, final int format) {
+        setFrame(mPackedFrame.wrap(data, width, height, format));
+    }
+
+    /**
+     * Sets the frame analyzed by the next engine run
+     *
+     * @param frame The frame (RGBA8, Y8 or YUV420 luma)
+     */
+    public void setFrame(final ImageFrame frame) {
+        final ByteBuffer data = frame.getData();
+        mData = data;
+        mLumaSamples = frame.getFormat() != FrameFormat.RGBA8;
+        mOffset = frame.getOffset();
+        mRowStride = frame.getRowStride();
+        mPixelStride = frame.getPixelStride();
+        mCols = frame.getWidth() / mStep;
+        mRows = frame.getHeight() / mStep;
+        mRedShift = Luma.redShift(data.order());
+        mGreenShift = Luma.greenShift(data.order());
+        mBlueShift = Luma.blueShift(data.order());
+    }
+
+    @Override
+    protected int getRows() {
+        return mRows;
+    }
+
+    @Override
+    protected Partial newPartial() {
+        return new Partial();
+    }
+
+    @Override
+    protected void reset(final Partial partial) {
+        partial.sum = 0;
+        partial.sumSq = 0;
+        partial.count = 0;
+    }
+
+    @Override
+    protected void process(final int rowStart, final int rowEnd, final Partial partial) {
+        final int cols = mCols;
+        final int first = Math.max(1, rowStart);
+        final int last = Math.min(mRows - 1, rowEnd);
+        if(cols < 3 || first >= last){
+            return;
+        }
+
+        if(partial.currentRow == null || partial.currentRow.length != cols){
+            partial.previousRow = new int[cols];
+            partial.currentRow = new int[cols];
+            partial.nextRow = new int[cols];
+        }
+
+        loadRow(first - 1, partial.previousRow);
+        loadRow(first, partial.currentRow);
+
+        long sum = 0;
+        long sumSq = 0;
+        for(int row = first; row < last; row++){
+            loadRow(row + 1, partial.nextRow);
+            final int[] previous = partial.previousRow;
+            final int[] current = partial.currentRow;
+            final int[] next = partial.nextRow;
+            for(int col = 1; col < cols - 1; col++){
+                final int laplacian = (current[col] << 2) - current[col - 1] - current[col + 1] - previous[col] - next[col];
+                sum += laplacian;
+                sumSq += laplacian * laplacian;
+            }
+            partial.previousRow = current;
+            partial.currentRow = next;
+            partial.nextRow = previous;
+        }
+
+        partial.sum += sum;
+        partial.sumSq += sumSq;
+        partial.count += (long) (last - first) * (cols - 2);
+    }
+
+    @Override
+    protected void merge(final Partial target, final Partial source) {
+        target.sum += source.sum;
+        target.sumSq += source.sumSq;
+        target.count += source.count;
+    }
+
+    // Fills dst with the luma of a sampled row, fixed-point 8 bits
+    private void loadRow(final int row, final int[] dst) {
+        final ByteBuffer data = mData;
+        final int cols = mCols;
+        final int stepSize = mStep * mPixelStride;
+        int offset = mOffset + row * mStep * mRowStride;
+        if(mLumaSamples){
+            for(int col = 0; col < cols; col++){
+                dst[col] = data.get(offset) & 0xFF;
+                offset += stepSize;
+            }
+        }
+        else {
+            final int rShift = mRedShift;
+            final int gShift = mGreenShift;
+            final int bShift = mBlueShift;
+            for(int col = 0; col < cols; col++){
+                dst[col] = Luma.fromPixel(data.getInt(offset), rShift, gShift, bShift);
+                offset += stepSize;
+            }
+        }
+    }
+
+    /**
+     * Laplacian sums of a stripe, with its own rolling luma rows
+     */
+    public static class Partial {
+        public long sum;
+        public long sumSq;
+        public long count;
+
+        private int[] previousRow;
+        private int[] currentRow;
+        private int[] nextRow;
+    }
+}
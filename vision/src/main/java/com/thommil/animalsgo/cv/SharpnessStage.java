@@ -0,0 +1,40 @@
+package com.thommil.animalsgo.cv;
+
+/**
+ * Rejects blurry frames using {@link SharpnessScorer}.
+ */
+public class SharpnessStage extends ValidationStage {
+
+    public static final String NAME = "sharpness";
+
+    public static final int DEFAULT_REJECT_THRESHOLD = 70;
+
+    // RGBA readbacks are sampled as calibrated for DEFAULT_REJECT_THRESHOLD, box averaged pyramid
+    // levels would low-pass the Laplacian. Luma frames are already downscaled.
+    private final SharpnessScorer mSharpnessScorer = new SharpnessScorer();
+    private final SharpnessScorer mLumaSharpnessScorer = new SharpnessScorer(1, SharpnessScorer.DEFAULT_HALF_SCORE_VARIANCE);
+
+    /**
+     * Default constructor
+     */
+    public SharpnessStage() {
+        this(DEFAULT_REJECT_THRESHOLD);
+    }
+
+    /**
+     * Constructor
+     *
+     * @param rejectThreshold The partial score under which a frame is rejected
+     */
+    public SharpnessStage(final int rejectThreshold) {
+        super(NAME, 8, rejectThreshold);
+    }
+
+    @Override
+    protected int evaluate(final ValidationFrame frame) {
+        final ImageFrame image = frame.getFrame();
+        final SharpnessScorer scorer = (image.getFormat() == FrameFormat.RGBA8) ? mSharpnessScorer : mLumaSharpnessScorer;
+        final int score = scorer.score(frame.getEngine(), frame.getToken(), image);
+        return (score == SharpnessScorer.NO_SCORE) ? NO_SCORE : score;
+    }
+}
@@ -0,0 +1,60 @@
+package com.thommil.animalsgo.cv;
+
+import java.util.ArrayList;
+
+/**
+ * Base class of analysis kernels run by {@link AnalysisEngine} on stripes of rows.
+ *
+ * Each stripe accumulates into its own partial result, partials are then merged in stripe order
+ * so the final result does not depend on the number of workers. Partials are kept between runs
+ * to avoid allocations during preview.
+ *
+ * @param <P> The partial result type
+ */
+public abstract class StripeKernel<P> {
+
+    private final ArrayList<P> mPartials = new ArrayList<>();
+
+    /**
+     * @return The number of rows to split in stripes for the current frame
+     */
+    protected abstract int getRows();
+
+    /**
+     * @return A new empty partial result
+     */
+    protected abstract P newPartial();
+
+    /**
+     * Clears a partial result before reuse
+     */
+    protected abstract void reset(final P partial);
+
+    /**
+     * Accumulates the rows [rowStart, rowEnd[ of the current frame, may be called from any worker
+     *
+     * @param rowStart The first row (included)
+     * @param rowEnd The last row (excluded)
+     * @param partial The partial result of the stripe
+     */
+    protected abstract void process(final int rowStart, final int rowEnd, final P partial);
+
+    /**
+     * Merges a stripe partial result into target
+     */
+    protected abstract void merge(final P target, final P source);
+
+    // Makes sure count partials are available and cleared, called from engine caller thread
+    final void preparePartials(final int count) {
+        while(mPartials.size() < count){
+            mPartials.add(newPartial());
+        }
+        for(int i = 0; i < count; i++){
+            reset(mPartials.get(i));
+        }
+    }
+
+    final P getPartial(final int index) {
+        return mPartials.get(index);
+    }
+}
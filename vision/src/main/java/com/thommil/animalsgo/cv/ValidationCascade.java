@@ -0,0 +1,114 @@
+package com.thommil.animalsgo.cv;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+
+/**
+ * Ordered list of {@link ValidationStage} run with early exit : the first stage whose partial
+ * score is under its threshold rejects the frame and the remaining ones are skipped.
+ *
+ * The frame token gets the budget of each stage before it runs and is checked between stages.
+ * Not thread safe, stages must be added and run from the same thread.
+ */
+public class ValidationCascade {
+
+    // Outcomes
+    public static final int OUTCOME_ACCEPTED = 0;
+    public static final int OUTCOME_REJECTED = 1;
+    public static final int OUTCOME_CANCELLED = 2;
+    public static final int OUTCOME_TIMED_OUT = 3;
+
+    private final ArrayList<ValidationStage> mStages = new ArrayList<>();
+
+    /**
+     * Appends a stage at the end of the cascade
+     *
+     * @param stage The stage to add
+     * @return This cascade
+     */
+    public ValidationCascade add(final ValidationStage stage) {
+        mStages.add(stage);
+        return this;
+    }
+
+    public int getStageCount() {
+        return mStages.size();
+    }
+
+    public ValidationStage getStage(final int index) {
+        return mStages.get(index);
+    }
+
+    /**
+     * Validates a frame
+     *
+     * @param frame The frame to validate
+     * @param result Filled with the outcome, the lowest partial score and the last stage run
+     */
+    public void run(final ValidationFrame frame, final Result result) {
+        final CancellationToken token = frame.getToken();
+        result.outcome = OUTCOME_ACCEPTED;
+        result.score = 100;
+        result.stage = null;
+
+        for(int i = 0; i < mStages.size(); i++){
+            final ValidationStage stage = mStages.get(i);
+            result.stage = stage;
+            if(token != null){
+                if(token.isStopped()){
+                    result.outcome = outcomeOf(token);
+                    return;
+                }
+                token.setBudget(stage.getBudgetNanos());
+            }
+
+            final long start = System.nanoTime();
+            final int score = stage.evaluate(frame);
+            stage.record(score, System.nanoTime() - start);
+
+            if(score == ValidationStage.NO_SCORE){
+                result.outcome = (token != null) ? outcomeOf(token) : OUTCOME_CANCELLED;
+                return;
+            }
+            result.score = Math.min(result.score, score);
+            if(score < stage.getRejectThreshold()){
+                result.outcome = OUTCOME_REJECTED;
+                return;
+            }
+        }
+    }
+
+    /**
+     * Reorders the stages by expected cost per rejection (cost / rejection rate) using the
+     * collected statistics, stages without rejection keep their relative order at the end
+     */
+    public void sortByEfficiency() {
+        Collections.sort(mStages, new Comparator<ValidationStage>() {
+            @Override
+            public int compare(final ValidationStage first, final ValidationStage second) {
+                return Float.compare(costPerRejection(first), costPerRejection(second));
+            }
+        });
+    }
+
+    private static float costPerRejection(final ValidationStage stage) {
+        final float rate = stage.getRejectionRate();
+        return rate == 0 ? Float.MAX_VALUE : stage.getCost() / rate;
+    }
+
+    private static int outcomeOf(final CancellationToken token) {
+        return token.isCancelled() ? OUTCOME_CANCELLED : OUTCOME_TIMED_OUT;
+    }
+
+    /**
+     * Result of a cascade run, reused between frames
+     */
+    public static class Result {
+        public int outcome;
+        // Lowest partial score of the stages run
+        public int score;
+        // Rejecting or stopped stage, last stage if accepted
+        public ValidationStage stage;
+    }
+}
@@ -0,0 +1,129 @@
+package com.thommil.animalsgo.cv;
+
+/**
+ * Frame being validated by a {@link ValidationCascade}, shared by its stages.
+ *
+ * Intermediate results used by several stages (luma histogram, integral image, pyramid levels) are
+ * computed once per frame on first request. Not thread safe, use one instance per analysis thread.
+ */
+public class ValidationFrame {
+
+    private final AnalysisEngine mEngine;
+
+    // Stages work on luma at full resolution of the analysis frame
+    private final LumaHistogram mHistogram = new LumaHistogram(1);
+    private final IntegralImage mIntegralImage = new IntegralImage();
+    private final ImagePyramid mPyramid = new ImagePyramid(new ImageFramePool());
+
+    private ImageFrame mFrame;
+    private CancellationToken mToken;
+
+    // Per frame cache
+    private LumaHistogram.Histogram mCachedHistogram;
+    private boolean mIntegralImageBuilt;
+
+    /**
+     * Constructor
+     *
+     * @param engine The engine running the stages kernels
+     */
+    public ValidationFrame(final AnalysisEngine engine) {
+        mEngine = engine;
+    }
+
+    /**
+     * Sets the next frame to validate and clears the cache
+     *
+     * @param frame The frame (RGBA8, Y8 or YUV420), must not change until validated
+     * @param token The token stopping the validation, null if it cannot be stopped
+     */
+    public void set(final ImageFrame frame, final CancellationToken token) {
+        mFrame = frame;
+        mToken = token;
+        mCachedHistogram = null;
+        mIntegralImageBuilt = false;
+        mPyramid.set(frame);
+    }
+
+    /**
+     * Gets the luma histogram of the frame, computed on first call
+     *
+     * @return The histogram, null if stopped by the token
+     */
+    public LumaHistogram.Histogram getHistogram() {
+        if(mCachedHistogram == null){
+            final ImageFrame frame = getAnalysisFrame();
+            if(frame != null){
+                mCachedHistogram = mHistogram.compute(mEngine, mToken, frame);
+            }
+        }
+        return mCachedHistogram;
+    }
+
+    /**
+     * Gets the frame at the resolution used by the statistics (histogram, integral image), RGBA
+     * readbacks are analyzed at half scale while luma frames are already downscaled. The sharpness
+     * stage samples the frame itself, see {@link SharpnessStage}.
+     *
+     * @return The half scale pyramid level for RGBA8 frames, the frame otherwise, null if stopped by the token
+     */
+    public ImageFrame getAnalysisFrame() {
+        return (mFrame.getFormat() == FrameFormat.RGBA8) ? getLevel(1) : mFrame;
+    }
+
+    /**
+     * Gets a pyramid level of the frame, built on first call
+     *
+     * @param level The level index, 0 for the frame itself
+     * @return The level, null if stopped by the token
+     */
+    public ImageFrame getLevel(final int level) {
+        return mPyramid.getLevel(mEngine, mToken, level);
+    }
+
+    /**
+     * Gets the smallest pyramid level of the frame at least as large as the requested size, built on first call
+     *
+     * @param minWidth The minimum width in pixels
+     * @param minHeight The minimum height in pixels
+     * @return The level, null if stopped by the token
+     */
+    public ImageFrame getLevel(final int minWidth, final int minHeight) {
+        return mPyramid.getLevel(mEngine, mToken, minWidth, minHeight);
+    }
+
+    /**
+     * @return The pyramid of the frame, for its statistics
+     */
+    public ImagePyramid getPyramid() {
+        return mPyramid;
+    }
+
+    /**
+     * Gets the integral image of the analysis frame luma for regions statistics, built on first call
+     *
+     * @return The integral image, null if stopped by the token
+     */
+    public IntegralImage getIntegralImage() {
+        if(!mIntegralImageBuilt){
+            final ImageFrame frame = getAnalysisFrame();
+            if(frame == null || !mIntegralImage.build(mEngine, mToken, frame)){
+                return null;
+            }
+            mIntegralImageBuilt = true;
+        }
+        return mIntegralImage;
+    }
+
+    public AnalysisEngine getEngine() {
+        return mEngine;
+    }
+
+    public CancellationToken getToken() {
+        return mToken;
+    }
+
+    public ImageFrame getFrame() {
+        return mFrame;
+    }
+}
@@ -0,0 +1,145 @@
+package com.thommil.animalsgo.cv;
+
+/**
+ * Step of a {@link ValidationCascade} giving a partial score to a frame.
+ *
+ * A frame whose partial score is below the stage reject threshold is rejected and the following
+ * stages are not run. Each stage keeps its own statistics so the cascade order can be tuned.
+ */
+public abstract class ValidationStage {
+
+    // Score returned by evaluate() when stopped by the frame token
+    public static final int NO_SCORE = -1;
+
+    private final String mName;
+    private final int mCost;
+    private int mRejectThreshold;
+    private long mBudgetNanos;
+
+    // Statistics, written from the cascade thread only
+    private volatile long mEvaluatedCount;
+    private volatile long mRejectedCount;
+    private volatile long mStoppedCount;
+    private volatile long mTotalNanos;
+
+    /**
+     * Constructor
+     *
+     * @param name The stage name used in logs
+     * @param cost The relative cost estimate of the stage, cheaper stages should run first
+     * @param rejectThreshold The partial score under which a frame is rejected
+     */
+    protected ValidationStage(final String name, final int cost, final int rejectThreshold) {
+        if(cost < 1){
+            throw new IllegalArgumentException("cost must be positive");
+        }
+        mName = name;
+        mCost = cost;
+        mRejectThreshold = rejectThreshold;
+    }
+
+    /**
+     * Computes the partial score of a frame, implementations must check the frame token between
+     * long steps and return {@link #NO_SCORE} when it is stopped
+     *
+     * @param frame The frame to score
+     * @return The partial score between 0 and 100, or {@link #NO_SCORE}
+     */
+    protected abstract int evaluate(final ValidationFrame frame);
+
+    public String getName() {
+        return mName;
+    }
+
+    public int getCost() {
+        return mCost;
+    }
+
+    public int getRejectThreshold() {
+        return mRejectThreshold;
+    }
+
+    public void setRejectThreshold(final int rejectThreshold) {
+        mRejectThreshold = rejectThreshold;
+    }
+
+    /**
+     * Sets the time budget of the stage, a stage exceeding it is stopped
+     *
+     * @param budgetMs The budget in milliseconds, 0 for none
+     */
+    public void setBudget(final long budgetMs) {
+        mBudgetNanos = budgetMs * 1000000L;
+    }
+
+    public long getBudgetNanos() {
+        return mBudgetNanos;
+    }
+
+    /**
+     * @return The number of frames scored by the stage (stopped ones excluded)
+     */
+    public long getEvaluatedCount() {
+        return mEvaluatedCount;
+    }
+
+    /**
+     * @return The number of frames rejected by the stage
+     */
+    public long getRejectedCount() {
+        return mRejectedCount;
+    }
+
+    /**
+     * @return The number of frames stopped (cancelled or timed out) during the stage
+     */
+    public long getStoppedCount() {
+        return mStoppedCount;
+    }
+
+    /**
+     * @return The ratio of scored frames rejected by the stage, 0 if none scored
+     */
+    public float getRejectionRate() {
+        final long evaluated = mEvaluatedCount;
+        return evaluated == 0 ? 0 : (float) mRejectedCount / evaluated;
+    }
+
+    /**
+     * @return The average time spent in the stage in ns, stopped runs included
+     */
+    public long getAverageNanos() {
+        final long runs = mEvaluatedCount + mStoppedCount;
+        return runs == 0 ? 0 : mTotalNanos / runs;
+    }
+
+    /**
+     * Clears the statistics
+     */
+    public void resetStatistics() {
+        mEvaluatedCount = 0;
+        mRejectedCount = 0;
+        mStoppedCount = 0;
+        mTotalNanos = 0;
+    }
+
+    // Updates statistics after a run, single writer so volatile increments are safe
+    final void record(final int score, final long nanos) {
+        mTotalNanos += nanos;
+        if(score == NO_SCORE){
+            mStoppedCount++;
+        }
+        else{
+            mEvaluatedCount++;
+            if(score < mRejectThreshold){
+                mRejectedCount++;
+            }
+        }
+    }
+
+    @Override
+    public String toString() {
+        return mName + "[cost=" + mCost + ", threshold=" + mRejectThreshold + ", evaluated=" + mEvaluatedCount
+                + ", rejected=" + mRejectedCount + ", stopped=" + mStoppedCount + ", avgNs=" + getAverageNanos() + "]";
+    }
+}
@@ -0,0 +1,178 @@
+package com.thommil.animalsgo.cv;
+
+/**
+ * Bounded LRU cache of recent frame hashes and their verdicts.
+ *
+ * A lookup hits when a cached hash is within the Hamming distance threshold of the frame hash, the
+ * closest one wins. The hash does not see blur or exposure changes, so each entry also keeps the
+ * luma mean and the Laplacian variance of the hashed frame : an entry only matches a frame whose
+ * mean is within tolerance and whose variance has not dropped too much. Entries older than the
+ * maximum age never match.
+ *
+ * Entries are stored in preallocated arrays and scanned linearly, which is cheaper than a map for
+ * the small capacities used here. Not thread safe.
+ */
+public class VerdictCache {
+
+    public static final int DEFAULT_CAPACITY = 16;
+
+    // Maximum number of different bits between two hashes of the same scene
+    public static final int DEFAULT_MAX_DISTANCE = 6;
+
+    // Age after which an entry never matches, the camera may have moved or refocused since
+    public static final long DEFAULT_MAX_AGE_MS = 2000;
+
+    // Maximum difference of luma means between two frames of the same exposure
+    public static final int MEAN_TOLERANCE = 12;
+
+    // Maximum loss in percent of the Laplacian variance, above it the frame is blurrier
+    public static final int MAX_SHARPNESS_LOSS = 50;
+
+    private final int mCapacity;
+    private final int mMaxDistance;
+    private final long mMaxAgeNanos;
+
+    private final long[] mHashes;
+    private final int[] mOutcomes;
+    private final int[] mScores;
+    private final int[] mMeans;
+    private final long[] mVariances;
+    // Time of the verdict in ns
+    private final long[] mTimes;
+    // Last access tick of each entry, 0 if empty
+    private final long[] mLastUses;
+
+    private long mTick = 0;
+    private int mSize = 0;
+
+    // Index of the entry found by the last lookup
+    private int mFound = -1;
+
+    private volatile long mHits;
+    private volatile long mMisses;
+
+    /**
+     * Default constructor
+     */
+    public VerdictCache() {
+        this(DEFAULT_CAPACITY, DEFAULT_MAX_DISTANCE, DEFAULT_MAX_AGE_MS);
+    }
+
+    /**
+     * Constructor
+     *
+     * @param capacity The maximum number of hashes kept
+     * @param maxDistance The maximum Hamming distance of a hit
+     * @param maxAgeMs The age in ms after which an entry never matches
+     */
+    public VerdictCache(final int capacity, final int maxDistance, final long maxAgeMs) {
+        if(capacity < 1 || maxDistance < 0 || maxAgeMs < 1){
+            throw new IllegalArgumentException("capacity and maxAgeMs must be positive and maxDistance not negative");
+        }
+        mCapacity = capacity;
+        mMaxDistance = maxDistance;
+        mMaxAgeNanos = maxAgeMs * 1000000L;
+        mHashes = new long[capacity];
+        mOutcomes = new int[capacity];
+        mScores = new int[capacity];
+        mMeans = new int[capacity];
+        mVariances = new long[capacity];
+        mTimes = new long[capacity];
+        mLastUses = new long[capacity];
+    }
+
+    /**
+     * Looks for a verdict of a similar frame, readable with {@link #getOutcome()} and {@link #getScore()} on hit
+     *
+     * @param hash The frame hash
+     * @param mean The frame luma mean
+     * @param variance The Laplacian variance of the hashed frame
+     * @param nowNanos The current time in ns, same time base as {@link #put}
+     * @return true if a similar frame with the same exposure and at least as sharp is cached
+     */
+    public boolean lookup(final long hash, final int mean, final long variance, final long nowNanos) {
+        int best = -1;
+        int bestDistance = mMaxDistance + 1;
+        for(int i = 0; i < mSize; i++){
+            if(nowNanos - mTimes[i] > mMaxAgeNanos || Math.abs(mean - mMeans[i]) > MEAN_TOLERANCE
+                    || variance * 100 < mVariances[i] * (100 - MAX_SHARPNESS_LOSS)){
+                continue;
+            }
+            final int distance = DHash.distance(hash, mHashes[i]);
+            if(distance < bestDistance){
+                best = i;
+                bestDistance = distance;
+            }
+        }
+        mFound = best;
+        if(best < 0){
+            mMisses++;
+            return false;
+        }
+        mLastUses[best] = ++mTick;
+        mHits++;
+        return true;
+    }
+
+    /**
+     * @return The outcome of the last hit
+     */
+    public int getOutcome() {
+        return mOutcomes[mFound];
+    }
+
+    /**
+     * @return The score of the last hit
+     */
+    public int getScore() {
+        return mScores[mFound];
+    }
+
+    /**
+     * Stores a verdict, evicting the least recently used entry if full
+     *
+     * @param hash The frame hash
+     * @param outcome The verdict outcome
+     * @param score The verdict score
+     * @param mean The frame luma mean
+     * @param variance The Laplacian variance of the hashed frame
+     * @param nowNanos The current time in ns
+     */
+    public void put(final long hash, final int outcome, final int score, final int mean, final long variance, final long nowNanos) {
+        int index;
+        if(mSize < mCapacity){
+            index = mSize++;
+        }
+        else{
+            index = 0;
+            for(int i = 1; i < mCapacity; i++){
+                if(mLastUses[i] < mLastUses[index]){
+                    index = i;
+                }
+            }
+        }
+        mHashes[index] = hash;
+        mOutcomes[index] = outcome;
+        mScores[index] = score;
+        mMeans[index] = mean;
+        mVariances[index] = variance;
+        mTimes[index] = nowNanos;
+        mLastUses[index] = ++mTick;
+    }
+
+    /**
+     * Removes all entries, counters are kept
+     */
+    public void clear() {
+        mSize = 0;
+        mFound = -1;
+    }
+
+    public long getHits() {
+        return mHits;
+    }
+
+    public long getMisses() {
+        return mMisses;
+    }
+}
@@ -0,0 +1,289 @@
+package com.thommil.animalsgo.cv;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Pure Java YUV 4:2:0 to RGBA8 or Y8 converter, runs in stripes of rows on an {@link AnalysisEngine}.
+ *
+ * Sources can be camera YUV_420_888 planes (planar or interleaved chroma with a pixel stride of 2),
+ * NV21 or YV12 buffers, or a YUV420 {@link ImageFrame}. The conversion uses BT.601 video range
+ * with the same 20 bits fixed-point coefficients and rounding as OpenCV cvtColor (YUV2RGBA_*), so
+ * results are identical without the OpenCV native library.
+ *
+ * Output frames are provided by the caller and reused, nothing is allocated per frame. Not thread
+ * safe, use one instance per analysis thread.
+ */
+public class YuvConverter extends StripeKernel<YuvConverter.Progress> {
+
+    // OpenCV ITUR_BT_601_* coefficients
+    private static final int SHIFT = 20;
+    private static final int HALF = 1 << (SHIFT - 1);
+    private static final int CY = 1220542;
+    private static final int CUB = 2116026;
+    private static final int CUG = -409993;
+    private static final int CVG = -852492;
+    private static final int CVR = 1673527;
+
+    // Source planes
+    private ByteBuffer mY;
+    private int mYOffset;
+    private int mYRowStride;
+    private ByteBuffer mU;
+    private int mUOffset;
+    private int mURowStride;
+    private ByteBuffer mV;
+    private int mVOffset;
+    private int mVRowStride;
+    private int mChromaPixelStride;
+    private int mWidth;
+    private int mHeight;
+
+    // Reused to read the chroma planes layout of frames
+    private final ImageFrame mPlaneView = new ImageFrame();
+
+    // Destination
+    private ImageFrame mDst;
+    private boolean mToRgba;
+    private int mRedShift;
+    private int mGreenShift;
+    private int mBlueShift;
+    private int mAlphaShift;
+
+    /**
+     * Sets a source with separate planes
+     *
+     * @param y The Y plane
+     * @param yOffset The offset of the first Y sample
+     * @param yRowStride The number of bytes between 2 rows of Y
+     * @param u The U plane
+     * @param uOffset The offset of the first U sample
+     * @param v The V plane
+     * @param vOffset The offset of the first V sample
+     * @param chromaRowStride The number of bytes between 2 rows of U or V
+     * @param chromaPixelStride The number of bytes between 2 samples of a U or V row (1 planar, 2 interleaved)
+     * @param width The frame width in pixels
+     * @param height The frame height in pixels
+     */
+    public void setSource(final ByteBuffer y, final int yOffset, final int yRowStride,
+                          final ByteBuffer u, final int uOffset, final ByteBuffer v, final int vOffset,
+                          final int chromaRowStride, final int chromaPixelStride, final int width, final int height) {
+        mY = y;
+        mYOffset = yOffset;
+        mYRowStride = yRowStride;
+        mU = u;
+        mUOffset = uOffset;
+        mURowStride = chromaRowStride;
+        mV = v;
+        mVOffset = vOffset;
+        mVRowStride = chromaRowStride;
+        mChromaPixelStride = chromaPixelStride;
+        mWidth = width;
+        mHeight = height;
+    }
+
+    /**
+     * Sets a camera YUV_420_888 source, U and V buffers may alias each other when interleaved
+     *
+     * @param y The Y plane buffer
+     * @param yRowStride The Y plane row stride
+     * @param u The U plane buffer
+     * @param v The V plane buffer
+     * @param chromaRowStride The U and V planes row stride
+     * @param chromaPixelStride The U and V planes pixel stride
+     * @param width The frame width in pixels
+     * @param height The frame height in pixels
+     */
+    public void setYuv420888(final ByteBuffer y, final int yRowStride, final ByteBuffer u, final ByteBuffer v,
+                             final int chromaRowStride, final int chromaPixelStride, final int width, final int height) {
+        setSource(y, 0, yRowStride, u, 0, v, 0, chromaRowStride, chromaPixelStride, width, height);
+    }
+
+    /**
+     * Sets a NV21 source : Y plane followed by interleaved V and U samples
+     *
+     * @param data The NV21 buffer
+     * @param width The frame width in pixels
+     * @param height The frame height in pixels
+     */
+    public void setNv21(final ByteBuffer data, final int width, final int height) {
+        final int ySize = width * height;
+        final int chromaRowStride = (width + 1) & ~1;
+        setSource(data, 0, width, data, ySize + 1, data, ySize, chromaRowStride, 2, width, height);
+    }
+
+    /**
+     * Sets a YV12 source : Y plane followed by V and U planes, rows aligned on 16 bytes as defined
+     * by the Android ImageFormat.YV12 layout
+     *
+     * @param data The YV12 buffer
+     * @param width The frame width in pixels
+     * @param height The frame height in pixels
+     */
+    public void setYv12(final ByteBuffer data, final int width, final int height) {
+        final int yRowStride = align16(width);
+        final int chromaRowStride = align16(yRowStride / 2);
+        final int ySize = yRowStride * height;
+        final int chromaSize = chromaRowStride * ((height + 1) / 2);
+        setSource(data, 0, yRowStride, data, ySize + chromaSize, data, ySize, chromaRowStride, 1, width, height);
+    }
+
+    /**
+     * Sets a YUV420 frame source
+     *
+     * @param frame The frame, YUV420 format
+     */
+    public void setSource(final ImageFrame frame) {
+        if(frame.getFormat() != FrameFormat.YUV420){
+            throw new IllegalArgumentException("YUV420 frame expected");
+        }
+        final int yOffset = frame.getOffset();
+        final int yRowStride = frame.getRowStride();
+        final ImageFrame u = frame.channel(ImageFrame.PLANE_U, mPlaneView);
+        final int uOffset = u.getOffset();
+        final int chromaRowStride = u.getRowStride();
+        final int chromaPixelStride = u.getPixelStride();
+        final int vOffset = frame.channel(ImageFrame.PLANE_V, mPlaneView).getOffset();
+        setSource(frame.getData(), yOffset, yRowStride, frame.getData(), uOffset, frame.getData(), vOffset,
+                chromaRowStride, chromaPixelStride, frame.getWidth(), frame.getHeight());
+    }
+
+    /**
+     * Converts the source to RGBA8 (alpha 255)
+     *
+     * @param engine The engine running the stripes
+     * @param dst The destination frame, RGBA8 with the source size
+     */
+    public void toRgba(final AnalysisEngine engine, final ImageFrame dst) {
+        checkDestination(dst, FrameFormat.RGBA8);
+        mToRgba = true;
+        final ByteBuffer data = dst.getData();
+        mRedShift = Luma.redShift(data.order());
+        mGreenShift = Luma.greenShift(data.order());
+        mBlueShift = Luma.blueShift(data.order());
+        mAlphaShift = 24 - mRedShift;
+        run(engine, dst);
+    }
+
+    /**
+     * Extracts the luminance of the source
+     *
+     * @param engine The engine running the stripes
+     * @param dst The destination frame, Y8 with the source size
+     */
+    public void toLuma(final AnalysisEngine engine, final ImageFrame dst) {
+        checkDestination(dst, FrameFormat.Y8);
+        mToRgba = false;
+        run(engine, dst);
+    }
+
+    private void run(final AnalysisEngine engine, final ImageFrame dst) {
+        mDst = dst;
+        engine.run(this);
+        mDst = null;
+    }
+
+    private void checkDestination(final ImageFrame dst, final int format) {
+        if(mY == null){
+            throw new IllegalStateException("No source set");
+        }
+        if(dst.getFormat() != format || dst.getWidth() != mWidth || dst.getHeight() != mHeight){
+            throw new IllegalArgumentException("Destination must be " + mWidth + "x" + mHeight + " of format " + format);
+        }
+    }
+
+    @Override
+    protected int getRows() {
+        return mHeight;
+    }
+
+    @Override
+    protected Progress newPartial() {
+        return new Progress();
+    }
+
+    @Override
+    protected void reset(final Progress partial) {
+        partial.rows = 0;
+    }
+
+    @Override
+    protected void process(final int rowStart, final int rowEnd, final Progress partial) {
+        if(mToRgba){
+            for(int row = rowStart; row < rowEnd; row++){
+                convertRgbaRow(row);
+            }
+        }
+        else{
+            for(int row = rowStart; row < rowEnd; row++){
+                copyLumaRow(row);
+            }
+        }
+        partial.rows += rowEnd - rowStart;
+    }
+
+    @Override
+    protected void merge(final Progress target, final Progress source) {
+        target.rows += source.rows;
+    }
+
+    private void convertRgbaRow(final int row) {
+        final ByteBuffer y = mY;
+        final ByteBuffer u = mU;
+        final ByteBuffer v = mV;
+        final ByteBuffer dst = mDst.getData();
+        final int width = mWidth;
+        final int chromaPixelStride = mChromaPixelStride;
+        final int rShift = mRedShift;
+        final int gShift = mGreenShift;
+        final int bShift = mBlueShift;
+        final int alpha = 0xFF << mAlphaShift;
+
+        final int yOffset = mYOffset + row * mYRowStride;
+        final int uOffset = mUOffset + (row >> 1) * mURowStride;
+        final int vOffset = mVOffset + (row >> 1) * mVRowStride;
+        int dstOffset = mDst.getOffset() + row * mDst.getRowStride();
+        final int dstPixelStride = mDst.getPixelStride();
+
+        for(int col = 0; col < width; col++){
+            final int chroma = (col >> 1) * chromaPixelStride;
+            final int cu = (u.get(uOffset + chroma) & 0xFF) - 128;
+            final int cv = (v.get(vOffset + chroma) & 0xFF) - 128;
+            final int ruv = HALF + CVR * cv;
+            final int guv = HALF + CVG * cv + CUG * cu;
+            final int buv = HALF + CUB * cu;
+            final int cy = Math.max(0, (y.get(yOffset + col) & 0xFF) - 16) * CY;
+            final int r = clamp((cy + ruv) >> SHIFT);
+            final int g = clamp((cy + guv) >> SHIFT);
+            final int b = clamp((cy + buv) >> SHIFT);
+            dst.putInt(dstOffset, (r << rShift) | (g << gShift) | (b << bShift) | alpha);
+            dstOffset += dstPixelStride;
+        }
+    }
+
+    private void copyLumaRow(final int row) {
+        final ByteBuffer y = mY;
+        final ByteBuffer dst = mDst.getData();
+        final int yOffset = mYOffset + row * mYRowStride;
+        int dstOffset = mDst.getOffset() + row * mDst.getRowStride();
+        final int dstPixelStride = mDst.getPixelStride();
+        for(int col = 0; col < mWidth; col++){
+            dst.put(dstOffset, y.get(yOffset + col));
+            dstOffset += dstPixelStride;
+        }
+    }
+
+    private static int clamp(final int value) {
+        return value < 0 ? 0 : (value > 255 ? 255 : value);
+    }
+
+    private static int align16(final int value) {
+        return (value + 15) & ~15;
+    }
+
+    /**
+     * Number of rows converted by a stripe
+     */
+    public static class Progress {
+        public int rows;
+    }
+}
@@ -0,0 +1,134 @@
+package com.thommil.animalsgo.cv;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class AnalysisEngineTest {
+
+    private AnalysisEngine mSerial;
+    private AnalysisEngine mParallel;
+
+    @Before
+    public void setUp() {
+        mSerial = new AnalysisEngine(1);
+        mParallel = new AnalysisEngine(4);
+    }
+
+    @After
+    public void tearDown() {
+        mSerial.shutdown();
+        mParallel.shutdown();
+    }
+
+    @Test
+    public void stripesCoverAllRowsInOrder() {
+        for(final int rows : new int[]{1, 15, 16, 17, 100, 256, 1000}){
+            final RowsKernel kernel = new RowsKernel(rows);
+            final List<Integer> merged = mParallel.run(kernel);
+            assertEquals(rows, merged.size());
+            for(int row = 0; row < rows; row++){
+                assertEquals(row, (int) merged.get(row));
+            }
+        }
+    }
+
+    @Test
+    public void parallelScoreEqualsSerialScore() {
+        final SharpnessScorer serial = new SharpnessScorer();
+        final SharpnessScorer parallel = new SharpnessScorer();
+        for(final int height : new int[]{8, 33, 120, 480, 721}){
+            final ImageFrame frame = TestFrames.noise(160, height, height);
+            final long expected = serial.variance(frame);
+            assertEquals(serial.toScore(expected), serial.score(mSerial, null, frame));
+            assertEquals(serial.toScore(expected), parallel.score(mParallel, null, frame));
+        }
+    }
+
+    @Test
+    public void parallelRgbaScoreEqualsSerialScore() {
+        final ImageFrame frame = TestFrames.gray(TestFrames.noise(200, 300, 5));
+        assertEquals(new SharpnessScorer().score(frame), new SharpnessScorer().score(mParallel, null, frame));
+    }
+
+    @Test
+    public void cancelledRunHasNoResult() {
+        final CancellationToken token = new CancellationToken();
+        token.cancel();
+        assertNull(mParallel.run(new RowsKernel(512), token));
+        assertEquals(SharpnessScorer.NO_SCORE, new SharpnessScorer().score(mSerial, token, TestFrames.noise(64, 64, 6)));
+    }
+
+    @Test
+    public void resetTokenRunsAgain() {
+        final CancellationToken token = new CancellationToken();
+        token.cancel();
+        token.reset();
+        assertEquals(512, mParallel.run(new RowsKernel(512), token).size());
+    }
+
+    @Test
+    public void runAllRunsEachIndexOnce() {
+        for(final AnalysisEngine engine : new AnalysisEngine[]{mSerial, mParallel}){
+            final AtomicIntegerArray runs = new AtomicIntegerArray(37);
+            engine.runAll(runs.length(), new AnalysisEngine.IndexedTask() {
+                @Override
+                public void run(final int index) {
+                    runs.incrementAndGet(index);
+                }
+            });
+            for(int i = 0; i < runs.length(); i++){
+                assertEquals(1, runs.get(i));
+            }
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsInvalidParallelism() {
+        new AnalysisEngine(0);
+    }
+
+    // Lists the processed rows, merge order shows in the result
+    private static class RowsKernel extends StripeKernel<List<Integer>> {
+
+        private final int mRows;
+
+        RowsKernel(final int rows) {
+            mRows = rows;
+        }
+
+        @Override
+        protected int getRows() {
+            return mRows;
+        }
+
+        @Override
+        protected List<Integer> newPartial() {
+            return new ArrayList<>();
+        }
+
+        @Override
+        protected void reset(final List<Integer> partial) {
+            partial.clear();
+        }
+
+        @Override
+        protected void process(final int rowStart, final int rowEnd, final List<Integer> partial) {
+            for(int row = rowStart; row < rowEnd; row++){
+                partial.add(row);
+            }
+        }
+
+        @Override
+        protected void merge(final List<Integer> target, final List<Integer> source) {
+            target.addAll(source);
+        }
+    }
+}
@@ -0,0 +1,67 @@
+package com.thommil.animalsgo.cv;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class BlankFrameStageTest {
+
+    private AnalysisEngine mEngine;
+    private ValidationFrame mFrame;
+    private final BlankFrameStage mStage = new BlankFrameStage();
+
+    @Before
+    public void setUp() {
+        mEngine = new AnalysisEngine(2);
+        mFrame = new ValidationFrame(mEngine);
+    }
+
+    @After
+    public void tearDown() {
+        mEngine.shutdown();
+    }
+
+    @Test
+    public void flatFrameIsBlank() {
+        mFrame.set(TestFrames.flat(160, 120, 100), null);
+        assertEquals(0, mStage.evaluate(mFrame));
+    }
+
+    @Test
+    public void smoothGradientIsBlank() {
+        // Luma from 96 to 160 : global deviation ~18, regions deviation ~2
+        final ImageFrame frame = ImageFrame.allocate(256, 128, FrameFormat.Y8);
+        for(int y = 0; y < 128; y++){
+            for(int x = 0; x < 256; x++){
+                frame.getData().put(y * 256 + x, (byte) (96 + x / 4));
+            }
+        }
+        mFrame.set(frame, null);
+        assertTrue(mStage.evaluate(mFrame) < BlankFrameStage.DEFAULT_REJECT_THRESHOLD);
+    }
+
+    @Test
+    public void texturedFrameIsNotBlank() {
+        mFrame.set(TestFrames.noise(160, 120, 30), null);
+        assertTrue(mStage.evaluate(mFrame) > 80);
+    }
+
+    @Test
+    public void rgbaFrameIsAnalyzedAtHalfScale() {
+        mFrame.set(TestFrames.gray(TestFrames.checkerboard(160, 120, 8)), null);
+        final int score = mStage.evaluate(mFrame);
+        assertEquals(80, mFrame.getIntegralImage().getWidth());
+        assertTrue(score > 80);
+    }
+
+    @Test
+    public void stoppedFrameHasNoScore() {
+        final CancellationToken token = new CancellationToken();
+        token.cancel();
+        mFrame.set(TestFrames.noise(160, 120, 31), token);
+        assertEquals(ValidationStage.NO_SCORE, mStage.evaluate(mFrame));
+    }
+}
@@ -0,0 +1,113 @@
+package com.thommil.animalsgo.cv;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class BurstSelectorTest {
+
+    private static final int WIDTH = 64;
+    private static final int HEIGHT = 48;
+
+    private static final int CAPACITY = 6;
+
+    @Test
+    public void sharpWellExposedFrameIsSelected() {
+        checkSelection(1);
+        checkSelection(4);
+    }
+
+    @Test
+    public void newestFrameWinsTies() {
+        for(int parallelism = 1; parallelism <= 4; parallelism += 3){
+            final AnalysisEngine engine = new AnalysisEngine(parallelism);
+            try{
+                final FrameRing ring = new FrameRing(CAPACITY, WIDTH * HEIGHT);
+                final BurstSelector selector = new BurstSelector(CAPACITY);
+                // Same content pushed at ages 3 and 1
+                push(ring, 0, blurred(1));
+                push(ring, 1, noise(64, 192, 2));
+                push(ring, 2, blurred(3));
+                push(ring, 3, noise(64, 192, 2));
+                push(ring, 4, blurred(4));
+                assertEquals(1, selector.select(engine, ring));
+                assertEquals(selector.getSharpnessScore(1), selector.getSharpnessScore(3));
+            }
+            finally{
+                engine.shutdown();
+            }
+        }
+    }
+
+    @Test
+    public void emptyRingHasNoSelection() {
+        final AnalysisEngine engine = new AnalysisEngine(1);
+        assertEquals(-1, new BurstSelector(CAPACITY).select(engine, new FrameRing(CAPACITY, WIDTH * HEIGHT)));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsLargerRing() {
+        new BurstSelector(2).select(new AnalysisEngine(1), new FrameRing(4, WIDTH * HEIGHT));
+    }
+
+    private static void checkSelection(final int parallelism) {
+        final AnalysisEngine engine = new AnalysisEngine(parallelism);
+        try{
+            final FrameRing ring = new FrameRing(CAPACITY, WIDTH * HEIGHT);
+            final BurstSelector selector = new BurstSelector(CAPACITY);
+            // Pushed over a full ring so the oldest sharp frame is gone
+            push(ring, 0, noise(64, 192, 10));
+            for(int i = 1; i < 8; i++){
+                final ImageFrame image;
+                if(i == 3){
+                    image = noise(64, 192, 11);         // sharp and well exposed
+                }
+                else if(i == 5){
+                    image = noise(0, 40, 12);           // sharp but dark
+                }
+                else{
+                    image = blurred(i);
+                }
+                push(ring, i, image);
+            }
+            final int best = selector.select(engine, ring);
+            assertEquals("parallelism " + parallelism, 3, ring.get(best).timestamp);
+            assertTrue(selector.getExposureScore(best) > selector.getExposureScore(2));
+            for(int age = 0; age < ring.size(); age++){
+                if(ring.get(age).timestamp != 5){
+                    assertTrue(selector.getSharpnessScore(best) >= selector.getSharpnessScore(age));
+                }
+            }
+        }
+        finally{
+            engine.shutdown();
+        }
+    }
+
+    // Copies an image in a new ring frame, as the stream does
+    private static void push(final FrameRing ring, final long timestamp, final ImageFrame image) {
+        final FrameRing.Frame frame = ring.push();
+        frame.data.clear();
+        image.getData().clear();
+        frame.data.put(image.getData());
+        frame.image.wrap(frame.data, image.getWidth(), image.getHeight(), FrameFormat.Y8);
+        frame.timestamp = timestamp;
+    }
+
+    private static ImageFrame blurred(final long seed) {
+        return TestFrames.blur(noise(64, 192, seed));
+    }
+
+    // Uniform samples in [min, max]
+    private static ImageFrame noise(final int min, final int max, final long seed) {
+        final ImageFrame frame = ImageFrame.allocate(WIDTH, HEIGHT, FrameFormat.Y8);
+        final Random random = new Random(seed);
+        for(int i = 0; i < WIDTH * HEIGHT; i++){
+            frame.getData().put(i, (byte) (min + random.nextInt(max - min + 1)));
+        }
+        return frame;
+    }
+}
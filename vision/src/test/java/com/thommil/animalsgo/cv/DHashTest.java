@@ -0,0 +1,74 @@
+package com.thommil.animalsgo.cv;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class DHashTest {
+
+    @Test
+    public void gradientsGiveFullAndEmptyHashes() {
+        final DHash dHash = new DHash();
+        assertEquals(-1L, dHash.compute(gradient(90, 80, true)));
+        assertEquals(0L, dHash.compute(gradient(90, 80, false)));
+        assertEquals(64, DHash.distance(-1L, 0L));
+    }
+
+    @Test
+    public void sameContentGivesSameHash() {
+        final DHash dHash = new DHash();
+        final ImageFrame frame = TestFrames.noise(144, 128, 7);
+        final long hash = dHash.compute(frame);
+        assertEquals(hash, dHash.compute(frame));
+        assertEquals(hash, dHash.compute(TestFrames.gray(frame)));
+        assertEquals(hash, dHash.compute(TestFrames.padded(frame, 5, 32)));
+    }
+
+    @Test
+    public void noiseKeepsHashClose() {
+        final DHash dHash = new DHash();
+        final long hash = dHash.compute(blocks(288, 256));
+        final ImageFrame noisy = blocks(288, 256);
+        final ImageFrame noise = TestFrames.noise(288, 256, 8);
+        final ByteBuffer data = noisy.getData();
+        for(int i = 0; i < data.capacity(); i++){
+            data.put(i, (byte) ((data.get(i) & 0xFF) + (noise.getData().get(i) & 0x07) - 4));
+        }
+        assertTrue(DHash.distance(hash, dHash.compute(noisy)) <= VerdictCache.DEFAULT_MAX_DISTANCE);
+    }
+
+    @Test
+    public void differentScenesGiveDistantHashes() {
+        final DHash dHash = new DHash();
+        final long first = dHash.compute(TestFrames.noise(144, 128, 9));
+        final long second = dHash.compute(TestFrames.noise(144, 128, 10));
+        assertTrue(DHash.distance(first, second) > VerdictCache.DEFAULT_MAX_DISTANCE);
+    }
+
+    // One uniform block per hash cell, each block differs from its right neighbour
+    private static ImageFrame blocks(final int width, final int height) {
+        final ImageFrame frame = ImageFrame.allocate(width, height, FrameFormat.Y8);
+        for(int y = 0; y < height; y++){
+            for(int x = 0; x < width; x++){
+                final int cell = 5 * (x * 9 / width) + 3 * (y * 8 / height);
+                frame.getData().put(y * width + x, (byte) (32 + 16 * (cell % 11)));
+            }
+        }
+        return frame;
+    }
+
+    // Horizontal ramp, one step per hash cell
+    private static ImageFrame gradient(final int width, final int height, final boolean decreasing) {
+        final ImageFrame frame = ImageFrame.allocate(width, height, FrameFormat.Y8);
+        for(int y = 0; y < height; y++){
+            for(int x = 0; x < width; x++){
+                final int cell = x * 9 / width;
+                frame.getData().put(y * width + x, (byte) (decreasing ? 240 - 20 * cell : 20 + 20 * cell));
+            }
+        }
+        return frame;
+    }
+}
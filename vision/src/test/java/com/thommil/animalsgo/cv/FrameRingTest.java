@@ -0,0 +1,55 @@
+package com.thommil.animalsgo.cv;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+public class FrameRingTest {
+
+    @Test
+    public void framesAreIndexedByAge() {
+        final FrameRing ring = new FrameRing(4, 64);
+        assertEquals(0, ring.size());
+        for(int i = 0; i < 3; i++){
+            ring.push().timestamp = i;
+        }
+        assertEquals(3, ring.size());
+        assertEquals(2, ring.get(0).timestamp);
+        assertEquals(0, ring.get(2).timestamp);
+    }
+
+    @Test
+    public void oldestFramesAreReplacedAcrossWrapAround() {
+        final FrameRing ring = new FrameRing(4, 64);
+        final FrameRing.Frame first = ring.push();
+        first.timestamp = 0;
+        for(int i = 1; i < 11; i++){
+            ring.push().timestamp = i;
+            assertEquals(Math.min(i + 1, 4), ring.size());
+            for(int age = 0; age < ring.size(); age++){
+                assertEquals(i - age, ring.get(age).timestamp);
+            }
+        }
+        // 11 frames through 4 slots, the first slot holds frame 8
+        assertSame(first, ring.get(2));
+        assertEquals(64, ring.get(3).data.capacity());
+    }
+
+    @Test(expected = IndexOutOfBoundsException.class)
+    public void ageBeyondSizeIsRejected() {
+        final FrameRing ring = new FrameRing(4, 64);
+        ring.push();
+        ring.push();
+        ring.get(2);
+    }
+
+    @Test(expected = IndexOutOfBoundsException.class)
+    public void clearedRingIsEmpty() {
+        final FrameRing ring = new FrameRing(2, 64);
+        ring.push();
+        ring.clear();
+        assertEquals(0, ring.size());
+        ring.get(0);
+    }
+}
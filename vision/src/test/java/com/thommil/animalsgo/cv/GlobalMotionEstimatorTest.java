@@ -0,0 +1,142 @@
+package com.thommil.animalsgo.cv;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class GlobalMotionEstimatorTest {
+
+    // 4x4 frame pixels per grid pixel
+    private static final int WIDTH = 4 * GlobalMotionEstimator.WORK_WIDTH;
+    private static final int HEIGHT = 4 * GlobalMotionEstimator.WORK_HEIGHT;
+
+    @Test
+    public void integerShiftIsRecovered() {
+        final GlobalMotionEstimator estimator = new GlobalMotionEstimator();
+        assertFalse(estimator.update(texture(0, 0)));
+        // 2 grid pixels right, 1 up
+        assertTrue(estimator.update(texture(8, -4)));
+        assertEquals(8f, estimator.getDx(), 0.1f);
+        assertEquals(-4f, estimator.getDy(), 0.1f);
+        assertTrue(estimator.getConfidence() > 0.9f);
+        assertEquals(0f, estimator.getResidual(), 0.5f);
+        assertTrue(estimator.isMoving());
+    }
+
+    @Test
+    public void halfPixelShiftIsRefined() {
+        final GlobalMotionEstimator estimator = new GlobalMotionEstimator();
+        estimator.update(texture(0, 0));
+        // Half a grid pixel left, within a quarter of a grid pixel (1 frame pixel) on both axes
+        estimator.update(texture(-2, 0));
+        assertEquals(-2f, estimator.getDx(), 1f);
+        assertEquals(0f, estimator.getDy(), 1f);
+        assertTrue(Math.abs(estimator.getDx()) > 1f);
+        assertTrue(estimator.getConfidence() > 0.5f);
+    }
+
+    @Test
+    public void flatFrameHasNoConfidence() {
+        final GlobalMotionEstimator estimator = new GlobalMotionEstimator();
+        estimator.update(TestFrames.flat(WIDTH, HEIGHT, 90));
+        estimator.update(TestFrames.flat(WIDTH, HEIGHT, 90));
+        assertEquals(0f, estimator.getConfidence(), 0f);
+        assertEquals(0f, estimator.getDx(), 0f);
+        assertEquals(0f, estimator.getDy(), 0f);
+        assertEquals(0f, estimator.getSpeed(), 0f);
+        assertFalse(estimator.isMoving());
+    }
+
+    @Test
+    public void steadySequenceIsNotMoving() {
+        final GlobalMotionEstimator estimator = new GlobalMotionEstimator();
+        final Random random = new Random(60);
+        for(int i = 0; i < 20; i++){
+            estimator.update(noisy(texture(0, 0), random, 3));
+            assertFalse("frame " + i, estimator.isMoving());
+        }
+        assertTrue(estimator.getSpeed() < GlobalMotionEstimator.DEFAULT_SPEED_THRESHOLD);
+    }
+
+    @Test
+    public void movingSubjectIsDetected() {
+        final GlobalMotionEstimator estimator = new GlobalMotionEstimator();
+        for(int i = 0; i < 5; i++){
+            estimator.update(texture(0, 0));
+        }
+        assertFalse(estimator.isMoving());
+
+        // Background static, patch moving right
+        for(int i = 0; i < 3; i++){
+            estimator.update(withPatch(texture(0, 0), 64 + 24 * i, 64));
+            assertTrue("frame " + i, estimator.isMoving());
+            assertEquals(0f, estimator.getDx(), 0.5f);
+            assertTrue(estimator.getResidual() > 10f);
+        }
+    }
+
+    @Test
+    public void resetForgetsPreviousFrame() {
+        final GlobalMotionEstimator estimator = new GlobalMotionEstimator();
+        estimator.update(texture(0, 0));
+        estimator.update(texture(8, 0));
+        assertTrue(estimator.isMoving());
+
+        estimator.reset();
+        assertFalse(estimator.isMoving());
+        assertEquals(0f, estimator.getSpeed(), 0f);
+        assertEquals(0f, estimator.getDx(), 0f);
+        // The first frame after a reset starts a new sequence
+        assertFalse(estimator.update(texture(8, 0)));
+        assertTrue(estimator.update(texture(8, 0)));
+        assertFalse(estimator.isMoving());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsRgbaFrames() {
+        new GlobalMotionEstimator().update(TestFrames.gray(texture(0, 0)));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsSmallFrames() {
+        new GlobalMotionEstimator().update(TestFrames.flat(GlobalMotionEstimator.WORK_WIDTH - 1, HEIGHT, 90));
+    }
+
+    // Smooth texture whose content is shifted by (shiftX, shiftY) frame pixels
+    private static ImageFrame texture(final double shiftX, final double shiftY) {
+        final ImageFrame frame = ImageFrame.allocate(WIDTH, HEIGHT, FrameFormat.Y8);
+        for(int y = 0; y < HEIGHT; y++){
+            for(int x = 0; x < WIDTH; x++){
+                final double u = x - shiftX;
+                final double v = y - shiftY;
+                final double luma = 128 + 40 * Math.sin(u / 7) * Math.cos(v / 11) + 30 * Math.sin((u + 2 * v) / 13)
+                        + 20 * Math.cos((3 * u - v) / 17);
+                frame.getData().put(y * WIDTH + x, (byte) Math.round(luma));
+            }
+        }
+        return frame;
+    }
+
+    // Adds a uniform noise in [-amplitude, amplitude], as sensor noise
+    private static ImageFrame noisy(final ImageFrame frame, final Random random, final int amplitude) {
+        for(int i = 0; i < WIDTH * HEIGHT; i++){
+            final int luma = (frame.getData().get(i) & 0xFF) + random.nextInt(2 * amplitude + 1) - amplitude;
+            frame.getData().put(i, (byte) Math.max(0, Math.min(255, luma)));
+        }
+        return frame;
+    }
+
+    // Draws a 32x32 high contrast checkerboard patch
+    private static ImageFrame withPatch(final ImageFrame frame, final int left, final int top) {
+        for(int y = top; y < top + 32; y++){
+            for(int x = left; x < left + 32; x++){
+                frame.getData().put(y * WIDTH + x, (byte) (((x / 4 + y / 4) % 2 == 0) ? 250 : 5));
+            }
+        }
+        return frame;
+    }
+}
@@ -0,0 +1,87 @@
+package com.thommil.animalsgo.cv;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class ImageFramePoolTest {
+
+    @Test
+    public void capacityIsQuarterPowerOfTwo() {
+        assertEquals(16, ImageFramePool.classCapacity(1));
+        assertEquals(16, ImageFramePool.classCapacity(16));
+        assertEquals(20, ImageFramePool.classCapacity(17));
+        assertEquals(1 << 20, ImageFramePool.classCapacity(1 << 20));
+        assertEquals((1 << 20) + (1 << 18), ImageFramePool.classCapacity((1 << 20) + 1));
+        // 1080x2160 RGBA : 10MB instead of 16MB
+        assertEquals(10 * 1024 * 1024, ImageFramePool.classCapacity(1080 * 2160 * 4));
+        assertEquals(ImageFramePool.MAX_POOLED_SIZE, ImageFramePool.classCapacity(ImageFramePool.MAX_POOLED_SIZE));
+        for(int size = 1; size < 100000; size += 7){
+            final int capacity = ImageFramePool.classCapacity(size);
+            assertTrue(size + " -> " + capacity, capacity >= size && (capacity <= 16 || capacity - size < capacity / 4));
+        }
+    }
+
+    @Test
+    public void releasedFrameIsReused() {
+        final ImageFramePool pool = new ImageFramePool();
+        final ImageFrame frame = pool.acquire(100, 50, FrameFormat.RGBA8);
+        assertEquals(20480, frame.getCapacity());
+        assertTrue(frame.isPacked());
+        pool.release(frame);
+
+        // Same size class, new geometry
+        final ImageFrame reused = pool.acquire(99, 51, FrameFormat.RGBA8);
+        assertSame(frame, reused);
+        assertEquals(99, reused.getWidth());
+        assertEquals(51, reused.getHeight());
+        assertEquals(99 * 4, reused.getRowStride());
+        assertEquals(0, reused.getData().position());
+
+        // Next size class
+        assertNotSame(frame, pool.acquire(100, 60, FrameFormat.RGBA8));
+    }
+
+    @Test
+    public void foreignFrameFitsItsBucket() {
+        final ImageFramePool pool = new ImageFramePool();
+        // 9000 bytes is between the 8192 and 10240 classes
+        final ImageFrame frame = ImageFrame.allocate(90, 100, FrameFormat.Y8);
+        pool.release(frame);
+        assertNotSame(frame, pool.acquire(100, 100, FrameFormat.Y8));
+        assertSame(frame, pool.acquire(64, 128, FrameFormat.Y8));
+    }
+
+    @Test
+    public void bucketsAreBounded() {
+        final ImageFramePool pool = new ImageFramePool(2);
+        final ImageFrame first = pool.acquire(32, 32, FrameFormat.Y8);
+        final ImageFrame second = pool.acquire(32, 32, FrameFormat.Y8);
+        final ImageFrame third = pool.acquire(32, 32, FrameFormat.Y8);
+        pool.release(first);
+        pool.release(second);
+        pool.release(third);
+        final ImageFrame a = pool.acquire(32, 32, FrameFormat.Y8);
+        final ImageFrame b = pool.acquire(32, 32, FrameFormat.Y8);
+        assertTrue((a == first || a == second) && (b == first || b == second));
+        assertNotSame(third, pool.acquire(32, 32, FrameFormat.Y8));
+    }
+
+    @Test
+    public void heapAndClearedFramesAreNotReused() {
+        final ImageFramePool pool = new ImageFramePool();
+        final ImageFrame heap = new ImageFrame().wrap(ByteBuffer.allocate(1024), 32, 32, FrameFormat.Y8);
+        pool.release(heap);
+        assertNotSame(heap, pool.acquire(32, 32, FrameFormat.Y8));
+
+        final ImageFrame frame = pool.acquire(32, 32, FrameFormat.Y8);
+        pool.release(frame);
+        pool.clear();
+        assertNotSame(frame, pool.acquire(32, 32, FrameFormat.Y8));
+    }
+}
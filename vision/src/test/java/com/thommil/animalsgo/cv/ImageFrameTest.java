@@ -0,0 +1,99 @@
+package com.thommil.animalsgo.cv;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class ImageFrameTest {
+
+    @Test
+    public void roiSharesSourceData() {
+        final ImageFrame frame = TestFrames.noise(40, 30, 50);
+        final ImageFrame roi = frame.roi(5, 7, 10, 8, new ImageFrame());
+        assertSame(frame.getData(), roi.getData());
+        assertEquals(10, roi.getWidth());
+        assertEquals(8, roi.getHeight());
+        assertEquals(7 * 40 + 5, roi.getOffset());
+        assertEquals(40, roi.getRowStride());
+        assertFalse(roi.isPacked());
+        for(int y = 0; y < 8; y++){
+            for(int x = 0; x < 10; x++){
+                assertEquals(TestFrames.luma(frame, x + 5, y + 7), TestFrames.luma(roi, x, y));
+            }
+        }
+
+        // Nested views add their offsets
+        final ImageFrame nested = roi.roi(2, 3, 4, 4, new ImageFrame());
+        assertEquals(TestFrames.luma(frame, 7, 10), TestFrames.luma(nested, 0, 0));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void roiOutOfFrameIsRejected() {
+        TestFrames.noise(40, 30, 51).roi(35, 0, 10, 10, new ImageFrame());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void oddYuvRoiIsRejected() {
+        ImageFrame.allocate(40, 30, FrameFormat.YUV420).roi(1, 2, 10, 10, new ImageFrame());
+    }
+
+    @Test
+    public void rgbaChannelView() {
+        final ImageFrame frame = ImageFrame.allocate(6, 4, FrameFormat.RGBA8);
+        final ByteBuffer data = frame.getData();
+        for(int i = 0; i < 6 * 4; i++){
+            data.put(4 * i, (byte) i).put(4 * i + 1, (byte) (100 + i)).put(4 * i + 2, (byte) (200 + i)).put(4 * i + 3, (byte) 0xFF);
+        }
+        final ImageFrame green = frame.channel(ImageFrame.CHANNEL_G, new ImageFrame());
+        assertEquals(FrameFormat.Y8, green.getFormat());
+        assertEquals(4, green.getPixelStride());
+        assertEquals(24, green.getRowStride());
+        assertEquals(100 + 2 * 6 + 3, TestFrames.luma(green, 3, 2));
+
+        // Channel of a region
+        final ImageFrame blue = frame.roi(2, 1, 3, 2, new ImageFrame()).channel(ImageFrame.CHANNEL_B, new ImageFrame());
+        assertEquals((200 + 6 + 2) & 0xFF, TestFrames.luma(blue, 0, 0));
+    }
+
+    @Test
+    public void yuvPlaneViews() {
+        final ImageFrame frame = ImageFrame.allocate(6, 4, FrameFormat.YUV420);
+        final ByteBuffer data = frame.getData();
+        // I420 : 24 luma samples then 3x2 U and 3x2 V samples
+        for(int i = 0; i < data.capacity(); i++){
+            data.put(i, (byte) i);
+        }
+        final ImageFrame u = frame.channel(ImageFrame.PLANE_U, new ImageFrame());
+        final ImageFrame v = frame.channel(ImageFrame.PLANE_V, new ImageFrame());
+        assertEquals(3, u.getWidth());
+        assertEquals(2, u.getHeight());
+        assertEquals(24 + 3 + 1, TestFrames.luma(u, 1, 1));
+        assertEquals(30 + 3 + 1, TestFrames.luma(v, 1, 1));
+        assertEquals(2 * 6 + 5, TestFrames.luma(frame.channel(ImageFrame.PLANE_Y, new ImageFrame()), 5, 2));
+
+        // Region chroma follows the half resolution planes
+        final ImageFrame roi = frame.roi(2, 2, 4, 2, new ImageFrame());
+        assertEquals(24 + 3 + 1, TestFrames.luma(roi.channel(ImageFrame.PLANE_U, new ImageFrame()), 0, 0));
+    }
+
+    @Test
+    public void copyPacksStridedFrame() {
+        final ImageFrame luma = TestFrames.noise(20, 10, 52);
+        final ImageFrame padded = TestFrames.padded(luma, 7, 5);
+        final ImageFrame copy = ImageFrame.allocate(20, 10, FrameFormat.Y8);
+        padded.copyTo(copy);
+        assertTrue(copy.isPacked());
+        assertEquals(0, copy.getData().position());
+        assertEquals(luma.getData(), copy.getData());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void copyToOtherSizeIsRejected() {
+        TestFrames.noise(20, 10, 53).copyTo(ImageFrame.allocate(10, 20, FrameFormat.Y8));
+    }
+}
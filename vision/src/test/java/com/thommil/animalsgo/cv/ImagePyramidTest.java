@@ -0,0 +1,97 @@
+package com.thommil.animalsgo.cv;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+public class ImagePyramidTest {
+
+    private AnalysisEngine mEngine;
+    private ImagePyramid mPyramid;
+
+    @Before
+    public void setUp() {
+        mEngine = new AnalysisEngine(4);
+        mPyramid = new ImagePyramid(new ImageFramePool());
+    }
+
+    @After
+    public void tearDown() {
+        mEngine.shutdown();
+    }
+
+    @Test
+    public void levelsAverageBlocks() {
+        final ImageFrame frame = TestFrames.noise(97, 66, 40);
+        mPyramid.set(frame);
+        ImageFrame previous = frame;
+        for(int level = 1; level < 4; level++){
+            final ImageFrame current = mPyramid.getLevel(mEngine, null, level);
+            assertEquals(Math.max(1, previous.getWidth() / 2), current.getWidth());
+            assertEquals(Math.max(1, previous.getHeight() / 2), current.getHeight());
+            for(int y = 0; y < current.getHeight(); y++){
+                for(int x = 0; x < current.getWidth(); x++){
+                    final int sum = TestFrames.luma(previous, 2 * x, 2 * y) + TestFrames.luma(previous, 2 * x + 1, 2 * y)
+                            + TestFrames.luma(previous, 2 * x, 2 * y + 1) + TestFrames.luma(previous, 2 * x + 1, 2 * y + 1);
+                    assertEquals((sum + 2) >> 2, TestFrames.luma(current, x, y));
+                }
+            }
+            previous = current;
+        }
+    }
+
+    @Test
+    public void rgbaAndLumaGiveSameLevels() {
+        final ImageFrame frame = TestFrames.noise(64, 48, 41);
+        mPyramid.set(frame);
+        final ImageFrame expected = copy(mPyramid.getLevel(mEngine, null, 2));
+        mPyramid.set(TestFrames.gray(frame));
+        final ImageFrame level = mPyramid.getLevel(mEngine, null, 2);
+        for(int i = 0; i < 16 * 12; i++){
+            assertEquals(expected.getData().get(i), level.getData().get(i));
+        }
+    }
+
+    @Test
+    public void levelsAreBuiltOnce() {
+        mPyramid.set(TestFrames.noise(128, 128, 42));
+        final ImageFrame level = mPyramid.getLevel(mEngine, null, 3);
+        assertSame(level, mPyramid.getLevel(mEngine, null, 3));
+        mPyramid.getLevel(mEngine, null, 2);
+        assertEquals(1, mPyramid.getMisses());
+        assertEquals(2, mPyramid.getHits());
+    }
+
+    @Test
+    public void levelForKeepsRequestedSize() {
+        mPyramid.set(TestFrames.noise(640, 480, 43));
+        assertEquals(0, mPyramid.levelFor(400, 400));
+        assertEquals(2, mPyramid.levelFor(DHash.SAMPLES_WIDTH * 4, DHash.SAMPLES_HEIGHT));
+        assertEquals(3, mPyramid.levelFor(DHash.SAMPLES_WIDTH, DHash.SAMPLES_HEIGHT));
+        assertEquals(ImagePyramid.MAX_LEVELS - 1, mPyramid.levelFor(1, 1));
+    }
+
+    @Test
+    public void stoppedBuildHasNoLevel() {
+        final CancellationToken token = new CancellationToken();
+        token.cancel();
+        mPyramid.set(TestFrames.noise(256, 256, 44));
+        assertNull(mPyramid.getLevel(mEngine, token, 1));
+        assertEquals(256 / 2, mPyramid.getLevel(mEngine, null, 1).getWidth());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void rejectsMissingSource() {
+        mPyramid.getLevel(mEngine, null, 1);
+    }
+
+    private static ImageFrame copy(final ImageFrame frame) {
+        final ImageFrame copy = ImageFrame.allocate(frame.getWidth(), frame.getHeight(), FrameFormat.Y8);
+        frame.copyTo(copy);
+        return copy;
+    }
+}
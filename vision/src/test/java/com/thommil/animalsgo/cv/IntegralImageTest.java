@@ -0,0 +1,111 @@
+package com.thommil.animalsgo.cv;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class IntegralImageTest {
+
+    private AnalysisEngine mEngine;
+
+    @Before
+    public void setUp() {
+        mEngine = new AnalysisEngine(4);
+    }
+
+    @After
+    public void tearDown() {
+        mEngine.shutdown();
+    }
+
+    @Test
+    public void sumsMatchBruteForce() {
+        final ImageFrame frame = TestFrames.noise(73, 51, 20);
+        checkRegions(new IntegralImage().build(frame), frame);
+    }
+
+    @Test
+    public void parallelBuildMatchesBruteForce() {
+        final ImageFrame frame = TestFrames.noise(300, 211, 21);
+        final IntegralImage integralImage = new IntegralImage();
+        assertTrue(integralImage.build(mEngine, null, frame));
+        checkRegions(integralImage, frame);
+    }
+
+    @Test
+    public void stridedAndRgbaFramesGiveSameSums() {
+        final ImageFrame frame = TestFrames.noise(64, 40, 22);
+        final IntegralImage expected = new IntegralImage().build(frame);
+        final IntegralImage strided = new IntegralImage().build(mEngine, TestFrames.padded(frame, 7, 19));
+        final IntegralImage rgba = new IntegralImage().build(mEngine, TestFrames.gray(frame));
+        for(int y = 0; y <= 40; y += 5){
+            for(int x = 0; x <= 64; x += 8){
+                assertEquals(expected.sum(0, 0, x, y), strided.sum(0, 0, x, y));
+                assertEquals(expected.sumOfSquares(0, 0, x, y), rgba.sumOfSquares(0, 0, x, y));
+            }
+        }
+    }
+
+    @Test
+    public void reusedTablesAreRebuilt() {
+        final IntegralImage integralImage = new IntegralImage();
+        integralImage.build(TestFrames.noise(120, 90, 23));
+        final ImageFrame frame = TestFrames.noise(50, 30, 24);
+        integralImage.build(mEngine, frame);
+        assertEquals(50, integralImage.getWidth());
+        assertEquals(30, integralImage.getHeight());
+        checkRegions(integralImage, frame);
+    }
+
+    @Test
+    public void flatRegionHasNoVariance() {
+        final IntegralImage integralImage = new IntegralImage().build(TestFrames.flat(32, 32, 77));
+        assertEquals(77, integralImage.mean(3, 4, 20, 10));
+        assertEquals(0, integralImage.variance(3, 4, 20, 10));
+        assertEquals(0, integralImage.mean(3, 4, 0, 10));
+    }
+
+    @Test
+    public void statisticsMatchCheckerboard() {
+        // Half 64, half 192 : mean 128, deviation 64
+        final IntegralImage integralImage = new IntegralImage().build(TestFrames.checkerboard(32, 32, 4));
+        assertEquals(128, integralImage.mean(0, 0, 32, 32));
+        assertEquals(64 * 64, integralImage.variance(0, 0, 32, 32));
+        assertEquals(64, integralImage.deviation(8, 8, 8, 8));
+    }
+
+    @Test
+    public void cancelledBuildFails() {
+        final CancellationToken token = new CancellationToken();
+        token.cancel();
+        assertFalse(new IntegralImage().build(mEngine, token, TestFrames.noise(64, 64, 25)));
+    }
+
+    private static void checkRegions(final IntegralImage integralImage, final ImageFrame frame) {
+        final Random random = new Random(frame.getWidth());
+        for(int i = 0; i < 200; i++){
+            final int x = random.nextInt(frame.getWidth() + 1);
+            final int y = random.nextInt(frame.getHeight() + 1);
+            final int width = random.nextInt(frame.getWidth() - x + 1);
+            final int height = random.nextInt(frame.getHeight() - y + 1);
+            long sum = 0;
+            long sumOfSquares = 0;
+            for(int row = y; row < y + height; row++){
+                for(int col = x; col < x + width; col++){
+                    final int luma = TestFrames.luma(frame, col, row);
+                    sum += luma;
+                    sumOfSquares += luma * luma;
+                }
+            }
+            final String region = x + "," + y + " " + width + "x" + height;
+            assertEquals(region, sum, integralImage.sum(x, y, width, height));
+            assertEquals(region, sumOfSquares, integralImage.sumOfSquares(x, y, width, height));
+        }
+    }
+}
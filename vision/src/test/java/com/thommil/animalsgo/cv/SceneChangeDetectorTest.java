@@ -0,0 +1,63 @@
+package com.thommil.animalsgo.cv;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class SceneChangeDetectorTest {
+
+    private static final int SIZE = SceneChangeDetector.THUMBNAIL_SIZE;
+
+    // 30 fps
+    private static final long FRAME = 33000000L;
+
+    @Test
+    public void comparesToReference() {
+        final SceneChangeDetector detector = new SceneChangeDetector();
+        final ImageFrame scene = TestFrames.noise(SIZE, SIZE, 1);
+        assertTrue(detector.hasChanged(scene, 0));
+        detector.setReference();
+        assertFalse(detector.hasChanged(scene, FRAME));
+        assertEquals(0f, detector.getLastDifference(), 0f);
+        assertTrue(detector.hasChanged(TestFrames.noise(SIZE, SIZE, 2), 2 * FRAME));
+        assertFalse(detector.hasChanged(scene, 3 * FRAME));
+        detector.clearReference();
+        assertTrue(detector.hasChanged(scene, 4 * FRAME));
+    }
+
+    @Test
+    public void noiseFromConsecutiveFramesOnly() {
+        final SceneChangeDetector detector = new SceneChangeDetector();
+        detector.hasChanged(TestFrames.flat(SIZE, SIZE, 100), 0);
+        detector.hasChanged(TestFrames.flat(SIZE, SIZE, 102), SceneChangeDetector.NOISE_MAX_FRAME_GAP + 1);
+        assertEquals(0f, detector.getNoise(), 0f);
+        detector.hasChanged(TestFrames.flat(SIZE, SIZE, 100), SceneChangeDetector.NOISE_MAX_FRAME_GAP + 1 + FRAME);
+        assertEquals(2f, detector.getNoise(), 0f);
+        assertEquals(2f * SceneChangeDetector.DEFAULT_NOISE_FACTOR, detector.getThreshold(), 0f);
+    }
+
+    @Test
+    public void motionIsNotNoise() {
+        final SceneChangeDetector detector = new SceneChangeDetector();
+        detector.hasChanged(TestFrames.flat(SIZE, SIZE, 100), 0);
+        detector.hasChanged(TestFrames.flat(SIZE, SIZE, 160), FRAME);
+        assertEquals(0f, detector.getNoise(), 0f);
+        assertEquals(SceneChangeDetector.DEFAULT_MIN_THRESHOLD, detector.getThreshold(), 0f);
+    }
+
+    @Test
+    public void thresholdFollowsNoise() {
+        final SceneChangeDetector detector = new SceneChangeDetector();
+        detector.hasChanged(TestFrames.flat(SIZE, SIZE, 100), 0);
+        detector.setReference();
+        // 3 levels of noise raise the threshold to 9
+        for(int i = 1; i <= 8; i++){
+            detector.hasChanged(TestFrames.flat(SIZE, SIZE, (i % 2 == 0) ? 100 : 103), i * FRAME);
+        }
+        assertEquals(3f, detector.getNoise(), 0f);
+        assertFalse(detector.hasChanged(TestFrames.flat(SIZE, SIZE, 108), 9 * FRAME));
+        assertTrue(detector.hasChanged(TestFrames.flat(SIZE, SIZE, 112), 10 * FRAME));
+    }
+}
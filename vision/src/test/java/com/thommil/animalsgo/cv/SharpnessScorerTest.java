@@ -0,0 +1,97 @@
+package com.thommil.animalsgo.cv;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class SharpnessScorerTest {
+
+    @Test
+    public void varianceMatchesBruteForce() {
+        final ImageFrame frame = TestFrames.noise(67, 45, 1);
+        for(int step = 1; step <= 3; step++){
+            final SharpnessScorer scorer = new SharpnessScorer(step, SharpnessScorer.DEFAULT_HALF_SCORE_VARIANCE);
+            assertEquals("step " + step, laplacianVariance(frame, step), scorer.variance(frame));
+        }
+    }
+
+    @Test
+    public void flatFrameHasNoSharpness() {
+        final SharpnessScorer scorer = new SharpnessScorer();
+        assertEquals(0, scorer.variance(TestFrames.flat(64, 64, 128)));
+        assertEquals(0, scorer.score(TestFrames.flat(64, 64, 128)));
+    }
+
+    @Test
+    public void tooSmallFrameHasNoSharpness() {
+        final SharpnessScorer scorer = new SharpnessScorer(1, SharpnessScorer.DEFAULT_HALF_SCORE_VARIANCE);
+        assertEquals(0, scorer.variance(TestFrames.noise(2, 64, 2)));
+        assertEquals(0, scorer.variance(TestFrames.noise(64, 2, 2)));
+    }
+
+    @Test
+    public void blurLowersScore() {
+        final SharpnessScorer scorer = new SharpnessScorer(1, SharpnessScorer.DEFAULT_HALF_SCORE_VARIANCE);
+        final ImageFrame sharp = TestFrames.checkerboard(96, 96, 8);
+        final int sharpScore = scorer.score(sharp);
+        final int blurredScore = scorer.score(TestFrames.blur(sharp));
+        assertTrue(sharpScore + " <= " + blurredScore, sharpScore > blurredScore);
+    }
+
+    @Test
+    public void rgbaAndLumaGiveSameVariance() {
+        final SharpnessScorer scorer = new SharpnessScorer();
+        final ImageFrame luma = TestFrames.noise(80, 60, 3);
+        assertEquals(scorer.variance(luma), scorer.variance(TestFrames.gray(luma)));
+    }
+
+    @Test
+    public void stridedViewGivesSameVariance() {
+        final SharpnessScorer scorer = new SharpnessScorer();
+        final ImageFrame luma = TestFrames.noise(80, 60, 4);
+        assertEquals(scorer.variance(luma), scorer.variance(TestFrames.padded(luma, 13, 24)));
+    }
+
+    @Test
+    public void scoreIsMonotonicAndBounded() {
+        final SharpnessScorer scorer = new SharpnessScorer();
+        assertEquals(0, scorer.toScore(0));
+        assertEquals(50, scorer.toScore(SharpnessScorer.DEFAULT_HALF_SCORE_VARIANCE));
+        int previous = 0;
+        for(long variance = 1; variance < 1000000; variance *= 3){
+            final int score = scorer.toScore(variance);
+            assertTrue(score >= previous && score < 100);
+            previous = score;
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsInvalidStep() {
+        new SharpnessScorer(0, SharpnessScorer.DEFAULT_HALF_SCORE_VARIANCE);
+    }
+
+    // Reference : Laplacian of every inner sample of the grid, in the scorer integer arithmetic
+    private static long laplacianVariance(final ImageFrame frame, final int step) {
+        final int cols = frame.getWidth() / step;
+        final int rows = frame.getHeight() / step;
+        long sum = 0;
+        long sumSq = 0;
+        long count = 0;
+        for(int row = 1; row < rows - 1; row++){
+            for(int col = 1; col < cols - 1; col++){
+                final int laplacian = 4 * sample(frame, col, row, step) - sample(frame, col - 1, row, step)
+                        - sample(frame, col + 1, row, step) - sample(frame, col, row - 1, step) - sample(frame, col, row + 1, step);
+                sum += laplacian;
+                sumSq += (long) laplacian * laplacian;
+                count++;
+            }
+        }
+        final long mean = sum / count;
+        return Math.max(0, sumSq / count - mean * mean);
+    }
+
+    private static int sample(final ImageFrame frame, final int col, final int row, final int step) {
+        return TestFrames.luma(frame, col * step, row * step);
+    }
+}
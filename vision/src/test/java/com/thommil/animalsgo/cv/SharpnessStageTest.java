@@ -0,0 +1,87 @@
+package com.thommil.animalsgo.cv;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class SharpnessStageTest {
+
+    // Reject threshold used by the application, SNAPSHOT_SCORE_THRESHOLD + 1
+    private static final int THRESHOLD = SharpnessStage.DEFAULT_REJECT_THRESHOLD + 1;
+
+    private AnalysisEngine mEngine;
+    private ValidationFrame mFrame;
+    private final SharpnessStage mStage = new SharpnessStage(THRESHOLD);
+
+    @Before
+    public void setUp() {
+        mEngine = new AnalysisEngine(2);
+        mFrame = new ValidationFrame(mEngine);
+    }
+
+    @After
+    public void tearDown() {
+        mEngine.shutdown();
+    }
+
+    @Test
+    public void rgbaFrameKeepsSampledCalibration() {
+        // 2 pixels stripes starting at x = 1 : every other pixel alternates, 2x2 averages are flat.
+        // Laplacian is +-4 * amplitude, variance 16 * amplitude^2.
+        mFrame.set(TestFrames.gray(stripes(160, 120, 3)), null);
+        assertEquals(74, mStage.evaluate(mFrame));    // 144 -> 100 * 144 / 194
+        assertEquals(0, new SharpnessScorer(1, SharpnessScorer.DEFAULT_HALF_SCORE_VARIANCE).score(mFrame.getLevel(1)));
+
+        mFrame.set(TestFrames.gray(stripes(160, 120, 2)), null);
+        assertEquals(56, mStage.evaluate(mFrame));    // 64 -> 100 * 64 / 114
+    }
+
+    @Test
+    public void acceptancePointOnKnownFrame() {
+        final ValidationCascade cascade = new ValidationCascade().add(mStage);
+        final ValidationCascade.Result result = new ValidationCascade.Result();
+
+        mFrame.set(TestFrames.gray(stripes(160, 120, 3)), null);
+        cascade.run(mFrame, result);
+        assertEquals(ValidationCascade.OUTCOME_ACCEPTED, result.outcome);
+
+        mFrame.set(TestFrames.gray(stripes(160, 120, 2)), null);
+        cascade.run(mFrame, result);
+        assertEquals(ValidationCascade.OUTCOME_REJECTED, result.outcome);
+    }
+
+    @Test
+    public void rgbaScoreMatchesDefaultScorer() {
+        final ImageFrame frame = TestFrames.gray(TestFrames.blur(TestFrames.noise(160, 120, 40)));
+        mFrame.set(frame, null);
+        assertEquals(new SharpnessScorer().score(frame), mStage.evaluate(mFrame));
+    }
+
+    @Test
+    public void lumaFrameIsScoredAtFullResolution() {
+        final ImageFrame frame = TestFrames.blur(TestFrames.noise(80, 60, 41));
+        mFrame.set(frame, null);
+        assertEquals(new SharpnessScorer(1, SharpnessScorer.DEFAULT_HALF_SCORE_VARIANCE).score(frame), mStage.evaluate(mFrame));
+    }
+
+    @Test
+    public void stoppedFrameHasNoScore() {
+        final CancellationToken token = new CancellationToken();
+        token.cancel();
+        mFrame.set(TestFrames.gray(TestFrames.noise(160, 120, 42)), token);
+        assertEquals(ValidationStage.NO_SCORE, mStage.evaluate(mFrame));
+    }
+
+    // Vertical stripes of 2 pixels around 128, the first one is 1 pixel wide
+    private static ImageFrame stripes(final int width, final int height, final int amplitude) {
+        final ImageFrame frame = ImageFrame.allocate(width, height, FrameFormat.Y8);
+        for(int y = 0; y < height; y++){
+            for(int x = 0; x < width; x++){
+                frame.getData().put(y * width + x, (byte) (((x + 1) / 2) % 2 == 0 ? 128 + amplitude : 128 - amplitude));
+            }
+        }
+        return frame;
+    }
+}
@@ -0,0 +1,116 @@
+package com.thommil.animalsgo.cv;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Random;
+
+/**
+ * Synthetic frames used by the tests, same content for a given seed between runs.
+ */
+final class TestFrames {
+
+    private TestFrames() {}     // do not instantiate
+
+    /**
+     * @return A packed Y8 frame of uniform random samples
+     */
+    static ImageFrame noise(final int width, final int height, final long seed) {
+        final ImageFrame frame = ImageFrame.allocate(width, height, FrameFormat.Y8);
+        final Random random = new Random(seed);
+        final ByteBuffer data = frame.getData();
+        for(int i = 0; i < width * height; i++){
+            data.put(i, (byte) random.nextInt(256));
+        }
+        return frame;
+    }
+
+    /**
+     * @return A packed Y8 frame of uniform samples
+     */
+    static ImageFrame flat(final int width, final int height, final int luma) {
+        final ImageFrame frame = ImageFrame.allocate(width, height, FrameFormat.Y8);
+        final ByteBuffer data = frame.getData();
+        for(int i = 0; i < width * height; i++){
+            data.put(i, (byte) luma);
+        }
+        return frame;
+    }
+
+    /**
+     * @return A packed Y8 checkerboard of 64 and 192 cells
+     */
+    static ImageFrame checkerboard(final int width, final int height, final int cell) {
+        final ImageFrame frame = ImageFrame.allocate(width, height, FrameFormat.Y8);
+        final ByteBuffer data = frame.getData();
+        for(int y = 0; y < height; y++){
+            for(int x = 0; x < width; x++){
+                data.put(y * width + x, (byte) (((x / cell) + (y / cell)) % 2 == 0 ? 192 : 64));
+            }
+        }
+        return frame;
+    }
+
+    /**
+     * @return A packed Y8 copy of a frame smoothed by a 5x5 box filter, borders clamped
+     */
+    static ImageFrame blur(final ImageFrame src) {
+        final int width = src.getWidth();
+        final int height = src.getHeight();
+        final ImageFrame frame = ImageFrame.allocate(width, height, FrameFormat.Y8);
+        for(int y = 0; y < height; y++){
+            for(int x = 0; x < width; x++){
+                int sum = 0;
+                for(int dy = -2; dy <= 2; dy++){
+                    for(int dx = -2; dx <= 2; dx++){
+                        sum += luma(src, Math.max(0, Math.min(width - 1, x + dx)), Math.max(0, Math.min(height - 1, y + dy)));
+                    }
+                }
+                frame.getData().put(y * width + x, (byte) (sum / 25));
+            }
+        }
+        return frame;
+    }
+
+    /**
+     * @return A packed RGBA8 gray copy of a Y8 frame in native order, its luma is the source sample
+     */
+    static ImageFrame gray(final ImageFrame src) {
+        final int width = src.getWidth();
+        final int height = src.getHeight();
+        final ByteBuffer data = ByteBuffer.allocateDirect(width * height * 4).order(ByteOrder.nativeOrder());
+        for(int y = 0; y < height; y++){
+            for(int x = 0; x < width; x++){
+                final byte value = (byte) luma(src, x, y);
+                data.put(value).put(value).put(value).put((byte) 0xFF);
+            }
+        }
+        data.rewind();
+        return new ImageFrame().wrap(data, width, height, FrameFormat.RGBA8);
+    }
+
+    /**
+     * @return A copy of a Y8 frame starting at an offset with padded rows, as camera planes
+     */
+    static ImageFrame padded(final ImageFrame src, final int offset, final int padding) {
+        final int width = src.getWidth();
+        final int height = src.getHeight();
+        final int rowStride = width + padding;
+        final ByteBuffer data = ByteBuffer.allocateDirect(offset + rowStride * height);
+        for(int i = 0; i < data.capacity(); i++){
+            data.put(i, (byte) 0xA5);
+        }
+        for(int y = 0; y < height; y++){
+            for(int x = 0; x < width; x++){
+                data.put(offset + y * rowStride + x, (byte) luma(src, x, y));
+            }
+        }
+        return new ImageFrame().wrap(data, width, height, FrameFormat.Y8, offset, rowStride, 1);
+    }
+
+    /**
+     * @return The sample (x, y) of a Y8 or YUV420 frame main plane
+     */
+    static int luma(final ImageFrame frame, final int x, final int y) {
+        return frame.getData().get(frame.getOffset() + y * frame.getRowStride() + x * frame.getPixelStride()) & 0xFF;
+    }
+}
@@ -0,0 +1,206 @@
+package com.thommil.animalsgo.cv;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class ValidationCascadeTest {
+
+    private AnalysisEngine mEngine;
+    private ValidationFrame mFrame;
+    private final ValidationCascade.Result mResult = new ValidationCascade.Result();
+
+    @Before
+    public void setUp() {
+        mEngine = new AnalysisEngine(1);
+        mFrame = new ValidationFrame(mEngine);
+        mFrame.set(TestFrames.flat(16, 16, 128), null);
+    }
+
+    @After
+    public void tearDown() {
+        mEngine.shutdown();
+    }
+
+    @Test
+    public void acceptedFrameRunsAllStages() {
+        final StubStage first = new StubStage("first", 1, 80);
+        final StubStage second = new StubStage("second", 1, 60);
+        final ValidationCascade cascade = new ValidationCascade().add(first).add(second);
+        cascade.run(mFrame, mResult);
+        assertEquals(ValidationCascade.OUTCOME_ACCEPTED, mResult.outcome);
+        assertEquals(60, mResult.score);
+        assertSame(second, mResult.stage);
+        assertEquals(1, first.mRuns);
+        assertEquals(1, second.mRuns);
+    }
+
+    @Test
+    public void rejectStopsTheCascade() {
+        final StubStage first = new StubStage("first", 1, 90);
+        final StubStage rejecting = new StubStage("rejecting", 1, 20);
+        final StubStage last = new StubStage("last", 1, 90);
+        final ValidationCascade cascade = new ValidationCascade().add(first).add(rejecting).add(last);
+        cascade.run(mFrame, mResult);
+        assertEquals(ValidationCascade.OUTCOME_REJECTED, mResult.outcome);
+        assertEquals(20, mResult.score);
+        assertSame(rejecting, mResult.stage);
+        assertEquals(0, last.mRuns);
+    }
+
+    @Test
+    public void stagesKeepStatistics() {
+        final StubStage first = new StubStage("first", 1, 90);
+        final StubStage second = new StubStage("second", 1, 90);
+        final ValidationCascade cascade = new ValidationCascade().add(first).add(second);
+        for(int i = 0; i < 4; i++){
+            // Second stage rejects 3 frames out of 4
+            second.mScore = (i == 0) ? 90 : 10;
+            cascade.run(mFrame, mResult);
+        }
+        assertEquals(4, first.getEvaluatedCount());
+        assertEquals(0, first.getRejectedCount());
+        assertEquals(4, second.getEvaluatedCount());
+        assertEquals(3, second.getRejectedCount());
+        assertEquals(0.75f, second.getRejectionRate(), 0f);
+        assertEquals(0, second.getStoppedCount());
+        assertTrue(second.getAverageNanos() >= 0);
+
+        second.resetStatistics();
+        assertEquals(0, second.getEvaluatedCount());
+        assertEquals(0f, second.getRejectionRate(), 0f);
+    }
+
+    @Test
+    public void sortByEfficiencyRunsCheapRejectsFirst() {
+        final StubStage neverRejects = new StubStage("never", 1, 90);
+        final StubStage expensive = new StubStage("expensive", 8, 10);
+        final StubStage cheap = new StubStage("cheap", 2, 10);
+        final ValidationCascade cascade = new ValidationCascade().add(neverRejects).add(expensive).add(cheap);
+        for(int i = 0; i < 4; i++){
+            neverRejects.record(90, 0);
+            expensive.record(i < 2 ? 10 : 90, 0);
+            cheap.record(i < 1 ? 10 : 90, 0);
+        }
+
+        // cost / rejection rate : cheap 2 / 0.25 = 8, expensive 8 / 0.5 = 16, never rejecting last
+        cascade.sortByEfficiency();
+        assertSame(cheap, cascade.getStage(0));
+        assertSame(expensive, cascade.getStage(1));
+        assertSame(neverRejects, cascade.getStage(2));
+
+        cascade.run(mFrame, mResult);
+        assertSame(cheap, mResult.stage);
+        assertEquals(ValidationCascade.OUTCOME_REJECTED, mResult.outcome);
+    }
+
+    @Test
+    public void cancelledTokenStopsTheCascade() {
+        final CancellationToken token = new CancellationToken();
+        final StubStage cancelling = new StubStage("cancelling", 1, 90) {
+            @Override
+            protected int evaluate(final ValidationFrame frame) {
+                // Cancelled from the first run only
+                if(super.evaluate(frame) == 90 && mRuns == 1){
+                    token.cancel();
+                }
+                return 90;
+            }
+        };
+        final StubStage stopped = new StubStage("stopped", 1, 90);
+        final ValidationCascade cascade = new ValidationCascade().add(cancelling).add(stopped);
+        mFrame.set(TestFrames.flat(16, 16, 128), token);
+        cascade.run(mFrame, mResult);
+        assertEquals(ValidationCascade.OUTCOME_CANCELLED, mResult.outcome);
+        assertSame(stopped, mResult.stage);
+        assertEquals(0, stopped.mRuns);
+        assertEquals(1, cancelling.getEvaluatedCount());
+
+        // Reused token runs the whole cascade again
+        token.reset();
+        cascade.run(mFrame, mResult);
+        assertEquals(1, stopped.mRuns);
+    }
+
+    @Test
+    public void stageOverBudgetTimesOut() {
+        final CancellationToken token = new CancellationToken();
+        final StubStage slow = new StubStage("slow", 1, 90) {
+            @Override
+            protected int evaluate(final ValidationFrame frame) {
+                super.evaluate(frame);
+                // Polls the token as kernels do between stripes
+                final long end = System.nanoTime() + 200000000L;
+                while(System.nanoTime() < end){
+                    if(frame.getToken().isStopped()){
+                        return NO_SCORE;
+                    }
+                }
+                return 90;
+            }
+        };
+        slow.setBudget(1);
+        final StubStage next = new StubStage("next", 1, 90);
+        final ValidationCascade cascade = new ValidationCascade().add(slow).add(next);
+        mFrame.set(TestFrames.flat(16, 16, 128), token);
+        cascade.run(mFrame, mResult);
+        assertEquals(ValidationCascade.OUTCOME_TIMED_OUT, mResult.outcome);
+        assertSame(slow, mResult.stage);
+        assertTrue(token.isTimedOut());
+        assertFalse(token.isCancelled());
+        assertEquals(1, slow.getStoppedCount());
+        assertEquals(0, slow.getEvaluatedCount());
+        assertEquals(0, next.mRuns);
+    }
+
+    @Test
+    public void tokenBudgetIsSetPerStage() {
+        final CancellationToken token = new CancellationToken();
+        token.setBudget(1000000000L);
+        assertFalse(token.isStopped());
+        token.setBudget(1);
+        while(!token.isStopped()){
+            Thread.yield();
+        }
+        assertTrue(token.isTimedOut());
+        // Timed out until reset
+        token.setBudget(0);
+        assertTrue(token.isStopped());
+        token.reset();
+        assertFalse(token.isStopped());
+
+        // A stage without budget is not bound by the previous stage one
+        final StubStage budgeted = new StubStage("budgeted", 1, 90);
+        budgeted.setBudget(1000);
+        final StubStage unbounded = new StubStage("unbounded", 1, 90);
+        final ValidationCascade cascade = new ValidationCascade().add(budgeted).add(unbounded);
+        mFrame.set(TestFrames.flat(16, 16, 128), token);
+        cascade.run(mFrame, mResult);
+        assertEquals(ValidationCascade.OUTCOME_ACCEPTED, mResult.outcome);
+        assertEquals(1000000000L, budgeted.getBudgetNanos());
+        assertEquals(0, unbounded.getBudgetNanos());
+    }
+
+    // Stage returning a fixed score and counting its runs
+    private static class StubStage extends ValidationStage {
+
+        int mScore;
+        int mRuns;
+
+        StubStage(final String name, final int cost, final int score) {
+            super(name, cost, 50);
+            mScore = score;
+        }
+
+        @Override
+        protected int evaluate(final ValidationFrame frame) {
+            mRuns++;
+            return mScore;
+        }
+    }
+}
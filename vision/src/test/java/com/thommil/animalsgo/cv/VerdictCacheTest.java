@@ -0,0 +1,118 @@
+package com.thommil.animalsgo.cv;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class VerdictCacheTest {
+
+    private static final int MEAN = 128;
+    private static final long VARIANCE = 1000;
+    private static final long NOW = 1000000000L;
+
+    @Test
+    public void hitsWithinDistance() {
+        final VerdictCache cache = new VerdictCache(4, 2, VerdictCache.DEFAULT_MAX_AGE_MS);
+        put(cache, 0xF0L, 1, 80);
+        assertTrue(lookup(cache, 0xF3L));
+        assertEquals(1, cache.getOutcome());
+        assertEquals(80, cache.getScore());
+        assertFalse(lookup(cache, 0xF7L));
+        assertEquals(1, cache.getHits());
+        assertEquals(1, cache.getMisses());
+    }
+
+    @Test
+    public void closestEntryWins() {
+        final VerdictCache cache = new VerdictCache(4, 4, VerdictCache.DEFAULT_MAX_AGE_MS);
+        put(cache, 0x0FL, 1, 10);
+        put(cache, 0x07L, 2, 20);
+        assertTrue(lookup(cache, 0x03L));
+        assertEquals(20, cache.getScore());
+    }
+
+    @Test
+    public void evictsLeastRecentlyUsed() {
+        final VerdictCache cache = new VerdictCache(2, 0, VerdictCache.DEFAULT_MAX_AGE_MS);
+        put(cache, 1L, 1, 1);
+        put(cache, 2L, 1, 2);
+        assertTrue(lookup(cache, 1L));
+        put(cache, 4L, 1, 4);
+        assertTrue(lookup(cache, 1L));
+        assertFalse(lookup(cache, 2L));
+        assertTrue(lookup(cache, 4L));
+    }
+
+    @Test
+    public void clearDropsEntries() {
+        final VerdictCache cache = new VerdictCache();
+        put(cache, 42L, 1, 1);
+        cache.clear();
+        assertFalse(lookup(cache, 42L));
+    }
+
+    @Test
+    public void oldEntriesDoNotMatch() {
+        final VerdictCache cache = new VerdictCache(4, 0, 100);
+        put(cache, 42L, 1, 1);
+        assertTrue(cache.lookup(42L, MEAN, VARIANCE, NOW + 100000000L));
+        assertFalse(cache.lookup(42L, MEAN, VARIANCE, NOW + 100000001L));
+    }
+
+    @Test
+    public void exposureChangeDoesNotMatch() {
+        final VerdictCache cache = new VerdictCache();
+        put(cache, 42L, 1, 1);
+        assertTrue(cache.lookup(42L, MEAN - VerdictCache.MEAN_TOLERANCE, VARIANCE, NOW));
+        assertTrue(cache.lookup(42L, MEAN + VerdictCache.MEAN_TOLERANCE, VARIANCE, NOW));
+        assertFalse(cache.lookup(42L, MEAN + VerdictCache.MEAN_TOLERANCE + 1, VARIANCE, NOW));
+    }
+
+    @Test
+    public void sharpnessLossDoesNotMatch() {
+        final VerdictCache cache = new VerdictCache();
+        put(cache, 42L, 1, 1);
+        assertTrue(cache.lookup(42L, MEAN, 4 * VARIANCE, NOW));
+        assertTrue(cache.lookup(42L, MEAN, VARIANCE * (100 - VerdictCache.MAX_SHARPNESS_LOSS) / 100, NOW));
+        assertFalse(cache.lookup(42L, MEAN, VARIANCE * (100 - VerdictCache.MAX_SHARPNESS_LOSS) / 100 - 1, NOW));
+    }
+
+    @Test
+    public void blurredCopyOfAcceptedFrameDoesNotMatch() {
+        final AnalysisEngine engine = new AnalysisEngine(1);
+        final ValidationFrame frame = new ValidationFrame(engine);
+        final DHash dHash = new DHash();
+        final SharpnessScorer scorer = new SharpnessScorer(1, SharpnessScorer.DEFAULT_HALF_SCORE_VARIANCE);
+        final VerdictCache cache = new VerdictCache();
+
+        // Accepted frame, hashed and measured on the hash pyramid level as the validator does
+        final ImageFrame sharp = TestFrames.checkerboard(320, 240, 6);
+        frame.set(TestFrames.gray(sharp), null);
+        ImageFrame level = frame.getLevel(DHash.SAMPLES_WIDTH, DHash.SAMPLES_HEIGHT);
+        final long hash = dHash.compute(level);
+        cache.put(hash, ValidationCascade.OUTCOME_ACCEPTED, 90, frame.getHistogram().mean(), scorer.variance(level), NOW);
+
+        // Same scene and hash, exposure unchanged, blurred
+        frame.set(TestFrames.gray(TestFrames.blur(sharp)), null);
+        level = frame.getLevel(DHash.SAMPLES_WIDTH, DHash.SAMPLES_HEIGHT);
+        final long blurredHash = dHash.compute(level);
+        assertTrue(DHash.distance(hash, blurredHash) <= VerdictCache.DEFAULT_MAX_DISTANCE);
+        assertFalse(cache.lookup(blurredHash, frame.getHistogram().mean(), scorer.variance(level), NOW));
+
+        // The accepted frame itself still matches
+        frame.set(TestFrames.gray(sharp), null);
+        level = frame.getLevel(DHash.SAMPLES_WIDTH, DHash.SAMPLES_HEIGHT);
+        assertTrue(cache.lookup(dHash.compute(level), frame.getHistogram().mean(), scorer.variance(level), NOW));
+        engine.shutdown();
+    }
+
+    private static void put(final VerdictCache cache, final long hash, final int outcome, final int score) {
+        cache.put(hash, outcome, score, MEAN, VARIANCE, NOW);
+    }
+
+    private static boolean lookup(final VerdictCache cache, final long hash) {
+        return cache.lookup(hash, MEAN, VARIANCE, NOW);
+    }
+}
@@ -0,0 +1,250 @@
+package com.thommil.animalsgo.cv;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+public class YuvConverterTest {
+
+    // Y, U, V then R, G, B from the OpenCV YUV420 to RGB fixed-point formula (ITUR_BT_601_* coefficients)
+    private static final int[][] VECTORS = {
+            {16, 128, 128, 0, 0, 0},
+            {235, 128, 128, 255, 255, 255},
+            {126, 128, 128, 128, 128, 128},
+            {81, 90, 240, 254, 0, 0},
+            {145, 54, 34, 0, 255, 1},
+            {41, 240, 110, 0, 0, 255},
+            {0, 0, 0, 0, 154, 0},
+            {255, 255, 255, 255, 125, 255},
+            {200, 20, 230, 255, 173, 0},
+    };
+
+    private AnalysisEngine mEngine;
+    private AnalysisEngine mParallelEngine;
+
+    @Before
+    public void setUp() {
+        mEngine = new AnalysisEngine(1);
+        mParallelEngine = new AnalysisEngine(4);
+    }
+
+    @After
+    public void tearDown() {
+        mEngine.shutdown();
+        mParallelEngine.shutdown();
+    }
+
+    @Test
+    public void rgbaMatchesOpenCvVectors() {
+        final YuvConverter converter = new YuvConverter();
+        for(final ByteOrder order : new ByteOrder[]{ByteOrder.BIG_ENDIAN, ByteOrder.LITTLE_ENDIAN}){
+            for(final int[] vector : VECTORS){
+                final Yuv yuv = new Yuv(2, 2);
+                yuv.fill(vector[0], vector[1], vector[2]);
+                converter.setSource(yuv.toI420());
+                final ImageFrame rgba = rgba(2, 2, order);
+                converter.toRgba(mEngine, rgba);
+                for(int pixel = 0; pixel < 4; pixel++){
+                    final String message = "YUV " + vector[0] + "," + vector[1] + "," + vector[2] + " " + order;
+                    assertEquals(message, vector[3], rgba.getData().get(4 * pixel) & 0xFF);
+                    assertEquals(message, vector[4], rgba.getData().get(4 * pixel + 1) & 0xFF);
+                    assertEquals(message, vector[5], rgba.getData().get(4 * pixel + 2) & 0xFF);
+                    assertEquals(message, 0xFF, rgba.getData().get(4 * pixel + 3) & 0xFF);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void layoutsGiveSameRgba() {
+        final Yuv yuv = Yuv.random(33, 17, 11);
+        final YuvConverter converter = new YuvConverter();
+        converter.setSource(yuv.toI420());
+        final byte[] expected = toRgba(converter, mEngine, 33, 17);
+
+        converter.setNv21(yuv.toNv21(), 33, 17);
+        assertArrayEquals("NV21", expected, toRgba(converter, mEngine, 33, 17));
+
+        converter.setYv12(yuv.toYv12(), 33, 17);
+        assertArrayEquals("YV12", expected, toRgba(converter, mEngine, 33, 17));
+
+        final ByteBuffer uv = yuv.toInterleavedChroma(40);
+        uv.position(1);
+        final ByteBuffer v = uv.slice();
+        uv.position(0);
+        converter.setYuv420888(yuv.toYPlane(48), 48, uv, v, 40, 2, 33, 17);
+        assertArrayEquals("YUV_420_888", expected, toRgba(converter, mEngine, 33, 17));
+    }
+
+    @Test
+    public void rgbaMatchesPerPixelReference() {
+        final Yuv yuv = Yuv.random(21, 13, 12);
+        final YuvConverter converter = new YuvConverter();
+        converter.setSource(yuv.toI420());
+        final byte[] rgba = toRgba(converter, mEngine, 21, 13);
+        final YuvConverter pixelConverter = new YuvConverter();
+        for(int y = 0; y < 13; y++){
+            for(int x = 0; x < 21; x++){
+                final Yuv pixel = new Yuv(1, 1);
+                pixel.fill(yuv.y[y * 21 + x], yuv.u[(y / 2) * 11 + x / 2], yuv.v[(y / 2) * 11 + x / 2]);
+                pixelConverter.setSource(pixel.toI420());
+                final byte[] expected = toRgba(pixelConverter, mEngine, 1, 1);
+                for(int c = 0; c < 4; c++){
+                    assertEquals(expected[c], rgba[4 * (y * 21 + x) + c]);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void parallelRgbaEqualsSerialRgba() {
+        final Yuv yuv = Yuv.random(160, 250, 13);
+        final YuvConverter converter = new YuvConverter();
+        converter.setNv21(yuv.toNv21(), 160, 250);
+        assertArrayEquals(toRgba(converter, mEngine, 160, 250), toRgba(converter, mParallelEngine, 160, 250));
+    }
+
+    @Test
+    public void lumaCopiesYPlane() {
+        final Yuv yuv = Yuv.random(37, 23, 14);
+        final YuvConverter converter = new YuvConverter();
+        converter.setYuv420888(yuv.toYPlane(64), 64, yuv.toInterleavedChroma(38), yuv.toInterleavedChroma(38), 38, 2, 37, 23);
+        final ImageFrame luma = ImageFrame.allocate(37, 23, FrameFormat.Y8);
+        converter.toLuma(mParallelEngine, luma);
+        for(int i = 0; i < 37 * 23; i++){
+            assertEquals(yuv.y[i], luma.getData().get(i) & 0xFF);
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsWrongDestinationSize() {
+        final YuvConverter converter = new YuvConverter();
+        converter.setSource(new Yuv(4, 4).toI420());
+        converter.toRgba(mEngine, ImageFrame.allocate(4, 2, FrameFormat.RGBA8));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void rejectsMissingSource() {
+        new YuvConverter().toLuma(mEngine, ImageFrame.allocate(4, 4, FrameFormat.Y8));
+    }
+
+    private static ImageFrame rgba(final int width, final int height, final ByteOrder order) {
+        final ByteBuffer data = ByteBuffer.allocateDirect(width * height * 4).order(order);
+        return new ImageFrame().wrap(data, width, height, FrameFormat.RGBA8);
+    }
+
+    private static byte[] toRgba(final YuvConverter converter, final AnalysisEngine engine, final int width, final int height) {
+        final ImageFrame frame = rgba(width, height, ByteOrder.nativeOrder());
+        converter.toRgba(engine, frame);
+        final byte[] pixels = new byte[width * height * 4];
+        frame.getData().get(pixels);
+        return pixels;
+    }
+
+    // Samples of a 4:2:0 frame, written in the different layouts
+    private static class Yuv {
+
+        final int width;
+        final int height;
+        final int chromaWidth;
+        final int chromaHeight;
+        final int[] y;
+        final int[] u;
+        final int[] v;
+
+        Yuv(final int width, final int height) {
+            this.width = width;
+            this.height = height;
+            chromaWidth = (width + 1) / 2;
+            chromaHeight = (height + 1) / 2;
+            y = new int[width * height];
+            u = new int[chromaWidth * chromaHeight];
+            v = new int[chromaWidth * chromaHeight];
+        }
+
+        static Yuv random(final int width, final int height, final long seed) {
+            final Yuv yuv = new Yuv(width, height);
+            final Random random = new Random(seed);
+            for(int i = 0; i < yuv.y.length; i++){
+                yuv.y[i] = random.nextInt(256);
+            }
+            for(int i = 0; i < yuv.u.length; i++){
+                yuv.u[i] = random.nextInt(256);
+                yuv.v[i] = random.nextInt(256);
+            }
+            return yuv;
+        }
+
+        void fill(final int luma, final int cb, final int cr) {
+            Arrays.fill(y, luma);
+            Arrays.fill(u, cb);
+            Arrays.fill(v, cr);
+        }
+
+        ImageFrame toI420() {
+            final ImageFrame frame = ImageFrame.allocate(width, height, FrameFormat.YUV420);
+            final ByteBuffer data = frame.getData();
+            putPlane(data, 0, width, y, width, height);
+            putPlane(data, width * height, chromaWidth, u, chromaWidth, chromaHeight);
+            putPlane(data, width * height + u.length, chromaWidth, v, chromaWidth, chromaHeight);
+            return frame;
+        }
+
+        ByteBuffer toNv21() {
+            final ByteBuffer data = ByteBuffer.allocateDirect(width * height + 2 * u.length);
+            putPlane(data, 0, width, y, width, height);
+            for(int i = 0; i < u.length; i++){
+                data.put(width * height + 2 * i, (byte) v[i]);
+                data.put(width * height + 2 * i + 1, (byte) u[i]);
+            }
+            return data;
+        }
+
+        ByteBuffer toYv12() {
+            final int yRowStride = (width + 15) & ~15;
+            final int chromaRowStride = ((yRowStride / 2) + 15) & ~15;
+            final int ySize = yRowStride * height;
+            final int chromaSize = chromaRowStride * chromaHeight;
+            final ByteBuffer data = ByteBuffer.allocateDirect(ySize + 2 * chromaSize);
+            putPlane(data, 0, yRowStride, y, width, height);
+            putPlane(data, ySize, chromaRowStride, v, chromaWidth, chromaHeight);
+            putPlane(data, ySize + chromaSize, chromaRowStride, u, chromaWidth, chromaHeight);
+            return data;
+        }
+
+        ByteBuffer toYPlane(final int rowStride) {
+            final ByteBuffer data = ByteBuffer.allocateDirect(rowStride * height);
+            putPlane(data, 0, rowStride, y, width, height);
+            return data;
+        }
+
+        // U then V samples, as the U plane of a semi-planar YUV_420_888 image
+        ByteBuffer toInterleavedChroma(final int rowStride) {
+            final ByteBuffer data = ByteBuffer.allocateDirect(rowStride * chromaHeight);
+            for(int row = 0; row < chromaHeight; row++){
+                for(int col = 0; col < chromaWidth; col++){
+                    data.put(row * rowStride + 2 * col, (byte) u[row * chromaWidth + col]);
+                    data.put(row * rowStride + 2 * col + 1, (byte) v[row * chromaWidth + col]);
+                }
+            }
+            return data;
+        }
+
+        private static void putPlane(final ByteBuffer data, final int offset, final int rowStride,
+                                     final int[] samples, final int width, final int height) {
+            for(int row = 0; row < height; row++){
+                for(int col = 0; col < width; col++){
+                    data.put(offset + row * rowStride + col, (byte) samples[row * width + col]);
+                }
+            }
+        }
+    }
+}